@@ -0,0 +1,318 @@
+package org.superjoin.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.superjoin.config.IngestionProperties;
+import org.superjoin.dto.AnalyzedSheet;
+import org.superjoin.graph.GraphClient;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.superjoin.graph.GraphClient.parameters;
+
+/**
+ * Loads a whole spreadsheet from CSV files instead of parameterised statements. Analysed sheets are
+ * streamed into sheet, formula group, cell, dependency and range files on local disk, which the database then reads with
+ * {@code LOAD CSV} committing every {@code commitSize} rows. The statements mirror the batched
+ * Cypher in {@code KnowledgeGraphService}, so both paths produce the same graph.
+ */
+@Slf4j
+@Component
+public class BulkCsvLoader {
+
+    private static final List<String> SHEET_COLUMNS = List.of("spreadsheetId", "id", "name");
+
+    private static final List<String> TABLE_COLUMNS = List.of("spreadsheetId", "sheet", "id", "range", "firstColumn",
+            "firstRow", "lastColumn", "lastRow", "headerRow", "totalRow", "cellCount");
+
+    private static final List<String> COLUMN_COLUMNS = List.of("spreadsheetId", "sheet", "table", "index", "name",
+            "header", "headerRow", "totalRow", "dataType", "count", "distinctCount", "min", "max", "idRatio",
+            "semanticLabel");
+
+    private static final List<String> FORMULA_GROUP_COLUMNS = List.of("spreadsheetId", "sheet", "id", "r1c1", "formula",
+            "formulaType", "anchorColumn", "anchorRow");
+
+    private static final List<String> CELL_COLUMNS = List.of("spreadsheetId", "sheet", "id", "value", "formulaGroup",
+            "groupColumnOffset", "groupRowOffset", "formulaType", "dataType", "numericValue", "booleanValue", "dateValue",
+            "semanticLabel", "column", "table", "fingerprint", "formulaHash");
+
+    private static final List<String> DEPENDENCY_COLUMNS = List.of("spreadsheetId", "sheet", "targetId", "sourceSheet",
+            "sourceId");
+
+    private static final List<String> RANGE_COLUMNS = List.of("spreadsheetId", "sheet", "targetId", "rangeSheet",
+            "rangeId", "firstColumn", "firstRow", "lastColumn", "lastRow");
+
+    private static final String LOAD_SHEETS_CYPHER =
+            "LOAD CSV WITH HEADERS FROM $url AS row\n" +
+                    "CALL {\n" +
+                    "    WITH row\n" +
+                    "    MERGE (s:Sheet {spreadsheetId: row.spreadsheetId, name: row.name})\n" +
+                    "    SET s.id = row.id\n" +
+                    "} IN TRANSACTIONS OF $commitSize ROWS";
+
+    private static final String LOAD_TABLES_CYPHER =
+            "LOAD CSV WITH HEADERS FROM $url AS row\n" +
+                    "CALL {\n" +
+                    "    WITH row\n" +
+                    "    MATCH (s:Sheet {spreadsheetId: row.spreadsheetId, name: row.sheet})\n" +
+                    "    MERGE (t:Table {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.id})\n" +
+                    "    SET t.range = row.range, t.firstColumn = toInteger(row.firstColumn),\n" +
+                    "        t.firstRow = toInteger(row.firstRow), t.lastColumn = toInteger(row.lastColumn),\n" +
+                    "        t.lastRow = toInteger(row.lastRow), t.headerRow = toInteger(row.headerRow),\n" +
+                    "        t.totalRow = toInteger(row.totalRow), t.cellCount = toInteger(row.cellCount)\n" +
+                    "    MERGE (s)-[:HAS_TABLE]->(t)\n" +
+                    "} IN TRANSACTIONS OF $commitSize ROWS";
+
+    private static final String LOAD_COLUMNS_CYPHER =
+            "LOAD CSV WITH HEADERS FROM $url AS row\n" +
+                    "CALL {\n" +
+                    "    WITH row\n" +
+                    "    MATCH (t:Table {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.table})\n" +
+                    "    MERGE (col:Column {spreadsheetId: row.spreadsheetId, sheet: row.sheet, table: row.table,\n" +
+                    "        index: toInteger(row.index)})\n" +
+                    "    SET col.name = row.name, col.header = row.header, col.headerRow = toInteger(row.headerRow),\n" +
+                    "        col.totalRow = toInteger(row.totalRow), col.dataType = row.dataType,\n" +
+                    "        col.count = toInteger(row.count), col.distinctCount = toInteger(row.distinctCount),\n" +
+                    "        col.min = toFloat(row.min), col.max = toFloat(row.max), col.idRatio = toFloat(row.idRatio),\n" +
+                    "        col.semanticLabel = row.semanticLabel\n" +
+                    "    MERGE (t)-[:HAS_COLUMN]->(col)\n" +
+                    "} IN TRANSACTIONS OF $commitSize ROWS";
+
+    private static final String LOAD_FORMULA_GROUPS_CYPHER =
+            "LOAD CSV WITH HEADERS FROM $url AS row\n" +
+                    "CALL {\n" +
+                    "    WITH row\n" +
+                    "    MERGE (g:FormulaGroup {spreadsheetId: row.spreadsheetId, id: toInteger(row.id)})\n" +
+                    "    ON CREATE SET g.sheet = row.sheet, g.r1c1 = row.r1c1, g.formula = row.formula,\n" +
+                    "        g.formulaType = row.formulaType, g.anchorColumn = toInteger(row.anchorColumn),\n" +
+                    "        g.anchorRow = toInteger(row.anchorRow)\n" +
+                    "} IN TRANSACTIONS OF $commitSize ROWS";
+
+    private static final String LOAD_CELLS_CYPHER =
+            "LOAD CSV WITH HEADERS FROM $url AS row\n" +
+                    "CALL {\n" +
+                    "    WITH row\n" +
+                    "    CREATE (c:Cell {\n" +
+                    "        id: row.id,\n" +
+                    "        spreadsheetId: row.spreadsheetId,\n" +
+                    "        value: row.value,\n" +
+                    "        formulaGroup: toInteger(row.formulaGroup),\n" +
+                    "        groupColumnOffset: toInteger(row.groupColumnOffset),\n" +
+                    "        groupRowOffset: toInteger(row.groupRowOffset),\n" +
+                    "        formulaType: row.formulaType,\n" +
+                    "        dataType: row.dataType,\n" +
+                    "        numericValue: toFloat(row.numericValue),\n" +
+                    "        booleanValue: toBoolean(row.booleanValue),\n" +
+                    "        dateValue: date(row.dateValue),\n" +
+                    "        semanticLabel: row.semanticLabel,\n" +
+                    "        sheet: row.sheet,\n" +
+                    "        column: toInteger(row.column),\n" +
+                    "        fingerprint: toInteger(row.fingerprint),\n" +
+                    "        formulaHash: toInteger(row.formulaHash),\n" +
+                    "        table: row.table\n" +
+                    "    })\n" +
+                    "    WITH c, row\n" +
+                    "    MATCH (col:Column {spreadsheetId: row.spreadsheetId, sheet: row.sheet, table: row.table,\n" +
+                    "        index: toInteger(row.column)})\n" +
+                    "    CREATE (col)-[:CONTAINS]->(c)\n" +
+                    "} IN TRANSACTIONS OF $commitSize ROWS";
+
+    private static final String LOAD_DEPENDENCIES_CYPHER =
+            "LOAD CSV WITH HEADERS FROM $url AS row\n" +
+                    "CALL {\n" +
+                    "    WITH row\n" +
+                    "    MATCH (target:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.targetId})\n" +
+                    "    MATCH (source:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sourceSheet, id: row.sourceId})\n" +
+                    "    MERGE (target)-[:DEPENDS_ON]->(source)\n" +
+                    "} IN TRANSACTIONS OF $commitSize ROWS";
+
+    private static final String LOAD_RANGES_CYPHER =
+            "LOAD CSV WITH HEADERS FROM $url AS row\n" +
+                    "CALL {\n" +
+                    "    WITH row\n" +
+                    "    MATCH (target:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.targetId})\n" +
+                    "    MERGE (r:Range {spreadsheetId: row.spreadsheetId, sheet: row.rangeSheet, id: row.rangeId})\n" +
+                    "    ON CREATE SET r.firstColumn = toInteger(row.firstColumn), r.firstRow = toInteger(row.firstRow),\n" +
+                    "        r.lastColumn = toInteger(row.lastColumn), r.lastRow = toInteger(row.lastRow)\n" +
+                    "    MERGE (target)-[:DEPENDS_ON]->(r)\n" +
+                    "} IN TRANSACTIONS OF $commitSize ROWS";
+
+    @Autowired
+    private IngestionProperties ingestionProperties;
+
+    @Autowired
+    private GraphClient graphClient;
+
+    public boolean shouldUse(String spreadsheetId, long cellCount) {
+        IngestionProperties.Bulk bulk = ingestionProperties.getBulk();
+        return bulk.isEnabled() && spreadsheetId != null && cellCount >= bulk.getThresholdCells();
+    }
+
+    public BulkLoad open(String spreadsheetId) {
+        IngestionProperties.Bulk bulk = ingestionProperties.getBulk();
+        try {
+            Path directory = Path.of(bulk.getDirectory());
+            Files.createDirectories(directory);
+            return new BulkLoad(spreadsheetId, directory, UUID.randomUUID().toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot prepare bulk load directory " + bulk.getDirectory(), e);
+        }
+    }
+
+    /**
+     * One spreadsheet's CSV files. Sheets are appended with {@link #writeSheet}, {@link #load()}
+     * reads them into the spreadsheet's (emptied) partition, and closing the load removes the files.
+     */
+    public class BulkLoad implements AutoCloseable {
+        private final String spreadsheetId;
+        private final CsvFile sheets;
+        private final CsvFile tables;
+        private final CsvFile columns;
+        private final CsvFile formulaGroups;
+        private final CsvFile cells;
+        private final CsvFile dependencies;
+        private final CsvFile ranges;
+
+        private BulkLoad(String spreadsheetId, Path directory, String prefix) throws IOException {
+            this.spreadsheetId = spreadsheetId;
+            this.sheets = new CsvFile(directory.resolve(prefix + "-sheets.csv"), SHEET_COLUMNS);
+            this.tables = new CsvFile(directory.resolve(prefix + "-tables.csv"), TABLE_COLUMNS);
+            this.columns = new CsvFile(directory.resolve(prefix + "-columns.csv"), COLUMN_COLUMNS);
+            this.formulaGroups = new CsvFile(directory.resolve(prefix + "-formula-groups.csv"), FORMULA_GROUP_COLUMNS);
+            this.cells = new CsvFile(directory.resolve(prefix + "-cells.csv"), CELL_COLUMNS);
+            this.dependencies = new CsvFile(directory.resolve(prefix + "-dependencies.csv"), DEPENDENCY_COLUMNS);
+            this.ranges = new CsvFile(directory.resolve(prefix + "-ranges.csv"), RANGE_COLUMNS);
+        }
+
+        public void writeSheet(AnalyzedSheet sheet) {
+            sheets.append(parameters("spreadsheetId", spreadsheetId, "id", sheet.getId(), "name", sheet.getName()));
+            sheet.getTableRows().forEach(tables::append);
+            sheet.getColumnRows().forEach(columns::append);
+            sheet.getFormulaGroupRows().forEach(formulaGroups::append);
+            sheet.getCellRows().forEach(cells::append);
+            sheet.getDependencyRows().forEach(dependencies::append);
+            sheet.getRangeRows().forEach(ranges::append);
+        }
+
+        /**
+         * Loads sheets, tables, columns, formula groups, cells and then dependencies and ranges.
+         *
+         * @return the number of cells loaded
+         */
+        public long load() {
+            sheets.finish();
+            tables.finish();
+            columns.finish();
+            formulaGroups.finish();
+            cells.finish();
+            dependencies.finish();
+            ranges.finish();
+
+            int commitSize = Math.max(1, ingestionProperties.getBulk().getCommitSize());
+            long start = System.currentTimeMillis();
+            graphClient.write(LOAD_SHEETS_CYPHER, parameters("url", url(sheets), "commitSize", commitSize));
+            graphClient.write(LOAD_TABLES_CYPHER, parameters("url", url(tables), "commitSize", commitSize));
+            graphClient.write(LOAD_COLUMNS_CYPHER, parameters("url", url(columns), "commitSize", commitSize));
+            graphClient.write(LOAD_FORMULA_GROUPS_CYPHER, parameters("url", url(formulaGroups), "commitSize", commitSize));
+            graphClient.write(LOAD_CELLS_CYPHER, parameters("url", url(cells), "commitSize", commitSize));
+            graphClient.write(LOAD_DEPENDENCIES_CYPHER, parameters("url", url(dependencies), "commitSize", commitSize));
+            graphClient.write(LOAD_RANGES_CYPHER, parameters("url", url(ranges), "commitSize", commitSize));
+            log.info("Bulk loaded {} cells in {} formula groups, {} dependencies and {} range references of {} in {} ms",
+                    cells.rows, formulaGroups.rows, dependencies.rows, ranges.rows, spreadsheetId,
+                    System.currentTimeMillis() - start);
+            return cells.rows;
+        }
+
+        private String url(CsvFile file) {
+            return ingestionProperties.getBulk().getUrlPrefix() + file.path.getFileName();
+        }
+
+        @Override
+        public void close() {
+            sheets.delete();
+            tables.delete();
+            columns.delete();
+            formulaGroups.delete();
+            cells.delete();
+            dependencies.delete();
+            ranges.delete();
+        }
+    }
+
+    /**
+     * Minimal RFC 4180 writer. Strings are always quoted so that an empty string stays distinct
+     * from a missing value, which is written as an empty unquoted field and read back as null.
+     * Quotes are doubled and backslashes doubled too: Neo4j reads {@code \"} inside a quoted field
+     * as an escaped quote while {@code dbms.import.csv.legacy_quote_escaping} is true, its default,
+     * so text ending in a backslash would otherwise swallow the closing quote. The embedded database
+     * sets it explicitly; a server must keep the default, or backslashes are read back doubled.
+     */
+    private static final class CsvFile {
+        private final Path path;
+        private final List<String> columns;
+        private BufferedWriter writer;
+        private long rows;
+
+        private CsvFile(Path path, List<String> columns) throws IOException {
+            this.path = path;
+            this.columns = columns;
+            this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+            writer.write(String.join(",", columns));
+            writer.write('\n');
+        }
+
+        private void append(Map<String, Object> row) {
+            try {
+                for (int i = 0; i < columns.size(); i++) {
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    Object value = row.get(columns.get(i));
+                    if (value instanceof String) {
+                        writer.write('"');
+                        writer.write(((String) value).replace("\\", "\\\\").replace("\"", "\"\""));
+                        writer.write('"');
+                    } else if (value != null) {
+                        writer.write(value.toString());
+                    }
+                }
+                writer.write('\n');
+                rows++;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write " + path, e);
+            }
+        }
+
+        private void finish() {
+            try {
+                if (writer != null) {
+                    writer.close();
+                    writer = null;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write " + path, e);
+            }
+        }
+
+        private void delete() {
+            try {
+                finish();
+            } finally {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    log.warn("Could not delete bulk load file {}", path, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.superjoin.component;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.superjoin.graph.GraphClient;
+import org.superjoin.graph.GraphRecord;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.superjoin.graph.GraphClient.parameters;
+
+/**
+ * Remembers, per spreadsheet, a content fingerprint of every cell that was last written to the graph.
+ * The fingerprints are also stored on the Cell nodes so they survive a restart.
+ */
+@Component
+public class CellFingerprintStore {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    @Autowired
+    private GraphClient graphClient;
+
+    private final Map<String, Map<String, Fingerprint>> fingerprints = new ConcurrentHashMap<>();
+
+    public Map<String, Fingerprint> get(String spreadsheetId) {
+        Map<String, Fingerprint> cached = fingerprints.get(spreadsheetId);
+        if (cached != null) {
+            return cached;
+        }
+
+        Map<String, Fingerprint> loaded = new HashMap<>();
+        List<GraphRecord> records = graphClient.read("MATCH (c:Cell {spreadsheetId: $spreadsheetId}) " +
+                        "RETURN c.sheet AS sheet, c.id AS id, c.fingerprint AS fingerprint, c.formulaHash AS formulaHash",
+                parameters("spreadsheetId", spreadsheetId));
+        for (GraphRecord record : records) {
+            loaded.put(key(record.getString("sheet"), record.getString("id")),
+                    new Fingerprint(record.getLong("fingerprint", 0L), record.getLong("formulaHash", 0L)));
+        }
+        return loaded;
+    }
+
+    public void put(String spreadsheetId, Map<String, Fingerprint> cellFingerprints) {
+        fingerprints.put(spreadsheetId, cellFingerprints);
+    }
+
+    public void evict(String spreadsheetId) {
+        fingerprints.remove(spreadsheetId);
+    }
+
+    public static String key(String sheet, String address) {
+        return sheet + "!" + address;
+    }
+
+    // The data type depends on the configured locale, so a locale change rewrites the cells it reclassifies;
+    // the table is included so that cells moving to another table are relinked
+    public static Fingerprint fingerprint(String value, String formula, String semanticLabel, String dataType,
+                                          String table) {
+        long content = hash(hash(hash(hash(hash(FNV_OFFSET_BASIS, value), formula), semanticLabel), dataType), table);
+        return new Fingerprint(content, hash(FNV_OFFSET_BASIS, formula));
+    }
+
+    // 64-bit FNV-1a; a null marker keeps null and "" apart
+    private static long hash(long h, String s) {
+        if (s == null) {
+            h ^= 0xff;
+            return h * FNV_PRIME;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            h ^= (c & 0xff);
+            h *= FNV_PRIME;
+            h ^= (c >>> 8);
+            h *= FNV_PRIME;
+        }
+        // Field separator
+        h ^= 0x1f;
+        return h * FNV_PRIME;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Fingerprint {
+        private final long content;
+        private final long formula;
+    }
+}
@@ -2,70 +2,107 @@ package org.superjoin.component;
 
 import org.springframework.stereotype.Component;
 import org.superjoin.constants.FormulaType;
+import org.superjoin.formula.CellRef;
+import org.superjoin.formula.FormulaCache;
+import org.superjoin.formula.FormulaParser;
+import org.superjoin.formula.FormulaR1C1;
+import org.superjoin.formula.ParsedFormula;
+import org.superjoin.formula.RangeRef;
+import org.superjoin.formula.SharedFormula;
+import org.superjoin.formula.SheetNames;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 @Component
 public class FormulaAnalyzer {
 
-    private static final Pattern CELL_REFERENCE_PATTERN =
-            Pattern.compile("([A-Z]+[0-9]+|[A-Z]+:[A-Z]+[0-9]+:[0-9]+)");
+    private static final int CACHE_SIZE = 20_000;
 
-    public List<String> extractDependencies(String formula) {
-        List<String> dependencies = new ArrayList<>();
+    private final FormulaCache<ParsedFormula> cache = new FormulaCache<>(CACHE_SIZE);
 
-        if (formula == null || formula.isEmpty()) {
-            return dependencies;
-        }
-
-        // Remove leading = if present
-        String cleanFormula = formula.startsWith("=") ? formula.substring(1) : formula;
+    // Keyed by relative R1C1 text, so all copies of a dragged formula share one entry
+    private final FormulaCache<SharedFormula> sharedCache = new FormulaCache<>(CACHE_SIZE);
 
-        Matcher matcher = CELL_REFERENCE_PATTERN.matcher(cleanFormula);
-        while (matcher.find()) {
-            String reference = matcher.group();
-            dependencies.add(normalizeReference(reference));
+    /**
+     * Parses a formula once; repeated formula texts are served from the cache.
+     */
+    public ParsedFormula parse(String formula) {
+        if (formula == null || formula.isEmpty()) {
+            return FormulaParser.parse(formula);
         }
+        return cache.get(formula, FormulaParser::parse);
+    }
 
-        return dependencies;
+    /**
+     * Analyses the formula held by the cell at ({@code column}, {@code row}) as a member of its
+     * shared-formula group. Only the first member of a group is parsed; later members cost one
+     * tokenisation to derive the group's R1C1 key.
+     */
+    public SharedFormula analyzeShared(String formula, int column, int row) {
+        String r1c1 = FormulaR1C1.toR1C1(formula, column, row);
+        return sharedCache.get(r1c1, key -> SharedFormula.of(formula, column, row, key, FormulaParser.parse(formula)));
     }
 
-    public FormulaType analyzeFormulaType(String formula) {
-        if (formula == null || formula.isEmpty()) {
-            return FormulaType.NONE;
-        }
+    /**
+     * Cells a member of a shared-formula group reads directly, as positions with the sheet as a
+     * {@link SheetNames#key} (null for the formula's own sheet). Ranges are returned by {@link #extractRanges}
+     * instead, except for single-cell ranges such as {@code A1:A1}.
+     */
+    public List<CellRef> extractReferences(SharedFormula formula, int column, int row) {
+        return references(formula.referencesAt(column, row), formula.rangesAt(column, row));
+    }
 
-        String upperFormula = formula.toUpperCase();
+    /**
+     * {@link #extractReferences(SharedFormula, int, int)} for a formula outside any group.
+     */
+    public List<CellRef> extractReferences(String formula) {
+        ParsedFormula parsed = parse(formula);
+        return references(parsed.getReferences(), parsed.getRanges());
+    }
 
-        if (upperFormula.contains("SUM")) return FormulaType.AGGREGATION;
-        if (upperFormula.contains("VLOOKUP") || upperFormula.contains("HLOOKUP") || upperFormula.contains("INDEX")) return FormulaType.LOOKUP;
-        if (upperFormula.contains("IF")) return FormulaType.CONDITIONAL;
-        if (upperFormula.contains("+") || upperFormula.contains("-") ||
-                upperFormula.contains("*") || upperFormula.contains("/")) return FormulaType.ARITHMETIC;
+    /**
+     * Multi-cell ranges the formula reads, with the sheet as written (null for the formula's own
+     * sheet). Whole-column and whole-row ranges keep their open sides; see {@link RangeRef#toBounded()}.
+     */
+    public List<RangeRef> extractRanges(String formula) {
+        return multiCellRanges(parse(formula).getRanges());
+    }
 
-        return FormulaType.OTHER;
+    public List<RangeRef> extractRanges(SharedFormula formula, int column, int row) {
+        return multiCellRanges(formula.rangesAt(column, row));
     }
 
-    public String normalizeReference(String reference) {
-        if (reference == null || reference.trim().isEmpty()) {
-            return "";
+    private static List<CellRef> references(List<CellRef> cells, List<RangeRef> ranges) {
+        Set<CellRef> references = new LinkedHashSet<>();
+        for (CellRef reference : cells) {
+            references.add(position(reference.getSheet(), reference.getColumn(), reference.getRow()));
+        }
+        for (RangeRef range : ranges) {
+            if (range.getCellCount() == 1) {
+                references.add(position(range.getSheet(), range.getFirstColumn(), range.getFirstRow()));
+            }
         }
+        return new ArrayList<>(references);
+    }
 
-        // Remove extra whitespace and convert to uppercase
-        reference = reference.trim().toUpperCase();
-
-        // If sheet is present (e.g., Sheet1!A1), split and normalize
-        if (reference.contains("!")) {
-            String[] parts = reference.split("!", 2);
-            String sheet = parts[0].replaceAll("[^A-Z0-9]", ""); // Clean sheet name
-            String cell = parts[1].replaceAll("\\$", "");        // Remove $ from cell ref
-            return sheet + "!" + cell;
-        } else {
-            // If no sheet provided, just clean cell ref
-            return reference.replaceAll("\\$", "");
+    private static List<RangeRef> multiCellRanges(List<RangeRef> ranges) {
+        List<RangeRef> result = new ArrayList<>();
+        for (RangeRef range : ranges) {
+            if (range.getCellCount() != 1 && !result.contains(range)) {
+                result.add(range);
+            }
         }
+        return result;
+    }
+
+    public FormulaType analyzeFormulaType(String formula) {
+        return parse(formula).getFormulaType();
+    }
+
+    private static CellRef position(String sheet, int column, int row) {
+        return new CellRef(sheet == null ? null : SheetNames.key(sheet), column, row, false, false);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package org.superjoin.component;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.superjoin.formula.FormulaCache;
+import org.superjoin.formula.FormulaR1C1;
+import org.superjoin.graph.GraphClient;
+import org.superjoin.graph.GraphNode;
+import org.superjoin.graph.GraphRecord;
+
+import java.util.List;
+
+import static org.superjoin.graph.GraphClient.parameters;
+
+/**
+ * Reconstructs the formula text of cells stored as members of a shared-formula group. Group ids
+ * are content hashes, so a cached group formula never goes stale.
+ */
+@Component
+public class FormulaGroupStore {
+
+    private static final int CACHE_SIZE = 10_000;
+
+    @Autowired
+    private GraphClient graphClient;
+
+    private final FormulaCache<String> groupFormulas = new FormulaCache<>(CACHE_SIZE);
+
+    /**
+     * The formula of a Cell node: its own formula text if it has one, otherwise its group's
+     * formula moved from the group anchor by the cell's offsets.
+     */
+    public String formulaOf(GraphNode cell) {
+        String formula = cell.getString("formula");
+        Long group = cell.getLong("formulaGroup");
+        if (formula != null || group == null) {
+            return formula;
+        }
+
+        String spreadsheetId = cell.getString("spreadsheetId");
+        String anchorFormula = groupFormulas.get(spreadsheetId + '\u0000' + group, key -> load(spreadsheetId, group));
+        if (anchorFormula == null) {
+            return null;
+        }
+        Long columnOffset = cell.getLong("groupColumnOffset");
+        Long rowOffset = cell.getLong("groupRowOffset");
+        return FormulaR1C1.shift(anchorFormula,
+                columnOffset == null ? 0 : columnOffset.intValue(), rowOffset == null ? 0 : rowOffset.intValue());
+    }
+
+    private String load(String spreadsheetId, long group) {
+        List<GraphRecord> records = graphClient.read(
+                "MATCH (g:FormulaGroup {spreadsheetId: $spreadsheetId, id: $id}) RETURN g.formula AS formula",
+                parameters("spreadsheetId", spreadsheetId, "id", group));
+        return records.isEmpty() ? null : records.get(0).getString("formula");
+    }
+}
@@ -0,0 +1,110 @@
+package org.superjoin.component;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.superjoin.config.IngestionProperties;
+import org.superjoin.graph.GraphClient;
+import org.superjoin.graph.GraphTransaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.superjoin.graph.GraphClient.parameters;
+
+@Component
+public class GraphBatchWriter {
+
+    @Autowired
+    private IngestionProperties ingestionProperties;
+
+    @Autowired
+    private GraphClient graphClient;
+
+    /**
+     * Opens a batch for a statement of the form {@code UNWIND $rows AS row ...}.
+     * Rows are buffered and sent as one parameterised statement per chunk, and the
+     * surrounding explicit transaction is committed every {@code transactionSize} rows.
+     */
+    public Batch open(String cypher) {
+        return new Batch(graphClient, cypher,
+                Math.max(1, ingestionProperties.getBatchSize()),
+                Math.max(1, ingestionProperties.getTransactionSize()));
+    }
+
+    public void write(String cypher, List<Map<String, Object>> rows) {
+        try (Batch batch = open(cypher)) {
+            rows.forEach(batch::add);
+        }
+    }
+
+    public static class Batch implements AutoCloseable {
+        private final GraphClient graphClient;
+        private final String cypher;
+        private final int batchSize;
+        private final int transactionSize;
+
+        private List<Map<String, Object>> rows;
+        private GraphTransaction transaction;
+        private int rowsInTransaction;
+        private long rowsWritten;
+
+        private Batch(GraphClient graphClient, String cypher, int batchSize, int transactionSize) {
+            this.graphClient = graphClient;
+            this.cypher = cypher;
+            this.batchSize = batchSize;
+            this.transactionSize = transactionSize;
+            this.rows = new ArrayList<>(batchSize);
+        }
+
+        public void add(Map<String, Object> row) {
+            rows.add(row);
+            if (rows.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        public long getRowsWritten() {
+            return rowsWritten;
+        }
+
+        private void flush() {
+            if (rows.isEmpty()) {
+                return;
+            }
+            if (transaction == null) {
+                transaction = graphClient.beginTransaction();
+            }
+
+            transaction.run(cypher, parameters("rows", rows));
+            rowsInTransaction += rows.size();
+            rowsWritten += rows.size();
+            rows = new ArrayList<>(batchSize);
+
+            if (rowsInTransaction >= transactionSize) {
+                commit();
+            }
+        }
+
+        private void commit() {
+            transaction.commit();
+            transaction.close();
+            transaction = null;
+            rowsInTransaction = 0;
+        }
+
+        @Override
+        public void close() {
+            try {
+                flush();
+                if (transaction != null) {
+                    commit();
+                }
+            } finally {
+                if (transaction != null) {
+                    transaction.close();
+                }
+            }
+        }
+    }
+}
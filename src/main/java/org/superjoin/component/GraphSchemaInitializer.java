@@ -0,0 +1,112 @@
+package org.superjoin.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.superjoin.config.IngestionProperties;
+import org.superjoin.dto.SchemaStatus;
+import org.superjoin.graph.GraphClient;
+import org.superjoin.graph.GraphRecord;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.superjoin.graph.GraphClient.parameters;
+
+@Slf4j
+@Component
+public class GraphSchemaInitializer {
+
+    private static final List<String> SCHEMA_STATEMENTS = List.of(
+            // Composite key: a cell address is only unique within a sheet of a spreadsheet
+            "CREATE CONSTRAINT cell_key IF NOT EXISTS FOR (c:Cell) REQUIRE (c.spreadsheetId, c.sheet, c.id) IS UNIQUE",
+            "CREATE CONSTRAINT sheet_key IF NOT EXISTS FOR (s:Sheet) REQUIRE (s.spreadsheetId, s.name) IS UNIQUE",
+            // Queries pick tables and columns first and then read only the cells they contain
+            "CREATE CONSTRAINT table_key IF NOT EXISTS FOR (t:Table) REQUIRE (t.spreadsheetId, t.sheet, t.id) IS UNIQUE",
+            // Two tables may share a sheet column, so columns are keyed by their table
+            "CREATE CONSTRAINT table_column_key IF NOT EXISTS FOR (col:Column) REQUIRE (col.spreadsheetId, col.sheet, col.table, col.index) IS UNIQUE",
+            // One Range node per distinct range text, shared by every formula reading it
+            "CREATE CONSTRAINT range_key IF NOT EXISTS FOR (r:Range) REQUIRE (r.spreadsheetId, r.sheet, r.id) IS UNIQUE",
+            "CREATE INDEX range_spreadsheet IF NOT EXISTS FOR (r:Range) ON (r.spreadsheetId)",
+            // Group ids are content hashes, so copies of a formula on a sheet share one node
+            "CREATE CONSTRAINT formula_group_key IF NOT EXISTS FOR (g:FormulaGroup) REQUIRE (g.spreadsheetId, g.id) IS UNIQUE",
+            "CREATE INDEX cell_formula_group IF NOT EXISTS FOR (c:Cell) ON (c.formulaGroup)",
+            // Dependency traces start from level-0 input cells; cycles are keyed by component id
+            "CREATE INDEX cell_level IF NOT EXISTS FOR (c:Cell) ON (c.level)",
+            "CREATE CONSTRAINT cycle_key IF NOT EXISTS FOR (y:Cycle) REQUIRE (y.spreadsheetId, y.id) IS UNIQUE",
+            // Dependency and label updates look cells up by address alone
+            "CREATE INDEX cell_id IF NOT EXISTS FOR (c:Cell) ON (c.id)",
+            // Every query and rebuild is scoped to one spreadsheet's partition
+            "CREATE INDEX cell_spreadsheet IF NOT EXISTS FOR (c:Cell) ON (c.spreadsheetId)",
+            "CREATE INDEX cell_semantic_label IF NOT EXISTS FOR (c:Cell) ON (c.semanticLabel)",
+            "CREATE INDEX cell_data_type IF NOT EXISTS FOR (c:Cell) ON (c.dataType)",
+            // Value filters compare the typed value of numeric cells
+            "CREATE INDEX cell_numeric_value IF NOT EXISTS FOR (c:Cell) ON (c.numericValue)",
+            "CREATE INDEX cell_formula_type IF NOT EXISTS FOR (c:Cell) ON (c.formulaType)"
+    );
+
+    @Autowired
+    private GraphClient graphClient;
+
+    @Autowired
+    private IngestionProperties ingestionProperties;
+
+    private volatile boolean initialized;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initializeOnStartup() {
+        try {
+            ensureSchema();
+        } catch (Exception e) {
+            // Neo4j may not be up yet; the schema is created again before the first build
+            log.warn("Graph schema initialisation skipped at startup: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the constraints and indexes if needed and waits for them to come online.
+     * Statements are idempotent, so after the first success only the index state is checked.
+     */
+    public SchemaStatus ensureSchema() {
+        if (!initialized) {
+            for (String statement : SCHEMA_STATEMENTS) {
+                graphClient.write(statement);
+            }
+            initialized = true;
+        }
+
+        awaitIndexes();
+        SchemaStatus status = getStatus();
+        if (status.isOnline()) {
+            log.info("Graph schema online: {}", status.getIndexStates());
+        } else {
+            log.warn("Graph schema not fully online, ingestion will fall back to label scans: {}",
+                    status.getIndexStates());
+        }
+        return status;
+    }
+
+    private void awaitIndexes() {
+        try {
+            graphClient.read("CALL db.awaitIndexes($timeout)",
+                    parameters("timeout", ingestionProperties.getSchemaAwaitSeconds()));
+        } catch (Exception e) {
+            log.warn("Timed out waiting for graph indexes: {}", e.getMessage());
+        }
+    }
+
+    public SchemaStatus getStatus() {
+        Map<String, String> states = new LinkedHashMap<>();
+        for (GraphRecord record : graphClient.read("SHOW INDEXES YIELD name, state")) {
+            states.put(record.getString("name"), record.getString("state"));
+        }
+
+        SchemaStatus status = new SchemaStatus();
+        status.setIndexStates(states);
+        status.setOnline(!states.isEmpty() && states.values().stream().allMatch("ONLINE"::equals));
+        return status;
+    }
+}
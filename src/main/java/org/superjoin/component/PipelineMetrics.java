@@ -0,0 +1,83 @@
+package org.superjoin.component;
+
+import org.springframework.stereotype.Component;
+import org.superjoin.dto.StageStats;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cumulative counters for the ingestion pipeline stages. Queue depth is the number of sheets
+ * currently waiting in front of a stage, summed over all running ingestions.
+ */
+@Component
+public class PipelineMetrics {
+
+    public static final String FETCH = "fetch";
+    public static final String ANALYZE = "analyze";
+    public static final String WRITE = "write";
+
+    private final Map<String, StageMetrics> stages = new LinkedHashMap<>();
+
+    public PipelineMetrics() {
+        stages.put(FETCH, new StageMetrics());
+        stages.put(ANALYZE, new StageMetrics());
+        stages.put(WRITE, new StageMetrics());
+    }
+
+    public StageMetrics stage(String name) {
+        return stages.get(name);
+    }
+
+    public List<StageStats> snapshot() {
+        List<StageStats> snapshot = new ArrayList<>();
+        stages.forEach((name, metrics) -> {
+            StageStats stats = new StageStats();
+            stats.setStage(name);
+            stats.setSheetsProcessed(metrics.sheets.get());
+            stats.setCellsProcessed(metrics.cells.get());
+            long busyNanos = metrics.busyNanos.get();
+            stats.setCellsPerSecond(busyNanos == 0 ? 0 : metrics.cells.get() * 1_000_000_000d / busyNanos);
+            stats.setQueueDepth(metrics.queueDepth.get());
+            stats.setActiveWorkers(metrics.activeWorkers.get());
+            snapshot.add(stats);
+        });
+        return snapshot;
+    }
+
+    public static class StageMetrics {
+        private final AtomicLong sheets = new AtomicLong();
+        private final AtomicLong cells = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicInteger queueDepth = new AtomicInteger();
+        private final AtomicInteger activeWorkers = new AtomicInteger();
+
+        public long start() {
+            activeWorkers.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        public void finish(long startNanos, long cellCount) {
+            busyNanos.addAndGet(System.nanoTime() - startNanos);
+            activeWorkers.decrementAndGet();
+            sheets.incrementAndGet();
+            cells.addAndGet(cellCount);
+        }
+
+        public void failed() {
+            activeWorkers.decrementAndGet();
+        }
+
+        public void enqueued() {
+            queueDepth.incrementAndGet();
+        }
+
+        public void dequeued() {
+            queueDepth.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package org.superjoin.component;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.superjoin.constants.DataType;
+import org.superjoin.dto.CellTable;
+import org.superjoin.dto.TableRegion;
+import org.superjoin.formula.CellKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the tables on a sheet: blocks of non-blank cells that touch each other horizontally or
+ * vertically. Blocks whose bounding rectangles overlap are merged, so every cell belongs to exactly
+ * one region. A first row of text above other rows is taken as the header; a last row labelled
+ * as a total, or made of aggregate formulas only, as the totals row.
+ */
+@Component
+public class RegionDetector {
+
+    // First cell of a totals row: "Total", "Grand total", "Subtotal", "Totals:"
+    private static final Pattern TOTAL_LABEL = Pattern.compile("(?i)\\s*(grand\\s+|sub-?)?totals?\\b.*");
+    private static final Pattern AGGREGATE_FORMULA =
+            Pattern.compile("(?i)=\\s*(SUM|SUBTOTAL|AVERAGE|COUNT|COUNTA|MIN|MAX)\\s*\\(.*");
+
+    private final ValueScanner valueScanner;
+
+    @Autowired
+    public RegionDetector(ValueScanner valueScanner) {
+        this.valueScanner = valueScanner;
+    }
+
+    /**
+     * The regions of one sheet and the region of each of its cells.
+     */
+    public static final class Regions {
+        private final List<TableRegion> tables;
+        private final int[] tableOfCell;
+
+        private Regions(List<TableRegion> tables, int[] tableOfCell) {
+            this.tables = Collections.unmodifiableList(tables);
+            this.tableOfCell = tableOfCell;
+        }
+
+        /**
+         * Regions in row-major order of their top-left corners.
+         */
+        public List<TableRegion> getTables() {
+            return tables;
+        }
+
+        /**
+         * Position in {@link #getTables()} of the cell's region, or -1 for a blank cell or one whose
+         * address is not an A1 reference.
+         *
+         * @param cell index in the whole sheet's table, see {@link CellTable#offset()}
+         */
+        public int tableOf(int cell) {
+            return tableOfCell[cell];
+        }
+    }
+
+    public Regions detect(CellTable cells) {
+        int[] order = occupiedInRowMajorOrder(cells);
+        int n = order.length;
+
+        // Horizontal runs of adjacent cells, each joined with the runs it touches in the row above
+        int[] runOf = new int[n];
+        int[] runRow = new int[Math.max(1, n)];
+        int[] runStart = new int[Math.max(1, n)];
+        int[] runEnd = new int[Math.max(1, n)];
+        int runs = 0;
+        for (int p = 0; p < n; p++) {
+            int column = cells.column(order[p]);
+            int row = cells.row(order[p]);
+            if (runs > 0 && runRow[runs - 1] == row && runEnd[runs - 1] == column - 1) {
+                runEnd[runs - 1] = column;
+            } else {
+                runRow[runs] = row;
+                runStart[runs] = column;
+                runEnd[runs] = column;
+                runs++;
+            }
+            runOf[p] = runs - 1;
+        }
+
+        int[] parent = new int[runs];
+        for (int r = 0; r < runs; r++) {
+            parent[r] = r;
+        }
+        int previous = 0;
+        int current = 0;
+        while (current < runs) {
+            int next = current;
+            while (next < runs && runRow[next] == runRow[current]) {
+                next++;
+            }
+            if (current > 0 && runRow[current - 1] == runRow[current] - 1) {
+                int above = previous;
+                for (int r = current; r < next; r++) {
+                    while (above < current && runEnd[above] < runStart[r]) {
+                        above++;
+                    }
+                    for (int a = above; a < current && runStart[a] <= runEnd[r]; a++) {
+                        union(parent, a, r);
+                    }
+                }
+            }
+            previous = current;
+            current = next;
+        }
+
+        // Bounding rectangles of the blocks, merged while any two overlap
+        List<int[]> boxes = new ArrayList<>();
+        int[] boxOfRoot = new int[runs];
+        Arrays.fill(boxOfRoot, -1);
+        for (int r = 0; r < runs; r++) {
+            int root = find(parent, r);
+            if (boxOfRoot[root] < 0) {
+                boxOfRoot[root] = boxes.size();
+                boxes.add(new int[]{runStart[r], runRow[r], runEnd[r], runRow[r], boxes.size()});
+            }
+            int[] box = boxes.get(boxOfRoot[root]);
+            box[0] = Math.min(box[0], runStart[r]);
+            box[2] = Math.max(box[2], runEnd[r]);
+            box[3] = Math.max(box[3], runRow[r]);
+        }
+        int[] mergedInto = new int[boxes.size()];
+        for (int b = 0; b < mergedInto.length; b++) {
+            mergedInto[b] = b;
+        }
+        List<int[]> tables = mergeOverlapping(boxes, mergedInto);
+
+        int[] tableOfBox = new int[boxes.size()];
+        for (int t = 0; t < tables.size(); t++) {
+            tableOfBox[tables.get(t)[4]] = t;
+        }
+        int[] tableOfCell = new int[cells.size()];
+        Arrays.fill(tableOfCell, -1);
+        for (int p = 0; p < n; p++) {
+            int box = find(mergedInto, boxOfRoot[find(parent, runOf[p])]);
+            tableOfCell[order[p]] = tableOfBox[box];
+        }
+
+        List<TableRegion> regions = new ArrayList<>();
+        for (int[] box : tables) {
+            TableRegion region = new TableRegion();
+            region.setId(CellKey.address(box[0], box[1]));
+            region.setFirstColumn(box[0]);
+            region.setFirstRow(box[1]);
+            region.setLastColumn(box[2]);
+            region.setLastRow(box[3]);
+            regions.add(region);
+        }
+        detectHeadersAndTotals(cells, order, tableOfCell, regions);
+        return new Regions(regions, tableOfCell);
+    }
+
+    /**
+     * Walks the cells row by row and keeps, per region, whether its first row is all text and what
+     * its last row looks like.
+     */
+    private void detectHeadersAndTotals(CellTable cells, int[] order, int[] tableOfCell, List<TableRegion> regions) {
+        int t = regions.size();
+        boolean[] textHeader = new boolean[t];
+        Arrays.fill(textHeader, true);
+        int[] lastRow = new int[t];
+        boolean[] totalLabel = new boolean[t];
+        int[] aggregates = new int[t];
+        boolean[] otherFormulas = new boolean[t];
+
+        Matcher label = TOTAL_LABEL.matcher("");
+        Matcher aggregate = AGGREGATE_FORMULA.matcher("");
+        ValueScanner.Scan scan = new ValueScanner.Scan();
+        for (int cell : order) {
+            int table = tableOfCell[cell];
+            TableRegion region = regions.get(table);
+            region.setCellCount(region.getCellCount() + 1);
+            int row = cells.row(cell);
+            if (row == region.getFirstRow() && textHeader[table]) {
+                textHeader[table] = !cells.hasFormula(cell) && cells.type(cell) == CellTable.TEXT
+                        && valueScanner.scan(cells.value(cell), scan) == DataType.TEXT;
+            }
+
+            if (row != lastRow[table]) {
+                // Cells come in column order, so the first of a row decides its label
+                lastRow[table] = row;
+                totalLabel[table] = cells.type(cell) == CellTable.TEXT && label.reset(cells.value(cell)).matches();
+                aggregates[table] = 0;
+                otherFormulas[table] = false;
+            }
+            if (cells.hasFormula(cell)) {
+                if (aggregate.reset(cells.formula(cell)).matches()) {
+                    aggregates[table]++;
+                } else {
+                    otherFormulas[table] = true;
+                }
+            }
+        }
+
+        for (int table = 0; table < t; table++) {
+            TableRegion region = regions.get(table);
+            int rows = region.getLastRow() - region.getFirstRow() + 1;
+            if (rows >= 2 && textHeader[table]) {
+                region.setHeaderRow(region.getFirstRow());
+            }
+            int dataRows = region.getHeaderRow() == 0 ? rows : rows - 1;
+            if (dataRows >= 2 && (totalLabel[table] || (aggregates[table] > 0 && !otherFormulas[table]))) {
+                region.setTotalRow(region.getLastRow());
+            }
+        }
+    }
+
+    private static int[] occupiedInRowMajorOrder(CellTable cells) {
+        int[] order = new int[cells.size()];
+        int n = 0;
+        boolean sorted = true;
+        for (int i = 0; i < cells.size(); i++) {
+            if (cells.column(i) == 0 || cells.type(i) == CellTable.BLANK || cells.value(i).trim().isEmpty()) {
+                continue;
+            }
+            if (n > 0) {
+                int last = order[n - 1];
+                sorted &= cells.row(last) < cells.row(i)
+                        || (cells.row(last) == cells.row(i) && cells.column(last) < cells.column(i));
+            }
+            order[n++] = i;
+        }
+        order = Arrays.copyOf(order, n);
+        if (!sorted) {
+            // Readers append row by row; other sources pay for a sort
+            Integer[] boxed = new Integer[n];
+            for (int p = 0; p < n; p++) {
+                boxed[p] = order[p];
+            }
+            Arrays.sort(boxed, Comparator.<Integer>comparingInt(cells::row).thenComparingInt(cells::column));
+            for (int p = 0; p < n; p++) {
+                order[p] = boxed[p];
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Sweeps the rectangles top to bottom against those still open at each row and merges any two
+     * that overlap, until none do. Merged rectangles keep the id of the one they were merged into.
+     */
+    private static List<int[]> mergeOverlapping(List<int[]> boxes, int[] mergedInto) {
+        List<int[]> result = new ArrayList<>(boxes);
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            result.sort(Comparator.<int[]>comparingInt(box -> box[1]).thenComparingInt(box -> box[0]));
+            List<int[]> kept = new ArrayList<>();
+            List<int[]> open = new ArrayList<>();
+            for (int[] box : result) {
+                open.removeIf(other -> other[3] < box[1]);
+                int[] overlapping = null;
+                for (int[] other : open) {
+                    if (other[0] <= box[2] && box[0] <= other[2]) {
+                        overlapping = other;
+                        break;
+                    }
+                }
+                if (overlapping == null) {
+                    kept.add(box);
+                    open.add(box);
+                    continue;
+                }
+                overlapping[0] = Math.min(overlapping[0], box[0]);
+                overlapping[2] = Math.max(overlapping[2], box[2]);
+                overlapping[3] = Math.max(overlapping[3], box[3]);
+                mergedInto[box[4]] = overlapping[4];
+                merged = true;
+            }
+            result = kept;
+        }
+        result.sort(Comparator.<int[]>comparingInt(box -> box[1]).thenComparingInt(box -> box[0]));
+        return result;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+}
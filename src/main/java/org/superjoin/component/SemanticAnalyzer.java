@@ -1,38 +1,223 @@
 package org.superjoin.component;
 
-import org.superjoin.constants.SemanticLabel;
-import org.superjoin.dto.CellInfo;
-import org.superjoin.dto.SheetData;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.superjoin.constants.DataType;
+import org.superjoin.constants.SemanticLabel;
+import org.superjoin.dto.CellTable;
+import org.superjoin.dto.ColumnProfile;
+import org.superjoin.dto.TableRegion;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Labels cells by the column they are in. A sheet is profiled once, column by column within each
+ * of its table regions, and each column gets one label from its header and the shape of its values;
+ * cells take their column's label, except the cells of the header and totals rows.
+ */
 @Component
 public class SemanticAnalyzer {
 
-    public SemanticLabel inferSemanticLabel(CellInfo cell, SheetData sheet) {
-        String value = cell.getValue();
-        String address = cell.getAddress();
+    // Codes such as INV-0042
+    private static final Pattern ID_VALUE = Pattern.compile("[A-Za-z]{2,5}-\\d{2,6}");
+    // Short alphabetic text such as categories, regions or names
+    private static final Pattern LABEL_VALUE = Pattern.compile("[A-Za-z\\s]{1,20}");
+    // Header words naming an identifier column: "ID", "Order Id", "customer_id", "SKU"
+    private static final Pattern ID_HEADER = Pattern.compile("(?i)(^|[^a-z])(id|code|key|sku|ref)s?([^a-z]|$)");
 
-        if (value == null || value.trim().isEmpty()) {
-            return null;
+    // Share of a column's values that has to agree before the whole column is labelled by them
+    private static final double COLUMN_RATIO = 0.8;
+
+    private final ValueScanner valueScanner;
+
+    @Autowired
+    public SemanticAnalyzer(ValueScanner valueScanner) {
+        this.valueScanner = valueScanner;
+    }
+
+    /**
+     * The column profiles of one sheet, per table region.
+     */
+    public static final class SheetProfile {
+        private final CellTable cells;
+        private final RegionDetector.Regions regions;
+        // Per region, indexed by column relative to the region's first column
+        private final ColumnProfile[][] byTable;
+        private final List<ColumnProfile> columns;
+
+        private SheetProfile(CellTable cells, RegionDetector.Regions regions, ColumnProfile[][] byTable,
+                             List<ColumnProfile> columns) {
+            this.cells = cells;
+            this.regions = regions;
+            this.byTable = byTable;
+            this.columns = Collections.unmodifiableList(columns);
         }
 
-        value = value.trim();
+        public RegionDetector.Regions getRegions() {
+            return regions;
+        }
 
-        // 1. If it's in the first row, it's probably a header
-        if (address.matches("^[A-Z]+1$")) {
-            return SemanticLabel.HEADER;
+        public List<ColumnProfile> getColumns() {
+            return columns;
+        }
+
+        /**
+         * The column of a cell, or null for a cell outside every region.
+         *
+         * @param cell index in the whole sheet's table, see {@link CellTable#offset()}
+         */
+        public ColumnProfile columnOf(int cell) {
+            int table = regions.tableOf(cell);
+            if (table < 0) {
+                return null;
+            }
+            return byTable[table][cells.column(cell) - regions.getTables().get(table).getFirstColumn()];
+        }
+    }
+
+    /**
+     * Profiles every column of every region of a whole sheet in one pass over its cells.
+     */
+    public SheetProfile profile(CellTable cells, RegionDetector.Regions regions) {
+        List<TableRegion> tables = regions.getTables();
+        Accumulator[][] accumulators = new Accumulator[tables.size()][];
+        for (int t = 0; t < tables.size(); t++) {
+            accumulators[t] = new Accumulator[tables.get(t).getLastColumn() - tables.get(t).getFirstColumn() + 1];
+        }
+
+        Matcher id = ID_VALUE.matcher("");
+        Matcher label = LABEL_VALUE.matcher("");
+        ValueScanner.Scan scan = new ValueScanner.Scan();
+        for (int i = 0; i < cells.size(); i++) {
+            int table = regions.tableOf(i);
+            if (table < 0) {
+                continue;
+            }
+            TableRegion region = tables.get(table);
+            int column = cells.column(i) - region.getFirstColumn();
+            Accumulator accumulator = accumulators[table][column];
+            if (accumulator == null) {
+                accumulator = accumulators[table][column] = new Accumulator();
+            }
+
+            String value = cells.value(i);
+            if (cells.row(i) == region.getHeaderRow()) {
+                accumulator.header = value.trim();
+                continue;
+            }
+            if (cells.row(i) == region.getTotalRow()) {
+                continue;
+            }
+            boolean numeric = cells.type(i) == CellTable.NUMBER;
+            DataType type = numeric ? DataType.NUMBER : valueScanner.scan(value, scan);
+            if (type == null) {
+                continue;
+            }
+
+            accumulator.count++;
+            accumulator.types[type.ordinal()]++;
+            if (type == DataType.NUMBER) {
+                double number = numeric ? cells.number(i) : scan.getNumber();
+                accumulator.min = Math.min(accumulator.min, number);
+                accumulator.max = Math.max(accumulator.max, number);
+                accumulator.distinct.add(number);
+            } else {
+                accumulator.distinct.add(value);
+            }
+            if (type == DataType.TEXT) {
+                String text = value.trim();
+                if (id.reset(text).matches()) {
+                    accumulator.ids++;
+                }
+                if (label.reset(text).matches()) {
+                    accumulator.labels++;
+                }
+            }
         }
 
-        // 4. If it looks like an ID or code
-        if (value.matches("^[A-Za-z]{2,5}-\\d{2,6}$") || value.toLowerCase().contains("id")) {
-            return SemanticLabel.ID;
+        List<ColumnProfile> columns = new ArrayList<>();
+        ColumnProfile[][] byTable = new ColumnProfile[tables.size()][];
+        for (int t = 0; t < tables.size(); t++) {
+            byTable[t] = new ColumnProfile[accumulators[t].length];
+            for (int column = 0; column < accumulators[t].length; column++) {
+                if (accumulators[t][column] != null) {
+                    byTable[t][column] = accumulators[t][column].toProfile(tables.get(t), column);
+                    columns.add(byTable[t][column]);
+                }
+            }
         }
+        return new SheetProfile(cells, regions, byTable, columns);
+    }
 
-        // 5. Fallback to general text label
-        if (value.length() <= 20 && value.matches("^[A-Za-z\\s]+$")) {
-            return SemanticLabel.LABEL;
+    /**
+     * The label of one cell: HEADER or TOTAL in its table's header and totals rows, otherwise its
+     * column's label. Without a profile of the column only the first row is recognised, as the header.
+     *
+     * @param row 1-based row of the cell
+     */
+    public SemanticLabel labelOf(ColumnProfile column, String value, int row) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
         }
+        if (column == null) {
+            return row == 1 ? SemanticLabel.HEADER : null;
+        }
+        if (row == column.getHeaderRow()) {
+            return SemanticLabel.HEADER;
+        }
+        return row == column.getTotalRow() ? SemanticLabel.TOTAL : column.getSemanticLabel();
+    }
 
-        return null;
+    private static final class Accumulator {
+        private final int[] types = new int[DataType.values().length];
+        private final Set<Object> distinct = new HashSet<>();
+        private String header;
+        private int count;
+        private int ids;
+        private int labels;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        private ColumnProfile toProfile(TableRegion table, int column) {
+            ColumnProfile profile = new ColumnProfile();
+            profile.setTable(table.getId());
+            profile.setIndex(table.getFirstColumn() + column);
+            profile.setHeader(header);
+            profile.setHeaderRow(table.getHeaderRow());
+            profile.setTotalRow(table.getTotalRow());
+            profile.setCount(count);
+            profile.setDistinctCount(distinct.size());
+            if (min <= max) {
+                profile.setMin(min);
+                profile.setMax(max);
+            }
+            if (count == 0) {
+                return profile;
+            }
+
+            int dominant = 0;
+            for (int type = 1; type < types.length; type++) {
+                if (types[type] > types[dominant]) {
+                    dominant = type;
+                }
+            }
+            profile.setDataType(DataType.values()[dominant]);
+            profile.setIdRatio((double) ids / count);
+
+            // Identifier-shaped values, or unique values under an identifier header
+            if (profile.getIdRatio() >= COLUMN_RATIO
+                    || (header != null && ID_HEADER.matcher(header).find() && distinct.size() == count)) {
+                profile.setSemanticLabel(SemanticLabel.ID);
+            } else if (profile.getDataType() == DataType.TEXT && labels >= COLUMN_RATIO * count) {
+                profile.setSemanticLabel(SemanticLabel.LABEL);
+            }
+            return profile;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,198 @@
+package org.superjoin.component;
+
+import org.apache.poi.util.XMLHelper;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The shared-strings table of an xlsx file, read with SAX. The first {@code inMemory} strings are
+ * kept on the heap; past that, every string is appended to a temporary file and looked up by its
+ * offset through a small LRU cache, so the heap holds eight bytes per spilled string whatever
+ * their length. {@link #close()} deletes the file.
+ */
+public final class SharedStrings implements Closeable {
+
+    private final int inMemory;
+    private final File directory;
+    private final Map<Integer, String> cache;
+
+    private final List<String> strings = new ArrayList<>();
+    // Offsets of the spilled strings in the file, plus the end of the last one
+    private long[] offsets = new long[1024];
+    private int spilled;
+    private File file;
+    private DataOutputStream output;
+    private RandomAccessFile input;
+
+    /**
+     * @param inMemory  strings kept on the heap before the table spills to disk
+     * @param cacheSize spilled strings cached on the heap
+     * @param directory where the spill file is created, null for the default temporary directory
+     */
+    public SharedStrings(int inMemory, int cacheSize, File directory) {
+        this.inMemory = Math.max(0, inMemory);
+        this.directory = directory;
+        int capacity = Math.max(1, cacheSize);
+        this.cache = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Reads every {@code <si>} of a sharedStrings.xml part. Rich text runs are concatenated;
+     * phonetic runs are skipped.
+     */
+    public void read(InputStream xml) throws IOException {
+        try {
+            XMLReader reader = XMLHelper.newXMLReader();
+            reader.setContentHandler(new Handler());
+            reader.parse(new InputSource(xml));
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new IOException("Failed to parse shared strings", e);
+        }
+    }
+
+    public void add(String value) {
+        if (file == null && strings.size() < inMemory) {
+            strings.add(value);
+            return;
+        }
+        try {
+            if (file == null) {
+                file = Files.createTempFile(directory == null ? null : directory.toPath(), "shared-strings", ".bin").toFile();
+                output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            output.write(bytes);
+            if (spilled + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[spilled + 1] = offsets[spilled] + bytes.length;
+            spilled++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill shared strings", e);
+        }
+    }
+
+    public String get(int index) {
+        if (index < strings.size()) {
+            return strings.get(index);
+        }
+        int position = index - strings.size();
+        if (position >= spilled) {
+            throw new IndexOutOfBoundsException("No shared string " + index + " of " + size());
+        }
+        return cache.computeIfAbsent(position, this::readSpilled);
+    }
+
+    public int size() {
+        return strings.size() + spilled;
+    }
+
+    /**
+     * Number of strings written to disk, for logging.
+     */
+    public int getSpilled() {
+        return spilled;
+    }
+
+    private String readSpilled(int position) {
+        try {
+            output.flush();
+            if (input == null) {
+                input = new RandomAccessFile(file, "r");
+            }
+            byte[] bytes = new byte[(int) (offsets[position + 1] - offsets[position])];
+            input.seek(offsets[position]);
+            input.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read spilled shared string", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (output != null) {
+                output.close();
+            }
+            if (input != null) {
+                input.close();
+            }
+        } finally {
+            if (file != null) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    private final class Handler extends DefaultHandler {
+        private final StringBuilder text = new StringBuilder();
+        private boolean inText;
+        private boolean inPhonetic;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "si":
+                    text.setLength(0);
+                    break;
+                case "rPh":
+                    inPhonetic = true;
+                    break;
+                case "t":
+                    inText = !inPhonetic;
+                    break;
+                default:
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch (localName) {
+                case "si":
+                    add(text.toString());
+                    break;
+                case "rPh":
+                    inPhonetic = false;
+                    break;
+                case "t":
+                    inText = false;
+                    break;
+                default:
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inText) {
+                text.append(ch, start, length);
+            }
+        }
+    }
+}
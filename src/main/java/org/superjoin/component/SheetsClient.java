@@ -0,0 +1,172 @@
+package org.superjoin.component;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.util.NanoClock;
+import com.google.api.client.util.Sleeper;
+import lombok.extern.slf4j.Slf4j;
+import org.superjoin.config.SheetsProperties;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes Sheets API requests within the project's quota. One instance is shared by every
+ * spreadsheet read, so its limits hold for the whole process:
+ * <ul>
+ *     <li>a token bucket admits requests at a sustained rate with a bounded burst;</li>
+ *     <li>a semaphore caps the requests on the wire at once;</li>
+ *     <li>429, 5xx and I/O failures are retried with exponential backoff and full jitter, at least
+ *     as long as a Retry-After header asks;</li>
+ *     <li>a request identical to one in flight (same method and URL, which includes the ranges
+ *     and field mask) waits for that one's response instead of being sent again.</li>
+ * </ul>
+ * Time is read from a {@link NanoClock} and waited on with a {@link Sleeper}, so tests can run it
+ * against a stub transport without sleeping.
+ */
+@Slf4j
+public final class SheetsClient {
+
+    private final SheetsProperties.Quota quota;
+    private final NanoClock clock;
+    private final Sleeper sleeper;
+    private final Semaphore inFlight;
+    private final Map<String, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+
+    // Token bucket, guarded by this
+    private double tokens;
+    private long refilledAt;
+
+    public SheetsClient(SheetsProperties.Quota quota) {
+        this(quota, NanoClock.SYSTEM, Sleeper.DEFAULT);
+    }
+
+    public SheetsClient(SheetsProperties.Quota quota, NanoClock clock, Sleeper sleeper) {
+        this.quota = quota;
+        this.clock = clock;
+        this.sleeper = sleeper;
+        this.inFlight = new Semaphore(Math.max(1, quota.getMaxConcurrentRequests()), true);
+        this.tokens = Math.max(1, quota.getBurst());
+        this.refilledAt = clock.nanoTime();
+    }
+
+    /**
+     * Executes the request, or joins an identical one already in flight.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(AbstractGoogleClientRequest<T> request) throws IOException {
+        String key = request.getRequestMethod() + " " + request.buildHttpRequestUrl().build();
+        CompletableFuture<Object> response = new CompletableFuture<>();
+        CompletableFuture<Object> running = pending.putIfAbsent(key, response);
+        if (running != null) {
+            try {
+                return (T) running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            T result = executeWithRetries(request);
+            response.complete(result);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            response.completeExceptionally(e);
+            throw e;
+        } finally {
+            pending.remove(key, response);
+        }
+    }
+
+    private <T> T executeWithRetries(AbstractGoogleClientRequest<T> request) throws IOException {
+        int maxAttempts = Math.max(1, quota.getMaxAttempts());
+        for (int attempt = 1; ; attempt++) {
+            try {
+                acquire();
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for Sheets API quota");
+            }
+            long backoff;
+            try {
+                return request.execute();
+            } catch (IOException e) {
+                if (attempt >= maxAttempts || !retryable(e)) {
+                    throw e;
+                }
+                backoff = backoffMillis(attempt, e);
+                log.debug("Sheets API request failed ({}), attempt {} of {}, retrying in {} ms",
+                        e.getMessage(), attempt, maxAttempts, backoff);
+            } finally {
+                inFlight.release();
+            }
+            pause(backoff);
+        }
+    }
+
+    /**
+     * Takes a token from the bucket, waiting for the refill when it is empty.
+     */
+    private void acquire() throws InterruptedException {
+        double rate = Math.max(0.001, quota.getRequestsPerSecond());
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                long now = clock.nanoTime();
+                tokens = Math.min(Math.max(1, quota.getBurst()), tokens + (now - refilledAt) * rate / 1e9);
+                refilledAt = now;
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return;
+                }
+                waitNanos = (long) Math.ceil((1 - tokens) / rate * 1e9);
+            }
+            sleeper.sleep(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+        }
+    }
+
+    /**
+     * Full jitter: a random time up to the exponential bound, raised to any Retry-After the
+     * server sent.
+     */
+    long backoffMillis(int attempt, IOException failure) {
+        long bound = Math.min(quota.getMaxBackoffMillis(), quota.getInitialBackoffMillis() << Math.min(attempt - 1, 30));
+        long backoff = ThreadLocalRandom.current().nextLong(Math.max(1, bound) + 1);
+        if (failure instanceof HttpResponseException) {
+            String retryAfter = ((HttpResponseException) failure).getHeaders().getRetryAfter();
+            if (retryAfter != null && retryAfter.trim().matches("\\d+")) {
+                backoff = Math.max(backoff, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+            }
+        }
+        return backoff;
+    }
+
+    private static boolean retryable(IOException failure) {
+        if (failure instanceof HttpResponseException) {
+            int status = ((HttpResponseException) failure).getStatusCode();
+            return status == 429 || status >= 500;
+        }
+        // Connection resets and timeouts; an interrupt is not retried
+        return !(failure instanceof InterruptedIOException) || failure instanceof SocketTimeoutException;
+    }
+
+    private void pause(long millis) throws IOException {
+        try {
+            sleeper.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted backing off from the Sheets API");
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.superjoin.component;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * One lock per spreadsheet id. Writes to a spreadsheet's graph partition are serialised while
+ * different spreadsheets never wait for each other. Locks are reentrant, so a build may call
+ * other locked operations on its own spreadsheet.
+ */
+@Component
+public class SpreadsheetLocks {
+
+    private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+    public void withLock(String spreadsheetId, Runnable work) {
+        withLock(spreadsheetId, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    public <T> T withLock(String spreadsheetId, Supplier<T> work) {
+        ReentrantLock lock = locks.computeIfAbsent(spreadsheetId, id -> new ReentrantLock());
+        lock.lock();
+        try {
+            return work.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
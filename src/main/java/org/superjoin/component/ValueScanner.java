@@ -0,0 +1,383 @@
+package org.superjoin.component;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.superjoin.config.ValueProperties;
+import org.superjoin.constants.DataType;
+
+import java.text.DecimalFormatSymbols;
+import java.time.chrono.IsoChronology;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.FormatStyle;
+import java.util.Currency;
+import java.util.Locale;
+
+/**
+ * Classifies cell text as number, boolean, date or text in a single pass, without exceptions and
+ * without allocating on the common paths. Numbers may carry the locale's grouping and decimal
+ * separators, a sign or accounting parentheses, a currency symbol and a trailing percent sign;
+ * dates are ISO {@code yyyy-MM-dd} or the locale's numeric day, month and year order.
+ */
+@Component
+public class ValueScanner {
+
+    // 10^0 .. 10^22 are exact doubles, so mantissas of up to 15 digits scale without rounding twice
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private static final int EXACT_DIGITS = 15;
+
+    public enum DateOrder {
+        DMY, MDY, YMD
+    }
+
+    private final char decimalSeparator;
+    private final char groupingSeparator;
+    private final String currencySymbol;
+    private final DateOrder dateOrder;
+
+    @Autowired
+    public ValueScanner(ValueProperties properties) {
+        this(Locale.forLanguageTag(properties.getLocale()), properties.getDateOrder());
+    }
+
+    public ValueScanner(Locale locale) {
+        this(locale, null);
+    }
+
+    /**
+     * @param dateOrder order of numeric dates, or null to take it from the locale's short date format
+     */
+    public ValueScanner(Locale locale, DateOrder dateOrder) {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+        this.decimalSeparator = symbols.getDecimalSeparator();
+        this.groupingSeparator = symbols.getGroupingSeparator();
+        String symbol = null;
+        try {
+            symbol = Currency.getInstance(locale).getSymbol(locale);
+        } catch (IllegalArgumentException e) {
+            // Language-only locales have no currency
+        }
+        this.currencySymbol = symbol;
+        this.dateOrder = dateOrder != null ? dateOrder : dateOrderOf(locale);
+    }
+
+    /**
+     * The result of one scan. Reuse one instance per thread to keep scanning allocation-free.
+     */
+    public static final class Scan {
+        private DataType type;
+        private double number;
+        private long epochDay;
+        private boolean bool;
+
+        /**
+         * Null for blank text.
+         */
+        public DataType getType() {
+            return type;
+        }
+
+        public double getNumber() {
+            return number;
+        }
+
+        /**
+         * Days since 1970-01-01 of a {@link DataType#DATE}.
+         */
+        public long getEpochDay() {
+            return epochDay;
+        }
+
+        public boolean getBoolean() {
+            return bool;
+        }
+    }
+
+    public DataType scan(CharSequence text, Scan into) {
+        into.type = null;
+        if (text == null) {
+            return null;
+        }
+        int start = 0;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return null;
+        }
+
+        if (scanNumber(text, start, end, into)) {
+            into.type = DataType.NUMBER;
+        } else if (scanBoolean(text, start, end, into)) {
+            into.type = DataType.BOOLEAN;
+        } else if (scanDate(text, start, end, into)) {
+            into.type = DataType.DATE;
+        } else {
+            into.type = DataType.TEXT;
+        }
+        return into.type;
+    }
+
+    private boolean scanNumber(CharSequence text, int start, int end, Scan into) {
+        int i = start;
+        boolean negative = false;
+        boolean parenthesised = false;
+        if (text.charAt(i) == '(' && text.charAt(end - 1) == ')') {
+            parenthesised = true;
+            i++;
+            end--;
+        }
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        i = skipCurrency(text, i, end);
+        if (i < end && !negative && text.charAt(i) == '-') {
+            // $-12.50
+            negative = true;
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int significant = 0;
+        int exponent = 0;
+        int groupDigits = -1;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (groupDigits >= 0) {
+                    groupDigits++;
+                }
+                if (significant < 18) {
+                    if (mantissa != 0 || c != '0') {
+                        significant++;
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (fraction) {
+                        exponent--;
+                    }
+                } else if (!fraction) {
+                    exponent++;
+                }
+            } else if (!fraction && isGrouping(c) && digits > 0 && (groupDigits < 0 || groupDigits == 3)) {
+                groupDigits = 0;
+            } else if (!fraction && c == decimalSeparator && (groupDigits < 0 || groupDigits == 3)) {
+                fraction = true;
+                groupDigits = -1;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0 || (groupDigits >= 0 && groupDigits != 3)) {
+            return false;
+        }
+
+        if (i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            int j = i + 1;
+            boolean negativeExponent = false;
+            if (j < end && (text.charAt(j) == '-' || text.charAt(j) == '+')) {
+                negativeExponent = text.charAt(j) == '-';
+                j++;
+            }
+            int value = 0;
+            int exponentDigits = 0;
+            while (j < end && text.charAt(j) >= '0' && text.charAt(j) <= '9') {
+                value = Math.min(value * 10 + (text.charAt(j) - '0'), 100_000);
+                exponentDigits++;
+                j++;
+            }
+            if (exponentDigits == 0) {
+                return false;
+            }
+            exponent += negativeExponent ? -value : value;
+            i = j;
+        }
+
+        boolean percent = false;
+        if (i < end && text.charAt(i) == '%') {
+            percent = true;
+            i++;
+        }
+        while (i < end && Character.isSpaceChar(text.charAt(i))) {
+            i++;
+        }
+        i = skipCurrency(text, i, end);
+        if (i != end) {
+            return false;
+        }
+
+        if (percent) {
+            exponent -= 2;
+        }
+        double value;
+        if (significant <= EXACT_DIGITS && Math.abs(exponent) < POWERS_OF_TEN.length) {
+            value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        } else {
+            // Beyond the exact range the JDK's correctly rounded parser takes over
+            value = Double.parseDouble(mantissa + "E" + exponent);
+        }
+        // Accounting parentheses mark a negative amount, with or without a minus inside
+        into.number = negative || parenthesised ? -value : value;
+        return true;
+    }
+
+    private int skipCurrency(CharSequence text, int i, int end) {
+        if (i >= end) {
+            return i;
+        }
+        char c = text.charAt(i);
+        if (c == '$' || c == '€' || c == '£' || c == '¥' || c == '₹') {
+            i++;
+        } else if (currencySymbol != null && startsWith(text, i, end, currencySymbol)) {
+            i += currencySymbol.length();
+        } else {
+            return i;
+        }
+        while (i < end && Character.isSpaceChar(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private boolean isGrouping(char c) {
+        // Locales grouping with a no-break space are usually typed with a plain one
+        return c == groupingSeparator
+                || (Character.isSpaceChar(groupingSeparator) && Character.isSpaceChar(c))
+                || (groupingSeparator == '’' && c == '\'');
+    }
+
+    private static boolean scanBoolean(CharSequence text, int start, int end, Scan into) {
+        if (regionMatches(text, start, end, "TRUE")) {
+            into.bool = true;
+            return true;
+        }
+        if (regionMatches(text, start, end, "FALSE")) {
+            into.bool = false;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean scanDate(CharSequence text, int start, int end, Scan into) {
+        int[] parts = {0, 0, 0};
+        int[] widths = {0, 0, 0};
+        char separator = 0;
+        int part = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (widths[part] == 4) {
+                    return false;
+                }
+                parts[part] = parts[part] * 10 + (c - '0');
+                widths[part]++;
+            } else if ((c == '/' || c == '-' || c == '.') && part < 2 && widths[part] > 0
+                    && (separator == 0 || separator == c)) {
+                separator = c;
+                part++;
+            } else {
+                return false;
+            }
+        }
+        if (part != 2 || widths[2] == 0) {
+            return false;
+        }
+
+        int year;
+        int month;
+        int day;
+        if (widths[0] == 4 || dateOrder == DateOrder.YMD) {
+            year = parts[0];
+            month = parts[1];
+            day = parts[2];
+        } else if (dateOrder == DateOrder.MDY) {
+            month = parts[0];
+            day = parts[1];
+            year = parts[2];
+        } else {
+            day = parts[0];
+            month = parts[1];
+            year = parts[2];
+        }
+        int yearWidth = widths[0] == 4 || dateOrder == DateOrder.YMD ? widths[0] : widths[2];
+        if (yearWidth == 2) {
+            year += year < 50 ? 2000 : 1900;
+        } else if (yearWidth != 4) {
+            return false;
+        }
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            return false;
+        }
+        into.epochDay = epochDay(year, month, day);
+        return true;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return IsoChronology.INSTANCE.isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // Days from civil date, proleptic Gregorian, as in java.time.LocalDate.toEpochDay
+    private static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static DateOrder dateOrderOf(Locale locale) {
+        String pattern = DateTimeFormatterBuilder.getLocalizedDateTimePattern(
+                FormatStyle.SHORT, null, IsoChronology.INSTANCE, locale);
+        int day = pattern.indexOf('d');
+        int month = pattern.indexOf('M');
+        int year = pattern.indexOf('y');
+        if (year >= 0 && year < month) {
+            return DateOrder.YMD;
+        }
+        return day >= 0 && day < month ? DateOrder.DMY : DateOrder.MDY;
+    }
+
+    private static boolean startsWith(CharSequence text, int i, int end, String prefix) {
+        if (end - i < prefix.length()) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length(); k++) {
+            if (text.charAt(i + k) != prefix.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionMatches(CharSequence text, int start, int end, String upper) {
+        if (end - start != upper.length()) {
+            return false;
+        }
+        for (int k = 0; k < upper.length(); k++) {
+            if (Character.toUpperCase(text.charAt(start + k)) != upper.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,23 @@
+package org.superjoin.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "excel")
+public class ExcelProperties {
+
+    // Read xlsx files with the SAX event model, one row at a time; off loads the whole workbook with WorkbookFactory
+    private boolean streaming = true;
+
+    // Shared strings kept on the heap before the rest of the table is spilled to a temporary file
+    private int sharedStringsInMemory = 100_000;
+
+    // Spilled shared strings cached on the heap
+    private int sharedStringsCacheSize = 10_000;
+
+    // Directory of the spill files; empty uses java.io.tmpdir
+    private String spillDirectory = "";
+}
@@ -0,0 +1,48 @@
+package org.superjoin.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.neo4j.configuration.GraphDatabaseSettings;
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
+import org.neo4j.driver.Driver;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.superjoin.graph.BoltGraphClient;
+import org.superjoin.graph.EmbeddedGraphClient;
+import org.superjoin.graph.GraphClient;
+
+import java.nio.file.Path;
+
+@Slf4j
+@Configuration
+public class GraphConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "graph.engine", havingValue = "BOLT", matchIfMissing = true)
+    public GraphClient boltGraphClient(Driver neo4jDriver) {
+        return new BoltGraphClient(neo4jDriver);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "graph.engine", havingValue = "EMBEDDED")
+    public DatabaseManagementService databaseManagementService(GraphProperties graphProperties,
+                                                               IngestionProperties ingestionProperties) {
+        Path directory = Path.of(graphProperties.getEmbedded().getDirectory()).toAbsolutePath();
+        log.info("Starting embedded Neo4j in {}", directory);
+        return new DatabaseManagementServiceBuilder(directory)
+                .setConfig(GraphDatabaseSettings.pagecache_memory, graphProperties.getEmbedded().getPageCacheMemory())
+                // Bulk loads write their CSV files here and read them back with LOAD CSV
+                .setConfig(GraphDatabaseSettings.load_csv_file_url_root,
+                        Path.of(ingestionProperties.getBulk().getDirectory()).toAbsolutePath())
+                // The bulk loader escapes backslashes for this convention, the default
+                .setConfig(GraphDatabaseSettings.csv_legacy_quote_escaping, true)
+                .build();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "graph.engine", havingValue = "EMBEDDED")
+    public GraphClient embeddedGraphClient(DatabaseManagementService databaseManagementService) {
+        return new EmbeddedGraphClient(databaseManagementService.database(GraphDatabaseSettings.DEFAULT_DATABASE_NAME));
+    }
+}
@@ -0,0 +1,23 @@
+package org.superjoin.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.superjoin.constants.GraphEngine;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "graph")
+public class GraphProperties {
+
+    // BOLT talks to spring.neo4j.uri, EMBEDDED runs the database inside this JVM
+    private GraphEngine engine = GraphEngine.BOLT;
+
+    private Embedded embedded = new Embedded();
+
+    @Data
+    public static class Embedded {
+        private String directory = "data/neo4j";
+        private String pageCacheMemory = "512M";
+    }
+}
@@ -0,0 +1,66 @@
+package org.superjoin.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.superjoin.constants.IngestionMode;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "ingestion")
+public class IngestionProperties {
+
+    private IngestionMode mode = IngestionMode.BATCHED;
+
+    // Diff against the stored cell fingerprints instead of wiping and recreating the graph; PER_CELL always recreates it
+    private boolean incremental = true;
+
+    // Rows sent with a single UNWIND statement
+    private int batchSize = 5000;
+
+    // Rows written before the explicit transaction is committed
+    private int transactionSize = 50000;
+
+    // Upper bound for waiting on index population before ingestion starts
+    private long schemaAwaitSeconds = 60;
+
+    private Pipeline pipeline = new Pipeline();
+
+    private Parallel parallel = new Parallel();
+
+    private Bulk bulk = new Bulk();
+
+    @Data
+    public static class Pipeline {
+        // Overlap fetch, analysis and graph writes sheet by sheet
+        private boolean enabled = false;
+        private int fetchThreads = 4;
+        private int analysisThreads = 4;
+        // Sheets buffered between two stages before the upstream stage blocks
+        private int queueCapacity = 4;
+    }
+
+    @Data
+    public static class Parallel {
+        // Fork-join workers used by IngestionMode.PARALLEL; 0 means one per available core
+        private int parallelism = 0;
+        // Sheets with more cells are split into row ranges of roughly this many cells
+        private int partitionCells = 20000;
+        // Attempts for a partition or merge transaction that fails transiently, e.g. on a deadlock
+        private int maxAttempts = 5;
+        private long retryBackoffMillis = 50;
+    }
+
+    @Data
+    public static class Bulk {
+        // Load spreadsheets with at least thresholdCells cells through CSV files and LOAD CSV
+        private boolean enabled = false;
+        private long thresholdCells = 1_000_000;
+        // Where the CSV files are written; the database must use it as its import directory
+        private String directory = "data/import";
+        // How the database addresses that directory in LOAD CSV
+        private String urlPrefix = "file:///";
+        // Rows per transaction of CALL { ... } IN TRANSACTIONS
+        private int commitSize = 10000;
+    }
+}
@@ -0,0 +1,24 @@
+package org.superjoin.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "polling")
+public class PollingProperties {
+
+    // Watch analyzed spreadsheets for edits and publish a SpreadsheetChangeEvent per changed cell
+    private boolean enabled = false;
+
+    // Bounds of each sheet's poll interval; a sheet starts at the minimum
+    private long minIntervalSeconds = 5;
+    private long maxIntervalSeconds = 300;
+
+    // A poll without edits stretches the sheet's interval by this factor; a poll with edits halves it
+    private double quietMultiplier = 1.5;
+
+    // Threads running polls of different spreadsheets
+    private int threads = 2;
+}
@@ -0,0 +1,20 @@
+package org.superjoin.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "recalculation")
+public class RecalculationProperties {
+
+    // Recompute the formulas downstream of a change event and broadcast their new values
+    private boolean enabled = true;
+
+    // Fork-join workers evaluating one topological level; 0 means one per available core
+    private int parallelism = 0;
+
+    // Levels with fewer cells are evaluated on the calling thread
+    private int parallelThreshold = 256;
+}
@@ -0,0 +1,54 @@
+package org.superjoin.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "google.sheets")
+public class SheetsProperties {
+
+    private String applicationName = "SuperJoinAI";
+
+    // Service account key used with read-only scope
+    private String credentialsFilePath = "src/main/resources/superjionai-8ec534a70d21.json";
+
+    private Fetch fetch = new Fetch();
+
+    private Cache cache = new Cache();
+
+    private Quota quota = new Quota();
+
+    @Data
+    public static class Fetch {
+        // Rows of grid data requested per call; a sheet is read as consecutive windows of this many rows
+        private int windowRows = 5000;
+        // Fetch threads shared by every read, and the windows of one sheet fetched ahead of its consumer
+        private int concurrency = 4;
+    }
+
+    @Data
+    public static class Cache {
+        // Keep parsed spreadsheets and skip graph rebuilds for content that has not changed
+        private boolean enabled = true;
+        // Snapshots younger than this are served without calling the Sheets API
+        private long freshSeconds = 30;
+        // Least recently used snapshots are evicted while their estimated heap exceeds this
+        private long maxWeightMegabytes = 256;
+    }
+
+    @Data
+    public static class Quota {
+        // Token bucket shared by every request of this process: sustained rate and burst size
+        private double requestsPerSecond = 5;
+        private int burst = 10;
+        // Requests on the wire at once, whatever thread issues them
+        private int maxConcurrentRequests = 8;
+        // Attempts of a request answered with 429 or 5xx, or failing on I/O
+        private int maxAttempts = 6;
+        // Backoff before retry n is a random time up to min(max, initial * 2^n)
+        private long initialBackoffMillis = 500;
+        private long maxBackoffMillis = 32000;
+    }
+}
@@ -0,0 +1,18 @@
+package org.superjoin.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.superjoin.component.ValueScanner;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "values")
+public class ValueProperties {
+
+    // BCP 47 tag of the locale cell text is written in; sets decimal and grouping separators and currency
+    private String locale = "en-US";
+
+    // Order of numeric dates such as 03/04/2024; unset takes it from the locale's short date format
+    private ValueScanner.DateOrder dateOrder;
+}
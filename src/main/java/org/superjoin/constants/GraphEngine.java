@@ -0,0 +1,6 @@
+package org.superjoin.constants;
+
+public enum GraphEngine {
+    BOLT,
+    EMBEDDED
+}
@@ -0,0 +1,7 @@
+package org.superjoin.constants;
+
+public enum IngestionMode {
+    PER_CELL,
+    BATCHED,
+    PARALLEL
+}
@@ -1,5 +1,5 @@
 package org.superjoin.constants;
 
 public enum SemanticLabel {
-    HEADER, ID, LABEL
+    HEADER, ID, LABEL, TOTAL
 }
@@ -5,18 +5,27 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.superjoin.component.GraphSchemaInitializer;
+import org.superjoin.component.PipelineMetrics;
+import org.superjoin.config.IngestionProperties;
+import org.superjoin.config.PollingProperties;
 import org.superjoin.dto.AnalysisResult;
-import org.superjoin.dto.SpreadsheetData;
+import org.superjoin.dto.SchemaStatus;
+import org.superjoin.dto.StageStats;
+import org.superjoin.dto.SpreadsheetSnapshot;
 import org.superjoin.querymodel.AnalyseQueryResult;
 import org.superjoin.querymodel.ImpactAnalysisResult;
 import org.superjoin.querymodel.QueryResult;
 import org.superjoin.querymodel.SemanticQuery;
-import org.superjoin.service.GoogleSheetsService;
+import org.superjoin.service.IngestionPipelineService;
 import org.superjoin.service.KnowledgeGraphService;
 import org.superjoin.service.SemanticQueryProcessor;
+import org.superjoin.service.SpreadsheetChangePoller;
+import org.superjoin.service.SpreadsheetSnapshotCache;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 
 @Slf4j
 @RestController
@@ -30,20 +39,55 @@ public class SpreadsheetBrainController {
     private SemanticQueryProcessor queryProcessor;
 
     @Autowired
-    private GoogleSheetsService sheetsService;
+    private SpreadsheetSnapshotCache snapshotCache;
     @Autowired
     private SemanticQueryProcessor semanticQueryProcessor;
 
+    @Autowired
+    private GraphSchemaInitializer schemaInitializer;
+
+    @Autowired
+    private IngestionPipelineService pipelineService;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private IngestionProperties ingestionProperties;
+
+    @Autowired
+    private SpreadsheetChangePoller changePoller;
+
+    @Autowired
+    private PollingProperties pollingProperties;
+
     @PostMapping("/spreadsheets/{id}/analyze")
     public ResponseEntity<AnalysisResult> analyzeSpreadsheet(@PathVariable String id) {
         try {
-            SpreadsheetData data = sheetsService.readSpreadsheet(id);
-            graphService.buildKnowledgeGraph(data);
-
             AnalysisResult result = new AnalysisResult();
+            String message = "Knowledge graph built successfully";
+            if (ingestionProperties.getPipeline().isEnabled()) {
+                result.setEntityCount((int) pipelineService.ingest(id));
+                // The graph no longer matches any cached build
+                snapshotCache.invalidate(id);
+                if (pollingProperties.isEnabled()) {
+                    changePoller.track(id, null);
+                }
+            } else {
+                SpreadsheetSnapshot snapshot = snapshotCache.get(id);
+                if (!snapshotCache.buildIfChanged(snapshot, graphService::buildKnowledgeGraph)) {
+                    message = "Spreadsheet unchanged, knowledge graph is up to date";
+                }
+                result.setEntityCount(snapshot.getData().getSheets().stream()
+                        .mapToInt(sheet -> sheet.getTable().size()).sum());
+                if (pollingProperties.isEnabled()) {
+                    // Edits from here on reach the graph as change events
+                    changePoller.track(id, snapshot.getData());
+                }
+            }
+
             result.setStatus("SUCCESS");
-            result.setMessage("Knowledge graph built successfully");
-            result.setEntityCount(data.getSheets().get(0).getCells().size());
+            result.setMessage(message);
             return ResponseEntity.ok(result);
         } catch (Exception e) {
             AnalysisResult analysisResult = new AnalysisResult();
@@ -53,6 +97,18 @@ public class SpreadsheetBrainController {
         }
     }
 
+    @PostMapping("/spreadsheets/{id}/watch")
+    public ResponseEntity<Void> watchSpreadsheet(@PathVariable String id) {
+        changePoller.track(id, null);
+        return ResponseEntity.accepted().build();
+    }
+
+    @DeleteMapping("/spreadsheets/{id}/watch")
+    public ResponseEntity<Void> unwatchSpreadsheet(@PathVariable String id) {
+        changePoller.untrack(id);
+        return ResponseEntity.noContent().build();
+    }
+
     @PostMapping("/query")
     public ResponseEntity<QueryResult> executeQuery(@RequestBody SemanticQuery query) {
         try {
@@ -67,12 +123,16 @@ public class SpreadsheetBrainController {
     }
 
     @GetMapping("/cells/{cellId}/impact")
-    public ResponseEntity<ImpactAnalysisResult> analyzeImpact(@PathVariable String cellId) {
+    public ResponseEntity<ImpactAnalysisResult> analyzeImpact(@PathVariable String cellId,
+                                                              @RequestParam(defaultValue = KnowledgeGraphService.DEFAULT_SPREADSHEET_ID) String spreadsheetId,
+                                                              @RequestParam(required = false) String sheet) {
         try {
             SemanticQuery impactQuery = new SemanticQuery();
             impactQuery.setQuery("What cells are affected if " + cellId + " changes?");
             impactQuery.setParameters(new HashMap<>(){});
             impactQuery.getParameters().put("cellId", cellId);
+            impactQuery.getParameters().put("spreadsheetId", spreadsheetId);
+            impactQuery.getParameters().put("sheet", sheet);
 
             return ResponseEntity.ok(queryProcessor.processImpactQuery(impactQuery));
         } catch (Exception e) {
@@ -82,10 +142,25 @@ public class SpreadsheetBrainController {
         }
     }
 
+    @GetMapping("/ingestion/metrics")
+    public ResponseEntity<List<StageStats>> getIngestionMetrics() {
+        return ResponseEntity.ok(pipelineMetrics.snapshot());
+    }
+
+    @GetMapping("/graph/schema")
+    public ResponseEntity<SchemaStatus> getGraphSchema() {
+        try {
+            return ResponseEntity.ok(schemaInitializer.getStatus());
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     @GetMapping("/graph/visualize")
-    public ResponseEntity<AnalyseQueryResult> getGraphVisualization() {
+    public ResponseEntity<AnalyseQueryResult> getGraphVisualization(
+            @RequestParam(defaultValue = KnowledgeGraphService.DEFAULT_SPREADSHEET_ID) String spreadsheetId) {
         try {
-            return ResponseEntity.ok(semanticQueryProcessor.visualiseGraph());
+            return ResponseEntity.ok(semanticQueryProcessor.visualiseGraph(spreadsheetId));
         } catch (Exception e) {
             AnalyseQueryResult result = new AnalyseQueryResult();
             result.setExplanation("Query execution failed: " + e.getMessage());
@@ -0,0 +1,26 @@
+package org.superjoin.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Graph-ready rows for one sheet, produced by the analysis stage and consumed by the writer.
+ */
+@Data
+public class AnalyzedSheet {
+    private String spreadsheetId;
+    private String id;
+    private String name;
+    // Table regions of the whole sheet and their column profiles; partitions of a sheet carry none
+    private List<Map<String, Object>> tableRows = new ArrayList<>();
+    private List<Map<String, Object>> columnRows = new ArrayList<>();
+    // One row per distinct shared formula on the sheet; cell rows refer to it by id and offset
+    private List<Map<String, Object>> formulaGroupRows = new ArrayList<>();
+    private List<Map<String, Object>> cellRows = new ArrayList<>();
+    private List<Map<String, Object>> dependencyRows = new ArrayList<>();
+    // One row per formula and range it reads; ranges are never expanded into cell edges
+    private List<Map<String, Object>> rangeRows = new ArrayList<>();
+}
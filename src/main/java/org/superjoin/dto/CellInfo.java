@@ -1,12 +1,16 @@
 package org.superjoin.dto;
 
 import lombok.Data;
+import org.superjoin.formula.CellKey;
 
 @Data
 public class CellInfo {
     private String address;
     private String value;
     private String formula;
+    // 1-based position; readers set it instead of the address, which is then only built on demand
+    private int column;
+    private int row;
 
     public CellInfo() {}
 
@@ -15,4 +19,45 @@ public class CellInfo {
         this.value = newValue;
         this.formula = formula;
     }
-}
\ No newline at end of file
+
+    public CellInfo(int column, int row) {
+        this.column = column;
+        this.row = row;
+    }
+
+    public String getAddress() {
+        if (address == null && column > 0) {
+            address = CellKey.address(column, row);
+        }
+        return address;
+    }
+
+    public void setAddress(String address) {
+        this.address = address;
+        this.column = 0;
+        this.row = 0;
+    }
+
+    /**
+     * 1-based column, or 0 if the address is not an A1 reference.
+     */
+    public int getColumn() {
+        resolvePosition();
+        return column;
+    }
+
+    public int getRow() {
+        resolvePosition();
+        return row;
+    }
+
+    private void resolvePosition() {
+        if (column == 0 && address != null) {
+            long key = CellKey.parse(0, address);
+            if (key != CellKey.NONE) {
+                column = CellKey.column(key);
+                row = CellKey.row(key);
+            }
+        }
+    }
+}
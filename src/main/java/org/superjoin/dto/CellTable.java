@@ -0,0 +1,317 @@
+package org.superjoin.dto;
+
+import org.superjoin.formula.CellKey;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The cells of one sheet, stored column-wise in primitive arrays: positions as ints, numbers as
+ * doubles behind a type tag, and text and formulas as indexes into a per-sheet dictionary, so a
+ * value or formula repeated down a column is held once. A1 addresses are never stored.
+ * <p>
+ * {@link #asList()} presents the cells as {@link CellInfo}s for code written against the DTOs;
+ * hot paths read the columns directly by index. A {@link #slice} shares the arrays of its table.
+ */
+public final class CellTable {
+
+    public static final byte BLANK = 0;
+    public static final byte NUMBER = 1;
+    public static final byte TEXT = 2;
+
+    private static final int NO_STRING = -1;
+
+    private final Columns columns;
+    private final int offset;
+    private final int length;
+
+    public CellTable() {
+        this(new Columns(), 0, -1);
+    }
+
+    private CellTable(Columns columns, int offset, int length) {
+        this.columns = columns;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public static CellTable of(List<CellInfo> cells) {
+        CellTable table = new CellTable();
+        for (CellInfo cell : cells) {
+            table.add(cell);
+        }
+        return table;
+    }
+
+    public int size() {
+        return length < 0 ? columns.size : length;
+    }
+
+    /**
+     * Appends a cell whose value is text, or blank when {@code value} is null.
+     */
+    public void addText(int column, int row, String value, String formula) {
+        int i = append(column, row, formula);
+        columns.types[i] = value == null ? BLANK : TEXT;
+        columns.texts[i] = value == null ? NO_STRING : columns.intern(value);
+    }
+
+    /**
+     * Appends a numeric cell. {@code display} is the text the source shows for it; it is only
+     * stored when it differs from {@link Double#toString(double)}.
+     */
+    public void addNumber(int column, int row, double value, String display, String formula) {
+        int i = append(column, row, formula);
+        columns.types[i] = NUMBER;
+        columns.numbers[i] = value;
+        columns.texts[i] = display == null || display.equals(Double.toString(value)) ? NO_STRING : columns.intern(display);
+    }
+
+    public void add(CellInfo cell) {
+        int i = columns.size;
+        addText(cell.getColumn(), cell.getRow(), cell.getValue(), cell.getFormula());
+        if (cell.getColumn() == 0 && cell.getAddress() != null) {
+            columns.names.put(i, cell.getAddress());
+        }
+    }
+
+    /**
+     * Appends every cell of another table, e.g. one window of rows read on its own.
+     */
+    public void addAll(CellTable other) {
+        for (int i = 0; i < other.size(); i++) {
+            if (other.type(i) == NUMBER) {
+                addNumber(other.column(i), other.row(i), other.number(i), other.value(i), other.formula(i));
+            } else {
+                int index = columns.size;
+                addText(other.column(i), other.row(i), other.value(i), other.formula(i));
+                if (other.column(i) == 0) {
+                    columns.names.put(index, other.address(i));
+                }
+            }
+        }
+    }
+
+    public int column(int i) {
+        return columns.columns[offset + i];
+    }
+
+    public int row(int i) {
+        return columns.rows[offset + i];
+    }
+
+    public byte type(int i) {
+        return columns.types[offset + i];
+    }
+
+    public double number(int i) {
+        return columns.numbers[offset + i];
+    }
+
+    /**
+     * The value as text, as the source displayed it; null for blank cells.
+     */
+    public String value(int i) {
+        int cell = offset + i;
+        switch (columns.types[cell]) {
+            case NUMBER:
+                return columns.texts[cell] == NO_STRING
+                        ? Double.toString(columns.numbers[cell])
+                        : columns.strings.get(columns.texts[cell]);
+            case TEXT:
+                return columns.strings.get(columns.texts[cell]);
+            default:
+                return null;
+        }
+    }
+
+    public String formula(int i) {
+        int index = columns.formulas[offset + i];
+        return index == NO_STRING ? null : columns.strings.get(index);
+    }
+
+    public boolean hasFormula(int i) {
+        return columns.formulas[offset + i] != NO_STRING;
+    }
+
+    /**
+     * The A1 address, built on each call; cells added with a non-A1 address return it as given.
+     */
+    public String address(int i) {
+        int cell = offset + i;
+        if (columns.columns[cell] == 0) {
+            return columns.names.get(cell);
+        }
+        return CellKey.address(columns.columns[cell], columns.rows[cell]);
+    }
+
+    public CellInfo toCellInfo(int i) {
+        CellInfo cell = new CellInfo(column(i), row(i));
+        if (column(i) == 0) {
+            cell.setAddress(address(i));
+        }
+        cell.setValue(value(i));
+        cell.setFormula(formula(i));
+        return cell;
+    }
+
+    /**
+     * Cells {@code from} (inclusive) to {@code to} (exclusive) as a table over the same arrays.
+     */
+    public CellTable slice(int from, int to) {
+        return new CellTable(columns, offset + from, to - from);
+    }
+
+    /**
+     * Index of the first cell in the table this one was sliced from, 0 for a table that is no slice.
+     */
+    public int offset() {
+        return offset;
+    }
+
+    /**
+     * The cells as {@link CellInfo}s, created on access. Adding to the list appends to the table.
+     */
+    public List<CellInfo> asList() {
+        return new View();
+    }
+
+    private int append(int column, int row, String formula) {
+        if (length >= 0) {
+            throw new UnsupportedOperationException("Slices of a cell table are read-only");
+        }
+        return columns.append(column, row, formula == null ? NO_STRING : columns.intern(formula));
+    }
+
+    /**
+     * Dictionary size, for logging.
+     */
+    public int getDistinctStrings() {
+        return columns.strings.size();
+    }
+
+    /**
+     * Approximate heap held by the table's arrays and dictionary, for cache weighing.
+     */
+    public long getEstimatedBytes() {
+        // Six column arrays: int, int, byte, double, int, int
+        return (long) columns.columns.length * 25 + columns.stringBytes;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the cells and their dictionary. Tables holding the same cells added in
+     * the same order hash equal; a slice hashes its own cells with the whole dictionary.
+     */
+    public long contentHash() {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < size(); i++) {
+            int cell = offset + i;
+            hash = mix(hash, columns.columns[cell]);
+            hash = mix(hash, columns.rows[cell]);
+            hash = mix(hash, columns.types[cell]);
+            hash = mix(hash, Double.doubleToLongBits(columns.numbers[cell]));
+            hash = mix(hash, columns.texts[cell]);
+            hash = mix(hash, columns.formulas[cell]);
+        }
+        for (String string : columns.strings) {
+            hash = mix(hash, string);
+        }
+        return hash;
+    }
+
+    /**
+     * Mixes in the length and then every character, so that distinct strings only collide as the
+     * 64-bit hash does, not as {@link String#hashCode()} does ("Aa" and "BB"). Null hashes as
+     * length -1.
+     */
+    public static long mix(long hash, String string) {
+        if (string == null) {
+            return mix(hash, -1L);
+        }
+        hash = mix(hash, string.length());
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            hash ^= c & 0xff;
+            hash *= 0x100000001b3L;
+            hash ^= c >>> 8;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Mixes the eight bytes of {@code value} into a 64-bit FNV-1a hash.
+     */
+    public static long mix(long hash, long value) {
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash ^= (value >>> shift) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private final class View extends AbstractList<CellInfo> {
+        @Override
+        public CellInfo get(int index) {
+            return toCellInfo(index);
+        }
+
+        @Override
+        public boolean add(CellInfo cell) {
+            CellTable.this.add(cell);
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return CellTable.this.size();
+        }
+    }
+
+    private static final class Columns {
+        private int size;
+        private int[] columns = new int[64];
+        private int[] rows = new int[64];
+        private byte[] types = new byte[64];
+        private double[] numbers = new double[64];
+        private int[] texts = new int[64];
+        private int[] formulas = new int[64];
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> stringIndexes = new HashMap<>();
+        // Addresses of cells added with an id that is not an A1 reference
+        private final Map<Integer, String> names = new HashMap<>();
+        // Approximate heap of the dictionary: the strings and their map entries
+        private long stringBytes;
+
+        private int append(int column, int row, int formula) {
+            if (size == columns.length) {
+                int capacity = size * 2;
+                columns = Arrays.copyOf(columns, capacity);
+                rows = Arrays.copyOf(rows, capacity);
+                types = Arrays.copyOf(types, capacity);
+                numbers = Arrays.copyOf(numbers, capacity);
+                texts = Arrays.copyOf(texts, capacity);
+                formulas = Arrays.copyOf(formulas, capacity);
+            }
+            columns[size] = column;
+            rows[size] = row;
+            formulas[size] = formula;
+            return size++;
+        }
+
+        private int intern(String value) {
+            Integer index = stringIndexes.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.add(value);
+                stringIndexes.put(value, index);
+                stringBytes += 2L * value.length() + 96;
+            }
+            return index;
+        }
+    }
+}
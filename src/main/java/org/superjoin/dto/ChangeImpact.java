@@ -1,6 +1,7 @@
 package org.superjoin.dto;
 
 import java.util.List;
+import java.util.Map;
 
 import lombok.Data;
 
@@ -10,4 +11,6 @@ public class ChangeImpact {
     private String oldValue;
     private String newValue;
     private List<String> affectedCells;
+    // New values of the recalculated formulas, keyed like affectedCells
+    private Map<String, String> recalculatedValues;
 }
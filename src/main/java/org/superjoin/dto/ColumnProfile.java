@@ -0,0 +1,31 @@
+package org.superjoin.dto;
+
+import lombok.Data;
+import org.superjoin.constants.DataType;
+import org.superjoin.constants.SemanticLabel;
+
+/**
+ * Statistics of one column of a table region, gathered in a single pass over its cells. Counts
+ * exclude the header and totals cells.
+ */
+@Data
+public class ColumnProfile {
+    // Id of the table region the column belongs to
+    private String table;
+    // 1-based column index on the sheet
+    private int index;
+    private String header;
+    // Rows of the table's header and totals, 0 if it has none
+    private int headerRow;
+    private int totalRow;
+    // Most frequent type of the non-blank values, null for a column holding only its header
+    private DataType dataType;
+    private int count;
+    private int distinctCount;
+    // Numeric range, null without numeric values
+    private Double min;
+    private Double max;
+    // Share of values shaped like an identifier such as INV-0042
+    private double idRatio;
+    private SemanticLabel semanticLabel;
+}
@@ -0,0 +1,11 @@
+package org.superjoin.dto;
+
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+public class SchemaStatus {
+    private boolean online;
+    private Map<String, String> indexStates;
+}
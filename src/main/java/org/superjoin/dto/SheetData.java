@@ -2,22 +2,32 @@ package org.superjoin.dto;
 
 import lombok.Data;
 
-import java.util.ArrayList;
 import java.util.List;
 
 @Data
 public class SheetData {
     private String id;
     private String name;
-    private List<CellInfo> cells;
+    private CellTable table;
 
     public SheetData() {
         this.name = "";
-        this.cells = new ArrayList<>();
+        this.table = new CellTable();
     }
 
     public SheetData(String sheetName) {
         this.name = sheetName;
-        cells = new ArrayList<>();
+        table = new CellTable();
     }
-}
\ No newline at end of file
+
+    /**
+     * The cells as DTOs, backed by the table; see {@link CellTable#asList()}.
+     */
+    public List<CellInfo> getCells() {
+        return table.asList();
+    }
+
+    public void setCells(List<CellInfo> cells) {
+        this.table = CellTable.of(cells);
+    }
+}
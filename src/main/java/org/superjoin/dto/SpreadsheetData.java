@@ -6,5 +6,6 @@ import java.util.List;
 
 @Data
 public class SpreadsheetData {
+    private String id;
     private List<SheetData> sheets;
 }
\ No newline at end of file
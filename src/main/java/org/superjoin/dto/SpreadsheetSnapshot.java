@@ -0,0 +1,17 @@
+package org.superjoin.dto;
+
+import lombok.Data;
+
+/**
+ * A parsed spreadsheet as held by the snapshot cache.
+ */
+@Data
+public class SpreadsheetSnapshot {
+    private SpreadsheetData data;
+    // Hash over every sheet's name, id and cells; equal hashes mean unchanged content
+    private long contentHash;
+    // Estimated heap of the cell tables
+    private long weight;
+    // When the content was last fetched or confirmed unchanged, epoch millis
+    private long fetchedAt;
+}
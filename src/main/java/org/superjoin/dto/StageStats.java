@@ -0,0 +1,13 @@
+package org.superjoin.dto;
+
+import lombok.Data;
+
+@Data
+public class StageStats {
+    private String stage;
+    private long sheetsProcessed;
+    private long cellsProcessed;
+    private double cellsPerSecond;
+    private int queueDepth;
+    private int activeWorkers;
+}
@@ -0,0 +1,21 @@
+package org.superjoin.dto;
+
+import lombok.Data;
+
+/**
+ * A block of adjacent non-blank cells on a sheet, bounded by blank rows and columns. Regions of
+ * one sheet never overlap.
+ */
+@Data
+public class TableRegion {
+    // A1 address of the top-left corner; stays stable while rows are appended
+    private String id;
+    private int firstColumn;
+    private int firstRow;
+    private int lastColumn;
+    private int lastRow;
+    // 0 when the region has no header or totals row
+    private int headerRow;
+    private int totalRow;
+    private int cellCount;
+}
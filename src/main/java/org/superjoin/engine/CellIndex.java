@@ -0,0 +1,141 @@
+package org.superjoin.engine;
+
+import org.superjoin.formula.CellKey;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns dense int ids to packed {@link CellKey}s. Open addressing over parallel arrays keeps
+ * lookups free of boxing and string hashing; ids are handed out in insertion order and never reused.
+ * <p>
+ * Cells whose address is not an A1 reference are indexed by name on the side; their key carries
+ * only the sheet, with column and row 0.
+ */
+public final class CellIndex {
+
+    private static final int EMPTY = -1;
+
+    private long[] keys;
+    private int[] slots;
+    private int size;
+    private final Map<String, Integer> idsByName = new HashMap<>();
+    private final Map<Integer, String> namesById = new HashMap<>();
+
+    public CellIndex() {
+        this(1024);
+    }
+
+    public CellIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        keys = new long[Math.max(16, expectedSize)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the id of {@code key}, or -1 if it was never added
+     */
+    public int get(long key) {
+        int mask = slots.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot];
+            if (id == EMPTY) {
+                return EMPTY;
+            }
+            if (keys[id] == key) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return the existing id of {@code key}, or a newly assigned one
+     */
+    public int add(long key) {
+        int mask = slots.length - 1;
+        int slot = mix(key) & mask;
+        for (; ; slot = (slot + 1) & mask) {
+            int id = slots[slot];
+            if (id == EMPTY) {
+                break;
+            }
+            if (keys[id] == key) {
+                return id;
+            }
+        }
+
+        int id = append(key);
+        slots[slot] = id;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * @return the id of the cell named {@code name} on the sheet, or -1
+     */
+    public int getNamed(int sheet, String name) {
+        Integer id = idsByName.get(sheet + "!" + name);
+        return id == null ? EMPTY : id;
+    }
+
+    public int addNamed(int sheet, String name) {
+        Integer existing = idsByName.get(sheet + "!" + name);
+        if (existing != null) {
+            return existing;
+        }
+        int id = append(CellKey.of(sheet, 0, 0));
+        idsByName.put(sheet + "!" + name, id);
+        namesById.put(id, name);
+        return id;
+    }
+
+    public long keyOf(int id) {
+        return keys[id];
+    }
+
+    /**
+     * The address of a named cell, or null for cells with an A1 address.
+     */
+    public String nameOf(int id) {
+        return CellKey.column(keys[id]) == 0 ? namesById.get(id) : null;
+    }
+
+    private int append(long key) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        keys[size] = key;
+        return size++;
+    }
+
+    private void rehash() {
+        int[] grown = new int[slots.length * 2];
+        Arrays.fill(grown, EMPTY);
+        int mask = grown.length - 1;
+        for (int id = 0; id < size; id++) {
+            // Named cells are not in the slots; their keys have column 0
+            if (CellKey.column(keys[id]) == 0) {
+                continue;
+            }
+            int slot = mix(keys[id]) & mask;
+            while (grown[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = id;
+        }
+        slots = grown;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,273 @@
+package org.superjoin.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Formula dependency graph over dense int cell ids, stored in compressed sparse row form.
+ * <p>
+ * Forward rows list a cell's precedents (the cells its formula reads), reverse rows list its
+ * dependents. Each direction is one offsets array of {@code cellCount + 1} ints and one targets
+ * array of {@code edgeCount} ints, so a million cells with five million edges take roughly
+ * 48 MB and traversals touch nothing but primitive arrays.
+ * <p>
+ * The cell set is fixed once built. A cell's precedents can be replaced by
+ * {@link #replacePrecedents}; the rows it touches are then held as patch rows that take the
+ * place of their CSR slices. Patch rows are published through atomic arrays, so traversals on
+ * other threads need no lock to see them.
+ */
+public final class DependencyGraph {
+
+    private final int cellCount;
+    private final int[] precedentOffsets;
+    private final int[] precedents;
+    private final int[] dependentOffsets;
+    private final int[] dependents;
+
+    // Rows replaced since the graph was built, by cell; null until the first replacement
+    private volatile AtomicReferenceArray<int[]> precedentPatches;
+    private volatile AtomicReferenceArray<int[]> dependentPatches;
+    private volatile int patchedEdgeDelta;
+
+    // Per-thread visit marks; a generation counter avoids clearing them between traversals
+    private final ThreadLocal<int[]> visitMarks;
+    private final ThreadLocal<int[]> visitGeneration = ThreadLocal.withInitial(() -> new int[1]);
+
+    private DependencyGraph(int cellCount, int[] precedentOffsets, int[] precedents,
+                            int[] dependentOffsets, int[] dependents) {
+        this.cellCount = cellCount;
+        this.precedentOffsets = precedentOffsets;
+        this.precedents = precedents;
+        this.dependentOffsets = dependentOffsets;
+        this.dependents = dependents;
+        this.visitMarks = ThreadLocal.withInitial(() -> new int[cellCount]);
+    }
+
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    public int getEdgeCount() {
+        return precedents.length + patchedEdgeDelta;
+    }
+
+    public int[] precedentsOf(int cell) {
+        int[] patched = patchOf(precedentPatches, cell);
+        if (patched != null) {
+            return patched.clone();
+        }
+        return Arrays.copyOfRange(precedents, precedentOffsets[cell], precedentOffsets[cell + 1]);
+    }
+
+    public int[] dependentsOf(int cell) {
+        int[] patched = patchOf(dependentPatches, cell);
+        if (patched != null) {
+            return patched.clone();
+        }
+        return Arrays.copyOfRange(dependents, dependentOffsets[cell], dependentOffsets[cell + 1]);
+    }
+
+    private static int[] patchOf(AtomicReferenceArray<int[]> patches, int cell) {
+        return patches == null ? null : patches.get(cell);
+    }
+
+    /**
+     * Replaces the cells {@code cell}'s formula reads, and moves it between the dependent rows of
+     * its old and new precedents. Callers serialise replacements; every row is a fresh array
+     * published with a single atomic write, so a concurrent traversal sees each row either before
+     * or after it was replaced.
+     */
+    public synchronized void replacePrecedents(int cell, int[] replacement) {
+        if (precedentPatches == null) {
+            dependentPatches = new AtomicReferenceArray<>(cellCount);
+            precedentPatches = new AtomicReferenceArray<>(cellCount);
+        }
+        int[] old = precedentsOf(cell);
+        for (int precedent : old) {
+            int[] row = dependentsOf(precedent);
+            for (int i = 0; i < row.length; i++) {
+                if (row[i] == cell) {
+                    System.arraycopy(row, i + 1, row, i, row.length - i - 1);
+                    row = Arrays.copyOf(row, row.length - 1);
+                    break;
+                }
+            }
+            dependentPatches.set(precedent, row);
+        }
+        for (int precedent : replacement) {
+            int[] row = dependentsOf(precedent);
+            row = Arrays.copyOf(row, row.length + 1);
+            row[row.length - 1] = cell;
+            dependentPatches.set(precedent, row);
+        }
+        precedentPatches.set(cell, replacement.clone());
+        patchedEdgeDelta += replacement.length - old.length;
+    }
+
+    /**
+     * All cells that transitively depend on {@code cell}, in breadth-first order, excluding the cell itself.
+     */
+    public int[] impactOf(int cell) {
+        return impactOf(cell, Integer.MAX_VALUE);
+    }
+
+    public int[] impactOf(int cell, int maxDepth) {
+        return breadthFirst(new int[]{cell}, false, dependentOffsets, dependents, dependentPatches, maxDepth, null);
+    }
+
+    /**
+     * Transitive dependents of several cells, following both the stored edges and the edges
+     * supplied by {@code extra}. With {@code includeSeeds} the seeds themselves are part of the result.
+     */
+    public int[] impactOf(int[] seeds, boolean includeSeeds, int maxDepth, Neighbours extra) {
+        return breadthFirst(seeds, includeSeeds, dependentOffsets, dependents, dependentPatches, maxDepth, extra);
+    }
+
+    /**
+     * All cells that {@code cell} transitively reads, in breadth-first order, excluding the cell itself.
+     */
+    public int[] precedentClosureOf(int cell) {
+        return precedentClosureOf(cell, Integer.MAX_VALUE);
+    }
+
+    public int[] precedentClosureOf(int cell, int maxDepth) {
+        return breadthFirst(new int[]{cell}, false, precedentOffsets, precedents, precedentPatches, maxDepth, null);
+    }
+
+    public int[] precedentClosureOf(int[] seeds, boolean includeSeeds, int maxDepth, Neighbours extra) {
+        return breadthFirst(seeds, includeSeeds, precedentOffsets, precedents, precedentPatches, maxDepth, extra);
+    }
+
+    private int[] breadthFirst(int[] seeds, boolean includeSeeds, int[] offsets, int[] targets,
+                               AtomicReferenceArray<int[]> patches, int maxDepth, Neighbours extra) {
+        int[] marks = visitMarks.get();
+        int[] generationHolder = visitGeneration.get();
+        int generation = ++generationHolder[0];
+        if (generation == 0) {
+            // Wrapped around: stale marks could now look current
+            Arrays.fill(marks, 0);
+            generation = generationHolder[0] = 1;
+        }
+
+        // The queue doubles as the result; each cell is appended at most once
+        int[] queue = new int[Math.max(1, Math.min(cellCount, 16))];
+        int head = 0;
+        int tail = 0;
+        for (int seed : seeds) {
+            if (seed >= 0 && seed < cellCount && marks[seed] != generation) {
+                marks[seed] = generation;
+                if (tail == queue.length) {
+                    queue = Arrays.copyOf(queue, Math.min(cellCount, queue.length * 2));
+                }
+                queue[tail++] = seed;
+            }
+        }
+        int seedCount = tail;
+
+        int levelEnd;
+        int depth = 0;
+        while (head < tail && depth < maxDepth) {
+            levelEnd = tail;
+            while (head < levelEnd) {
+                int current = queue[head++];
+                int[] patched = patchOf(patches, current);
+                int[] more = extra == null ? null : extra.of(current);
+                for (int pass = 0; pass < 2; pass++) {
+                    int[] next;
+                    int from;
+                    int to;
+                    if (pass == 0 && patched == null) {
+                        next = targets;
+                        from = offsets[current];
+                        to = offsets[current + 1];
+                    } else {
+                        next = pass == 0 ? patched : more;
+                        from = 0;
+                        to = next == null ? 0 : next.length;
+                    }
+                    for (int i = from; i < to; i++) {
+                        int cell = next[i];
+                        if (marks[cell] != generation) {
+                            marks[cell] = generation;
+                            if (tail == queue.length) {
+                                queue = Arrays.copyOf(queue, Math.min(cellCount, queue.length * 2));
+                            }
+                            queue[tail++] = cell;
+                        }
+                    }
+                }
+            }
+            depth++;
+        }
+        return Arrays.copyOfRange(queue, includeSeeds ? 0 : seedCount, tail);
+    }
+
+    /**
+     * Edges that are not stored in the graph, such as formulas reading a cell through a range.
+     */
+    @FunctionalInterface
+    public interface Neighbours {
+        int[] of(int cell);
+    }
+
+    public static Builder builder(int cellCount) {
+        return new Builder(cellCount);
+    }
+
+    /**
+     * Collects edges into two growable int arrays and lays them out as CSR with a counting sort.
+     */
+    public static final class Builder {
+        private final int cellCount;
+        private int[] from = new int[1024];
+        private int[] to = new int[1024];
+        private int edgeCount;
+
+        private Builder(int cellCount) {
+            this.cellCount = cellCount;
+        }
+
+        /**
+         * Records that {@code dependent}'s formula reads {@code precedent}.
+         */
+        public Builder addEdge(int dependent, int precedent) {
+            if (dependent < 0 || dependent >= cellCount || precedent < 0 || precedent >= cellCount) {
+                throw new IndexOutOfBoundsException("Edge " + dependent + " -> " + precedent
+                        + " outside of " + cellCount + " cells");
+            }
+            if (edgeCount == from.length) {
+                from = Arrays.copyOf(from, edgeCount * 2);
+                to = Arrays.copyOf(to, edgeCount * 2);
+            }
+            from[edgeCount] = dependent;
+            to[edgeCount] = precedent;
+            edgeCount++;
+            return this;
+        }
+
+        public DependencyGraph build() {
+            int[] precedentOffsets = new int[cellCount + 1];
+            int[] precedents = new int[edgeCount];
+            layout(from, to, precedentOffsets, precedents);
+
+            int[] dependentOffsets = new int[cellCount + 1];
+            int[] dependents = new int[edgeCount];
+            layout(to, from, dependentOffsets, dependents);
+
+            return new DependencyGraph(cellCount, precedentOffsets, precedents, dependentOffsets, dependents);
+        }
+
+        private void layout(int[] sources, int[] targets, int[] offsets, int[] rows) {
+            for (int i = 0; i < edgeCount; i++) {
+                offsets[sources[i] + 1]++;
+            }
+            for (int i = 0; i < cellCount; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            int[] cursor = Arrays.copyOf(offsets, cellCount);
+            for (int i = 0; i < edgeCount; i++) {
+                rows[cursor[sources[i]]++] = targets[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.superjoin.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable two-dimensional interval index over the ranges read by formulas on one sheet. It
+ * answers "which formulas read cell (column, row)" without expanding any range into cells.
+ * <p>
+ * The outer structure is a segment tree over the distinct column boundaries. Each range is stored
+ * in the O(log n) tree nodes that exactly cover its columns, and every node keeps its ranges in a
+ * static interval tree over rows: sorted by first row and augmented with the largest last row of
+ * each subtree. A lookup walks one root-to-leaf path and searches each node's row tree, so it takes
+ * O(log² n + k) for k hits while memory stays O(n log n) in the number of ranges.
+ */
+public final class RangeIndex {
+
+    private static final int[] NONE = new int[0];
+
+    // Elementary column segments are [columnBounds[i], columnBounds[i + 1])
+    private final int[] columnBounds;
+    private final int segmentCount;
+
+    // Per tree node: a slice of the entry arrays, sorted by first row
+    private final int[] nodeOffsets;
+    private final int[] entryFirstRow;
+    private final int[] entryLastRow;
+    private final int[] entryMaxLastRow;
+    private final int[] entryValue;
+
+    private RangeIndex(int[] columnBounds, int[] nodeOffsets, int[] entryFirstRow, int[] entryLastRow,
+                       int[] entryMaxLastRow, int[] entryValue) {
+        this.columnBounds = columnBounds;
+        this.segmentCount = Math.max(0, columnBounds.length - 1);
+        this.nodeOffsets = nodeOffsets;
+        this.entryFirstRow = entryFirstRow;
+        this.entryLastRow = entryLastRow;
+        this.entryMaxLastRow = entryMaxLastRow;
+        this.entryValue = entryValue;
+    }
+
+    /**
+     * Values of every range containing the cell. A value appears once per containing range.
+     */
+    public int[] containing(int column, int row) {
+        if (segmentCount == 0 || column < columnBounds[0] || column >= columnBounds[segmentCount]) {
+            return NONE;
+        }
+        int segment = Arrays.binarySearch(columnBounds, column);
+        if (segment < 0) {
+            segment = -segment - 2;
+        }
+
+        Hits hits = new Hits();
+        int node = 1;
+        int low = 0;
+        int high = segmentCount;
+        while (true) {
+            stab(nodeOffsets[node], nodeOffsets[node + 1], row, hits);
+            if (high - low == 1) {
+                return hits.toArray();
+            }
+            int middle = (low + high) >>> 1;
+            if (segment < middle) {
+                high = middle;
+                node = 2 * node;
+            } else {
+                low = middle;
+                node = 2 * node + 1;
+            }
+        }
+    }
+
+    // Searches the implicit balanced tree over entries [start, end) whose root is the middle entry
+    private void stab(int start, int end, int row, Hits hits) {
+        if (start >= end) {
+            return;
+        }
+        int middle = (start + end) >>> 1;
+        if (entryMaxLastRow[middle] < row) {
+            return;
+        }
+        stab(start, middle, row, hits);
+        if (entryFirstRow[middle] <= row) {
+            if (entryLastRow[middle] >= row) {
+                hits.add(entryValue[middle]);
+            }
+            stab(middle + 1, end, row, hits);
+        }
+    }
+
+    private static final class Hits {
+        private int[] values = NONE;
+        private int count;
+
+        private void add(int value) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, Math.max(8, count * 2));
+            }
+            values[count++] = value;
+        }
+
+        private int[] toArray() {
+            return count == 0 ? NONE : Arrays.copyOf(values, count);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private int[] firstColumns = new int[64];
+        private int[] firstRows = new int[64];
+        private int[] lastColumns = new int[64];
+        private int[] lastRows = new int[64];
+        private int[] values = new int[64];
+        private int size;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds an inclusive, 1-based range that yields {@code value} when one of its cells is looked up.
+         */
+        public Builder add(int firstColumn, int firstRow, int lastColumn, int lastRow, int value) {
+            if (size == values.length) {
+                int capacity = size * 2;
+                firstColumns = Arrays.copyOf(firstColumns, capacity);
+                firstRows = Arrays.copyOf(firstRows, capacity);
+                lastColumns = Arrays.copyOf(lastColumns, capacity);
+                lastRows = Arrays.copyOf(lastRows, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            firstColumns[size] = firstColumn;
+            firstRows[size] = firstRow;
+            lastColumns[size] = lastColumn;
+            lastRows[size] = lastRow;
+            values[size] = value;
+            size++;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public RangeIndex build() {
+            int[] bounds = new int[size * 2];
+            for (int i = 0; i < size; i++) {
+                bounds[2 * i] = firstColumns[i];
+                bounds[2 * i + 1] = lastColumns[i] + 1;
+            }
+            Arrays.sort(bounds);
+            int distinct = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                if (i == 0 || bounds[i] != bounds[i - 1]) {
+                    bounds[distinct++] = bounds[i];
+                }
+            }
+            int[] columnBounds = Arrays.copyOf(bounds, distinct);
+            int segments = Math.max(0, distinct - 1);
+
+            // Node 1 is the root covering every segment; children of n are 2n and 2n + 1
+            int nodeCount = segments == 0 ? 2 : 4 * segments;
+            List<List<Integer>> nodes = new ArrayList<>(nodeCount);
+            for (int i = 0; i < nodeCount; i++) {
+                nodes.add(null);
+            }
+            for (int i = 0; i < size; i++) {
+                int from = Arrays.binarySearch(columnBounds, firstColumns[i]);
+                int to = Arrays.binarySearch(columnBounds, lastColumns[i] + 1);
+                insert(nodes, 1, 0, segments, from, to, i);
+            }
+
+            int total = 0;
+            for (List<Integer> node : nodes) {
+                total += node == null ? 0 : node.size();
+            }
+            int[] nodeOffsets = new int[nodeCount + 1];
+            int[] entryFirstRow = new int[total];
+            int[] entryLastRow = new int[total];
+            int[] entryMaxLastRow = new int[total];
+            int[] entryValue = new int[total];
+            int cursor = 0;
+            for (int n = 0; n < nodeCount; n++) {
+                nodeOffsets[n] = cursor;
+                List<Integer> node = nodes.get(n);
+                if (node == null) {
+                    continue;
+                }
+                node.sort((a, b) -> Integer.compare(firstRows[a], firstRows[b]));
+                for (int entry : node) {
+                    entryFirstRow[cursor] = firstRows[entry];
+                    entryLastRow[cursor] = lastRows[entry];
+                    entryValue[cursor] = values[entry];
+                    cursor++;
+                }
+                augment(entryLastRow, entryMaxLastRow, nodeOffsets[n], cursor);
+            }
+            nodeOffsets[nodeCount] = cursor;
+            return new RangeIndex(columnBounds, nodeOffsets, entryFirstRow, entryLastRow, entryMaxLastRow, entryValue);
+        }
+
+        // Stores the range in the canonical nodes covering segments [from, to)
+        private static void insert(List<List<Integer>> nodes, int node, int low, int high, int from, int to, int entry) {
+            if (to <= low || high <= from) {
+                return;
+            }
+            if (from <= low && high <= to) {
+                if (nodes.get(node) == null) {
+                    nodes.set(node, new ArrayList<>());
+                }
+                nodes.get(node).add(entry);
+                return;
+            }
+            int middle = (low + high) >>> 1;
+            insert(nodes, 2 * node, low, middle, from, to, entry);
+            insert(nodes, 2 * node + 1, middle, high, from, to, entry);
+        }
+
+        private static int augment(int[] lastRows, int[] maxLastRows, int start, int end) {
+            if (start >= end) {
+                return Integer.MIN_VALUE;
+            }
+            int middle = (start + end) >>> 1;
+            int max = Math.max(lastRows[middle],
+                    Math.max(augment(lastRows, maxLastRows, start, middle), augment(lastRows, maxLastRows, middle + 1, end)));
+            maxLastRows[middle] = max;
+            return max;
+        }
+    }
+}
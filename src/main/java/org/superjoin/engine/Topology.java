@@ -0,0 +1,231 @@
+package org.superjoin.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntFunction;
+
+/**
+ * Strongly connected components and dependency levels of a {@link WorkbookGraph}.
+ * <p>
+ * Components are found with an iterative Tarjan walk along precedent edges. Tarjan closes a
+ * component only after every component it reads, so levels are assigned as components close:
+ * 0 for cells that read nothing, otherwise one more than the highest level read from outside the
+ * cell's own component. This is the Kahn levelisation of the component DAG without a second pass.
+ * Cells of one component share its level; cells of one level never read each other unless they
+ * are on the same cycle.
+ * <p>
+ * Levels can be moved by the engine while readers without its lock traverse it, so they are
+ * held in an atomic array.
+ */
+public final class Topology {
+
+    private final AtomicIntegerArray levels;
+    private final int[] components;
+    private final long[] componentIds;
+    private final boolean[] cyclic;
+    private final int[] componentSizes;
+    private volatile int levelCount;
+
+    private Topology(AtomicIntegerArray levels, int[] components, long[] componentIds, boolean[] cyclic, int[] componentSizes,
+                     int levelCount) {
+        this.levels = levels;
+        this.components = components;
+        this.componentIds = componentIds;
+        this.cyclic = cyclic;
+        this.componentSizes = componentSizes;
+        this.levelCount = levelCount;
+    }
+
+    public int levelOf(int cell) {
+        return levels.get(cell);
+    }
+
+    /**
+     * Moves a cell outside any cycle to another level, after the engine changed what it reads.
+     * The level count only grows, so it stays an upper bound for {@link #sortByLevel}.
+     */
+    void setLevel(int cell, int level) {
+        // The count first, so a reader that sees the new level also sees a count covering it
+        levelCount = Math.max(levelCount, level + 1);
+        levels.set(cell, level);
+    }
+
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    public int getComponentCount() {
+        return componentIds.length;
+    }
+
+    /**
+     * Index of the cell's component; components are numbered in dependency order.
+     */
+    public int componentOf(int cell) {
+        return components[cell];
+    }
+
+    /**
+     * Stable id of the cell's component: FNV-1a over the smallest member key, so it survives a
+     * reload of the engine with different cell ids.
+     */
+    public long componentIdOf(int cell) {
+        return componentIds[components[cell]];
+    }
+
+    public int componentSizeOf(int cell) {
+        return componentSizes[components[cell]];
+    }
+
+    /**
+     * Whether the cell is on a circular reference: a component of several cells or a self-reference.
+     */
+    public boolean isCyclic(int cell) {
+        return cyclic[components[cell]];
+    }
+
+    /**
+     * The cells ordered by level, keeping their relative order within a level.
+     */
+    public int[] sortByLevel(int[] cells) {
+        // Each level is read once, so a concurrent setLevel cannot move a cell between the passes
+        int[] cellLevels = new int[cells.length];
+        int count = 0;
+        for (int i = 0; i < cells.length; i++) {
+            cellLevels[i] = levels.get(cells[i]);
+            count = Math.max(count, cellLevels[i] + 1);
+        }
+        int[] offsets = new int[count + 1];
+        for (int level : cellLevels) {
+            offsets[level + 1]++;
+        }
+        for (int level = 0; level < count; level++) {
+            offsets[level + 1] += offsets[level];
+        }
+        int[] sorted = new int[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            sorted[offsets[cellLevels[i]]++] = cells[i];
+        }
+        return sorted;
+    }
+
+    static Topology of(int cellCount, IntFunction<String> keys, DependencyGraph.Neighbours precedents) {
+        int[] index = new int[cellCount];
+        Arrays.fill(index, -1);
+        int[] low = new int[cellCount];
+        // Highest level read so far from a closed component, plus one
+        int[] reach = new int[cellCount];
+        boolean[] onStack = new boolean[cellCount];
+        boolean[] selfReference = new boolean[cellCount];
+        int[] stack = new int[cellCount];
+        int stackSize = 0;
+
+        // Explicit call stack: the cell, its precedents and the next precedent to visit
+        int[] frameCells = new int[cellCount];
+        int[][] frameNeighbours = new int[cellCount][];
+        int[] framePositions = new int[cellCount];
+
+        int[] levels = new int[cellCount];
+        int[] components = new int[cellCount];
+        int[] componentSizes = new int[16];
+        boolean[] cyclic = new boolean[16];
+        int componentCount = 0;
+        int levelCount = 0;
+        int counter = 0;
+
+        for (int root = 0; root < cellCount; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            index[root] = low[root] = counter++;
+            onStack[root] = true;
+            stack[stackSize++] = root;
+            frameCells[depth] = root;
+            frameNeighbours[depth] = precedents.of(root);
+            framePositions[depth++] = 0;
+
+            while (depth > 0) {
+                int frame = depth - 1;
+                int cell = frameCells[frame];
+                int[] neighbours = frameNeighbours[frame];
+                if (framePositions[frame] < neighbours.length) {
+                    int next = neighbours[framePositions[frame]++];
+                    if (next == cell) {
+                        selfReference[cell] = true;
+                    } else if (index[next] < 0) {
+                        index[next] = low[next] = counter++;
+                        onStack[next] = true;
+                        stack[stackSize++] = next;
+                        frameCells[depth] = next;
+                        frameNeighbours[depth] = precedents.of(next);
+                        framePositions[depth++] = 0;
+                    } else if (onStack[next]) {
+                        low[cell] = Math.min(low[cell], index[next]);
+                    } else {
+                        reach[cell] = Math.max(reach[cell], levels[next] + 1);
+                    }
+                    continue;
+                }
+
+                frameNeighbours[frame] = null;
+                depth--;
+                if (low[cell] == index[cell]) {
+                    // Close the component: every member's reach has been folded into the root's
+                    if (componentCount == componentSizes.length) {
+                        componentSizes = Arrays.copyOf(componentSizes, componentCount * 2);
+                        cyclic = Arrays.copyOf(cyclic, componentCount * 2);
+                    }
+                    int level = reach[cell];
+                    int size = 0;
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        onStack[member] = false;
+                        levels[member] = level;
+                        components[member] = componentCount;
+                        size++;
+                    } while (member != cell);
+                    componentSizes[componentCount] = size;
+                    cyclic[componentCount] = size > 1 || selfReference[cell];
+                    componentCount++;
+                    levelCount = Math.max(levelCount, level + 1);
+                }
+                if (depth > 0) {
+                    int parent = frameCells[depth - 1];
+                    if (onStack[cell]) {
+                        low[parent] = Math.min(low[parent], low[cell]);
+                        reach[parent] = Math.max(reach[parent], reach[cell]);
+                    } else {
+                        reach[parent] = Math.max(reach[parent], levels[cell] + 1);
+                    }
+                }
+            }
+        }
+
+        // The smallest member key names a component independently of cell numbering
+        String[] smallestKeys = new String[componentCount];
+        for (int cell = 0; cell < cellCount; cell++) {
+            String key = keys.apply(cell);
+            int component = components[cell];
+            if (smallestKeys[component] == null || key.compareTo(smallestKeys[component]) < 0) {
+                smallestKeys[component] = key;
+            }
+        }
+        long[] componentIds = new long[componentCount];
+        for (int component = 0; component < componentCount; component++) {
+            componentIds[component] = hash(smallestKeys[component]);
+        }
+        return new Topology(new AtomicIntegerArray(levels), components, componentIds, Arrays.copyOf(cyclic, componentCount),
+                Arrays.copyOf(componentSizes, componentCount), levelCount);
+    }
+
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,471 @@
+package org.superjoin.engine;
+
+import lombok.Getter;
+import org.superjoin.formula.CellKey;
+import org.superjoin.formula.CellRef;
+import org.superjoin.formula.RangeRef;
+import org.superjoin.formula.SheetNames;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The in-memory dependency engine for one spreadsheet: cell ids, their CSR dependency graph and,
+ * per sheet, a {@link RangeIndex} of the ranges formulas read. Cells are keyed by packed
+ * {@link CellKey}s; {@code sheet!address} text is only built for callers outside the engine.
+ * <p>
+ * A formula reading a range has no edge to the range's cells. Traversals join the two: a cell's
+ * dependents are its stored dependents plus the formulas whose ranges contain it, and a formula's
+ * precedents are its stored precedents plus the known cells inside its ranges.
+ */
+public final class WorkbookGraph {
+
+    private static final int[] NONE = new int[0];
+
+    @Getter
+    private final String spreadsheetId;
+    @Getter
+    private final CellIndex cells;
+    @Getter
+    private final DependencyGraph dependencies;
+    @Getter
+    private final List<String> sheetNames;
+    private final Map<String, Integer> sheetIndexes;
+    private final Map<String, Integer> sheetIndexesByKey = new HashMap<>();
+
+    // Per sheet: ranges by the formulas reading them, and cell keys sorted by column then row
+    private final RangeIndex[] rangeIndexes;
+    private final long[][] sheetPositions;
+    private final int[][] sheetPositionCells;
+
+    // Ranges read by each cell's formula, five ints each: sheet, first column, first row, last column, last row
+    private final int[] rangeOffsets;
+    private final int[] rangeBounds;
+
+    private volatile Topology topology;
+
+    WorkbookGraph(String spreadsheetId, CellIndex cells, DependencyGraph dependencies, List<String> sheetNames,
+                  Map<String, Integer> sheetIndexes, RangeIndex[] rangeIndexes, int[] rangeOffsets, int[] rangeBounds) {
+        this.spreadsheetId = spreadsheetId;
+        this.cells = cells;
+        this.dependencies = dependencies;
+        this.sheetNames = sheetNames;
+        this.sheetIndexes = sheetIndexes;
+        this.rangeIndexes = rangeIndexes;
+        this.rangeOffsets = rangeOffsets;
+        this.rangeBounds = rangeBounds;
+        this.sheetPositions = new long[sheetNames.size()][];
+        this.sheetPositionCells = new int[sheetNames.size()][];
+        for (int i = 0; i < sheetNames.size(); i++) {
+            sheetIndexesByKey.putIfAbsent(SheetNames.key(sheetNames.get(i)), i);
+        }
+        indexPositions();
+    }
+
+    /**
+     * Resolves an address to cell ids. Without a sheet the address is looked up on every sheet,
+     * matching how unqualified ids are matched in the graph database.
+     */
+    public int[] resolve(String sheet, String address) {
+        if (sheet != null) {
+            int id = cellOf(sheet, address);
+            return id < 0 ? NONE : new int[]{id};
+        }
+
+        int[] ids = new int[sheetNames.size()];
+        int count = 0;
+        for (int sheetIndex = 0; sheetIndex < sheetNames.size(); sheetIndex++) {
+            int id = cellOf(sheetIndex, address);
+            if (id >= 0) {
+                ids[count++] = id;
+            }
+        }
+        return count == 0 ? NONE : Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * The cell at an address on a sheet named exactly, or -1.
+     */
+    public int cellOf(String sheet, String address) {
+        Integer sheetIndex = sheetIndexes.get(sheet);
+        return sheetIndex == null ? -1 : cellOf(sheetIndex, address);
+    }
+
+    private int cellOf(int sheet, String address) {
+        long key = CellKey.parse(sheet, address);
+        return key == CellKey.NONE ? cells.getNamed(sheet, address) : cells.get(key);
+    }
+
+    public int getRangeCount() {
+        return rangeBounds.length / 5;
+    }
+
+    /**
+     * Transitive dependents of a cell, including formulas that read it through a range.
+     */
+    public int[] impactOf(int cell) {
+        return impactOf(cell, Integer.MAX_VALUE);
+    }
+
+    public int[] impactOf(int cell, int maxDepth) {
+        return dependencies.impactOf(new int[]{cell}, false, maxDepth, this::rangeReadersOf);
+    }
+
+    /**
+     * Transitive dependents of an address that need not be a known cell, such as an empty cell in
+     * the middle of a summed column.
+     */
+    public int[] impactOf(String sheet, String address) {
+        int[] readers = rangeReadersOf(sheet, address);
+        return dependencies.impactOf(readers, true, Integer.MAX_VALUE, this::rangeReadersOf);
+    }
+
+    /**
+     * Transitive precedents of a cell, including the known cells inside the ranges its formula reads.
+     */
+    public int[] precedentClosureOf(int cell) {
+        return dependencies.precedentClosureOf(new int[]{cell}, false, Integer.MAX_VALUE, this::rangeCellsOf);
+    }
+
+    /**
+     * Stored precedents of a cell followed by the known cells inside the ranges its formula reads.
+     */
+    public int[] precedentsOf(int cell) {
+        int[] stored = dependencies.precedentsOf(cell);
+        int[] inRanges = rangeCellsOf(cell);
+        if (inRanges.length == 0) {
+            return stored;
+        }
+        int[] result = Arrays.copyOf(stored, stored.length + inRanges.length);
+        System.arraycopy(inRanges, 0, result, stored.length, inRanges.length);
+        return result;
+    }
+
+    /**
+     * Components and dependency levels over stored and range edges, computed on first use.
+     */
+    public Topology getTopology() {
+        Topology result = topology;
+        if (result == null) {
+            synchronized (this) {
+                result = topology;
+                if (result == null) {
+                    result = topology = Topology.of(cells.size(), this::keyOf, this::precedentsOf);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Brings the engine in line with a new formula, or no formula, at an address, in place. The
+     * cell's stored precedents are replaced and the levels of the cell and its dependents are
+     * recomputed in their previous level order, which the edit cannot invalidate unless it closes
+     * a cycle. Returns false, changing nothing, when that is not enough: the edit reads cells or
+     * sheets the engine does not know, changes the ranges the cell reads, or involves a circular
+     * reference. {@link #withFormula} then derives a new engine.
+     *
+     * @param references positions as returned by {@code FormulaAnalyzer.extractReferences}
+     * @param ranges     ranges as returned by {@code FormulaAnalyzer.extractRanges}
+     */
+    public synchronized boolean updateFormula(String sheet, String address, List<CellRef> references,
+                                              List<RangeRef> ranges) {
+        int cell = cellOf(sheet, address);
+        if (cell < 0) {
+            return false;
+        }
+
+        int[] precedents = new int[references.size()];
+        int count = 0;
+        for (CellRef reference : references) {
+            int referenceSheet = reference.getSheet() == null ? sheetIndexOfCell(cell) : sheetIndexOf(reference.getSheet());
+            if (referenceSheet < 0) {
+                // Dropped like a reference to a missing sheet in the builder
+                continue;
+            }
+            int precedent = cellAt(referenceSheet, reference.getColumn(), reference.getRow());
+            if (precedent < 0) {
+                return false;
+            }
+            precedents[count++] = precedent;
+        }
+        precedents = Arrays.copyOf(precedents, count);
+        if (!readsRanges(cell, ranges)) {
+            return false;
+        }
+
+        Topology current = topology;
+        int[] impact = null;
+        if (current != null) {
+            impact = impactOf(cell);
+            if (current.isCyclic(cell)) {
+                return false;
+            }
+            for (int dependent : impact) {
+                if (current.isCyclic(dependent)) {
+                    return false;
+                }
+            }
+            // A precedent among the dependents, or the cell itself, would close a cycle
+            for (int precedent : precedents) {
+                if (precedent == cell || contains(impact, precedent)) {
+                    return false;
+                }
+            }
+        }
+
+        dependencies.replacePrecedents(cell, precedents);
+        if (current != null) {
+            relevel(current, cell);
+            for (int dependent : current.sortByLevel(impact)) {
+                relevel(current, dependent);
+            }
+        }
+        return true;
+    }
+
+    private void relevel(Topology topology, int cell) {
+        int level = 0;
+        for (int precedent : precedentsOf(cell)) {
+            level = Math.max(level, topology.levelOf(precedent) + 1);
+        }
+        topology.setLevel(cell, level);
+    }
+
+    // Whether the cell already reads exactly these ranges, in this order
+    private boolean readsRanges(int cell, List<RangeRef> ranges) {
+        int range = rangeOffsets[cell];
+        for (RangeRef reference : ranges) {
+            int rangeSheet = reference.getSheet() == null ? sheetIndexOfCell(cell) : sheetIndexOf(reference.getSheet());
+            if (rangeSheet < 0) {
+                continue;
+            }
+            RangeRef bounded = reference.toBounded();
+            if (range == rangeOffsets[cell + 1]
+                    || rangeBounds[5 * range] != rangeSheet
+                    || rangeBounds[5 * range + 1] != bounded.getFirstColumn()
+                    || rangeBounds[5 * range + 2] != bounded.getFirstRow()
+                    || rangeBounds[5 * range + 3] != bounded.getLastColumn()
+                    || rangeBounds[5 * range + 4] != bounded.getLastRow()) {
+                return false;
+            }
+            range++;
+        }
+        return range == rangeOffsets[cell + 1];
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int candidate : values) {
+            if (candidate == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A new engine with the same cells, edges and ranges except that the cell at the address reads
+     * {@code references} and {@code ranges}. Cells keep their ids; cells the formula adds are
+     * appended. Built from this engine alone, without going back to the graph database.
+     */
+    public WorkbookGraph withFormula(String sheet, String address, List<CellRef> references, List<RangeRef> ranges) {
+        WorkbookGraphBuilder builder = new WorkbookGraphBuilder(spreadsheetId);
+        for (String name : sheetNames) {
+            builder.addSheet(name);
+        }
+        for (int cell = 0; cell < cells.size(); cell++) {
+            if (columnOf(cell) > 0) {
+                builder.addCell(sheetOf(cell), columnOf(cell), rowOf(cell));
+            } else {
+                builder.addCell(sheetOf(cell), addressOf(cell));
+            }
+        }
+        int edited = cellOf(sheet, address);
+        for (int cell = 0; cell < cells.size(); cell++) {
+            if (cell == edited) {
+                continue;
+            }
+            for (int precedent : dependencies.precedentsOf(cell)) {
+                builder.addEdge(cell, precedent);
+            }
+            for (int range = rangeOffsets[cell]; range < rangeOffsets[cell + 1]; range++) {
+                builder.addRange(cell, sheetNames.get(rangeBounds[5 * range]), rangeBounds[5 * range + 1],
+                        rangeBounds[5 * range + 2], rangeBounds[5 * range + 3], rangeBounds[5 * range + 4]);
+            }
+        }
+        builder.addCell(sheet, address);
+        for (CellRef reference : references) {
+            builder.addDependency(sheet, address, reference);
+        }
+        for (RangeRef range : ranges) {
+            RangeRef bounded = range.toBounded();
+            builder.addRange(sheet, address, range.getSheet(), bounded.getFirstColumn(), bounded.getFirstRow(),
+                    bounded.getLastColumn(), bounded.getLastRow());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Formulas whose ranges contain the cell.
+     */
+    public int[] rangeReadersOf(int cell) {
+        long key = cells.keyOf(cell);
+        if (CellKey.column(key) == 0) {
+            return NONE;
+        }
+        return rangeIndexes[CellKey.sheet(key)].containing(CellKey.column(key), CellKey.row(key));
+    }
+
+    public int[] rangeReadersOf(String sheet, String address) {
+        Integer sheetIndex = sheetIndexes.get(sheet);
+        long key = sheetIndex == null ? CellKey.NONE : CellKey.parse(sheetIndex, address);
+        if (key == CellKey.NONE) {
+            return NONE;
+        }
+        return rangeIndexes[sheetIndex].containing(CellKey.column(key), CellKey.row(key));
+    }
+
+    /**
+     * Index of a sheet named as in a formula reference, quoted or not and ignoring case;
+     * -1 if there is no such sheet.
+     */
+    public int sheetIndexOf(String sheet) {
+        Integer index = sheetIndexesByKey.get(SheetNames.key(sheet));
+        return index == null ? -1 : index;
+    }
+
+    public int sheetIndexOfCell(int cell) {
+        return CellKey.sheet(cells.keyOf(cell));
+    }
+
+    /**
+     * 1-based column of the cell, or 0 if its address is not an A1 reference.
+     */
+    public int columnOf(int cell) {
+        return CellKey.column(cells.keyOf(cell));
+    }
+
+    public int rowOf(int cell) {
+        return CellKey.row(cells.keyOf(cell));
+    }
+
+    /**
+     * The known cell at a position, or -1.
+     */
+    public int cellAt(int sheet, int column, int row) {
+        return cells.get(CellKey.of(sheet, column, row));
+    }
+
+    /**
+     * Known cells inside the ranges read by the cell's formula.
+     */
+    public int[] rangeCellsOf(int cell) {
+        if (rangeOffsets[cell] == rangeOffsets[cell + 1]) {
+            return NONE;
+        }
+        int[] result = NONE;
+        int count = 0;
+        for (int range = rangeOffsets[cell]; range < rangeOffsets[cell + 1]; range++) {
+            int[] inside = cellsIn(rangeBounds[5 * range], rangeBounds[5 * range + 1], rangeBounds[5 * range + 2],
+                    rangeBounds[5 * range + 3], rangeBounds[5 * range + 4]);
+            result = Arrays.copyOf(result, count + inside.length);
+            System.arraycopy(inside, 0, result, count, inside.length);
+            count += inside.length;
+        }
+        return result;
+    }
+
+    /**
+     * Known cells inside inclusive bounds on one sheet, ordered by column then row. Skips from
+     * column to column through the sorted positions, so rows outside the range are never scanned.
+     */
+    public int[] cellsIn(int sheet, int firstColumn, int firstRow, int lastColumn, int lastRow) {
+        long[] positions = sheetPositions[sheet];
+        int[] positionCells = sheetPositionCells[sheet];
+        int[] inside = new int[16];
+        int count = 0;
+        long end = CellKey.of(sheet, lastColumn, lastRow);
+        int i = lowerBound(positions, CellKey.of(sheet, firstColumn, firstRow));
+        while (i < positions.length && positions[i] <= end) {
+            int column = CellKey.column(positions[i]);
+            int row = CellKey.row(positions[i]);
+            if (row < firstRow) {
+                i = lowerBound(positions, CellKey.of(sheet, column, firstRow));
+            } else if (row > lastRow) {
+                i = lowerBound(positions, CellKey.of(sheet, column + 1, firstRow));
+            } else {
+                if (count == inside.length) {
+                    inside = Arrays.copyOf(inside, count * 2);
+                }
+                inside[count++] = positionCells[i++];
+            }
+        }
+        return Arrays.copyOf(inside, count);
+    }
+
+    private void indexPositions() {
+        int[] counts = new int[sheetPositions.length];
+        for (int cell = 0; cell < cells.size(); cell++) {
+            long key = cells.keyOf(cell);
+            if (CellKey.column(key) > 0) {
+                counts[CellKey.sheet(key)]++;
+            }
+        }
+        for (int sheet = 0; sheet < sheetPositions.length; sheet++) {
+            sheetPositions[sheet] = new long[counts[sheet]];
+            sheetPositionCells[sheet] = new int[counts[sheet]];
+            counts[sheet] = 0;
+        }
+        for (int cell = 0; cell < cells.size(); cell++) {
+            long key = cells.keyOf(cell);
+            if (CellKey.column(key) > 0) {
+                int sheet = CellKey.sheet(key);
+                sheetPositions[sheet][counts[sheet]++] = key;
+            }
+        }
+        // Keys are unique, so the cells are looked up again after sorting the keys alone
+        for (int sheet = 0; sheet < sheetPositions.length; sheet++) {
+            long[] positions = sheetPositions[sheet];
+            Arrays.sort(positions);
+            for (int i = 0; i < positions.length; i++) {
+                sheetPositionCells[sheet][i] = cells.get(positions[i]);
+            }
+        }
+    }
+
+    private static int lowerBound(long[] values, long value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public String sheetOf(int cell) {
+        return sheetNames.get(CellKey.sheet(cells.keyOf(cell)));
+    }
+
+    public String addressOf(int cell) {
+        String name = cells.nameOf(cell);
+        return name != null ? name : CellKey.address(cells.keyOf(cell));
+    }
+
+    /**
+     * The cell as {@code sheet!address}, for callers outside the engine.
+     */
+    public String keyOf(int cell) {
+        return key(sheetOf(cell), addressOf(cell));
+    }
+
+    public static String key(String sheet, String address) {
+        return sheet + "!" + address;
+    }
+}
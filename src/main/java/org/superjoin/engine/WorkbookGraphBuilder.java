@@ -0,0 +1,189 @@
+package org.superjoin.engine;
+
+import org.superjoin.formula.CellKey;
+import org.superjoin.formula.CellRef;
+import org.superjoin.formula.SheetNames;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accumulates cells and formula references sheet by sheet and produces a {@link WorkbookGraph}.
+ * Referenced cells are indexed even when they are empty, so an edit to them still has an impact.
+ * Range references are kept as ranges and indexed per sheet rather than expanded into cells.
+ * Addresses are packed into {@link CellKey}s as they arrive; sheets are numbered in the order
+ * they are first seen.
+ */
+public final class WorkbookGraphBuilder {
+
+    private final String spreadsheetId;
+    private final CellIndex cells = new CellIndex();
+    private final List<String> sheetNames = new ArrayList<>();
+    private final Map<String, Integer> sheetIndexes = new HashMap<>();
+    private final Map<String, Integer> sheetIndexesByKey = new HashMap<>();
+
+    private int[] dependents = new int[1024];
+    private int[] precedents = new int[1024];
+    private int edgeCount;
+
+    // Sheet-qualified references are resolved once every sheet name is known
+    private final List<QualifiedReference> qualifiedReferences = new ArrayList<>();
+    private final List<RangeReference> rangeReferences = new ArrayList<>();
+
+    public WorkbookGraphBuilder(String spreadsheetId) {
+        this.spreadsheetId = spreadsheetId;
+    }
+
+    public int addSheet(String sheet) {
+        Integer existing = sheetIndexes.get(sheet);
+        if (existing != null) {
+            return existing;
+        }
+        int index = sheetNames.size();
+        sheetNames.add(sheet);
+        sheetIndexes.put(sheet, index);
+        sheetIndexesByKey.putIfAbsent(SheetNames.key(sheet), index);
+        return index;
+    }
+
+    public int addCell(String sheet, String address) {
+        int sheetIndex = addSheet(sheet);
+        long key = CellKey.parse(sheetIndex, address);
+        return key == CellKey.NONE ? cells.addNamed(sheetIndex, address) : cells.add(key);
+    }
+
+    /**
+     * Adds a cell by its 1-based position, without going through A1 text.
+     */
+    public int addCell(String sheet, int column, int row) {
+        return cells.add(CellKey.of(addSheet(sheet), column, row));
+    }
+
+    /**
+     * Adds an edge to the cell at a 1-based position on a sheet already resolved to its real name,
+     * as the graph writer does for the same edge.
+     */
+    public void addDependency(String sheet, String address, String sourceSheet, int sourceColumn, int sourceRow) {
+        addEdge(addCell(sheet, address), addCell(sourceSheet, sourceColumn, sourceRow));
+    }
+
+    /**
+     * @param reference a reference as returned by {@code FormulaAnalyzer.extractReferences}, with
+     *                  the sheet as a {@link SheetNames#key} or null for the formula's own sheet
+     */
+    public void addDependency(String sheet, String address, CellRef reference) {
+        int dependent = addCell(sheet, address);
+        if (reference.getSheet() == null) {
+            addEdge(dependent, addCell(sheet, reference.getColumn(), reference.getRow()));
+        } else {
+            qualifiedReferences.add(new QualifiedReference(dependent, reference.getSheet(),
+                    reference.getColumn(), reference.getRow()));
+        }
+    }
+
+    /**
+     * Records that the formula at {@code address} reads a range. Bounds are 1-based and inclusive.
+     *
+     * @param rangeSheet the sheet named in the reference, or null for the formula's own sheet
+     */
+    public void addRange(String sheet, String address, String rangeSheet,
+                         int firstColumn, int firstRow, int lastColumn, int lastRow) {
+        addRange(addCell(sheet, address), rangeSheet == null ? sheet : rangeSheet,
+                firstColumn, firstRow, lastColumn, lastRow);
+    }
+
+    // For an already added cell, with the range's sheet resolved
+    void addRange(int dependent, String rangeSheet, int firstColumn, int firstRow, int lastColumn, int lastRow) {
+        rangeReferences.add(new RangeReference(dependent, rangeSheet,
+                new int[]{firstColumn, firstRow, lastColumn, lastRow}));
+    }
+
+    public WorkbookGraph build() {
+        for (QualifiedReference reference : qualifiedReferences) {
+            Integer sheet = sheetIndexesByKey.get(SheetNames.key(reference.sheet));
+            if (sheet != null) {
+                addEdge(reference.dependent, cells.add(CellKey.of(sheet, reference.column, reference.row)));
+            }
+        }
+
+        DependencyGraph.Builder graph = DependencyGraph.builder(cells.size());
+        for (int i = 0; i < edgeCount; i++) {
+            graph.addEdge(dependents[i], precedents[i]);
+        }
+
+        int cellCount = cells.size();
+
+        // Ranges grouped by reading cell, and indexed on the sheet they cover
+        RangeIndex.Builder[] indexes = new RangeIndex.Builder[sheetNames.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = RangeIndex.builder();
+        }
+        rangeReferences.sort((a, b) -> Integer.compare(a.dependent, b.dependent));
+        int[] rangeOffsets = new int[cellCount + 1];
+        int[] rangeBounds = new int[rangeReferences.size() * 5];
+        int rangeCount = 0;
+        for (RangeReference range : rangeReferences) {
+            Integer sheetIndex = sheetIndexesByKey.get(SheetNames.key(range.sheet));
+            if (sheetIndex == null) {
+                continue;
+            }
+            int[] bounds = range.bounds;
+            indexes[sheetIndex].add(bounds[0], bounds[1], bounds[2], bounds[3], range.dependent);
+            rangeOffsets[range.dependent + 1]++;
+            rangeBounds[5 * rangeCount] = sheetIndex;
+            System.arraycopy(bounds, 0, rangeBounds, 5 * rangeCount + 1, 4);
+            rangeCount++;
+        }
+        for (int cell = 0; cell < cellCount; cell++) {
+            rangeOffsets[cell + 1] += rangeOffsets[cell];
+        }
+        RangeIndex[] rangeIndexes = new RangeIndex[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            rangeIndexes[i] = indexes[i].build();
+        }
+
+        return new WorkbookGraph(spreadsheetId, cells, graph.build(), List.copyOf(sheetNames), Map.copyOf(sheetIndexes),
+                rangeIndexes, rangeOffsets,
+                Arrays.copyOf(rangeBounds, rangeCount * 5));
+    }
+
+    void addEdge(int dependent, int precedent) {
+        if (edgeCount == dependents.length) {
+            dependents = Arrays.copyOf(dependents, edgeCount * 2);
+            precedents = Arrays.copyOf(precedents, edgeCount * 2);
+        }
+        dependents[edgeCount] = dependent;
+        precedents[edgeCount] = precedent;
+        edgeCount++;
+    }
+
+    private static final class RangeReference {
+        private final int dependent;
+        private final String sheet;
+        private final int[] bounds;
+
+        private RangeReference(int dependent, String sheet, int[] bounds) {
+            this.dependent = dependent;
+            this.sheet = sheet;
+            this.bounds = bounds;
+        }
+    }
+
+    private static final class QualifiedReference {
+        private final int dependent;
+        private final String sheet;
+        // Either the address as written or, when null, the parsed position
+        private final int column;
+        private final int row;
+
+        private QualifiedReference(int dependent, String sheet, int column, int row) {
+            this.dependent = dependent;
+            this.sheet = sheet;
+            this.column = column;
+            this.row = row;
+        }
+    }
+}
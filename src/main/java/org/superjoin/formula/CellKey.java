@@ -0,0 +1,92 @@
+package org.superjoin.formula;
+
+/**
+ * Packs a cell position into one {@code long}: the sheet's index within its spreadsheet in the
+ * high 23 bits, then the 1-based column in 16 bits and the 1-based row in 24 bits. Keys of one
+ * spreadsheet order by sheet, then column, then row, and compare and hash without allocating.
+ * A1 text is produced only where addresses leave the process, by {@link #address(long)}.
+ */
+public final class CellKey {
+
+    public static final long NONE = -1L;
+
+    private static final int ROW_BITS = 24;
+    private static final int COLUMN_BITS = 16;
+    private static final long ROW_MASK = (1L << ROW_BITS) - 1;
+    private static final long COLUMN_MASK = (1L << COLUMN_BITS) - 1;
+
+    private CellKey() {
+    }
+
+    public static long of(int sheet, int column, int row) {
+        return ((long) sheet << (COLUMN_BITS + ROW_BITS)) | ((long) column << ROW_BITS) | row;
+    }
+
+    public static int sheet(long key) {
+        return (int) (key >>> (COLUMN_BITS + ROW_BITS));
+    }
+
+    public static int column(long key) {
+        return (int) ((key >>> ROW_BITS) & COLUMN_MASK);
+    }
+
+    public static int row(long key) {
+        return (int) (key & ROW_MASK);
+    }
+
+    /**
+     * Parses {@code B7} or {@code $B$7} without allocating; {@link #NONE} for anything else.
+     */
+    public static long parse(int sheet, CharSequence address) {
+        if (address == null) {
+            return NONE;
+        }
+        int length = address.length();
+        int i = 0;
+        if (i < length && address.charAt(i) == '$') {
+            i++;
+        }
+        int column = 0;
+        int letters = 0;
+        while (i < length) {
+            char c = address.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                c -= 'a' - 'A';
+            }
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+            letters++;
+            i++;
+        }
+        if (letters == 0 || letters > 3 || column > CellRef.MAX_COLUMN) {
+            return NONE;
+        }
+        if (i < length && address.charAt(i) == '$') {
+            i++;
+        }
+        int digits = 0;
+        int row = 0;
+        while (i < length && address.charAt(i) >= '0' && address.charAt(i) <= '9' && row <= CellRef.MAX_ROW) {
+            row = row * 10 + (address.charAt(i) - '0');
+            digits++;
+            i++;
+        }
+        if (i != length || digits == 0 || row == 0 || row > CellRef.MAX_ROW) {
+            return NONE;
+        }
+        return of(sheet, column, row);
+    }
+
+    /**
+     * The A1 address of the key, without sheet.
+     */
+    public static String address(long key) {
+        return address(column(key), row(key));
+    }
+
+    public static String address(int column, int row) {
+        return CellRef.columnName(column) + row;
+    }
+}
@@ -0,0 +1,102 @@
+package org.superjoin.formula;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * A single-cell reference. Columns and rows are 1-based; {@code sheet} is null for references
+ * to the formula's own sheet.
+ */
+@Getter
+@EqualsAndHashCode
+@AllArgsConstructor
+public final class CellRef {
+
+    public static final int MAX_ROW = 10_000_000;
+    // Column ZZZ
+    public static final int MAX_COLUMN = 18_278;
+
+    private final String sheet;
+    private final int column;
+    private final int row;
+    private final boolean absoluteColumn;
+    private final boolean absoluteRow;
+
+    /**
+     * The address without {@code $} anchors or sheet, e.g. {@code B7}.
+     */
+    public String getAddress() {
+        return columnName(column) + row;
+    }
+
+    /**
+     * Parses {@code B7}, {@code $B$7} and the like; returns null for anything else.
+     */
+    public static CellRef parse(String sheet, String text) {
+        int i = 0;
+        boolean absoluteColumn = i < text.length() && text.charAt(i) == '$';
+        if (absoluteColumn) {
+            i++;
+        }
+        int columnStart = i;
+        while (i < text.length() && isLetter(text.charAt(i))) {
+            i++;
+        }
+        int columnLength = i - columnStart;
+        if (columnLength == 0 || columnLength > 3) {
+            return null;
+        }
+
+        boolean absoluteRow = i < text.length() && text.charAt(i) == '$';
+        if (absoluteRow) {
+            i++;
+        }
+        int rowStart = i;
+        int row = 0;
+        while (i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            row = row * 10 + (text.charAt(i) - '0');
+            i++;
+        }
+        if (i != text.length() || i == rowStart || row == 0 || row > MAX_ROW) {
+            return null;
+        }
+
+        int column = columnIndex(text.substring(columnStart, columnStart + columnLength));
+        if (column > MAX_COLUMN) {
+            // Beyond ZZZ, so a name such as ABCD1 rather than a reference
+            return null;
+        }
+        return new CellRef(sheet, column, row, absoluteColumn, absoluteRow);
+    }
+
+    /**
+     * 1-based column index of letters such as {@code A} or {@code AB}, case-insensitive.
+     */
+    public static int columnIndex(String letters) {
+        int column = 0;
+        for (int i = 0; i < letters.length(); i++) {
+            column = column * 26 + (Character.toUpperCase(letters.charAt(i)) - 'A' + 1);
+        }
+        return column;
+    }
+
+    public static String columnName(int column) {
+        StringBuilder name = new StringBuilder();
+        while (column > 0) {
+            int remainder = (column - 1) % 26;
+            name.insert(0, (char) ('A' + remainder));
+            column = (column - 1) / 26;
+        }
+        return name.toString();
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    @Override
+    public String toString() {
+        return sheet == null ? getAddress() : sheet + "!" + getAddress();
+    }
+}
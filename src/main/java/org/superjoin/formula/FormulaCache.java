@@ -0,0 +1,66 @@
+package org.superjoin.formula;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of formula analyses keyed by the exact formula text. Spreadsheets repeat the same
+ * formula text many times (filled-down columns, copied blocks), so most lookups hit. The cache is
+ * split into stripes, each an access-ordered LRU map behind its own lock.
+ */
+public final class FormulaCache<V> {
+
+    private static final int STRIPES = 16;
+
+    private final List<Stripe<V>> stripes = new ArrayList<>(STRIPES);
+
+    public FormulaCache(int maximumSize) {
+        int perStripe = Math.max(1, maximumSize / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.add(new Stripe<>(perStripe));
+        }
+    }
+
+    public V get(String formula, Function<String, V> analyzer) {
+        Stripe<V> stripe = stripes.get((formula.hashCode() & 0x7fffffff) % STRIPES);
+        synchronized (stripe) {
+            V cached = stripe.get(formula);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // Analyse outside the lock; a racing analysis of the same text yields an equal result
+        V analysed = analyzer.apply(formula);
+        synchronized (stripe) {
+            stripe.put(formula, analysed);
+        }
+        return analysed;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe<V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private static final class Stripe<V> extends LinkedHashMap<String, V> {
+        private final int maximumSize;
+
+        private Stripe(int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > maximumSize;
+        }
+    }
+}
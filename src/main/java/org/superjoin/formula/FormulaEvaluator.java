@@ -0,0 +1,605 @@
+package org.superjoin.formula;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Evaluates a formula syntax tree against cell values. Values are {@link Double}, {@link String},
+ * {@link Boolean}, {@link ErrorValue} or null for a blank cell.
+ * <p>
+ * Supports literals, references, ranges, arithmetic, comparison and concatenation operators and
+ * the functions SUM, AVERAGE, MIN, MAX, COUNT, COUNTA, IF, IFERROR, AND, OR, NOT, ABS, ROUND and
+ * VLOOKUP. Anything else makes {@link #evaluate} return empty, so callers can keep the value the
+ * spreadsheet itself computed.
+ * <p>
+ * A tree shared by a formula group is evaluated for one member by passing the member's offset
+ * from the position the tree was parsed at; relative references move by it, absolute ones do not.
+ */
+public final class FormulaEvaluator {
+
+    public static final ErrorValue DIV_ZERO = new ErrorValue("#DIV/0!");
+    public static final ErrorValue VALUE = new ErrorValue("#VALUE!");
+    public static final ErrorValue REF = new ErrorValue("#REF!");
+    public static final ErrorValue NA = new ErrorValue("#N/A");
+    public static final ErrorValue NUM = new ErrorValue("#NUM!");
+
+    private static final List<String> ERROR_CODES = List.of("#DIV/0!", "#VALUE!", "#REF!", "#N/A", "#NUM!", "#NAME?", "#NULL!");
+
+    // Spreadsheets display numbers with 15 significant digits
+    private static final MathContext DISPLAY_PRECISION = new MathContext(15);
+
+    /**
+     * Read access to the values a formula may reference. Sheets are passed as written in the
+     * formula, null meaning the formula's own sheet.
+     */
+    public interface CellValues {
+        Object valueAt(String sheet, int column, int row);
+
+        /**
+         * Visits the non-blank cells inside inclusive bounds, column by column with rows ascending.
+         */
+        void forEachIn(String sheet, int firstColumn, int firstRow, int lastColumn, int lastRow, CellVisitor visitor);
+    }
+
+    @FunctionalInterface
+    public interface CellVisitor {
+        void visit(int column, int row, Object value);
+    }
+
+    @Getter
+    @EqualsAndHashCode
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class ErrorValue {
+        private final String code;
+
+        @Override
+        public String toString() {
+            return code;
+        }
+    }
+
+    private final int columnOffset;
+    private final int rowOffset;
+    private final CellValues values;
+
+    private FormulaEvaluator(int columnOffset, int rowOffset, CellValues values) {
+        this.columnOffset = columnOffset;
+        this.rowOffset = rowOffset;
+        this.values = values;
+    }
+
+    /**
+     * @return the formula's value, or empty if it uses something this evaluator does not support
+     */
+    public static Optional<Object> evaluate(FormulaNode root, int columnOffset, int rowOffset, CellValues values) {
+        if (root == null) {
+            return Optional.empty();
+        }
+        FormulaEvaluator evaluator = new FormulaEvaluator(columnOffset, rowOffset, values);
+        try {
+            Object value = evaluator.scalar(root);
+            // A formula showing a blank cell shows 0
+            return Optional.of(value == null ? (Object) 0.0 : value);
+        } catch (ErrorSignal signal) {
+            return Optional.of(signal.error);
+        } catch (UnsupportedFormulaException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Reads a stored cell value: numbers, TRUE/FALSE and error codes become typed values. A number
+     * too large for a double, such as {@code 1e400}, reads as {@code #NUM!}.
+     */
+    public static Object parseValue(String text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        if (text.equalsIgnoreCase("TRUE") || text.equalsIgnoreCase("FALSE")) {
+            return Boolean.valueOf(text);
+        }
+        if (text.charAt(0) == '#' && ERROR_CODES.contains(text)) {
+            return new ErrorValue(text);
+        }
+        if (!isNumeric(text)) {
+            return text;
+        }
+        double number = Double.parseDouble(text);
+        return Double.isInfinite(number) ? NUM : (Object) number;
+    }
+
+    public static String format(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Double) {
+            double number = (Double) value;
+            if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+                return Long.toString((long) number);
+            }
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                return NUM.code;
+            }
+            return new BigDecimal(number).round(DISPLAY_PRECISION).stripTrailingZeros().toPlainString();
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? "TRUE" : "FALSE";
+        }
+        return value.toString();
+    }
+
+    // Plain decimal notation only; Double.parseDouble alone would also accept "NaN" or "1d"
+    private static boolean isNumeric(String text) {
+        int i = 0;
+        int length = text.length();
+        if (text.charAt(0) == '-' || text.charAt(0) == '+') {
+            i++;
+        }
+        boolean digits = false;
+        boolean point = false;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else if ((c == 'e' || c == 'E') && digits && i + 1 < length) {
+                int exponent = i + 1;
+                if (text.charAt(exponent) == '-' || text.charAt(exponent) == '+') {
+                    exponent++;
+                }
+                if (exponent == length) {
+                    return false;
+                }
+                for (int j = exponent; j < length; j++) {
+                    if (text.charAt(j) < '0' || text.charAt(j) > '9') {
+                        return false;
+                    }
+                }
+                return true;
+            } else {
+                return false;
+            }
+        }
+        return digits;
+    }
+
+    // Evaluates to a single value; a range is only accepted when it is a single cell
+    private Object scalar(FormulaNode node) {
+        if (node instanceof FormulaNode.Range) {
+            int[] bounds = bounds(((FormulaNode.Range) node).getRef());
+            if (bounds[0] != bounds[2] || bounds[1] != bounds[3]) {
+                throw new ErrorSignal(VALUE);
+            }
+            return stored(values.valueAt(((FormulaNode.Range) node).getRef().getSheet(), bounds[0], bounds[1]));
+        }
+        return value(node);
+    }
+
+    private Object value(FormulaNode node) {
+        if (node instanceof FormulaNode.Number) {
+            return ((FormulaNode.Number) node).getValue();
+        }
+        if (node instanceof FormulaNode.Text) {
+            return ((FormulaNode.Text) node).getValue();
+        }
+        if (node instanceof FormulaNode.Bool) {
+            return ((FormulaNode.Bool) node).isValue();
+        }
+        if (node instanceof FormulaNode.Error) {
+            return new ErrorValue(((FormulaNode.Error) node).getCode());
+        }
+        if (node instanceof FormulaNode.Missing) {
+            return null;
+        }
+        if (node instanceof FormulaNode.Reference) {
+            CellRef ref = ((FormulaNode.Reference) node).getRef();
+            int column = ref.isAbsoluteColumn() ? ref.getColumn() : ref.getColumn() + columnOffset;
+            int row = ref.isAbsoluteRow() ? ref.getRow() : ref.getRow() + rowOffset;
+            if (column < 1 || column > CellRef.MAX_COLUMN || row < 1 || row > CellRef.MAX_ROW) {
+                throw new ErrorSignal(REF);
+            }
+            return stored(values.valueAt(ref.getSheet(), column, row));
+        }
+        if (node instanceof FormulaNode.Unary) {
+            return unary((FormulaNode.Unary) node);
+        }
+        if (node instanceof FormulaNode.Binary) {
+            return binary((FormulaNode.Binary) node);
+        }
+        if (node instanceof FormulaNode.Function) {
+            return function((FormulaNode.Function) node);
+        }
+        if (node instanceof FormulaNode.Range) {
+            return scalar(node);
+        }
+        // Names and array constants
+        throw new UnsupportedFormulaException();
+    }
+
+    private Object unary(FormulaNode.Unary node) {
+        double operand = number(scalar(node.getOperand()));
+        switch (node.getOperator()) {
+            case "-":
+                return -finite(operand);
+            case "%":
+                return finite(operand / 100);
+            default:
+                return operand;
+        }
+    }
+
+    private Object binary(FormulaNode.Binary node) {
+        Object left = scalar(node.getLeft());
+        Object right = scalar(node.getRight());
+        switch (node.getOperator()) {
+            case "+":
+                return finite(number(left) + number(right));
+            case "-":
+                return finite(number(left) - number(right));
+            case "*":
+                return finite(number(left) * number(right));
+            case "/": {
+                double divisor = number(right);
+                if (divisor == 0) {
+                    throw new ErrorSignal(DIV_ZERO);
+                }
+                return finite(number(left) / divisor);
+            }
+            case "^":
+                return finite(Math.pow(number(left), number(right)));
+            case "&":
+                return text(left) + text(right);
+            case "=":
+                return compare(left, right) == 0;
+            case "<>":
+                return compare(left, right) != 0;
+            case "<":
+                return compare(left, right) < 0;
+            case ">":
+                return compare(left, right) > 0;
+            case "<=":
+                return compare(left, right) <= 0;
+            case ">=":
+                return compare(left, right) >= 0;
+            default:
+                throw new UnsupportedFormulaException();
+        }
+    }
+
+    // Overflow and cells holding values like 1e400 surface as #NUM! rather than as Infinity or NaN
+    private static double finite(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new ErrorSignal(NUM);
+        }
+        return value;
+    }
+
+    // A cell value as read, with a non-finite number supplied by the caller as #NUM!
+    private static Object stored(Object value) {
+        if (value instanceof Double) {
+            finite((Double) value);
+        }
+        return value;
+    }
+
+    private Object function(FormulaNode.Function node) {
+        List<FormulaNode> arguments = node.getArguments();
+        switch (node.getName()) {
+            case "SUM": {
+                Aggregate aggregate = aggregate(arguments);
+                return finite(aggregate.sum);
+            }
+            case "AVERAGE": {
+                Aggregate aggregate = aggregate(arguments);
+                if (aggregate.count == 0) {
+                    throw new ErrorSignal(DIV_ZERO);
+                }
+                return finite(aggregate.sum / aggregate.count);
+            }
+            case "MIN": {
+                Aggregate aggregate = aggregate(arguments);
+                return aggregate.count == 0 ? 0.0 : finite(aggregate.min);
+            }
+            case "MAX": {
+                Aggregate aggregate = aggregate(arguments);
+                return aggregate.count == 0 ? 0.0 : finite(aggregate.max);
+            }
+            case "COUNT":
+                return (double) count(arguments, false);
+            case "COUNTA":
+                return (double) count(arguments, true);
+            case "IF": {
+                arity(arguments, 1, 3);
+                if (bool(scalar(arguments.get(0)))) {
+                    return arguments.size() > 1 ? blankAsZero(arguments.get(1)) : Boolean.TRUE;
+                }
+                return arguments.size() > 2 ? blankAsZero(arguments.get(2)) : Boolean.FALSE;
+            }
+            case "IFERROR": {
+                arity(arguments, 2, 2);
+                try {
+                    Object value = scalar(arguments.get(0));
+                    if (!(value instanceof ErrorValue)) {
+                        return value;
+                    }
+                } catch (ErrorSignal ignored) {
+                    // Fall through to the alternative
+                }
+                return blankAsZero(arguments.get(1));
+            }
+            case "AND":
+            case "OR": {
+                boolean and = node.getName().equals("AND");
+                boolean result = and;
+                for (FormulaNode argument : arguments) {
+                    boolean value = bool(scalar(argument));
+                    result = and ? result && value : result || value;
+                }
+                return result;
+            }
+            case "NOT":
+                arity(arguments, 1, 1);
+                return !bool(scalar(arguments.get(0)));
+            case "ABS":
+                arity(arguments, 1, 1);
+                return finite(Math.abs(number(scalar(arguments.get(0)))));
+            case "ROUND": {
+                arity(arguments, 1, 2);
+                double value = finite(number(scalar(arguments.get(0))));
+                int digits = arguments.size() > 1 ? (int) number(scalar(arguments.get(1))) : 0;
+                return BigDecimal.valueOf(value).setScale(digits, RoundingMode.HALF_UP).doubleValue();
+            }
+            case "VLOOKUP":
+                return vlookup(arguments);
+            default:
+                throw new UnsupportedFormulaException();
+        }
+    }
+
+    private Object vlookup(List<FormulaNode> arguments) {
+        arity(arguments, 3, 4);
+        if (!(arguments.get(1) instanceof FormulaNode.Range)) {
+            throw new UnsupportedFormulaException();
+        }
+        Object key = scalar(arguments.get(0));
+        RangeRef table = ((FormulaNode.Range) arguments.get(1)).getRef();
+        int[] bounds = bounds(table);
+        int index = (int) number(scalar(arguments.get(2)));
+        boolean approximate = arguments.size() < 4 || arguments.get(3) instanceof FormulaNode.Missing
+                || bool(scalar(arguments.get(3)));
+        if (index < 1) {
+            throw new ErrorSignal(VALUE);
+        }
+        if (index > bounds[2] - bounds[0] + 1) {
+            throw new ErrorSignal(REF);
+        }
+
+        // Exact match takes the first equal key; approximate match the last key not above it in a sorted column
+        int[] match = {-1};
+        boolean[] done = {false};
+        values.forEachIn(table.getSheet(), bounds[0], bounds[1], bounds[0], bounds[3], (column, row, value) -> {
+            if (done[0] || value instanceof ErrorValue) {
+                return;
+            }
+            int comparison = compare(value, key);
+            if (comparison == 0 && sameKind(value, key)) {
+                match[0] = row;
+                done[0] = !approximate;
+            } else if (approximate && sameKind(value, key)) {
+                if (comparison < 0) {
+                    match[0] = row;
+                } else {
+                    done[0] = true;
+                }
+            }
+        });
+        if (match[0] < 0) {
+            throw new ErrorSignal(NA);
+        }
+        return values.valueAt(table.getSheet(), bounds[0] + index - 1, match[0]);
+    }
+
+    private static boolean sameKind(Object value, Object key) {
+        return (value instanceof Double && key instanceof Double)
+                || (value instanceof String && key instanceof String)
+                || (value instanceof Boolean && key instanceof Boolean);
+    }
+
+    private Object blankAsZero(FormulaNode node) {
+        Object value = scalar(node);
+        return value == null ? 0.0 : value;
+    }
+
+    private static final class Aggregate {
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private int count;
+
+        private void add(double value) {
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            count++;
+        }
+    }
+
+    // Ranges contribute their numbers only; direct arguments are converted and must be numeric
+    private Aggregate aggregate(List<FormulaNode> arguments) {
+        Aggregate aggregate = new Aggregate();
+        for (FormulaNode argument : arguments) {
+            if (argument instanceof FormulaNode.Range) {
+                RangeRef range = ((FormulaNode.Range) argument).getRef();
+                int[] bounds = bounds(range);
+                values.forEachIn(range.getSheet(), bounds[0], bounds[1], bounds[2], bounds[3], (column, row, value) -> {
+                    if (value instanceof ErrorValue) {
+                        throw new ErrorSignal((ErrorValue) value);
+                    }
+                    if (value instanceof Double) {
+                        aggregate.add(finite((Double) value));
+                    }
+                });
+            } else if (argument instanceof FormulaNode.Reference) {
+                Object value = value(argument);
+                if (value instanceof ErrorValue) {
+                    throw new ErrorSignal((ErrorValue) value);
+                }
+                if (value instanceof Double) {
+                    aggregate.add((Double) value);
+                }
+            } else if (!(argument instanceof FormulaNode.Missing)) {
+                aggregate.add(number(scalar(argument)));
+            }
+        }
+        return aggregate;
+    }
+
+    private int count(List<FormulaNode> arguments, boolean nonBlank) {
+        int[] count = {0};
+        for (FormulaNode argument : arguments) {
+            if (argument instanceof FormulaNode.Range) {
+                RangeRef range = ((FormulaNode.Range) argument).getRef();
+                int[] bounds = bounds(range);
+                values.forEachIn(range.getSheet(), bounds[0], bounds[1], bounds[2], bounds[3], (column, row, value) -> {
+                    if (nonBlank ? value != null && !"".equals(value) : value instanceof Double) {
+                        count[0]++;
+                    }
+                });
+            } else {
+                Object value;
+                try {
+                    value = scalar(argument);
+                } catch (ErrorSignal signal) {
+                    value = signal.error;
+                }
+                if (nonBlank ? value != null : value instanceof Double) {
+                    count[0]++;
+                }
+            }
+        }
+        return count[0];
+    }
+
+    // Moves the relative sides of a range by the evaluation offset; open sides span the whole sheet
+    private int[] bounds(RangeRef range) {
+        int firstColumn = move(range.getFirstColumn(), range.isAbsoluteFirstColumn(), columnOffset, 1);
+        int firstRow = move(range.getFirstRow(), range.isAbsoluteFirstRow(), rowOffset, 1);
+        int lastColumn = move(range.getLastColumn(), range.isAbsoluteLastColumn(), columnOffset, CellRef.MAX_COLUMN);
+        int lastRow = move(range.getLastRow(), range.isAbsoluteLastRow(), rowOffset, CellRef.MAX_ROW);
+        if (firstColumn < 1 || firstRow < 1 || lastColumn > CellRef.MAX_COLUMN || lastRow > CellRef.MAX_ROW) {
+            throw new ErrorSignal(REF);
+        }
+        return new int[]{firstColumn, firstRow, lastColumn, lastRow};
+    }
+
+    private static int move(int value, boolean absolute, int offset, int open) {
+        if (value == 0) {
+            return open;
+        }
+        return absolute ? value : value + offset;
+    }
+
+    private static void arity(List<FormulaNode> arguments, int minimum, int maximum) {
+        if (arguments.size() < minimum || arguments.size() > maximum) {
+            throw new UnsupportedFormulaException();
+        }
+    }
+
+    private static double number(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Double) {
+            return finite((Double) value);
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        if (value instanceof ErrorValue) {
+            throw new ErrorSignal((ErrorValue) value);
+        }
+        String text = ((String) value).trim();
+        if (!text.isEmpty() && isNumeric(text)) {
+            return finite(Double.parseDouble(text));
+        }
+        throw new ErrorSignal(VALUE);
+    }
+
+    private static boolean bool(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof String) {
+            String text = (String) value;
+            if (text.equalsIgnoreCase("TRUE") || text.equalsIgnoreCase("FALSE")) {
+                return Boolean.parseBoolean(text);
+            }
+            throw new ErrorSignal(VALUE);
+        }
+        return number(value) != 0;
+    }
+
+    private static String text(Object value) {
+        if (value instanceof ErrorValue) {
+            throw new ErrorSignal((ErrorValue) value);
+        }
+        return format(value);
+    }
+
+    // Spreadsheet ordering: numbers before text before booleans, text compared case-insensitively
+    private static int compare(Object left, Object right) {
+        if (left instanceof ErrorValue) {
+            throw new ErrorSignal((ErrorValue) left);
+        }
+        if (right instanceof ErrorValue) {
+            throw new ErrorSignal((ErrorValue) right);
+        }
+        if (left == null) {
+            left = right instanceof String ? "" : right instanceof Boolean ? Boolean.FALSE : (Object) 0.0;
+        }
+        if (right == null) {
+            right = left instanceof String ? "" : left instanceof Boolean ? Boolean.FALSE : (Object) 0.0;
+        }
+        int leftRank = rank(left);
+        int rightRank = rank(right);
+        if (leftRank != rightRank) {
+            return Integer.compare(leftRank, rightRank);
+        }
+        if (left instanceof Double) {
+            return Double.compare((Double) left, (Double) right);
+        }
+        if (left instanceof String) {
+            return ((String) left).compareToIgnoreCase((String) right);
+        }
+        return Boolean.compare((Boolean) left, (Boolean) right);
+    }
+
+    private static int rank(Object value) {
+        return value instanceof Double ? 0 : value instanceof String ? 1 : 2;
+    }
+
+    // Control flow for error values; carries no stack trace
+    private static final class ErrorSignal extends RuntimeException {
+        private final ErrorValue error;
+
+        private ErrorSignal(ErrorValue error) {
+            super(error.code, null, false, false);
+            this.error = error;
+        }
+    }
+
+    private static final class UnsupportedFormulaException extends RuntimeException {
+        private UnsupportedFormulaException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.superjoin.formula;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Syntax tree of a parsed formula.
+ */
+public abstract class FormulaNode {
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Number extends FormulaNode {
+        private final double value;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Text extends FormulaNode {
+        private final String value;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Bool extends FormulaNode {
+        private final boolean value;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Error extends FormulaNode {
+        private final String code;
+    }
+
+    /**
+     * An omitted argument, as in {@code IF(A1,,0)}.
+     */
+    public static final class Missing extends FormulaNode {
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Reference extends FormulaNode {
+        private final CellRef ref;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Range extends FormulaNode {
+        private final RangeRef ref;
+    }
+
+    /**
+     * A defined name or any other identifier that is not a reference.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static final class Name extends FormulaNode {
+        private final String name;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Function extends FormulaNode {
+        // Upper case, without the _xlfn. prefix of newer functions
+        private final String name;
+        private final List<FormulaNode> arguments;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Unary extends FormulaNode {
+        // "-", "+" or "%"
+        private final String operator;
+        private final FormulaNode operand;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Binary extends FormulaNode {
+        private final String operator;
+        private final FormulaNode left;
+        private final FormulaNode right;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Array extends FormulaNode {
+        private final List<List<FormulaNode>> rows;
+    }
+}
@@ -0,0 +1,391 @@
+package org.superjoin.formula;
+
+import org.superjoin.constants.FormulaType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Recursive-descent parser for spreadsheet formulas. Builds the syntax tree and, in the same pass,
+ * collects cell references, ranges and function names and derives the {@link FormulaType}.
+ * <p>
+ * Operator precedence follows the spreadsheet convention, lowest first: comparison, {@code &},
+ * {@code + -}, {@code * /}, {@code ^}, unary sign, percent, then the range operator {@code :}.
+ */
+public final class FormulaParser {
+
+    private static final Set<String> AGGREGATION_FUNCTIONS = Set.of("SUM", "SUMIF", "SUMIFS", "SUMPRODUCT",
+            "AVERAGE", "AVERAGEIF", "AVERAGEIFS", "COUNT", "COUNTA", "COUNTIF", "COUNTIFS", "MIN", "MAX",
+            "PRODUCT", "SUBTOTAL", "AGGREGATE");
+
+    private static final Set<String> LOOKUP_FUNCTIONS = Set.of("VLOOKUP", "HLOOKUP", "XLOOKUP", "LOOKUP",
+            "INDEX", "MATCH", "XMATCH");
+
+    private static final Set<String> CONDITIONAL_FUNCTIONS = Set.of("IF", "IFS", "IFERROR", "IFNA", "SWITCH");
+
+    private final List<FormulaToken> tokens;
+    private int position;
+
+    private final List<CellRef> references = new ArrayList<>();
+    private final List<RangeRef> ranges = new ArrayList<>();
+    private final Set<String> functions = new LinkedHashSet<>();
+    private boolean arithmetic;
+
+    private FormulaParser(List<FormulaToken> tokens) {
+        this.tokens = tokens;
+    }
+
+    public static ParsedFormula parse(String formula) {
+        if (formula == null || formula.isEmpty()) {
+            return new ParsedFormula(null, List.of(), List.of(), Set.of(), FormulaType.NONE);
+        }
+
+        List<FormulaToken> tokens = FormulaTokenizer.tokenize(formula);
+        FormulaParser parser = new FormulaParser(tokens);
+        try {
+            FormulaNode root = parser.expression();
+            parser.expect(FormulaToken.Type.END);
+            return parser.result(root);
+        } catch (FormulaSyntaxException e) {
+            return recover(tokens);
+        }
+    }
+
+    /**
+     * Best effort for formulas the grammar rejects: words shaped like references that are not
+     * followed by a parenthesis still count as references.
+     */
+    private static ParsedFormula recover(List<FormulaToken> tokens) {
+        FormulaParser parser = new FormulaParser(tokens);
+        String sheet = null;
+        for (int i = 0; i < tokens.size(); i++) {
+            FormulaToken token = tokens.get(i);
+            if (token.is(FormulaToken.Type.SHEET)) {
+                sheet = token.getText();
+                continue;
+            }
+            if (token.is(FormulaToken.Type.WORD)) {
+                if (tokens.get(i + 1).is(FormulaToken.Type.LPAREN)) {
+                    parser.functions.add(functionName(token.getText()));
+                } else {
+                    CellRef ref = CellRef.parse(sheet, token.getText());
+                    if (ref != null) {
+                        parser.references.add(ref);
+                    }
+                }
+            } else if (token.is(FormulaToken.Type.OPERATOR) && "+-*/^".contains(token.getText())) {
+                parser.arithmetic = true;
+            }
+            sheet = null;
+        }
+        return parser.result(null);
+    }
+
+    private ParsedFormula result(FormulaNode root) {
+        return new ParsedFormula(root, Collections.unmodifiableList(references), Collections.unmodifiableList(ranges),
+                Collections.unmodifiableSet(functions), formulaType());
+    }
+
+    private FormulaType formulaType() {
+        boolean lookup = false;
+        boolean conditional = false;
+        for (String function : functions) {
+            if (AGGREGATION_FUNCTIONS.contains(function)) {
+                return FormulaType.AGGREGATION;
+            }
+            lookup |= LOOKUP_FUNCTIONS.contains(function);
+            conditional |= CONDITIONAL_FUNCTIONS.contains(function);
+        }
+        if (lookup) {
+            return FormulaType.LOOKUP;
+        }
+        if (conditional) {
+            return FormulaType.CONDITIONAL;
+        }
+        return arithmetic ? FormulaType.ARITHMETIC : FormulaType.OTHER;
+    }
+
+    private FormulaNode expression() {
+        FormulaNode left = concatenation();
+        while (peek().is(FormulaToken.Type.OPERATOR) && isComparison(peek().getText())) {
+            String operator = next().getText();
+            left = new FormulaNode.Binary(operator, left, concatenation());
+        }
+        return left;
+    }
+
+    private FormulaNode concatenation() {
+        FormulaNode left = additive();
+        while (peek().isOperator("&")) {
+            next();
+            left = new FormulaNode.Binary("&", left, additive());
+        }
+        return left;
+    }
+
+    private FormulaNode additive() {
+        FormulaNode left = term();
+        while (peek().isOperator("+") || peek().isOperator("-")) {
+            String operator = next().getText();
+            arithmetic = true;
+            left = new FormulaNode.Binary(operator, left, term());
+        }
+        return left;
+    }
+
+    private FormulaNode term() {
+        FormulaNode left = power();
+        while (peek().isOperator("*") || peek().isOperator("/")) {
+            String operator = next().getText();
+            arithmetic = true;
+            left = new FormulaNode.Binary(operator, left, power());
+        }
+        return left;
+    }
+
+    private FormulaNode power() {
+        FormulaNode left = unary();
+        while (peek().isOperator("^")) {
+            next();
+            arithmetic = true;
+            left = new FormulaNode.Binary("^", left, unary());
+        }
+        return left;
+    }
+
+    private FormulaNode unary() {
+        if (peek().isOperator("-") || peek().isOperator("+")) {
+            String operator = next().getText();
+            arithmetic |= operator.equals("-");
+            return new FormulaNode.Unary(operator, unary());
+        }
+        FormulaNode operand = primary();
+        while (peek().isOperator("%")) {
+            next();
+            operand = new FormulaNode.Unary("%", operand);
+        }
+        return operand;
+    }
+
+    private FormulaNode primary() {
+        FormulaToken token = next();
+        switch (token.getType()) {
+            case NUMBER:
+                if (peek().is(FormulaToken.Type.COLON)) {
+                    return rowRange(null, token);
+                }
+                return new FormulaNode.Number(Double.parseDouble(token.getText()));
+            case STRING:
+                return new FormulaNode.Text(token.getText());
+            case ERROR:
+                return new FormulaNode.Error(token.getText());
+            case LPAREN: {
+                FormulaNode inner = expression();
+                expect(FormulaToken.Type.RPAREN);
+                return inner;
+            }
+            case LBRACE:
+                return array();
+            case SHEET:
+                return reference(token.getText(), next());
+            case WORD:
+                if (peek().is(FormulaToken.Type.LPAREN)) {
+                    return function(token);
+                }
+                return reference(null, token);
+            default:
+                throw new FormulaSyntaxException("Unexpected " + token + " at " + token.getPosition());
+        }
+    }
+
+    private FormulaNode function(FormulaToken nameToken) {
+        String name = functionName(nameToken.getText());
+        functions.add(name);
+        expect(FormulaToken.Type.LPAREN);
+
+        List<FormulaNode> arguments = new ArrayList<>();
+        if (peek().is(FormulaToken.Type.RPAREN)) {
+            next();
+            return new FormulaNode.Function(name, arguments);
+        }
+        while (true) {
+            if (isArgumentSeparator(peek()) || peek().is(FormulaToken.Type.RPAREN)) {
+                arguments.add(new FormulaNode.Missing());
+            } else {
+                arguments.add(expression());
+            }
+            FormulaToken separator = next();
+            if (separator.is(FormulaToken.Type.RPAREN)) {
+                return new FormulaNode.Function(name, arguments);
+            }
+            if (!isArgumentSeparator(separator)) {
+                throw new FormulaSyntaxException("Expected , or ) at " + separator.getPosition());
+            }
+        }
+    }
+
+    private FormulaNode reference(String sheet, FormulaToken token) {
+        String text = token.getText();
+        if (token.is(FormulaToken.Type.NUMBER)) {
+            if (peek().is(FormulaToken.Type.COLON)) {
+                return rowRange(sheet, token);
+            }
+            throw new FormulaSyntaxException("Unexpected number after sheet at " + token.getPosition());
+        }
+        if (!token.is(FormulaToken.Type.WORD)) {
+            throw new FormulaSyntaxException("Expected a reference at " + token.getPosition());
+        }
+
+        if (sheet == null && (text.equalsIgnoreCase("TRUE") || text.equalsIgnoreCase("FALSE"))) {
+            return new FormulaNode.Bool(text.equalsIgnoreCase("TRUE"));
+        }
+
+        CellRef first = CellRef.parse(sheet, text);
+        if (peek().is(FormulaToken.Type.COLON)) {
+            next();
+            FormulaToken end = next();
+            // Some producers repeat the sheet on the second corner
+            if (end.is(FormulaToken.Type.SHEET)) {
+                end = next();
+            }
+            if (first != null) {
+                CellRef last = CellRef.parse(sheet, end.getText());
+                if (last == null) {
+                    throw new FormulaSyntaxException("Invalid range end at " + end.getPosition());
+                }
+                return range(RangeRef.of(sheet, first.getColumn(), first.getRow(), last.getColumn(), last.getRow(),
+                        first.isAbsoluteColumn(), first.isAbsoluteRow(), last.isAbsoluteColumn(), last.isAbsoluteRow()));
+            }
+            int firstColumn = column(text);
+            int lastColumn = column(end.getText());
+            if (firstColumn > 0 && lastColumn > 0) {
+                return range(RangeRef.of(sheet, firstColumn, 0, lastColumn, 0,
+                        text.startsWith("$"), false, end.getText().startsWith("$"), false));
+            }
+            int firstRow = row(text);
+            int lastRow = row(end.getText());
+            if (firstRow > 0 && lastRow > 0) {
+                return range(RangeRef.of(sheet, 0, firstRow, 0, lastRow,
+                        false, text.startsWith("$"), false, end.getText().startsWith("$")));
+            }
+            throw new FormulaSyntaxException("Invalid range at " + token.getPosition());
+        }
+
+        if (first != null) {
+            references.add(first);
+            return new FormulaNode.Reference(first);
+        }
+        if (sheet != null) {
+            throw new FormulaSyntaxException("Invalid reference at " + token.getPosition());
+        }
+        return new FormulaNode.Name(text);
+    }
+
+    private FormulaNode rowRange(String sheet, FormulaToken start) {
+        expect(FormulaToken.Type.COLON);
+        FormulaToken end = next();
+        int firstRow = row(start.getText());
+        int lastRow = row(end.getText());
+        if (firstRow <= 0 || lastRow <= 0) {
+            throw new FormulaSyntaxException("Invalid row range at " + start.getPosition());
+        }
+        return range(RangeRef.of(sheet, 0, firstRow, 0, lastRow,
+                false, start.getText().startsWith("$"), false, end.getText().startsWith("$")));
+    }
+
+    private FormulaNode range(RangeRef range) {
+        ranges.add(range);
+        return new FormulaNode.Range(range);
+    }
+
+    private FormulaNode array() {
+        List<List<FormulaNode>> rows = new ArrayList<>();
+        List<FormulaNode> row = new ArrayList<>();
+        while (true) {
+            row.add(expression());
+            FormulaToken separator = next();
+            if (separator.is(FormulaToken.Type.COMMA)) {
+                continue;
+            }
+            rows.add(row);
+            if (separator.is(FormulaToken.Type.RBRACE)) {
+                return new FormulaNode.Array(rows);
+            }
+            if (!separator.is(FormulaToken.Type.SEMICOLON)) {
+                throw new FormulaSyntaxException("Expected , ; or } at " + separator.getPosition());
+            }
+            row = new ArrayList<>();
+        }
+    }
+
+    private FormulaToken peek() {
+        return tokens.get(position);
+    }
+
+    private FormulaToken next() {
+        FormulaToken token = tokens.get(position);
+        if (!token.is(FormulaToken.Type.END)) {
+            position++;
+        }
+        return token;
+    }
+
+    private void expect(FormulaToken.Type type) {
+        FormulaToken token = next();
+        if (!token.is(type)) {
+            throw new FormulaSyntaxException("Expected " + type + " but found " + token + " at " + token.getPosition());
+        }
+    }
+
+    private static boolean isComparison(String operator) {
+        return operator.equals("=") || operator.equals("<>") || operator.equals("<")
+                || operator.equals(">") || operator.equals("<=") || operator.equals(">=");
+    }
+
+    // Some locales separate arguments with ';'
+    private static boolean isArgumentSeparator(FormulaToken token) {
+        return token.is(FormulaToken.Type.COMMA) || token.is(FormulaToken.Type.SEMICOLON);
+    }
+
+    private static String functionName(String text) {
+        String name = text.toUpperCase();
+        return name.startsWith("_XLFN.") ? name.substring(6) : name;
+    }
+
+    // Column of a column-only name such as A or $AB, 0 otherwise
+    private static int column(String text) {
+        String letters = text.startsWith("$") ? text.substring(1) : text;
+        if (letters.isEmpty() || letters.length() > 3) {
+            return 0;
+        }
+        for (int i = 0; i < letters.length(); i++) {
+            if (!Character.isLetter(letters.charAt(i))) {
+                return 0;
+            }
+        }
+        return CellRef.columnIndex(letters);
+    }
+
+    // Row of a row-only name such as 7 or $7, 0 otherwise
+    private static int row(String text) {
+        String digits = text.startsWith("$") ? text.substring(1) : text;
+        if (digits.isEmpty() || digits.length() > 8) {
+            return 0;
+        }
+        for (int i = 0; i < digits.length(); i++) {
+            if (!Character.isDigit(digits.charAt(i))) {
+                return 0;
+            }
+        }
+        return Integer.parseInt(digits);
+    }
+
+    private static final class FormulaSyntaxException extends RuntimeException {
+        private FormulaSyntaxException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
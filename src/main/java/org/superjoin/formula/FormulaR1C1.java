@@ -0,0 +1,166 @@
+package org.superjoin.formula;
+
+import java.util.List;
+
+/**
+ * Rewrites the references of an A1 formula. {@link #toR1C1} gives the relative R1C1 form, which is
+ * identical for every copy of a formula dragged across a block: {@code =A1*2} in B1 and {@code =A2*2}
+ * in B2 both become {@code =RC[-1]*2}. {@link #shift} moves a formula the way fill-down does.
+ * <p>
+ * Only reference tokens are rewritten; everything else, including strings, spacing and sheet
+ * prefixes, is copied through unchanged.
+ */
+public final class FormulaR1C1 {
+
+    private FormulaR1C1() {
+    }
+
+    /**
+     * @param column 1-based column of the cell holding the formula
+     * @param row    1-based row of the cell holding the formula
+     */
+    public static String toR1C1(String formula, int column, int row) {
+        return rewrite(formula, new Rewriter() {
+            @Override
+            public String cell(CellRef ref) {
+                return "R" + part(ref.getRow(), ref.isAbsoluteRow(), row)
+                        + "C" + part(ref.getColumn(), ref.isAbsoluteColumn(), column);
+            }
+
+            @Override
+            public String column(int value, boolean absolute) {
+                return "C" + part(value, absolute, column);
+            }
+
+            @Override
+            public String row(int value, boolean absolute) {
+                return "R" + part(value, absolute, row);
+            }
+        });
+    }
+
+    /**
+     * Moves the relative parts of every reference by the given offsets. References pushed off the
+     * sheet become {@code #REF!}.
+     */
+    public static String shift(String formula, int columnOffset, int rowOffset) {
+        if (columnOffset == 0 && rowOffset == 0) {
+            return formula;
+        }
+        return rewrite(formula, new Rewriter() {
+            @Override
+            public String cell(CellRef ref) {
+                int column = ref.isAbsoluteColumn() ? ref.getColumn() : ref.getColumn() + columnOffset;
+                int row = ref.isAbsoluteRow() ? ref.getRow() : ref.getRow() + rowOffset;
+                if (!validColumn(column) || !validRow(row)) {
+                    return "#REF!";
+                }
+                return (ref.isAbsoluteColumn() ? "$" : "") + CellRef.columnName(column)
+                        + (ref.isAbsoluteRow() ? "$" : "") + row;
+            }
+
+            @Override
+            public String column(int value, boolean absolute) {
+                int column = absolute ? value : value + columnOffset;
+                return validColumn(column) ? (absolute ? "$" : "") + CellRef.columnName(column) : "#REF!";
+            }
+
+            @Override
+            public String row(int value, boolean absolute) {
+                int row = absolute ? value : value + rowOffset;
+                return validRow(row) ? (absolute ? "$" : "") + row : "#REF!";
+            }
+        });
+    }
+
+    private interface Rewriter {
+        String cell(CellRef ref);
+
+        String column(int value, boolean absolute);
+
+        String row(int value, boolean absolute);
+    }
+
+    // Classifies tokens the same way FormulaParser does
+    private static String rewrite(String formula, Rewriter rewriter) {
+        List<FormulaToken> tokens = FormulaTokenizer.tokenize(formula);
+        StringBuilder result = new StringBuilder(formula.length() + 8);
+        int copied = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            FormulaToken token = tokens.get(i);
+            if (!token.is(FormulaToken.Type.WORD) && !token.is(FormulaToken.Type.NUMBER)) {
+                continue;
+            }
+            String text = token.getText();
+            boolean inRange = tokens.get(i + 1).is(FormulaToken.Type.COLON) || (i > 0 && (
+                    tokens.get(i - 1).is(FormulaToken.Type.COLON)
+                            || (tokens.get(i - 1).is(FormulaToken.Type.SHEET) && i > 1 && tokens.get(i - 2).is(FormulaToken.Type.COLON))));
+
+            String replacement = null;
+            if (token.is(FormulaToken.Type.WORD) && !tokens.get(i + 1).is(FormulaToken.Type.LPAREN)) {
+                CellRef ref = CellRef.parse(null, text);
+                if (ref != null) {
+                    replacement = rewriter.cell(ref);
+                } else if (inRange && columnOnly(text)) {
+                    replacement = rewriter.column(CellRef.columnIndex(strip(text)), text.startsWith("$"));
+                }
+            }
+            if (replacement == null && inRange && rowOnly(text)) {
+                replacement = rewriter.row(Integer.parseInt(strip(text)), text.startsWith("$"));
+            }
+
+            if (replacement != null) {
+                result.append(formula, copied, token.getPosition()).append(replacement);
+                copied = token.getPosition() + text.length();
+            }
+        }
+        return result.append(formula, copied, formula.length()).toString();
+    }
+
+    private static String part(int value, boolean absolute, int origin) {
+        if (absolute) {
+            return String.valueOf(value);
+        }
+        int offset = value - origin;
+        return offset == 0 ? "" : "[" + offset + "]";
+    }
+
+    private static String strip(String text) {
+        return text.startsWith("$") ? text.substring(1) : text;
+    }
+
+    private static boolean columnOnly(String text) {
+        String letters = strip(text);
+        if (letters.isEmpty() || letters.length() > 3) {
+            return false;
+        }
+        for (int i = 0; i < letters.length(); i++) {
+            char c = letters.charAt(i);
+            if (!((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean rowOnly(String text) {
+        String digits = strip(text);
+        if (digits.isEmpty() || digits.length() > 8) {
+            return false;
+        }
+        for (int i = 0; i < digits.length(); i++) {
+            if (digits.charAt(i) < '0' || digits.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return Integer.parseInt(digits) > 0;
+    }
+
+    private static boolean validColumn(int column) {
+        return column >= 1 && column <= CellRef.MAX_COLUMN;
+    }
+
+    private static boolean validRow(int row) {
+        return row >= 1 && row <= CellRef.MAX_ROW;
+    }
+}
@@ -0,0 +1,45 @@
+package org.superjoin.formula;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public final class FormulaToken {
+
+    public enum Type {
+        NUMBER,
+        STRING,
+        ERROR,
+        // Identifiers, cell references, column or row names and function names; classified by the parser
+        WORD,
+        // A sheet prefix, with the trailing '!' consumed and quotes removed
+        SHEET,
+        OPERATOR,
+        COLON,
+        COMMA,
+        SEMICOLON,
+        LPAREN,
+        RPAREN,
+        LBRACE,
+        RBRACE,
+        END
+    }
+
+    private final Type type;
+    private final String text;
+    private final int position;
+
+    public boolean is(Type type) {
+        return this.type == type;
+    }
+
+    public boolean isOperator(String operator) {
+        return type == Type.OPERATOR && text.equals(operator);
+    }
+
+    @Override
+    public String toString() {
+        return type + "(" + text + ")";
+    }
+}
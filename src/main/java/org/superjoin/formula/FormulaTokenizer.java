@@ -0,0 +1,193 @@
+package org.superjoin.formula;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a spreadsheet formula into tokens in a single left-to-right scan. The scanner is lenient:
+ * unterminated strings run to the end and unknown characters become one-character operators, so
+ * every input yields a token list and malformed formulas are only rejected by the parser.
+ */
+public final class FormulaTokenizer {
+
+    private final String formula;
+    private int position;
+
+    private FormulaTokenizer(String formula) {
+        this.formula = formula;
+    }
+
+    /**
+     * @param formula formula text, with or without the leading {@code =}
+     */
+    public static List<FormulaToken> tokenize(String formula) {
+        return new FormulaTokenizer(formula).scan();
+    }
+
+    private List<FormulaToken> scan() {
+        List<FormulaToken> tokens = new ArrayList<>();
+        if (formula.startsWith("=")) {
+            position = 1;
+        }
+
+        while (true) {
+            skipWhitespace();
+            if (position >= formula.length()) {
+                tokens.add(new FormulaToken(FormulaToken.Type.END, "", position));
+                return tokens;
+            }
+
+            int start = position;
+            char c = formula.charAt(position);
+            if (c == '"') {
+                tokens.add(new FormulaToken(FormulaToken.Type.STRING, readQuoted('"'), start));
+            } else if (c == '\'') {
+                // Only sheet names are single-quoted
+                String sheet = readQuoted('\'');
+                if (position < formula.length() && formula.charAt(position) == '!') {
+                    position++;
+                }
+                tokens.add(new FormulaToken(FormulaToken.Type.SHEET, sheet, start));
+            } else if (c == '#') {
+                tokens.add(new FormulaToken(FormulaToken.Type.ERROR, readError(), start));
+            } else if (isDigit(c) || (c == '.' && position + 1 < formula.length() && isDigit(formula.charAt(position + 1)))) {
+                tokens.add(readNumberOrWord(start));
+            } else if (isWordChar(c)) {
+                String word = readWord();
+                if (position < formula.length() && formula.charAt(position) == '!') {
+                    position++;
+                    tokens.add(new FormulaToken(FormulaToken.Type.SHEET, word, start));
+                } else {
+                    tokens.add(new FormulaToken(FormulaToken.Type.WORD, word, start));
+                }
+            } else {
+                tokens.add(readPunctuation(c, start));
+            }
+        }
+    }
+
+    private FormulaToken readNumberOrWord(int start) {
+        while (position < formula.length() && isDigit(formula.charAt(position))) {
+            position++;
+        }
+        if (position < formula.length() && formula.charAt(position) == '.') {
+            position++;
+            while (position < formula.length() && isDigit(formula.charAt(position))) {
+                position++;
+            }
+        }
+        if (position < formula.length() && (formula.charAt(position) == 'e' || formula.charAt(position) == 'E')) {
+            int exponent = position + 1;
+            if (exponent < formula.length() && (formula.charAt(exponent) == '+' || formula.charAt(exponent) == '-')) {
+                exponent++;
+            }
+            if (exponent < formula.length() && isDigit(formula.charAt(exponent))) {
+                position = exponent;
+                while (position < formula.length() && isDigit(formula.charAt(position))) {
+                    position++;
+                }
+            }
+        }
+        // Sheet names such as 2024!A1 start with a digit
+        if (position < formula.length() && (Character.isLetter(formula.charAt(position)) || formula.charAt(position) == '_')) {
+            position = start;
+            String word = readWord();
+            if (position < formula.length() && formula.charAt(position) == '!') {
+                position++;
+                return new FormulaToken(FormulaToken.Type.SHEET, word, start);
+            }
+            return new FormulaToken(FormulaToken.Type.WORD, word, start);
+        }
+        return new FormulaToken(FormulaToken.Type.NUMBER, formula.substring(start, position), start);
+    }
+
+    private FormulaToken readPunctuation(char c, int start) {
+        position++;
+        switch (c) {
+            case ':':
+                return new FormulaToken(FormulaToken.Type.COLON, ":", start);
+            case ',':
+                return new FormulaToken(FormulaToken.Type.COMMA, ",", start);
+            case ';':
+                return new FormulaToken(FormulaToken.Type.SEMICOLON, ";", start);
+            case '(':
+                return new FormulaToken(FormulaToken.Type.LPAREN, "(", start);
+            case ')':
+                return new FormulaToken(FormulaToken.Type.RPAREN, ")", start);
+            case '{':
+                return new FormulaToken(FormulaToken.Type.LBRACE, "{", start);
+            case '}':
+                return new FormulaToken(FormulaToken.Type.RBRACE, "}", start);
+            case '<':
+                if (position < formula.length() && (formula.charAt(position) == '=' || formula.charAt(position) == '>')) {
+                    position++;
+                }
+                return new FormulaToken(FormulaToken.Type.OPERATOR, formula.substring(start, position), start);
+            case '>':
+                if (position < formula.length() && formula.charAt(position) == '=') {
+                    position++;
+                }
+                return new FormulaToken(FormulaToken.Type.OPERATOR, formula.substring(start, position), start);
+            default:
+                return new FormulaToken(FormulaToken.Type.OPERATOR, String.valueOf(c), start);
+        }
+    }
+
+    private String readQuoted(char quote) {
+        StringBuilder text = new StringBuilder();
+        position++;
+        while (position < formula.length()) {
+            char c = formula.charAt(position++);
+            if (c == quote) {
+                // A doubled quote is an escaped quote
+                if (position < formula.length() && formula.charAt(position) == quote) {
+                    text.append(quote);
+                    position++;
+                } else {
+                    return text.toString();
+                }
+            } else {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+
+    private String readError() {
+        int start = position;
+        position++;
+        while (position < formula.length()) {
+            char c = formula.charAt(position++);
+            if (c == '!' || c == '?') {
+                break;
+            }
+            // #N/A ends after its last letter
+            if (c == 'A' && formula.startsWith("#N/A", start) && position == start + 4) {
+                break;
+            }
+        }
+        return formula.substring(start, position);
+    }
+
+    private String readWord() {
+        int start = position;
+        while (position < formula.length() && isWordChar(formula.charAt(position))) {
+            position++;
+        }
+        return formula.substring(start, position);
+    }
+
+    private void skipWhitespace() {
+        while (position < formula.length() && Character.isWhitespace(formula.charAt(position))) {
+            position++;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '$' || c == '\\';
+    }
+}
@@ -0,0 +1,28 @@
+package org.superjoin.formula;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.superjoin.constants.FormulaType;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Everything the analysis needs from one formula, produced by a single parse. Instances are
+ * immutable and shared through the formula cache.
+ */
+@Getter
+@AllArgsConstructor
+public final class ParsedFormula {
+
+    // Null when the formula could not be parsed; references were then recovered from the tokens
+    private final FormulaNode root;
+    private final List<CellRef> references;
+    private final List<RangeRef> ranges;
+    private final Set<String> functions;
+    private final FormulaType formulaType;
+
+    public boolean isValid() {
+        return root != null;
+    }
+}
@@ -0,0 +1,85 @@
+package org.superjoin.formula;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * A rectangular range. Whole-column ranges such as {@code A:C} have rows 0, whole-row ranges
+ * such as {@code 2:5} have columns 0; bounds are normalised so first is never after last.
+ * The {@code $} anchors of each side are kept but do not take part in equality.
+ */
+@Getter
+@EqualsAndHashCode
+@AllArgsConstructor
+public final class RangeRef {
+
+    private final String sheet;
+    private final int firstColumn;
+    private final int firstRow;
+    private final int lastColumn;
+    private final int lastRow;
+    @EqualsAndHashCode.Exclude
+    private final boolean absoluteFirstColumn;
+    @EqualsAndHashCode.Exclude
+    private final boolean absoluteFirstRow;
+    @EqualsAndHashCode.Exclude
+    private final boolean absoluteLastColumn;
+    @EqualsAndHashCode.Exclude
+    private final boolean absoluteLastRow;
+
+    public static RangeRef of(String sheet, int firstColumn, int firstRow, int lastColumn, int lastRow) {
+        return of(sheet, firstColumn, firstRow, lastColumn, lastRow, false, false, false, false);
+    }
+
+    public static RangeRef of(String sheet, int firstColumn, int firstRow, int lastColumn, int lastRow,
+                              boolean absoluteFirstColumn, boolean absoluteFirstRow,
+                              boolean absoluteLastColumn, boolean absoluteLastRow) {
+        boolean swapColumns = firstColumn > lastColumn;
+        boolean swapRows = firstRow > lastRow;
+        return new RangeRef(sheet,
+                swapColumns ? lastColumn : firstColumn, swapRows ? lastRow : firstRow,
+                swapColumns ? firstColumn : lastColumn, swapRows ? firstRow : lastRow,
+                swapColumns ? absoluteLastColumn : absoluteFirstColumn, swapRows ? absoluteLastRow : absoluteFirstRow,
+                swapColumns ? absoluteFirstColumn : absoluteLastColumn, swapRows ? absoluteFirstRow : absoluteLastRow);
+    }
+
+    public boolean isBounded() {
+        return firstColumn > 0 && firstRow > 0;
+    }
+
+    /**
+     * Number of cells, or -1 for whole-column and whole-row ranges.
+     */
+    public long getCellCount() {
+        return isBounded() ? (long) (lastColumn - firstColumn + 1) * (lastRow - firstRow + 1) : -1;
+    }
+
+    /**
+     * The same range with open sides closed at the sheet limits, so it can be compared numerically.
+     */
+    public RangeRef toBounded() {
+        return new RangeRef(sheet, firstColumn == 0 ? 1 : firstColumn, firstRow == 0 ? 1 : firstRow,
+                lastColumn == 0 ? CellRef.MAX_COLUMN : lastColumn, lastRow == 0 ? CellRef.MAX_ROW : lastRow,
+                absoluteFirstColumn, absoluteFirstRow, absoluteLastColumn, absoluteLastRow);
+    }
+
+    public boolean contains(int column, int row) {
+        return (firstColumn == 0 || (column >= firstColumn && column <= lastColumn))
+                && (firstRow == 0 || (row >= firstRow && row <= lastRow));
+    }
+
+    /**
+     * The range without sheet as written in A1 notation, e.g. {@code A1:B7}, {@code C:C} or {@code 2:5}.
+     */
+    public String getAddress() {
+        String first = (firstColumn == 0 ? "" : CellRef.columnName(firstColumn)) + (firstRow == 0 ? "" : firstRow);
+        String last = (lastColumn == 0 ? "" : CellRef.columnName(lastColumn)) + (lastRow == 0 ? "" : lastRow);
+        return first + ":" + last;
+    }
+
+    @Override
+    public String toString() {
+        return sheet == null ? getAddress() : sheet + "!" + getAddress();
+    }
+}
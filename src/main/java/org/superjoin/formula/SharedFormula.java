@@ -0,0 +1,146 @@
+package org.superjoin.formula;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.superjoin.constants.FormulaType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The analysis of one relative R1C1 formula, shared by every cell holding a copy of it. References
+ * are kept relative to the cell the formula was first analysed at and re-anchored on demand, so a
+ * column of ten thousand dragged-down formulas is parsed once.
+ * <p>
+ * The anchor is the top-left-most position at which every relative reference is still on the
+ * sheet. It depends only on the R1C1 text, so every analysis of the same formula agrees on it and
+ * member offsets from it are never negative.
+ */
+@Getter
+public final class SharedFormula {
+
+    private final String r1c1;
+    private final FormulaType formulaType;
+    private final int anchorColumn;
+    private final int anchorRow;
+    // The formula as it reads at the anchor
+    private final String anchorFormula;
+
+    @Getter(AccessLevel.NONE)
+    private final ParsedFormula parsed;
+    // Position the syntax tree was parsed at
+    private final int originColumn;
+    private final int originRow;
+
+    private SharedFormula(String r1c1, ParsedFormula parsed, int originColumn, int originRow,
+                          int anchorColumn, int anchorRow, String anchorFormula) {
+        this.r1c1 = r1c1;
+        this.formulaType = parsed.getFormulaType();
+        this.parsed = parsed;
+        this.originColumn = originColumn;
+        this.originRow = originRow;
+        this.anchorColumn = anchorColumn;
+        this.anchorRow = anchorRow;
+        this.anchorFormula = anchorFormula;
+    }
+
+    /**
+     * @param parsed the formula parsed as it reads at ({@code column}, {@code row})
+     */
+    public static SharedFormula of(String formula, int column, int row, String r1c1, ParsedFormula parsed) {
+        int anchorColumn = 1;
+        int anchorRow = 1;
+        for (CellRef ref : parsed.getReferences()) {
+            anchorColumn = lowest(anchorColumn, ref.getColumn(), ref.isAbsoluteColumn(), column);
+            anchorRow = lowest(anchorRow, ref.getRow(), ref.isAbsoluteRow(), row);
+        }
+        for (RangeRef range : parsed.getRanges()) {
+            anchorColumn = lowest(anchorColumn, range.getFirstColumn(), range.isAbsoluteFirstColumn(), column);
+            anchorColumn = lowest(anchorColumn, range.getLastColumn(), range.isAbsoluteLastColumn(), column);
+            anchorRow = lowest(anchorRow, range.getFirstRow(), range.isAbsoluteFirstRow(), row);
+            anchorRow = lowest(anchorRow, range.getLastRow(), range.isAbsoluteLastRow(), row);
+        }
+        String anchorFormula = FormulaR1C1.shift(formula, anchorColumn - column, anchorRow - row);
+        return new SharedFormula(r1c1, parsed, column, row, anchorColumn, anchorRow, anchorFormula);
+    }
+
+    // Smallest anchor coordinate keeping a relative part at or after 1; absolute and open parts do not move
+    private static int lowest(int current, int value, boolean absolute, int origin) {
+        if (absolute || value == 0) {
+            return current;
+        }
+        return Math.max(current, origin - value + 1);
+    }
+
+    /**
+     * Stable 64-bit id of the formula group on a sheet: FNV-1a over the sheet name and the R1C1 text.
+     * Unqualified references point at the formula's own sheet, so equal R1C1 text on different
+     * sheets forms different groups.
+     */
+    public long groupId(String sheet) {
+        long hash = 0xcbf29ce484222325L;
+        String key = sheet + '\u0000' + r1c1;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Syntax tree of the formula as it reads at the origin, or null if it could not be parsed.
+     * Evaluate it for another member with that member's offset from the origin.
+     */
+    public FormulaNode getRoot() {
+        return parsed.getRoot();
+    }
+
+    /**
+     * The formula text as it reads in the cell at ({@code column}, {@code row}).
+     */
+    public String formulaAt(int column, int row) {
+        return FormulaR1C1.shift(anchorFormula, column - anchorColumn, row - anchorRow);
+    }
+
+    public List<CellRef> referencesAt(int column, int row) {
+        int columnOffset = column - originColumn;
+        int rowOffset = row - originRow;
+        List<CellRef> references = new ArrayList<>(parsed.getReferences().size());
+        for (CellRef ref : parsed.getReferences()) {
+            int refColumn = ref.isAbsoluteColumn() ? ref.getColumn() : ref.getColumn() + columnOffset;
+            int refRow = ref.isAbsoluteRow() ? ref.getRow() : ref.getRow() + rowOffset;
+            if (refColumn >= 1 && refColumn <= CellRef.MAX_COLUMN && refRow >= 1 && refRow <= CellRef.MAX_ROW) {
+                references.add(new CellRef(ref.getSheet(), refColumn, refRow, ref.isAbsoluteColumn(), ref.isAbsoluteRow()));
+            }
+        }
+        return references;
+    }
+
+    public List<RangeRef> rangesAt(int column, int row) {
+        int columnOffset = column - originColumn;
+        int rowOffset = row - originRow;
+        List<RangeRef> ranges = new ArrayList<>(parsed.getRanges().size());
+        for (RangeRef range : parsed.getRanges()) {
+            int firstColumn = move(range.getFirstColumn(), range.isAbsoluteFirstColumn(), columnOffset);
+            int firstRow = move(range.getFirstRow(), range.isAbsoluteFirstRow(), rowOffset);
+            int lastColumn = move(range.getLastColumn(), range.isAbsoluteLastColumn(), columnOffset);
+            int lastRow = move(range.getLastRow(), range.isAbsoluteLastRow(), rowOffset);
+            if (firstColumn >= 0 && firstRow >= 0 && lastColumn >= 0 && lastRow >= 0
+                    && lastColumn <= CellRef.MAX_COLUMN && lastRow <= CellRef.MAX_ROW) {
+                ranges.add(RangeRef.of(range.getSheet(), firstColumn, firstRow, lastColumn, lastRow,
+                        range.isAbsoluteFirstColumn(), range.isAbsoluteFirstRow(),
+                        range.isAbsoluteLastColumn(), range.isAbsoluteLastRow()));
+            }
+        }
+        return ranges;
+    }
+
+    // Open sides (0) stay open; a relative side moved off the sheet yields -1
+    private static int move(int value, boolean absolute, int offset) {
+        if (value == 0 || absolute) {
+            return value;
+        }
+        int moved = value + offset;
+        return moved >= 1 ? moved : -1;
+    }
+}
@@ -0,0 +1,62 @@
+package org.superjoin.formula;
+
+import java.util.Locale;
+
+/**
+ * The one place sheet names from formula references are matched against a spreadsheet's sheets.
+ * Both sides go through {@link #key(String)}, so the formula analyser, the graph writer and the
+ * dependency engine resolve a reference to the same sheet.
+ */
+public final class SheetNames {
+
+    private SheetNames() {
+    }
+
+    /**
+     * The form a sheet name is matched in. As in Sheets, a reference names a sheet by its full
+     * name, quoted or not, ignoring case; {@link Locale#ROOT} keeps the upper-casing independent of
+     * the JVM's locale, and names in any script keep every character.
+     */
+    public static String key(String sheet) {
+        return unquote(sheet).toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * {@code 'Q1 ''24'} as {@code Q1 '24}; names without surrounding quotes are returned as they are.
+     */
+    public static String unquote(String sheet) {
+        if (sheet.length() >= 2 && sheet.charAt(0) == '\'' && sheet.charAt(sheet.length() - 1) == '\'') {
+            return sheet.substring(1, sheet.length() - 1).replace("''", "'");
+        }
+        return sheet;
+    }
+
+    /**
+     * {@code Q1 '24} as {@code 'Q1 ''24'}, the form A1 ranges and references quote a sheet in.
+     */
+    public static String quote(String sheet) {
+        return "'" + sheet.replace("'", "''") + "'";
+    }
+
+    /**
+     * {@code Sheet1!A1}, or {@code 'Sheet 2'!A1} when the name is not a plain word, so the result
+     * reads back as the same reference.
+     */
+    public static String reference(String sheet, String address) {
+        return (needsQuotes(sheet) ? quote(sheet) : sheet) + "!" + address;
+    }
+
+    // Unquoted sheet names are a word that cannot be mistaken for a cell address
+    private static boolean needsQuotes(String sheet) {
+        if (sheet.isEmpty() || !(Character.isLetter(sheet.charAt(0)) || sheet.charAt(0) == '_')) {
+            return true;
+        }
+        for (int i = 1; i < sheet.length(); i++) {
+            char c = sheet.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '.') {
+                return true;
+            }
+        }
+        return CellRef.parse(null, sheet) != null;
+    }
+}
@@ -0,0 +1,141 @@
+package org.superjoin.graph;
+
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.Transaction;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.exceptions.TransientException;
+import org.neo4j.driver.types.Node;
+import org.neo4j.driver.types.Path;
+import org.neo4j.driver.types.Relationship;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link GraphClient} for a Neo4j server reached through the Bolt driver.
+ */
+public class BoltGraphClient implements GraphClient {
+
+    private final Driver driver;
+
+    public BoltGraphClient(Driver driver) {
+        this.driver = driver;
+    }
+
+    @Override
+    public List<GraphRecord> read(String cypher, Map<String, Object> parameters) {
+        try (Session session = driver.session()) {
+            return session.readTransaction(tx -> toRecords(tx.run(cypher, parameters).list()));
+        }
+    }
+
+    @Override
+    public void write(String cypher, Map<String, Object> parameters) {
+        try (Session session = driver.session()) {
+            session.run(cypher, parameters).consume();
+        }
+    }
+
+    @Override
+    public GraphTransaction beginTransaction() {
+        Session session = driver.session();
+        try {
+            return new BoltTransaction(session, session.beginTransaction());
+        } catch (RuntimeException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isTransient(RuntimeException e) {
+        return e instanceof TransientException;
+    }
+
+    private static List<GraphRecord> toRecords(List<Record> records) {
+        List<GraphRecord> converted = new ArrayList<>(records.size());
+        for (Record record : records) {
+            Map<String, Object> values = new HashMap<>();
+            for (String key : record.keys()) {
+                values.put(key, convert(record.get(key)));
+            }
+            converted.add(new GraphRecord(values));
+        }
+        return converted;
+    }
+
+    private static Object convert(Object value) {
+        if (value instanceof Value) {
+            return convert(((Value) value).asObject());
+        }
+        if (value instanceof Node) {
+            return toNode((Node) value);
+        }
+        if (value instanceof Relationship) {
+            return toRelationship((Relationship) value);
+        }
+        if (value instanceof Path) {
+            Path path = (Path) value;
+            List<GraphNode> nodes = new ArrayList<>();
+            path.nodes().forEach(node -> nodes.add(toNode(node)));
+            List<GraphRelationship> relationships = new ArrayList<>();
+            path.relationships().forEach(relationship -> relationships.add(toRelationship(relationship)));
+            return new GraphPath(nodes, relationships);
+        }
+        if (value instanceof List) {
+            List<Object> list = new ArrayList<>();
+            ((List<?>) value).forEach(element -> list.add(convert(element)));
+            return list;
+        }
+        if (value instanceof Map) {
+            Map<String, Object> map = new HashMap<>();
+            ((Map<?, ?>) value).forEach((k, v) -> map.put(String.valueOf(k), convert(v)));
+            return map;
+        }
+        return value;
+    }
+
+    private static GraphNode toNode(Node node) {
+        List<String> labels = new ArrayList<>();
+        node.labels().forEach(labels::add);
+        return new GraphNode(node.id(), labels, node.asMap());
+    }
+
+    private static GraphRelationship toRelationship(Relationship relationship) {
+        return new GraphRelationship(relationship.id(), relationship.type(),
+                relationship.startNodeId(), relationship.endNodeId(), relationship.asMap());
+    }
+
+    private static final class BoltTransaction implements GraphTransaction {
+        private final Session session;
+        private final Transaction transaction;
+
+        private BoltTransaction(Session session, Transaction transaction) {
+            this.session = session;
+            this.transaction = transaction;
+        }
+
+        @Override
+        public List<GraphRecord> run(String cypher, Map<String, Object> parameters) {
+            return toRecords(transaction.run(cypher, parameters).list());
+        }
+
+        @Override
+        public void commit() {
+            transaction.commit();
+        }
+
+        @Override
+        public void close() {
+            try {
+                transaction.close();
+            } finally {
+                session.close();
+            }
+        }
+    }
+}
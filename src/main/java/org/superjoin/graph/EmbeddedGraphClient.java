@@ -0,0 +1,147 @@
+package org.superjoin.graph;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.QueryExecutionException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransientFailureException;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link GraphClient} for an in-process database. Queries run as local transactions and results
+ * are copied out before the transaction closes, as embedded entities are only valid inside it.
+ */
+public class EmbeddedGraphClient implements GraphClient {
+
+    private final GraphDatabaseService database;
+
+    public EmbeddedGraphClient(GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    @Override
+    public List<GraphRecord> read(String cypher, Map<String, Object> parameters) {
+        try (Transaction tx = database.beginTx()) {
+            return toRecords(tx.execute(cypher, parameters));
+        }
+    }
+
+    @Override
+    public void write(String cypher, Map<String, Object> parameters) {
+        // An implicit transaction, like a Bolt auto-commit, so CALL { ... } IN TRANSACTIONS is allowed
+        database.executeTransactionally(cypher, parameters);
+    }
+
+    @Override
+    public GraphTransaction beginTransaction() {
+        Transaction tx = database.beginTx();
+        return new GraphTransaction() {
+            @Override
+            public List<GraphRecord> run(String cypher, Map<String, Object> parameters) {
+                return toRecords(tx.execute(cypher, parameters));
+            }
+
+            @Override
+            public void commit() {
+                tx.commit();
+            }
+
+            @Override
+            public void close() {
+                tx.close();
+            }
+        };
+    }
+
+    @Override
+    public boolean isTransient(RuntimeException e) {
+        // Cypher wraps kernel failures, so the cause chain and status code are both checked
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof TransientFailureException) {
+                return true;
+            }
+            if (t instanceof QueryExecutionException
+                    && ((QueryExecutionException) t).getStatusCode().startsWith("Neo.TransientError")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<GraphRecord> toRecords(Result result) {
+        List<GraphRecord> records = new ArrayList<>();
+        try (result) {
+            while (result.hasNext()) {
+                Map<String, Object> row = result.next();
+                Map<String, Object> values = new HashMap<>();
+                row.forEach((key, value) -> values.put(key, convert(value)));
+                records.add(new GraphRecord(values));
+            }
+        }
+        return records;
+    }
+
+    private static Object convert(Object value) {
+        if (value instanceof Node) {
+            return toNode((Node) value);
+        }
+        if (value instanceof Relationship) {
+            return toRelationship((Relationship) value);
+        }
+        if (value instanceof Path) {
+            Path path = (Path) value;
+            List<GraphNode> nodes = new ArrayList<>();
+            path.nodes().forEach(node -> nodes.add(toNode(node)));
+            List<GraphRelationship> relationships = new ArrayList<>();
+            path.relationships().forEach(relationship -> relationships.add(toRelationship(relationship)));
+            return new GraphPath(nodes, relationships);
+        }
+        if (value instanceof Iterable) {
+            List<Object> list = new ArrayList<>();
+            ((Iterable<?>) value).forEach(element -> list.add(convert(element)));
+            return list;
+        }
+        if (value instanceof Map) {
+            Map<String, Object> map = new HashMap<>();
+            ((Map<?, ?>) value).forEach((k, v) -> map.put(String.valueOf(k), convert(v)));
+            return map;
+        }
+        if (value != null && value.getClass().isArray()) {
+            // Array properties come back as Java arrays; Bolt returns them as lists
+            List<Object> list = new ArrayList<>();
+            for (int i = 0; i < Array.getLength(value); i++) {
+                list.add(Array.get(value, i));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    private static GraphNode toNode(Node node) {
+        List<String> labels = new ArrayList<>();
+        for (Label label : node.getLabels()) {
+            labels.add(label.name());
+        }
+        return new GraphNode(node.getId(), labels, convertProperties(node.getAllProperties()));
+    }
+
+    private static GraphRelationship toRelationship(Relationship relationship) {
+        return new GraphRelationship(relationship.getId(), relationship.getType().name(),
+                relationship.getStartNodeId(), relationship.getEndNodeId(),
+                convertProperties(relationship.getAllProperties()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> convertProperties(Map<String, Object> properties) {
+        return (Map<String, Object>) convert(properties);
+    }
+}
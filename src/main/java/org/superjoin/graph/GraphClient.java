@@ -0,0 +1,52 @@
+package org.superjoin.graph;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Engine-neutral access to the knowledge graph, implemented over Bolt ({@link BoltGraphClient})
+ * and in-process ({@link EmbeddedGraphClient}). Services only ever talk Cypher through this.
+ */
+public interface GraphClient {
+
+    /**
+     * Runs a read query and returns its fully materialised result.
+     */
+    List<GraphRecord> read(String cypher, Map<String, Object> parameters);
+
+    default List<GraphRecord> read(String cypher) {
+        return read(cypher, Map.of());
+    }
+
+    /**
+     * Runs a statement in its own auto-committed transaction.
+     */
+    void write(String cypher, Map<String, Object> parameters);
+
+    default void write(String cypher) {
+        write(cypher, Map.of());
+    }
+
+    GraphTransaction beginTransaction();
+
+    /**
+     * Whether a failure is transient, such as a detected deadlock, so that the whole
+     * transaction can be retried.
+     */
+    boolean isTransient(RuntimeException e);
+
+    /**
+     * Builds a parameter map from alternating keys and values; unlike {@link Map#of} it accepts nulls.
+     */
+    static Map<String, Object> parameters(Object... keysAndValues) {
+        if (keysAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException("Parameters must be given as key/value pairs");
+        }
+        Map<String, Object> parameters = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            parameters.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return parameters;
+    }
+}
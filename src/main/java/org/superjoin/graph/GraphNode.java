@@ -0,0 +1,25 @@
+package org.superjoin.graph;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+public class GraphNode {
+    private long id;
+    private List<String> labels;
+    private Map<String, Object> properties;
+
+    public String getString(String key) {
+        Object value = properties.get(key);
+        return value == null ? null : String.valueOf(value);
+    }
+
+    public Long getLong(String key) {
+        Object value = properties.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+}
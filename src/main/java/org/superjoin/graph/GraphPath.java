@@ -0,0 +1,13 @@
+package org.superjoin.graph;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class GraphPath {
+    private List<GraphNode> nodes;
+    private List<GraphRelationship> relationships;
+}
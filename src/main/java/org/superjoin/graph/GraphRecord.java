@@ -0,0 +1,53 @@
+package org.superjoin.graph;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One result row, with values already detached from the engine that produced them:
+ * nodes, relationships and paths are {@link GraphNode}, {@link GraphRelationship} and
+ * {@link GraphPath}; lists are {@link List}; everything else is a plain Java value.
+ */
+public class GraphRecord {
+
+    private final Map<String, Object> values;
+
+    public GraphRecord(Map<String, Object> values) {
+        this.values = values;
+    }
+
+    public Object get(String key) {
+        return values.get(key);
+    }
+
+    public boolean containsKey(String key) {
+        return values.containsKey(key);
+    }
+
+    public String getString(String key) {
+        Object value = values.get(key);
+        return value == null ? null : String.valueOf(value);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        Object value = values.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+    }
+
+    public GraphNode getNode(String key) {
+        return (GraphNode) values.get(key);
+    }
+
+    public GraphRelationship getRelationship(String key) {
+        return (GraphRelationship) values.get(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> List<T> getList(String key) {
+        return (List<T>) values.get(key);
+    }
+
+    public Map<String, Object> asMap() {
+        return values;
+    }
+}
@@ -0,0 +1,16 @@
+package org.superjoin.graph;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+public class GraphRelationship {
+    private long id;
+    private String type;
+    private long startNodeId;
+    private long endNodeId;
+    private Map<String, Object> properties;
+}
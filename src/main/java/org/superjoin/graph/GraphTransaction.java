@@ -0,0 +1,17 @@
+package org.superjoin.graph;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An explicit write transaction. Closing it without {@link #commit()} rolls it back.
+ */
+public interface GraphTransaction extends AutoCloseable {
+
+    List<GraphRecord> run(String cypher, Map<String, Object> parameters);
+
+    void commit();
+
+    @Override
+    void close();
+}
@@ -1,23 +1,47 @@
 package org.superjoin.service;
 
-import org.neo4j.driver.Driver;
-import org.neo4j.driver.Result;
-import org.neo4j.driver.Session;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
-import org.superjoin.dto.CellInfo;
 import org.superjoin.dto.ChangeImpact;
-import org.superjoin.dto.SheetData;
 import org.superjoin.events.SpreadsheetChangeEvent;
-
+import org.superjoin.formula.CellKey;
+import org.superjoin.formula.SheetNames;
+import org.superjoin.graph.GraphClient;
+import org.superjoin.graph.GraphRecord;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import static org.neo4j.driver.Values.parameters;
+import static org.superjoin.graph.GraphClient.parameters;
 
 @Service
 public class ChangeDetectionService {
 
+    // Dependency levels followed by the Cypher fallback
+    private static final int MAX_DEPTH = 10;
+
+    private static final String START_NODES_CYPHER =
+            "MATCH (start:Cell {spreadsheetId: $spreadsheetId, id: $cellId})\n" +
+                    "WHERE $sheet IS NULL OR start.sheet = $sheet\n" +
+                    "RETURN id(start) AS node, start.sheet AS sheet\n" +
+                    "UNION\n" +
+                    "MATCH (start:Range {spreadsheetId: $spreadsheetId})\n" +
+                    "WHERE ($sheet IS NULL OR start.sheet = $sheet)\n" +
+                    "  AND start.firstColumn <= $column <= start.lastColumn\n" +
+                    "  AND start.firstRow <= $row <= start.lastRow\n" +
+                    "RETURN id(start) AS node, start.sheet AS sheet";
+
+    // One level of the walk: the cells reading any node of the frontier
+    private static final String DEPENDENTS_CYPHER =
+            "MATCH (x)<-[:DEPENDS_ON]-(affected:Cell)\n" +
+                    "WHERE id(x) IN $nodes\n" +
+                    "RETURN id(x) AS reader, id(affected) AS node, affected.sheet AS sheet, affected.id AS id,\n" +
+                    "    affected.level AS level";
+
     @Autowired
     private KnowledgeGraphService graphService;
 
@@ -25,8 +49,18 @@ public class ChangeDetectionService {
     private WebSocketService webSocketService;
 
     @Autowired
-    private Driver neo4jDriver;
+    private GraphClient graphClient;
+
+    @Autowired
+    private DependencyGraphService dependencyGraphService;
+
+    @Autowired
+    private RecalculationService recalculationService;
 
+    /**
+     * Every lookup and update is confined to the event's spreadsheet; events without an id
+     * belong to {@link KnowledgeGraphService#DEFAULT_SPREADSHEET_ID}.
+     */
     @EventListener
     public void handleSpreadsheetChange(SpreadsheetChangeEvent event) {
         // Analyze the change
@@ -35,6 +69,9 @@ public class ChangeDetectionService {
         // Update knowledge graph
         updateKnowledgeGraph(event, impact);
 
+        // Recompute the affected formulas against the updated graph
+        impact.setRecalculatedValues(recalculationService.recalculate(event));
+
         // Notify connected clients
         webSocketService.broadcastUpdate(impact);
     }
@@ -50,22 +87,61 @@ public class ChangeDetectionService {
         impact.setOldValue(event.getOldValue());
         impact.setNewValue(event.getNewValue());
 
-        // Find all dependent cells
-        List<String> affectedCells = findAffectedCells(event.getCellAddress());
+        // Find all dependent cells; the engine's range index finds formulas reading the cell through a range
+        String spreadsheetId = event.getSpreadsheetId() == null
+                ? KnowledgeGraphService.DEFAULT_SPREADSHEET_ID
+                : event.getSpreadsheetId();
+        List<String> affectedCells = dependencyGraphService
+                .findDependents(spreadsheetId, event.getSheetName(), event.getCellAddress())
+                .orElseGet(() -> findAffectedCells(spreadsheetId, event.getSheetName(), event.getCellAddress()));
         impact.setAffectedCells(affectedCells);
 
         return impact;
     }
 
-    private List<String> findAffectedCells(String cellAddress) {
-        try (Session session = neo4jDriver.session()) {
-            String cypher =  "MATCH (source:Cell {id: $cellId}) " +
-                    "MATCH (source)<-[:DEPENDS_ON*1..10]-(affected) " +
-                    "RETURN affected.id as affectedId";
-
-            Result result = session.run(cypher, parameters("cellId", cellAddress));
+    /**
+     * Walks the DEPENDS_ON edges backwards one level at a time from the cell and from every Range
+     * node containing it. Each step expands only nodes not reached before, so every cell is read
+     * once however many paths lead to it. Results use the dependency engine's format, bare
+     * addresses on the start's sheet and {@code Sheet!A1} elsewhere, in level order.
+     */
+    private List<String> findAffectedCells(String spreadsheetId, String sheet, String cellAddress) {
+        long cell = CellKey.parse(0, cellAddress);
+        List<GraphRecord> starts = graphClient.read(START_NODES_CYPHER, parameters("spreadsheetId", spreadsheetId,
+                "sheet", sheet, "cellId", cellAddress,
+                "column", cell == CellKey.NONE ? null : CellKey.column(cell),
+                "row", cell == CellKey.NONE ? null : CellKey.row(cell)));
+
+        // Node id -> sheet of the start it was first reached from
+        Map<Long, String> reached = new HashMap<>();
+        for (GraphRecord start : starts) {
+            reached.putIfAbsent(start.getLong("node", -1), start.getString("sheet"));
+        }
+        List<GraphRecord> affected = new ArrayList<>();
+        Map<Long, String> frontier = new HashMap<>(reached);
+        for (int depth = 0; depth < MAX_DEPTH && !frontier.isEmpty(); depth++) {
+            Map<Long, String> next = new HashMap<>();
+            for (GraphRecord record : graphClient.read(DEPENDENTS_CYPHER,
+                    parameters("nodes", new ArrayList<>(frontier.keySet())))) {
+                long node = record.getLong("node", -1);
+                if (!reached.containsKey(node)) {
+                    String startSheet = frontier.get(record.getLong("reader", -1));
+                    reached.put(node, startSheet);
+                    next.put(node, startSheet);
+                    affected.add(record);
+                }
+            }
+            frontier = next;
+        }
 
-            return result.list(record -> record.get("affectedId").asString());
+        affected.sort(Comparator.comparingLong(record -> record.getLong("level", Long.MAX_VALUE)));
+        List<String> result = new ArrayList<>();
+        for (GraphRecord record : affected) {
+            String affectedSheet = record.getString("sheet");
+            result.add(affectedSheet.equals(reached.get(record.getLong("node", -1)))
+                    ? record.getString("id")
+                    : SheetNames.reference(affectedSheet, record.getString("id")));
         }
+        return result;
     }
-}
\ No newline at end of file
+}
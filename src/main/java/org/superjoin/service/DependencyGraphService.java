@@ -0,0 +1,200 @@
+package org.superjoin.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.superjoin.component.FormulaAnalyzer;
+import org.superjoin.engine.WorkbookGraph;
+import org.superjoin.engine.WorkbookGraphBuilder;
+import org.superjoin.formula.CellRef;
+import org.superjoin.formula.RangeRef;
+import org.superjoin.formula.SharedFormula;
+import org.superjoin.formula.SheetNames;
+import org.superjoin.graph.GraphClient;
+import org.superjoin.graph.GraphRecord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.superjoin.graph.GraphClient.parameters;
+
+/**
+ * Answers impact and precedent queries from the in-memory {@link WorkbookGraph} of each spreadsheet.
+ * Neo4j stays the store of record: engines are published after ingestion and rebuilt from the
+ * stored formulas when a spreadsheet is queried before it was ingested by this instance.
+ */
+@Slf4j
+@Service
+public class DependencyGraphService {
+
+    @Autowired
+    private GraphClient graphClient;
+
+    @Autowired
+    private FormulaAnalyzer formulaAnalyzer;
+
+    private final Map<String, WorkbookGraph> graphs = new ConcurrentHashMap<>();
+
+    public void publish(WorkbookGraph graph) {
+        graphs.put(graph.getSpreadsheetId(), graph);
+        log.debug("Dependency engine for {} holds {} cells, {} edges and {} ranges", graph.getSpreadsheetId(),
+                graph.getDependencies().getCellCount(), graph.getDependencies().getEdgeCount(), graph.getRangeCount());
+    }
+
+    public void evict(String spreadsheetId) {
+        graphs.remove(spreadsheetId);
+    }
+
+    /**
+     * Applies a new formula, or none, at an address to the published engine, in place where possible
+     * and otherwise by publishing an engine derived from it. Nothing is loaded from the graph: with no
+     * published engine the next query loads one that already holds the edit.
+     */
+    public void updateFormula(String spreadsheetId, String sheet, String address,
+                              List<CellRef> references, List<RangeRef> ranges) {
+        WorkbookGraph graph = graphs.get(spreadsheetId);
+        if (graph != null && !graph.updateFormula(sheet, address, references, ranges)) {
+            graphs.replace(spreadsheetId, graph, graph.withFormula(sheet, address, references, ranges));
+        }
+    }
+
+    public Optional<WorkbookGraph> get(String spreadsheetId) {
+        if (spreadsheetId == null) {
+            return Optional.empty();
+        }
+        WorkbookGraph graph = graphs.get(spreadsheetId);
+        if (graph == null) {
+            graph = loadFromGraph(spreadsheetId);
+            if (graph.getCells().size() == 0) {
+                return Optional.empty();
+            }
+            graphs.putIfAbsent(spreadsheetId, graph);
+        }
+        return Optional.of(graph);
+    }
+
+    /**
+     * Transitive dependents of a cell in recalculation order, including formulas that read it through
+     * a range, even when the cell itself is empty. Cells on the same sheet are returned as bare
+     * addresses, others as {@code Sheet!A1}, or {@code 'Sheet 2'!A1} where the name needs quotes.
+     * Empty if no engine can answer, in which case callers fall back to Cypher.
+     */
+    public Optional<List<String>> findDependents(String spreadsheetId, String sheet, String address) {
+        return find(spreadsheetId, sheet, address, true, false);
+    }
+
+    /**
+     * Transitive precedents of a cell, formatted like {@link #findDependents}.
+     */
+    public Optional<List<String>> findPrecedents(String spreadsheetId, String sheet, String address) {
+        return find(spreadsheetId, sheet, address, false, false);
+    }
+
+    /**
+     * Transitive dependents as fully qualified {@code sheet!address} keys.
+     */
+    public Optional<List<String>> findDependentKeys(String spreadsheetId, String sheet, String address) {
+        return find(spreadsheetId, sheet, address, true, true);
+    }
+
+    private Optional<List<String>> find(String spreadsheetId, String sheet, String address,
+                                        boolean dependents, boolean qualified) {
+        List<WorkbookGraph> candidates = new ArrayList<>();
+        if (spreadsheetId != null) {
+            get(spreadsheetId).ifPresent(candidates::add);
+        } else {
+            candidates.addAll(graphs.values());
+        }
+
+        Set<String> result = new LinkedHashSet<>();
+        boolean answered = false;
+        for (WorkbookGraph graph : candidates) {
+            int[] resolved = graph.resolve(sheet, address);
+            for (int cell : resolved) {
+                answered = true;
+                int[] reached = dependents
+                        ? graph.getTopology().sortByLevel(graph.impactOf(cell))
+                        : graph.precedentClosureOf(cell);
+                collect(graph, graph.sheetOf(cell), reached, qualified, result);
+            }
+            if (dependents && resolved.length == 0) {
+                // Not a known cell, but it may still lie inside ranges that formulas read
+                for (String sheetName : sheet == null ? graph.getSheetNames() : List.of(sheet)) {
+                    if (graph.rangeReadersOf(sheetName, address).length > 0) {
+                        answered = true;
+                        collect(graph, sheetName, graph.getTopology().sortByLevel(graph.impactOf(sheetName, address)),
+                                qualified, result);
+                    }
+                }
+            }
+        }
+        return answered ? Optional.of(new ArrayList<>(result)) : Optional.empty();
+    }
+
+    private static void collect(WorkbookGraph graph, String cellSheet, int[] reached, boolean qualified, Set<String> result) {
+        for (int other : reached) {
+            String otherSheet = graph.sheetOf(other);
+            result.add(!qualified && otherSheet.equals(cellSheet)
+                    ? graph.addressOf(other)
+                    : qualified
+                    ? WorkbookGraph.key(otherSheet, graph.addressOf(other))
+                    : SheetNames.reference(otherSheet, graph.addressOf(other)));
+        }
+    }
+
+    private WorkbookGraph loadFromGraph(String spreadsheetId) {
+        List<GraphRecord> records = graphClient.read(
+                "MATCH (c:Cell {spreadsheetId: $spreadsheetId})\n" +
+                        "OPTIONAL MATCH (g:FormulaGroup {spreadsheetId: $spreadsheetId, id: c.formulaGroup})\n" +
+                        "RETURN c.sheet AS sheet, c.id AS id, c.formula AS formula, c.formulaGroup AS formulaGroup,\n" +
+                        "    c.groupColumnOffset AS groupColumnOffset, c.groupRowOffset AS groupRowOffset,\n" +
+                        "    g.formula AS groupFormula, g.anchorColumn AS anchorColumn, g.anchorRow AS anchorRow",
+                parameters("spreadsheetId", spreadsheetId));
+
+        WorkbookGraphBuilder builder = new WorkbookGraphBuilder(spreadsheetId);
+        Set<String> sheets = new LinkedHashSet<>();
+        for (GraphRecord record : records) {
+            if (sheets.add(record.getString("sheet"))) {
+                builder.addSheet(record.getString("sheet"));
+            }
+        }
+        Map<Long, SharedFormula> groups = new HashMap<>();
+        for (GraphRecord record : records) {
+            String sheet = record.getString("sheet");
+            String address = record.getString("id");
+            builder.addCell(sheet, address);
+
+            List<RangeRef> ranges;
+            if (record.getString("groupFormula") != null) {
+                int anchorColumn = (int) record.getLong("anchorColumn", 1);
+                int anchorRow = (int) record.getLong("anchorRow", 1);
+                SharedFormula shared = groups.computeIfAbsent(record.getLong("formulaGroup", 0),
+                        id -> formulaAnalyzer.analyzeShared(record.getString("groupFormula"), anchorColumn, anchorRow));
+                int column = anchorColumn + (int) record.getLong("groupColumnOffset", 0);
+                int row = anchorRow + (int) record.getLong("groupRowOffset", 0);
+                for (CellRef reference : formulaAnalyzer.extractReferences(shared, column, row)) {
+                    builder.addDependency(sheet, address, reference);
+                }
+                ranges = formulaAnalyzer.extractRanges(shared, column, row);
+            } else {
+                // Cells written by the per-cell path keep their formula text
+                for (CellRef reference : formulaAnalyzer.extractReferences(record.getString("formula"))) {
+                    builder.addDependency(sheet, address, reference);
+                }
+                ranges = formulaAnalyzer.extractRanges(record.getString("formula"));
+            }
+            for (RangeRef range : ranges) {
+                RangeRef bounded = range.toBounded();
+                builder.addRange(sheet, address, range.getSheet(), bounded.getFirstColumn(), bounded.getFirstRow(),
+                        bounded.getLastColumn(), bounded.getLastRow());
+            }
+        }
+        return builder.build();
+    }
+}
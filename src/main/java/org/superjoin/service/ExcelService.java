@@ -1,83 +1,212 @@
 package org.superjoin.service;
 
-import com.google.api.services.sheets.v4.model.CellData;
-import com.google.api.services.sheets.v4.model.ExtendedValue;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.poifs.filesystem.FileMagic;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.superjoin.dto.CellInfo;
+import org.superjoin.component.SharedStrings;
+import org.superjoin.config.ExcelProperties;
+import org.superjoin.dto.CellTable;
 import org.superjoin.dto.SheetData;
 import org.superjoin.dto.SpreadsheetData;
+import org.superjoin.formula.CellKey;
+import org.superjoin.formula.FormulaR1C1;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
+import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
+/**
+ * Reads Excel files into {@link SheetData}. xlsx files are streamed: each sheet's XML is parsed
+ * with SAX and its cells appended to the sheet's table row by row, with the shared-strings table
+ * spilling to disk past a configured size, so no workbook object model is ever built. Other
+ * formats (xls) go through {@link WorkbookFactory}.
+ * <p>
+ * Formula cells keep both the formula, prefixed with {@code =} as the Sheets API returns it, and
+ * the result Excel cached for it.
+ */
+@Slf4j
 @Service
 public class ExcelService {
 
+    private final ExcelProperties excelProperties;
+
+    @Autowired
+    public ExcelService(ExcelProperties excelProperties) {
+        this.excelProperties = excelProperties;
+    }
+
     public SpreadsheetData readExcelFile(String filePath) {
-        try (Workbook workbook = WorkbookFactory.create(new File(filePath))) {
-            return parseWorkbook(workbook);
-        } catch (IOException e) {
+        SpreadsheetData data = new SpreadsheetData();
+        data.setSheets(new ArrayList<>());
+        readExcelFile(filePath, data.getSheets()::add);
+        data.setId(new File(filePath).getName());
+        return data;
+    }
+
+    /**
+     * Hands each sheet to {@code consumer} as soon as it has been read, so only the sheet being read
+     * and those the consumer keeps are in memory.
+     */
+    public void readExcelFile(String filePath, Consumer<SheetData> consumer) {
+        File file = new File(filePath);
+        try {
+            if (excelProperties.isStreaming() && FileMagic.valueOf(file) == FileMagic.OOXML) {
+                streamWorkbook(file, consumer);
+            } else {
+                try (Workbook workbook = WorkbookFactory.create(file, null, true)) {
+                    for (Sheet sheet : workbook) {
+                        consumer.accept(parseSheet(sheet));
+                    }
+                }
+            }
+        } catch (IOException | OpenXML4JException | SAXException | ParserConfigurationException e) {
             throw new RuntimeException("Failed to read Excel file", e);
         }
     }
 
-    private SpreadsheetData parseWorkbook(Workbook workbook) {
-        SpreadsheetData data = new SpreadsheetData();
-        data.setSheets(new ArrayList<>());
+    /**
+     * Sheet names in workbook order, read without touching the sheets' cells.
+     */
+    public List<String> listSheets(String filePath) {
+        File file = new File(filePath);
+        List<String> names = new ArrayList<>();
+        try {
+            if (excelProperties.isStreaming() && FileMagic.valueOf(file) == FileMagic.OOXML) {
+                try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+                    XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) new XSSFReader(pkg).getSheetsData();
+                    while (sheets.hasNext()) {
+                        sheets.next().close();
+                        names.add(sheets.getSheetName());
+                    }
+                }
+            } else {
+                try (Workbook workbook = WorkbookFactory.create(file, null, true)) {
+                    for (Sheet sheet : workbook) {
+                        names.add(sheet.getSheetName());
+                    }
+                }
+            }
+        } catch (IOException | OpenXML4JException e) {
+            throw new RuntimeException("Failed to read Excel file", e);
+        }
+        return names;
+    }
 
-        for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
-            Sheet sheet = workbook.getSheetAt(i);
-            SheetData sheetData = parseSheet(sheet);
-            data.getSheets().add(sheetData);
+    private void streamWorkbook(File file, Consumer<SheetData> consumer)
+            throws IOException, OpenXML4JException, SAXException, ParserConfigurationException {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
+             SharedStrings strings = newSharedStrings()) {
+            XSSFReader reader = new XSSFReader(pkg);
+            for (PackagePart part : pkg.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType())) {
+                try (InputStream stream = part.getInputStream()) {
+                    strings.read(stream);
+                }
+            }
+            if (strings.getSpilled() > 0) {
+                log.debug("Spilled {} of {} shared strings of {} to disk", strings.getSpilled(), strings.size(), file);
+            }
+
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                SheetData sheet;
+                try (InputStream stream = sheets.next()) {
+                    sheet = readSheet(sheets.getSheetName(), stream, strings);
+                }
+                consumer.accept(sheet);
+            }
         }
+    }
 
-        return data;
+    SharedStrings newSharedStrings() {
+        String directory = excelProperties.getSpillDirectory();
+        return new SharedStrings(excelProperties.getSharedStringsInMemory(), excelProperties.getSharedStringsCacheSize(),
+                directory == null || directory.isEmpty() ? null : new File(directory));
+    }
+
+    /**
+     * Parses one worksheet part.
+     */
+    SheetData readSheet(String name, InputStream xml, SharedStrings strings)
+            throws IOException, SAXException, ParserConfigurationException {
+        SheetData sheet = new SheetData(name);
+        XMLReader reader = XMLHelper.newXMLReader();
+        reader.setContentHandler(new SheetHandler(sheet.getTable(), strings));
+        reader.parse(new InputSource(xml));
+        return sheet;
     }
 
     private SheetData parseSheet(Sheet sheet) {
         SheetData sheetData = new SheetData(sheet.getSheetName());
-        sheetData.setCells(new ArrayList<>());
 
         for (Row row : sheet) {
             for (Cell cell : row) {
-                CellInfo cellInfo = parseCellInfo(cell);
-                sheetData.getCells().add(cellInfo);
+                addCell(cell, sheetData.getTable());
             }
         }
 
         return sheetData;
     }
 
-    private CellInfo parseCellInfo(Cell cell) {
-        CellInfo cellInfo = new CellInfo();
-        cellInfo.setAddress(cell.getAddress().formatAsString());
+    private void addCell(Cell cell, CellTable table) {
+        int column = cell.getColumnIndex() + 1;
+        int row = cell.getRowIndex() + 1;
 
-        switch (cell.getCellType()) {
-            case FORMULA:
-                cellInfo.setFormula(cell.getCellFormula());
-                cellInfo.setValue(getCellValue(cell));
-                break;
+        CellType type = cell.getCellType();
+        String formula = null;
+        if (type == CellType.FORMULA) {
+            formula = "=" + cell.getCellFormula();
+            type = cell.getCachedFormulaResultType();
+        }
+        switch (type) {
             case NUMERIC:
-                cellInfo.setValue(String.valueOf(cell.getNumericCellValue()));
+                table.addNumber(column, row, cell.getNumericCellValue(), null, formula);
                 break;
             case STRING:
-                cellInfo.setValue(cell.getStringCellValue());
+                table.addText(column, row, cell.getStringCellValue(), formula);
+                break;
+            case BLANK:
+            case _NONE:
+                if (formula != null) {
+                    table.addText(column, row, null, formula);
+                }
                 break;
             default:
-                cellInfo.setValue(cell.toString());
+                table.addText(column, row, getCellValue(cell), formula);
         }
-
-        return cellInfo;
     }
 
+    /**
+     * The cell's value as text; for a formula cell, the result Excel cached for the formula.
+     */
     public String getCellValue(Cell cell) {
         if (cell == null) {
             return "";
         }
 
         CellType cellType = cell.getCellType();
+        if (cellType == CellType.FORMULA) {
+            cellType = cell.getCachedFormulaResultType();
+        }
 
         switch (cellType) {
             case STRING:
@@ -85,16 +214,178 @@ public class ExcelService {
             case NUMERIC:
                 return String.valueOf(cell.getNumericCellValue());
             case BOOLEAN:
-                return String.valueOf(cell.getBooleanCellValue());
-            case FORMULA:
-                // Evaluate the formula or return as string, depending on need
-                return cell.getCellFormula(); // Or evaluate it if you have a FormulaEvaluator
-            case BLANK:
-                return "";
+                return cell.getBooleanCellValue() ? "TRUE" : "FALSE";
             case ERROR:
-                return "ERROR";
+                return FormulaError.forInt(cell.getErrorCellValue()).getString();
             default:
                 return "";
         }
     }
+
+    /**
+     * Appends the cells of a worksheet's {@code <sheetData>} to a table as their {@code </c>} ends.
+     * Cells without a value or formula only carry formatting and are skipped. Shared formulas are
+     * expanded from their master cell, which precedes them in the part.
+     */
+    private static final class SheetHandler extends DefaultHandler {
+        private final CellTable table;
+        private final SharedStrings strings;
+        // Master formula of each shared formula group: text and position
+        private final Map<String, SharedMaster> sharedFormulas = new HashMap<>();
+
+        private final StringBuilder text = new StringBuilder();
+        private boolean collecting;
+        private boolean inPhonetic;
+
+        private int row;
+        private int column;
+        private String type;
+        private String value;
+        private String inline;
+        private String formula;
+        private String sharedIndex;
+        private boolean sharedMaster;
+
+        private SheetHandler(CellTable table, SharedStrings strings) {
+            this.table = table;
+            this.strings = strings;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "row":
+                    String r = attributes.getValue("r");
+                    row = r == null ? row + 1 : Integer.parseInt(r);
+                    column = 0;
+                    break;
+                case "c":
+                    String reference = attributes.getValue("r");
+                    long key = reference == null ? CellKey.NONE : CellKey.parse(0, reference);
+                    column = key == CellKey.NONE ? column + 1 : CellKey.column(key);
+                    if (key != CellKey.NONE) {
+                        row = CellKey.row(key);
+                    }
+                    type = attributes.getValue("t");
+                    value = null;
+                    inline = null;
+                    formula = null;
+                    sharedIndex = null;
+                    sharedMaster = false;
+                    break;
+                case "f":
+                    if ("shared".equals(attributes.getValue("t"))) {
+                        sharedIndex = attributes.getValue("si");
+                        sharedMaster = attributes.getValue("ref") != null;
+                    }
+                    startText();
+                    break;
+                case "v":
+                    startText();
+                    break;
+                case "is":
+                    inline = "";
+                    break;
+                case "t":
+                    if (inline != null && !inPhonetic) {
+                        startText();
+                    }
+                    break;
+                case "rPh":
+                    inPhonetic = true;
+                    break;
+                default:
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch (localName) {
+                case "f":
+                    formula = text.length() == 0 ? null : "=" + text;
+                    collecting = false;
+                    break;
+                case "v":
+                    value = text.toString();
+                    collecting = false;
+                    break;
+                case "t":
+                    if (collecting) {
+                        inline += text;
+                        text.setLength(0);
+                        collecting = false;
+                    }
+                    break;
+                case "rPh":
+                    inPhonetic = false;
+                    break;
+                case "c":
+                    addCell();
+                    break;
+                default:
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (collecting) {
+                text.append(ch, start, length);
+            }
+        }
+
+        private void startText() {
+            text.setLength(0);
+            collecting = true;
+        }
+
+        private void addCell() {
+            if (sharedIndex != null) {
+                if (sharedMaster && formula != null) {
+                    sharedFormulas.put(sharedIndex, new SharedMaster(formula, column, row));
+                } else if (formula == null) {
+                    SharedMaster master = sharedFormulas.get(sharedIndex);
+                    if (master != null) {
+                        formula = FormulaR1C1.shift(master.formula, column - master.column, row - master.row);
+                    }
+                }
+            }
+
+            if (type == null || "n".equals(type)) {
+                if (value != null && !value.isEmpty()) {
+                    table.addNumber(column, row, Double.parseDouble(value), null, formula);
+                } else if (formula != null) {
+                    table.addText(column, row, null, formula);
+                }
+                return;
+            }
+            switch (type) {
+                case "s":
+                    table.addText(column, row, value == null ? null : strings.get(Integer.parseInt(value.trim())), formula);
+                    break;
+                case "inlineStr":
+                    table.addText(column, row, inline != null ? inline : value, formula);
+                    break;
+                case "b":
+                    table.addText(column, row, value == null ? null : "1".equals(value.trim()) ? "TRUE" : "FALSE", formula);
+                    break;
+                default:
+                    // "str" (text result of a formula), "e" (error such as #DIV/0!), "d" (ISO 8601 date)
+                    if (value != null || formula != null) {
+                        table.addText(column, row, value, formula);
+                    }
+            }
+        }
+    }
+
+    private static final class SharedMaster {
+        private final String formula;
+        private final int column;
+        private final int row;
+
+        private SharedMaster(String formula, int column, int row) {
+            this.formula = formula;
+            this.column = column;
+            this.row = row;
+        }
+    }
 }
@@ -9,133 +9,280 @@ import com.google.api.services.sheets.v4.model.*;
 import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.GoogleCredentials;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.superjoin.dto.CellInfo;
+import org.superjoin.component.SheetsClient;
+import org.superjoin.config.SheetsProperties;
+import org.superjoin.dto.CellTable;
 import org.superjoin.dto.SheetData;
 import org.superjoin.dto.SpreadsheetData;
+import org.superjoin.formula.CellKey;
+import org.superjoin.formula.SheetNames;
 
+import javax.annotation.PreDestroy;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+/**
+ * Reads spreadsheets through the Sheets API. Grid data is requested with a field mask that keeps
+ * only the entered value, the computed value and the formatted text of each cell. A sheet is read
+ * in windows of rows on a pool shared by all reads, and at most {@code fetch.concurrency} windows
+ * of a sheet are requested but not yet handed on, so a slow consumer holds back the fetching
+ * instead of letting parsed windows pile up. Every call goes through one {@link SheetsClient},
+ * which keeps the process within the API quota.
+ */
 @Slf4j
 @Service
 public class GoogleSheetsService {
 
+    private static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();
+
+    // Everything processCellData reads, nothing else: no formats, notes or validation rules
+    private static final String GRID_FIELDS = "sheets(properties(sheetId,title),"
+            + "data(startRow,startColumn,rowData(values(userEnteredValue,effectiveValue,formattedValue))))";
+
     private final Sheets sheetsService;
+    private final SheetsClient sheetsClient;
+    private final SheetsProperties sheetsProperties;
+    private ExecutorService fetchPool;
 
-    private static final String APPLICATION_NAME = "SuperJoinAI";
-    private static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();
+    @Autowired
+    public GoogleSheetsService(SheetsProperties sheetsProperties) throws GeneralSecurityException, IOException {
+        this(initializeSheetsService(sheetsProperties), sheetsProperties);
+    }
+
+    GoogleSheetsService(Sheets sheetsService, SheetsProperties sheetsProperties) {
+        this(sheetsService, new SheetsClient(sheetsProperties.getQuota()), sheetsProperties);
+    }
 
-    public GoogleSheetsService() throws GeneralSecurityException, IOException {
-        // Initialize Google Sheets API client
-        this.sheetsService = initializeSheetsService();
+    GoogleSheetsService(Sheets sheetsService, SheetsClient sheetsClient, SheetsProperties sheetsProperties) {
+        this.sheetsService = sheetsService;
+        this.sheetsClient = sheetsClient;
+        this.sheetsProperties = sheetsProperties;
     }
 
-    public Sheets initializeSheetsService() throws IOException, GeneralSecurityException {
-        // Load credentials from service account key file (adjust path as needed)
-        GoogleCredentials credentials = GoogleCredentials
-                .fromStream(new FileInputStream("src/main/resources/superjionai-8ec534a70d21.json"))
-                .createScoped(List.of(SheetsScopes.SPREADSHEETS_READONLY));
+    public static Sheets initializeSheetsService(SheetsProperties properties) throws IOException, GeneralSecurityException {
+        GoogleCredentials credentials;
+        try (FileInputStream key = new FileInputStream(properties.getCredentialsFilePath())) {
+            credentials = GoogleCredentials.fromStream(key).createScoped(List.of(SheetsScopes.SPREADSHEETS_READONLY));
+        }
 
         return new Sheets.Builder(
                 GoogleNetHttpTransport.newTrustedTransport(),
                 JSON_FACTORY, new HttpCredentialsAdapter(credentials))
-                .setApplicationName(APPLICATION_NAME)
+                .setApplicationName(properties.getApplicationName())
                 .build();
     }
 
     public SpreadsheetData readSpreadsheet(String spreadsheetId) {
+        SpreadsheetData data = new SpreadsheetData();
+        data.setId(spreadsheetId);
+        data.setSheets(new ArrayList<>());
+        for (SheetProperties properties : listSheets(spreadsheetId)) {
+            data.getSheets().add(readSheet(spreadsheetId, properties));
+        }
+        return data;
+    }
+
+    /**
+     * Fetches only the sheet properties, so callers can read sheets one at a time.
+     */
+    public List<SheetProperties> listSheets(String spreadsheetId) {
         try {
-            Spreadsheet spreadsheet = sheetsService.spreadsheets()
+            Spreadsheet spreadsheet = sheetsClient.execute(sheetsService.spreadsheets()
                     .get(spreadsheetId)
-                    .setIncludeGridData(true)
-                    .execute();
-            return parseSpreadsheetData(spreadsheet, spreadsheetId);
+                    .setFields("sheets.properties"));
+            List<SheetProperties> properties = new ArrayList<>();
+            for (Sheet sheet : spreadsheet.getSheets()) {
+                properties.add(sheet.getProperties());
+            }
+            return properties;
         } catch (IOException e) {
             throw new RuntimeException("Failed to read spreadsheet", e);
         }
     }
 
-    private SpreadsheetData parseSpreadsheetData(Spreadsheet spreadsheet, String spreadsheetId) {
-        SpreadsheetData data = new SpreadsheetData();
-        data.setSheets(new ArrayList<>());
-
-        for (Sheet sheet : spreadsheet.getSheets()) {
-            SheetData sheetData = new SheetData(sheet.getProperties().getTitle());
-            sheetData.setId(String.valueOf(sheet.getProperties().getSheetId()));
+    public SheetData readSheet(String spreadsheetId, SheetProperties properties) {
+        SheetData sheetData = new SheetData(properties.getTitle());
+        sheetData.setId(String.valueOf(properties.getSheetId()));
+        readSheet(spreadsheetId, properties, sheetData.getTable()::addAll);
+        return sheetData;
+    }
 
-            if (sheet.getData() != null) {
-                for (GridData gridData : sheet.getData()) {
-                    parseGridData(gridData, sheetData, spreadsheetId);
+    /**
+     * Reads a sheet as consecutive windows of rows fetched on the shared pool. Each window is parsed
+     * on the thread that fetched it and handed to {@code windows} in row order; the next window is
+     * requested only once one has been handed on, so no more than {@code fetch.concurrency} are in flight
+     * or waiting for this sheet at any time.
+     */
+    public void readSheet(String spreadsheetId, SheetProperties properties, Consumer<CellTable> windows) {
+        Iterator<String> ranges = windowRanges(properties).iterator();
+        int inFlight = Math.max(1, sheetsProperties.getFetch().getConcurrency());
+        Deque<Future<CellTable>> futures = new ArrayDeque<>();
+        try {
+            while (futures.size() < inFlight && ranges.hasNext()) {
+                futures.add(submitWindow(spreadsheetId, ranges.next()));
+            }
+            while (!futures.isEmpty()) {
+                windows.accept(futures.poll().get());
+                if (ranges.hasNext()) {
+                    futures.add(submitWindow(spreadsheetId, ranges.next()));
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted reading sheet " + properties.getTitle(), e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to read sheet " + properties.getTitle(), e.getCause());
+        } finally {
+            for (Future<CellTable> window : futures) {
+                window.cancel(true);
+            }
+        }
+    }
 
-            data.getSheets().add(sheetData);
+    private Future<CellTable> submitWindow(String spreadsheetId, String range) {
+        return fetchPool().submit(() -> fetchWindow(spreadsheetId, range));
+    }
+
+    /**
+     * Row ranges such as {@code 'Sales'!1:5000} covering the sheet's grid; the whole sheet in one
+     * range when its size is unknown.
+     */
+    List<String> windowRanges(SheetProperties properties) {
+        String sheet = SheetNames.quote(properties.getTitle());
+        GridProperties grid = properties.getGridProperties();
+        if (grid == null || grid.getRowCount() == null || grid.getRowCount() <= 0) {
+            return List.of(sheet);
+        }
+        int rows = grid.getRowCount();
+        int windowRows = Math.max(1, sheetsProperties.getFetch().getWindowRows());
+        List<String> ranges = new ArrayList<>();
+        for (int first = 1; first <= rows; first += windowRows) {
+            ranges.add(sheet + "!" + first + ":" + Math.min(rows, first + windowRows - 1));
         }
+        return ranges;
+    }
 
-        return data;
+    private CellTable fetchWindow(String spreadsheetId, String range) throws IOException {
+        Spreadsheet spreadsheet = sheetsClient.execute(sheetsService.spreadsheets()
+                .get(spreadsheetId)
+                .setRanges(List.of(range))
+                .setIncludeGridData(true)
+                .setFields(GRID_FIELDS));
+        return parseSheet(spreadsheet.getSheets().get(0)).getTable();
+    }
+
+    private synchronized ExecutorService fetchPool() {
+        if (fetchPool == null) {
+            AtomicInteger counter = new AtomicInteger();
+            fetchPool = Executors.newFixedThreadPool(Math.max(1, sheetsProperties.getFetch().getConcurrency()), runnable -> {
+                Thread thread = new Thread(runnable, "sheets-fetch-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return fetchPool;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (fetchPool != null) {
+            fetchPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Builds a sheet from grid data alone. Formula results come from each cell's effectiveValue in
+     * the same response, so reading a sheet costs no request per formula.
+     */
+    static SheetData parseSheet(Sheet sheet) {
+        SheetData sheetData = new SheetData(sheet.getProperties().getTitle());
+        sheetData.setId(String.valueOf(sheet.getProperties().getSheetId()));
+
+        if (sheet.getData() != null) {
+            for (GridData gridData : sheet.getData()) {
+                parseGridData(gridData, sheetData);
+            }
+        }
+
+        return sheetData;
     }
 
-    private void parseGridData(GridData gridData, SheetData sheetData, String spreadsheetId) {
+    private static void parseGridData(GridData gridData, SheetData sheetData) {
         List<RowData> rows = gridData.getRowData();
         if (rows == null) return;
 
+        // Grid data of a range starts at its top-left cell, not at A1
+        int startRow = gridData.getStartRow() == null ? 0 : gridData.getStartRow();
+        int startColumn = gridData.getStartColumn() == null ? 0 : gridData.getStartColumn();
         for (int rowIndex = 0; rowIndex < rows.size(); rowIndex++) {
             RowData row = rows.get(rowIndex);
             if (row.getValues() == null) continue;
 
             for (int colIndex = 0; colIndex < row.getValues().size(); colIndex++) {
                 CellData cell = row.getValues().get(colIndex);
-                processCellData(cell, rowIndex, colIndex, sheetData, spreadsheetId);
+                processCellData(cell, startRow + rowIndex, startColumn + colIndex, sheetData);
             }
         }
     }
 
-    private void processCellData(CellData cell, int row, int col, SheetData sheetData, String spreadsheetId) {
-        CellInfo cellInfo = new CellInfo();
-        cellInfo.setAddress(getCellAddress(row, col));
+    private static void processCellData(CellData cell, int row, int col, SheetData sheetData) {
+        CellTable table = sheetData.getTable();
+        ExtendedValue entered = cell.getUserEnteredValue();
 
-        if (cell.getUserEnteredValue() != null) {
-            if (cell.getUserEnteredValue().getFormulaValue() != null) {
-                cellInfo.setFormula(cell.getUserEnteredValue().getFormulaValue());
-                cellInfo.setValue(extractCellValueFromFormula(cellInfo.getAddress(), sheetData, spreadsheetId));
-            } else
-                cellInfo.setValue(cell.getFormattedValue());
+        if (entered == null) {
+            table.addText(col + 1, row + 1, null, null);
+        } else if (entered.getFormulaValue() != null) {
+            ExtendedValue result = cell.getEffectiveValue();
+            if (result != null && result.getNumberValue() != null) {
+                table.addNumber(col + 1, row + 1, result.getNumberValue(), cell.getFormattedValue(), entered.getFormulaValue());
+            } else {
+                table.addText(col + 1, row + 1, formulaResult(cell), entered.getFormulaValue());
+            }
+        } else if (entered.getNumberValue() != null) {
+            // The formatted text is kept only when it is not the plain rendering of the number
+            table.addNumber(col + 1, row + 1, entered.getNumberValue(), cell.getFormattedValue(), null);
+        } else {
+            table.addText(col + 1, row + 1, cell.getFormattedValue(), null);
         }
-
-        sheetData.getCells().add(cellInfo);
     }
 
-    private String extractCellValueFromFormula(String cell, SheetData sheetData, String spreadsheetId) {
-        try {
-            String sheetRange = sheetData.getName() + "!" + cell;
-            ValueRange response = sheetsService.spreadsheets().values()
-                    .get(spreadsheetId, sheetRange)
-                    .setValueRenderOption("UNFORMATTED_VALUE") // or "FORMATTED_VALUE"
-                    .execute();
-            List<List<Object>> values = response.getValues();
-            return values.get(0).get(0).toString();
-        } catch (Exception e) {
-            log.error(e.getMessage());
+    /**
+     * The computed value of a formula cell as text: strings as they are, booleans and errors as
+     * the sheet displays them (TRUE, #DIV/0!); null before the formula has a value.
+     */
+    private static String formulaResult(CellData cell) {
+        ExtendedValue result = cell.getEffectiveValue();
+        if (result == null) {
+            return null;
         }
-
-        return null;
+        if (result.getStringValue() != null) {
+            return result.getStringValue();
+        }
+        if (cell.getFormattedValue() != null) {
+            return cell.getFormattedValue();
+        }
+        if (result.getBoolValue() != null) {
+            return result.getBoolValue() ? "TRUE" : "FALSE";
+        }
+        return result.getErrorValue() == null ? null : result.getErrorValue().getType();
     }
 
     public String getCellAddress(int row, int col) {
-        StringBuilder columnLabel = new StringBuilder();
-        col++;
-
-        while (col > 0) {
-            col--; // Adjust because Excel columns are 1-based, but 'A' starts at 0
-            columnLabel.insert(0, (char) ('A' + (col % 26)));
-            col /= 26;
-        }
-
-        return columnLabel.toString() + (row + 1); // Excel rows start from 1
+        return CellKey.address(col + 1, row + 1); // Zero-based grid indexes, 1-based A1
     }
 
     public String extractCellValue(CellData cell) {
@@ -152,7 +299,7 @@ public class GoogleSheetsService {
         } else if (value.getBoolValue() != null) {
             return value.getBoolValue().toString();
         } else if (value.getFormulaValue() != null) {
-            return value.getFormulaValue();  // You might want to return evaluated value instead
+            return formulaResult(cell);
         } else {
             return null; // Could add support for errors or other types if needed
         }
@@ -0,0 +1,280 @@
+package org.superjoin.service;
+
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.superjoin.component.GraphSchemaInitializer;
+import org.superjoin.component.PipelineMetrics;
+import org.superjoin.component.SpreadsheetLocks;
+import org.superjoin.config.IngestionProperties;
+import org.superjoin.dto.AnalyzedSheet;
+import org.superjoin.dto.SheetData;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Ingests a spreadsheet as three overlapping stages connected by bounded queues:
+ * fetch (one Sheets API call per sheet), analysis (formula, data-type and semantic analysis)
+ * and graph write. A full queue blocks the stage in front of it, so memory stays bounded by
+ * the queue capacity while Neo4j writes for one sheet overlap with fetching the next.
+ */
+@Slf4j
+@Service
+public class IngestionPipelineService {
+
+    @Autowired
+    private GoogleSheetsService sheetsService;
+
+    @Autowired
+    private ExcelService excelService;
+
+    @Autowired
+    private KnowledgeGraphService graphService;
+
+    @Autowired
+    private GraphSchemaInitializer schemaInitializer;
+
+    @Autowired
+    private IngestionProperties ingestionProperties;
+
+    @Autowired
+    private PipelineMetrics metrics;
+
+    @Autowired
+    private SpreadsheetLocks spreadsheetLocks;
+
+    /**
+     * Ingestions of the same spreadsheet are serialised, different spreadsheets run concurrently.
+     *
+     * @return the number of cells written
+     */
+    public long ingest(String spreadsheetId) {
+        return spreadsheetLocks.withLock(spreadsheetId, () -> {
+            List<SheetProperties> sheets = sheetsService.listSheets(spreadsheetId);
+            List<String> sheetNames = sheets.stream().map(SheetProperties::getTitle).collect(Collectors.toList());
+            return runIngestion(spreadsheetId, sheetNames, (fetchExecutor, fetched) -> {
+                for (SheetProperties sheet : sheets) {
+                    fetchExecutor.submit(() -> {
+                        fetch(spreadsheetId, sheet, fetched);
+                        return null;
+                    });
+                }
+            });
+        });
+    }
+
+    /**
+     * Ingests an Excel file under its file name. The file is read by a single fetch worker that
+     * streams it sheet by sheet into the pipeline, so at most the queue capacity of read sheets
+     * waits for analysis.
+     *
+     * @return the number of cells written
+     */
+    public long ingestExcel(String filePath) {
+        String spreadsheetId = new File(filePath).getName();
+        return spreadsheetLocks.withLock(spreadsheetId, () -> {
+            List<String> sheetNames = excelService.listSheets(filePath);
+            return runIngestion(spreadsheetId, sheetNames, (fetchExecutor, fetched) -> fetchExecutor.submit(() -> {
+                readExcel(filePath, sheetNames.size(), fetched);
+                return null;
+            }));
+        });
+    }
+
+    /**
+     * Starts the fetch stage: puts one item per sheet on the queue, or a failed item where reading
+     * fails.
+     */
+    private interface FetchStage {
+        void start(ExecutorService fetchExecutor, BlockingQueue<StageItem<SheetData>> fetched);
+    }
+
+    /**
+     * @param sheetNames every sheet of the spreadsheet, against which cross-sheet references are resolved
+     */
+    private long runIngestion(String spreadsheetId, List<String> sheetNames, FetchStage fetchStage) {
+        schemaInitializer.ensureSchema();
+        int sheetCount = sheetNames.size();
+
+        IngestionProperties.Pipeline settings = ingestionProperties.getPipeline();
+        BlockingQueue<StageItem<SheetData>> fetched = new ArrayBlockingQueue<>(Math.max(1, settings.getQueueCapacity()));
+        BlockingQueue<StageItem<AnalyzedSheet>> analyzed = new ArrayBlockingQueue<>(Math.max(1, settings.getQueueCapacity()));
+
+        // Executors are per ingestion: stage workers block on this run's queues only,
+        // so concurrent ingestions can never starve each other's stages
+        ExecutorService fetchExecutor = Executors.newFixedThreadPool(
+                Math.max(1, settings.getFetchThreads()), threadFactory("ingest-fetch-"));
+        ExecutorService analysisExecutor = Executors.newFixedThreadPool(
+                Math.max(1, settings.getAnalysisThreads()), threadFactory("ingest-analyze-"));
+        ExecutorService writeExecutor = Executors.newSingleThreadExecutor(threadFactory("ingest-write-"));
+
+        try {
+            fetchStage.start(fetchExecutor, fetched);
+            for (int i = 0; i < sheetCount; i++) {
+                analysisExecutor.submit(() -> {
+                    analyze(spreadsheetId, sheetNames, fetched, analyzed);
+                    return null;
+                });
+            }
+            Future<Long> written = writeExecutor.submit(() -> write(spreadsheetId, sheetCount, analyzed));
+            return written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Ingestion interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Ingestion failed for spreadsheet " + spreadsheetId, e.getCause());
+        } finally {
+            fetchExecutor.shutdownNow();
+            analysisExecutor.shutdownNow();
+            writeExecutor.shutdownNow();
+        }
+    }
+
+    private void fetch(String spreadsheetId, SheetProperties sheet, BlockingQueue<StageItem<SheetData>> out)
+            throws InterruptedException {
+        PipelineMetrics.StageMetrics stage = metrics.stage(PipelineMetrics.FETCH);
+        long start = stage.start();
+        StageItem<SheetData> item;
+        try {
+            SheetData data = sheetsService.readSheet(spreadsheetId, sheet);
+            stage.finish(start, data.getTable().size());
+            item = StageItem.of(data);
+        } catch (RuntimeException e) {
+            stage.failed();
+            item = StageItem.failed(e);
+        }
+        put(out, item, metrics.stage(PipelineMetrics.ANALYZE));
+    }
+
+    private void readExcel(String filePath, int sheetCount, BlockingQueue<StageItem<SheetData>> out)
+            throws InterruptedException {
+        PipelineMetrics.StageMetrics stage = metrics.stage(PipelineMetrics.FETCH);
+        // Start of the sheet being read and the number of sheets read so far
+        long[] progress = {stage.start(), 0};
+        try {
+            excelService.readExcelFile(filePath, data -> {
+                stage.finish(progress[0], data.getTable().size());
+                try {
+                    put(out, StageItem.of(data), metrics.stage(PipelineMetrics.ANALYZE));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Ingestion interrupted", e);
+                }
+                if (++progress[1] < sheetCount) {
+                    progress[0] = stage.start();
+                }
+            });
+        } catch (RuntimeException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            // The writer fails on the first failed item, which stops the stages behind it
+            if (progress[1] < sheetCount) {
+                stage.failed();
+            }
+            put(out, StageItem.failed(e), metrics.stage(PipelineMetrics.ANALYZE));
+        }
+    }
+
+    private void analyze(String spreadsheetId, List<String> sheetNames, BlockingQueue<StageItem<SheetData>> in,
+                         BlockingQueue<StageItem<AnalyzedSheet>> out) throws InterruptedException {
+        StageItem<SheetData> item = take(in, metrics.stage(PipelineMetrics.ANALYZE));
+        if (item.error != null) {
+            put(out, StageItem.failed(item.error), metrics.stage(PipelineMetrics.WRITE));
+            return;
+        }
+
+        PipelineMetrics.StageMetrics stage = metrics.stage(PipelineMetrics.ANALYZE);
+        long start = stage.start();
+        StageItem<AnalyzedSheet> result;
+        try {
+            AnalyzedSheet analyzedSheet = graphService.analyzeSheet(spreadsheetId, item.value, sheetNames);
+            stage.finish(start, analyzedSheet.getCellRows().size());
+            result = StageItem.of(analyzedSheet);
+        } catch (RuntimeException e) {
+            stage.failed();
+            result = StageItem.failed(e);
+        }
+        put(out, result, metrics.stage(PipelineMetrics.WRITE));
+    }
+
+    private long write(String spreadsheetId, int sheetCount, BlockingQueue<StageItem<AnalyzedSheet>> in)
+            throws InterruptedException {
+        PipelineMetrics.StageMetrics stage = metrics.stage(PipelineMetrics.WRITE);
+        KnowledgeGraphService.GraphBuild build = graphService.beginBuild(spreadsheetId);
+        try {
+            for (int i = 0; i < sheetCount; i++) {
+                StageItem<AnalyzedSheet> item = take(in, stage);
+                if (item.error != null) {
+                    throw item.error;
+                }
+
+                long start = stage.start();
+                try {
+                    build.writeSheet(item.value);
+                } catch (RuntimeException e) {
+                    stage.failed();
+                    throw e;
+                }
+                stage.finish(start, item.value.getCellRows().size());
+                log.debug("Wrote sheet {} of spreadsheet {}", item.value.getName(), spreadsheetId);
+            }
+            build.finish();
+        } catch (RuntimeException | InterruptedException e) {
+            build.abort();
+            throw e;
+        }
+        return build.getCellCount();
+    }
+
+    private <T> void put(BlockingQueue<StageItem<T>> queue, StageItem<T> item, PipelineMetrics.StageMetrics consumer)
+            throws InterruptedException {
+        queue.put(item);
+        consumer.enqueued();
+    }
+
+    private <T> StageItem<T> take(BlockingQueue<StageItem<T>> queue, PipelineMetrics.StageMetrics consumer)
+            throws InterruptedException {
+        StageItem<T> item = queue.take();
+        consumer.dequeued();
+        return item;
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class StageItem<T> {
+        private final T value;
+        private final RuntimeException error;
+
+        private StageItem(T value, RuntimeException error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        static <T> StageItem<T> of(T value) {
+            return new StageItem<>(value, null);
+        }
+
+        static <T> StageItem<T> failed(RuntimeException error) {
+            return new StageItem<>(null, error);
+        }
+    }
+}
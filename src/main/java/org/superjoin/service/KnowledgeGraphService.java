@@ -1,183 +1,1223 @@
 package org.superjoin.service;
 
-import org.neo4j.driver.Driver;
-import org.neo4j.driver.Session;
-import static org.neo4j.driver.Values.parameters;
-
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.superjoin.component.BulkCsvLoader;
+import org.superjoin.component.CellFingerprintStore;
 import org.superjoin.component.FormulaAnalyzer;
+import org.superjoin.component.GraphBatchWriter;
+import org.superjoin.component.GraphSchemaInitializer;
+import org.superjoin.component.RegionDetector;
 import org.superjoin.component.SemanticAnalyzer;
+import org.superjoin.component.SpreadsheetLocks;
+import org.superjoin.component.ValueScanner;
+import org.superjoin.config.IngestionProperties;
+import org.superjoin.constants.IngestionMode;
 import org.superjoin.constants.DataType;
 import org.superjoin.constants.FormulaType;
 import org.superjoin.constants.SemanticLabel;
+import org.superjoin.dto.AnalyzedSheet;
 import org.superjoin.dto.CellInfo;
+import org.superjoin.dto.CellTable;
 import org.superjoin.dto.ChangeImpact;
+import org.superjoin.dto.ColumnProfile;
 import org.superjoin.dto.SheetData;
 import org.superjoin.dto.SpreadsheetData;
+import org.superjoin.dto.TableRegion;
+import org.superjoin.engine.WorkbookGraphBuilder;
 import org.superjoin.events.SpreadsheetChangeEvent;
+import org.superjoin.formula.CellKey;
+import org.superjoin.formula.CellRef;
+import org.superjoin.formula.RangeRef;
+import org.superjoin.formula.SharedFormula;
+import org.superjoin.formula.SheetNames;
+import org.superjoin.graph.GraphClient;
+import org.superjoin.graph.GraphRecord;
+import org.superjoin.graph.GraphTransaction;
 
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.superjoin.graph.GraphClient.parameters;
 
+@Slf4j
 @Service
 public class KnowledgeGraphService {
 
     @Autowired
-    private Driver neo4jDriver;
+    private GraphClient graphClient;
 
     @Autowired
     private FormulaAnalyzer formulaAnalyzer;
 
+    @Autowired
+    private RegionDetector regionDetector;
+
     @Autowired
     private SemanticAnalyzer semanticAnalyzer;
 
+    @Autowired
+    private ValueScanner valueScanner;
+
+    @Autowired
+    private GraphBatchWriter batchWriter;
+
+    @Autowired
+    private IngestionProperties ingestionProperties;
+
+    @Autowired
+    private GraphSchemaInitializer schemaInitializer;
+
+    @Autowired
+    private CellFingerprintStore fingerprintStore;
+
+    @Autowired
+    private DependencyGraphService dependencyGraphService;
+
+    @Autowired
+    private BulkCsvLoader bulkCsvLoader;
+
+    @Autowired
+    private SpreadsheetLocks spreadsheetLocks;
+
+    @Autowired
+    private TopologyService topologyService;
+
+    private static final String CREATE_SHEETS_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "CREATE (s:Sheet {name: row.name, id: row.id, spreadsheetId: row.spreadsheetId})";
+
+    private static final String CREATE_CELLS_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "CREATE (c:Cell {\n" +
+                    "    id: row.id,\n" +
+                    "    spreadsheetId: row.spreadsheetId,\n" +
+                    "    value: row.value,\n" +
+                    "    formulaGroup: row.formulaGroup,\n" +
+                    "    groupColumnOffset: row.groupColumnOffset,\n" +
+                    "    groupRowOffset: row.groupRowOffset,\n" +
+                    "    formulaType: row.formulaType,\n" +
+                    "    dataType: row.dataType,\n" +
+                    "    numericValue: row.numericValue,\n" +
+                    "    booleanValue: row.booleanValue,\n" +
+                    "    dateValue: row.dateValue,\n" +
+                    "    semanticLabel: row.semanticLabel,\n" +
+                    "    sheet: row.sheet,\n" +
+                    "    column: row.column,\n" +
+                    "    fingerprint: row.fingerprint,\n" +
+                    "    formulaHash: row.formulaHash,\n" +
+                    "    table: row.table\n" +
+                    "})\n" +
+                    "WITH c, row\n" +
+                    "MATCH (col:Column {spreadsheetId: row.spreadsheetId, sheet: row.sheet, table: row.table, index: row.column})\n" +
+                    "CREATE (col)-[:CONTAINS]->(c)";
+
+    // Dependency rows name the source cell by its sheet and bare address; see dependencyRow
+    private static final String CREATE_DEPENDENCIES_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MATCH (target:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.targetId})\n" +
+                    "MATCH (source:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sourceSheet, id: row.sourceId})\n" +
+                    "CREATE (target)-[:DEPENDS_ON]->(source)";
+
+    // Partition-local edges: both cells are on the same sheet and written by the same transaction
+    private static final String MERGE_LOCAL_DEPENDENCIES_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MATCH (target:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.targetId})\n" +
+                    "MATCH (source:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sourceSheet, id: row.sourceId})\n" +
+                    "MERGE (target)-[:DEPENDS_ON]->(source)";
+
+    // A formula reading a range depends on one shared Range node instead of on every cell in it
+    private static final String MERGE_RANGE_DEPENDENCIES_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MATCH (target:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.targetId})\n" +
+                    "MERGE (r:Range {spreadsheetId: row.spreadsheetId, sheet: row.rangeSheet, id: row.rangeId})\n" +
+                    "ON CREATE SET r.firstColumn = row.firstColumn, r.firstRow = row.firstRow,\n" +
+                    "    r.lastColumn = row.lastColumn, r.lastRow = row.lastRow\n" +
+                    "MERGE (target)-[:DEPENDS_ON]->(r)";
+
+    // Cells holding copies of one relative formula share a group node that keeps the formula text once
+    private static final String MERGE_FORMULA_GROUPS_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MERGE (g:FormulaGroup {spreadsheetId: row.spreadsheetId, id: row.id})\n" +
+                    "ON CREATE SET g.sheet = row.sheet, g.r1c1 = row.r1c1, g.formula = row.formula,\n" +
+                    "    g.formulaType = row.formulaType, g.anchorColumn = row.anchorColumn, g.anchorRow = row.anchorRow";
+
+    // Sheet -> Table -> Column -> Cell containment lets queries choose tables and columns by their
+    // headers and statistics before they touch any cell
+    private static final String MERGE_TABLES_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MATCH (s:Sheet {spreadsheetId: row.spreadsheetId, name: row.sheet})\n" +
+                    "MERGE (t:Table {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.id})\n" +
+                    "SET t.range = row.range, t.firstColumn = row.firstColumn, t.firstRow = row.firstRow,\n" +
+                    "    t.lastColumn = row.lastColumn, t.lastRow = row.lastRow, t.headerRow = row.headerRow,\n" +
+                    "    t.totalRow = row.totalRow, t.cellCount = row.cellCount\n" +
+                    "MERGE (s)-[:HAS_TABLE]->(t)";
+
+    private static final String MERGE_COLUMNS_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MATCH (t:Table {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.table})\n" +
+                    "MERGE (col:Column {spreadsheetId: row.spreadsheetId, sheet: row.sheet, table: row.table, index: row.index})\n" +
+                    "SET col.name = row.name, col.header = row.header, col.headerRow = row.headerRow,\n" +
+                    "    col.totalRow = row.totalRow, col.dataType = row.dataType, col.count = row.count,\n" +
+                    "    col.distinctCount = row.distinctCount, col.min = row.min, col.max = row.max,\n" +
+                    "    col.idRatio = row.idRatio, col.semanticLabel = row.semanticLabel\n" +
+                    "MERGE (t)-[:HAS_COLUMN]->(col)";
+
+    private static final String DELETE_STALE_TABLES_CYPHER =
+            "MATCH (t:Table {spreadsheetId: $spreadsheetId, sheet: $sheet})\n" +
+                    "WHERE NOT t.id IN $tables\n" +
+                    "DETACH DELETE t";
+
+    private static final String DELETE_STALE_COLUMNS_CYPHER =
+            "MATCH (col:Column {spreadsheetId: $spreadsheetId, sheet: $sheet})\n" +
+                    "WHERE NOT [col.table, col.index] IN $columns\n" +
+                    "DETACH DELETE col";
+
+    private static final String DELETE_UNUSED_FORMULA_GROUPS_CYPHER =
+            "MATCH (g:FormulaGroup {spreadsheetId: $spreadsheetId})\n" +
+                    "WHERE NOT EXISTS { MATCH (c:Cell {spreadsheetId: $spreadsheetId, formulaGroup: g.id}) }\n" +
+                    "DELETE g";
+
+    private static final String DELETE_UNREAD_RANGES_CYPHER =
+            "MATCH (r:Range {spreadsheetId: $spreadsheetId}) WHERE NOT (r)<-[:DEPENDS_ON]-() DELETE r";
+
+    private static final String DELETE_SPREADSHEET_CELLS_CYPHER =
+            "MATCH (c:Cell {spreadsheetId: $spreadsheetId})\n" +
+                    "CALL { WITH c DETACH DELETE c } IN TRANSACTIONS OF $batchSize ROWS";
+
+    private static final String DELETE_SPREADSHEET_SHEETS_CYPHER =
+            "MATCH (s:Sheet {spreadsheetId: $spreadsheetId}) DETACH DELETE s";
+
+    private static final String DELETE_SPREADSHEET_TABLES_CYPHER =
+            "MATCH (t:Table {spreadsheetId: $spreadsheetId}) DETACH DELETE t";
+
+    private static final String DELETE_SPREADSHEET_COLUMNS_CYPHER =
+            "MATCH (col:Column {spreadsheetId: $spreadsheetId}) DETACH DELETE col";
+
+    private static final String DELETE_SPREADSHEET_RANGES_CYPHER =
+            "MATCH (r:Range {spreadsheetId: $spreadsheetId})\n" +
+                    "CALL { WITH r DETACH DELETE r } IN TRANSACTIONS OF $batchSize ROWS";
+
+    private static final String DELETE_SPREADSHEET_FORMULA_GROUPS_CYPHER =
+            "MATCH (g:FormulaGroup {spreadsheetId: $spreadsheetId})\n" +
+                    "CALL { WITH g DELETE g } IN TRANSACTIONS OF $batchSize ROWS";
+
+    private static final String DELETE_SPREADSHEET_CYCLES_CYPHER =
+            "MATCH (y:Cycle {spreadsheetId: $spreadsheetId})\n" +
+                    "DETACH DELETE y";
+
+    // Graph partitions are keyed by spreadsheet id; data without one shares this partition
+    public static final String DEFAULT_SPREADSHEET_ID = "default";
+
+    private static final String MERGE_SHEETS_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MERGE (s:Sheet {spreadsheetId: row.spreadsheetId, name: row.name})\n" +
+                    "SET s.id = row.id";
+
+    private static final String DELETE_CELLS_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MATCH (c:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.id})\n" +
+                    "DETACH DELETE c";
+
+    private static final String UPDATE_CELLS_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MATCH (c:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.id})\n" +
+                    "SET c.value = row.value,\n" +
+                    "    c.formula = null,\n" +
+                    "    c.formulaGroup = row.formulaGroup,\n" +
+                    "    c.groupColumnOffset = row.groupColumnOffset,\n" +
+                    "    c.groupRowOffset = row.groupRowOffset,\n" +
+                    "    c.formulaType = row.formulaType,\n" +
+                    "    c.dataType = row.dataType,\n" +
+                    "    c.numericValue = row.numericValue,\n" +
+                    "    c.booleanValue = row.booleanValue,\n" +
+                    "    c.dateValue = row.dateValue,\n" +
+                    "    c.semanticLabel = row.semanticLabel,\n" +
+                    "    c.fingerprint = row.fingerprint,\n" +
+                    "    c.formulaHash = row.formulaHash,\n" +
+                    "    c.table = row.table\n" +
+                    "WITH c, row\n" +
+                    "OPTIONAL MATCH (c)<-[contains:CONTAINS]-(:Column)\n" +
+                    "DELETE contains\n" +
+                    "WITH DISTINCT c, row\n" +
+                    "MATCH (col:Column {spreadsheetId: row.spreadsheetId, sheet: row.sheet, table: row.table, index: row.column})\n" +
+                    "CREATE (col)-[:CONTAINS]->(c)";
+
+    private static final String DELETE_DEPENDENCIES_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MATCH (c:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.id})-[d:DEPENDS_ON]->()\n" +
+                    "DELETE d";
+
+    private static final String MERGE_DEPENDENCIES_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MATCH (target:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.targetId})\n" +
+                    "MATCH (source:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sourceSheet, id: row.sourceId})\n" +
+                    "MERGE (target)-[:DEPENDS_ON]->(source)";
+
+    /**
+     * Builds or refreshes the graph partition of one spreadsheet. Builds of the same spreadsheet
+     * are serialised; builds of different spreadsheets run concurrently.
+     */
     public void buildKnowledgeGraph(SpreadsheetData spreadsheetData) {
-        try (Session session = neo4jDriver.session()) {
-            // Clear existing graph
-            session.run("MATCH (n) DETACH DELETE n");
+        if (spreadsheetData.getId() == null) {
+            spreadsheetData.setId(DEFAULT_SPREADSHEET_ID);
+        }
+        spreadsheetLocks.withLock(spreadsheetData.getId(), () -> build(spreadsheetData));
+    }
+
+    private void build(SpreadsheetData spreadsheetData) {
+        schemaInitializer.ensureSchema();
+
+        if (ingestionProperties.getMode() == IngestionMode.PER_CELL) {
+            // Always a full rebuild, whatever ingestion.incremental says: clear the spreadsheet's partition
+            deleteSpreadsheet(spreadsheetData.getId());
+            fingerprintStore.evict(spreadsheetData.getId());
+            dependencyGraphService.evict(spreadsheetData.getId());
 
             // Create nodes for each cell/entity
-            createEntityNodes(session, spreadsheetData);
+            createEntityNodes(spreadsheetData);
 
             // Analyze and create relationships
-            createRelationships(session, spreadsheetData);
+            createRelationships(spreadsheetData);
 
             // Add semantic labels
-            addSemanticLabels(session, spreadsheetData);
+            addSemanticLabels(spreadsheetData);
+            topologyService.refresh(spreadsheetData.getId());
+            return;
+        }
+
+        long cellCount = spreadsheetData.getSheets().stream().mapToLong(sheet -> sheet.getTable().size()).sum();
+        if (bulkCsvLoader.shouldUse(spreadsheetData.getId(), cellCount)) {
+            bulkLoad(spreadsheetData);
+            return;
+        }
+
+        if (ingestionProperties.getMode() == IngestionMode.PARALLEL) {
+            buildInParallel(spreadsheetData);
+            return;
+        }
+
+        GraphBuild build = beginBuild(spreadsheetData.getId());
+        try {
+            List<String> sheetNames = sheetNames(spreadsheetData);
+            for (SheetData sheet : spreadsheetData.getSheets()) {
+                build.writeSheet(analyzeSheet(spreadsheetData.getId(), sheet, sheetNames));
+            }
+            build.finish();
+        } catch (RuntimeException e) {
+            build.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the spreadsheet through CSV files and LOAD CSV. Sheets are analysed and streamed
+     * to disk one at a time; the fingerprints and the dependency engine are reloaded from the
+     * graph on their next use.
+     */
+    private void bulkLoad(SpreadsheetData spreadsheetData) {
+        try (BulkCsvLoader.BulkLoad load = bulkCsvLoader.open(spreadsheetData.getId())) {
+            List<String> sheetNames = sheetNames(spreadsheetData);
+            for (SheetData sheet : spreadsheetData.getSheets()) {
+                load.writeSheet(analyzeSheet(spreadsheetData.getId(), sheet, sheetNames));
+            }
+            // The partition is emptied first, so a load that fails part way leaves the spreadsheet
+            // empty or partly loaded until the next successful build
+            deleteSpreadsheet(spreadsheetData.getId());
+            load.load();
+        } finally {
+            fingerprintStore.evict(spreadsheetData.getId());
+            dependencyGraphService.evict(spreadsheetData.getId());
+        }
+        topologyService.refresh(spreadsheetData.getId());
+    }
+
+    /**
+     * Runs formula, data-type and semantic analysis for one sheet and returns graph-ready rows.
+     * Formulas are analysed once per shared-formula group; cells store the group id and their
+     * offset from the group's anchor instead of the formula text. Table regions are detected and
+     * their columns profiled first; cells are labelled by, and linked to, their column.
+     * References to other sheets are resolved against {@code sheetNames}, the names of every sheet
+     * of the spreadsheet. Touches no shared state, so sheets can be analysed concurrently.
+     */
+    public AnalyzedSheet analyzeSheet(String spreadsheetId, SheetData sheet, List<String> sheetNames) {
+        SemanticAnalyzer.SheetProfile profile = profile(sheet);
+        AnalyzedSheet analyzed = analyzeSheet(spreadsheetId, sheet, profile, sheetsByReference(sheetNames));
+        analyzed.setTableRows(tableRows(spreadsheetId, sheet.getName(), profile));
+        analyzed.setColumnRows(columnRows(spreadsheetId, sheet.getName(), profile));
+        return analyzed;
+    }
+
+    private SemanticAnalyzer.SheetProfile profile(SheetData sheet) {
+        return semanticAnalyzer.profile(sheet.getTable(), regionDetector.detect(sheet.getTable()));
+    }
+
+    /**
+     * Analyses a sheet or a partition of one; the profile is always that of the whole sheet.
+     */
+    private AnalyzedSheet analyzeSheet(String spreadsheetId, SheetData sheet, SemanticAnalyzer.SheetProfile profile,
+                                       Map<String, String> sheets) {
+        AnalyzedSheet analyzed = new AnalyzedSheet();
+        analyzed.setSpreadsheetId(spreadsheetId);
+        analyzed.setId(sheet.getId());
+        analyzed.setName(sheet.getName());
+
+        Map<Long, Map<String, Object>> groups = new LinkedHashMap<>();
+        CellTable cells = sheet.getTable();
+        ValueScanner.Scan scan = new ValueScanner.Scan();
+        for (int i = 0; i < cells.size(); i++) {
+            String formula = cells.formula(i);
+            if (formula == null || formula.isEmpty()) {
+                analyzed.getCellRows().add(toCellRow(spreadsheetId, sheet, i, null, 0, 0, profile, scan));
+                continue;
+            }
+
+            // Addresses that are not A1 references are analysed as if they were at A1
+            int column = cells.column(i) == 0 ? 1 : cells.column(i);
+            int row = cells.column(i) == 0 ? 1 : cells.row(i);
+            String address = cells.address(i);
+            SharedFormula shared = formulaAnalyzer.analyzeShared(formula, column, row);
+            analyzed.getCellRows().add(toCellRow(spreadsheetId, sheet, i, shared, column, row, profile, scan));
+            groups.computeIfAbsent(shared.groupId(sheet.getName()),
+                    id -> formulaGroupRow(spreadsheetId, sheet.getName(), id, shared));
+
+            for (CellRef reference : formulaAnalyzer.extractReferences(shared, column, row)) {
+                Map<String, Object> dependencyRow = dependencyRow(spreadsheetId, sheet.getName(), address, reference, sheets);
+                if (dependencyRow != null) {
+                    analyzed.getDependencyRows().add(dependencyRow);
+                }
+            }
+            analyzed.getRangeRows().addAll(rangeRows(spreadsheetId, sheet.getName(), address,
+                    formulaAnalyzer.extractRanges(shared, column, row), sheets));
+        }
+        analyzed.getFormulaGroupRows().addAll(groups.values());
+        return analyzed;
+    }
+
+    /**
+     * The edge from the cell at {@code targetId} to a cell it reads, with the source as the real
+     * name of its sheet and its position. The graph matches the source on sheet and A1 id, the
+     * dependency engine keys it by the same sheet and position, so both hold the same edge.
+     * A reference without a sheet is to the formula's own sheet; one to a sheet the spreadsheet
+     * does not have yields null.
+     *
+     * @param reference a position as returned by {@code FormulaAnalyzer.extractReferences}
+     * @param sheets    real sheet names by their key, see {@link #sheetsByReference}
+     */
+    private static Map<String, Object> dependencyRow(String spreadsheetId, String sheet, String targetId,
+                                                     CellRef reference, Map<String, String> sheets) {
+        String sourceSheet = reference.getSheet() == null ? sheet : sheets.get(reference.getSheet());
+        if (sourceSheet == null) {
+            return null;
+        }
+        Map<String, Object> row = new HashMap<>();
+        row.put("spreadsheetId", spreadsheetId);
+        row.put("sheet", sheet);
+        row.put("targetId", targetId);
+        row.put("sourceSheet", sourceSheet);
+        row.put("sourceColumn", reference.getColumn());
+        row.put("sourceRow", reference.getRow());
+        row.put("sourceId", CellKey.address(reference.getColumn(), reference.getRow()));
+        return row;
+    }
+
+    /**
+     * Maps the sheet keys formula references carry, see {@link SheetNames#key}, back to the sheets'
+     * real names. Sheets keeps names unique ignoring case, so each key names one sheet.
+     */
+    private static Map<String, String> sheetsByReference(List<String> sheetNames) {
+        Map<String, String> sheets = new HashMap<>();
+        for (String name : sheetNames) {
+            sheets.putIfAbsent(SheetNames.key(name), name);
+        }
+        return sheets;
+    }
+
+    private static List<String> sheetNames(SpreadsheetData spreadsheetData) {
+        return spreadsheetData.getSheets().stream().map(SheetData::getName).collect(Collectors.toList());
+    }
+
+    private static List<Map<String, Object>> tableRows(String spreadsheetId, String sheetName,
+                                                       SemanticAnalyzer.SheetProfile profile) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (TableRegion table : profile.getRegions().getTables()) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("spreadsheetId", spreadsheetId);
+            row.put("sheet", sheetName);
+            row.put("id", table.getId());
+            row.put("range", table.getId() + ":" + CellKey.address(table.getLastColumn(), table.getLastRow()));
+            row.put("firstColumn", table.getFirstColumn());
+            row.put("firstRow", table.getFirstRow());
+            row.put("lastColumn", table.getLastColumn());
+            row.put("lastRow", table.getLastRow());
+            row.put("headerRow", table.getHeaderRow() == 0 ? null : table.getHeaderRow());
+            row.put("totalRow", table.getTotalRow() == 0 ? null : table.getTotalRow());
+            row.put("cellCount", table.getCellCount());
+            rows.add(row);
         }
+        return rows;
     }
 
-    private void createEntityNodes(Session session, SpreadsheetData data) {
+    private static List<Map<String, Object>> columnRows(String spreadsheetId, String sheetName,
+                                                        SemanticAnalyzer.SheetProfile profile) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (ColumnProfile column : profile.getColumns()) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("spreadsheetId", spreadsheetId);
+            row.put("sheet", sheetName);
+            row.put("table", column.getTable());
+            row.put("index", column.getIndex());
+            row.put("name", CellRef.columnName(column.getIndex()));
+            row.put("header", column.getHeader());
+            row.put("headerRow", column.getHeaderRow() == 0 ? null : column.getHeaderRow());
+            row.put("totalRow", column.getTotalRow() == 0 ? null : column.getTotalRow());
+            row.put("dataType", column.getDataType() == null ? null : column.getDataType().name());
+            row.put("count", column.getCount());
+            row.put("distinctCount", column.getDistinctCount());
+            row.put("min", column.getMin());
+            row.put("max", column.getMax());
+            row.put("idRatio", column.getIdRatio());
+            row.put("semanticLabel", column.getSemanticLabel() == null ? null : column.getSemanticLabel().name());
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static Map<String, Object> formulaGroupRow(String spreadsheetId, String sheetName, long id,
+                                                       SharedFormula shared) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("spreadsheetId", spreadsheetId);
+        row.put("sheet", sheetName);
+        row.put("id", id);
+        row.put("r1c1", shared.getR1c1());
+        row.put("formula", shared.getAnchorFormula());
+        row.put("formulaType", shared.getFormulaType() == FormulaType.NONE ? null : shared.getFormulaType().name());
+        row.put("anchorColumn", shared.getAnchorColumn());
+        row.put("anchorRow", shared.getAnchorRow());
+        return row;
+    }
+
+    /**
+     * One row per range the cell's formula reads. Open sides of whole-column and whole-row ranges
+     * are stored at the sheet limits so that containment is a plain numeric comparison. The range
+     * sheet, as written in the formula, is resolved to its real name as in {@link #dependencyRow};
+     * ranges on sheets the spreadsheet does not have are left out.
+     */
+    private static List<Map<String, Object>> rangeRows(String spreadsheetId, String sheetName, String address,
+                                                       List<RangeRef> ranges, Map<String, String> sheets) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (RangeRef range : ranges) {
+            String rangeSheet = range.getSheet() == null
+                    ? sheetName
+                    : sheets.get(SheetNames.key(range.getSheet()));
+            if (rangeSheet == null) {
+                continue;
+            }
+            RangeRef bounded = range.toBounded();
+            Map<String, Object> row = new HashMap<>();
+            row.put("spreadsheetId", spreadsheetId);
+            row.put("sheet", sheetName);
+            row.put("targetId", address);
+            row.put("rangeSheet", rangeSheet);
+            row.put("rangeId", range.getAddress());
+            row.put("firstColumn", bounded.getFirstColumn());
+            row.put("firstRow", bounded.getFirstRow());
+            row.put("lastColumn", bounded.getLastColumn());
+            row.put("lastRow", bounded.getLastRow());
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Starts a batched build for one spreadsheet. Sheets are written as they are handed in and
+     * dependency edges are written by {@link GraphBuild#finish()}, once every cell exists.
+     */
+    public GraphBuild beginBuild(String spreadsheetId) {
+        return beginBuild(spreadsheetId, null);
+    }
+
+    private GraphBuild beginBuild(String spreadsheetId, ForkJoinPool pool) {
+        boolean incremental = ingestionProperties.isIncremental() && spreadsheetId != null;
+        if (!incremental) {
+            // Clear the spreadsheet's partition
+            deleteSpreadsheet(spreadsheetId);
+            fingerprintStore.evict(spreadsheetId);
+            return new GraphBuild(spreadsheetId, null, pool);
+        }
+        return new GraphBuild(spreadsheetId, fingerprintStore.get(spreadsheetId), pool);
+    }
+
+    private void deleteSpreadsheet(String spreadsheetId) {
+        String key = spreadsheetId == null ? DEFAULT_SPREADSHEET_ID : spreadsheetId;
+        graphClient.write(DELETE_SPREADSHEET_CELLS_CYPHER,
+                parameters("spreadsheetId", key, "batchSize", Math.max(1, ingestionProperties.getBatchSize())));
+        graphClient.write(DELETE_SPREADSHEET_SHEETS_CYPHER, parameters("spreadsheetId", key));
+        graphClient.write(DELETE_SPREADSHEET_TABLES_CYPHER, parameters("spreadsheetId", key));
+        graphClient.write(DELETE_SPREADSHEET_COLUMNS_CYPHER, parameters("spreadsheetId", key));
+        graphClient.write(DELETE_SPREADSHEET_RANGES_CYPHER,
+                parameters("spreadsheetId", key, "batchSize", Math.max(1, ingestionProperties.getBatchSize())));
+        graphClient.write(DELETE_SPREADSHEET_FORMULA_GROUPS_CYPHER,
+                parameters("spreadsheetId", key, "batchSize", Math.max(1, ingestionProperties.getBatchSize())));
+        graphClient.write(DELETE_SPREADSHEET_CYCLES_CYPHER, parameters("spreadsheetId", key));
+    }
+
+    /**
+     * Ingests sheets, and row ranges of large sheets, as independent partitions on a fork-join pool.
+     * Each partition is analysed and written in its own transaction together with the edges that stay
+     * inside it; edges crossing partitions are written by the merge phase in {@link GraphBuild#finish()}.
+     */
+    private void buildInParallel(SpreadsheetData spreadsheetData) {
+        IngestionProperties.Parallel settings = ingestionProperties.getParallel();
+        int parallelism = settings.getParallelism() > 0
+                ? settings.getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        GraphBuild build = beginBuild(spreadsheetData.getId(), pool);
+        try {
+            Map<String, String> sheets = sheetsByReference(sheetNames(spreadsheetData));
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (SheetData sheet : spreadsheetData.getSheets()) {
+                // Tables and columns span partitions, so they are detected and profiled over the whole sheet
+                SemanticAnalyzer.SheetProfile profile = profile(sheet);
+                build.writeSheetNode(sheet.getName(), sheet.getId());
+                build.writeTables(sheet.getName(), tableRows(spreadsheetData.getId(), sheet.getName(), profile),
+                        columnRows(spreadsheetData.getId(), sheet.getName(), profile));
+                for (SheetData partition : partition(sheet, settings.getPartitionCells())) {
+                    tasks.add(pool.submit(() -> build.writePartition(
+                            analyzeSheet(spreadsheetData.getId(), partition, profile, sheets))));
+                }
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+            build.finish();
+        } catch (RuntimeException e) {
+            build.abort();
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Splits a sheet into slices of about {@code partitionCells} cells. Cells arrive row by row,
+     * so each slice is extended to the end of its last row and covers whole rows. Slices share the
+     * sheet's cell table.
+     */
+    private static List<SheetData> partition(SheetData sheet, int partitionCells) {
+        CellTable cells = sheet.getTable();
+        if (partitionCells <= 0 || cells.size() <= partitionCells) {
+            return List.of(sheet);
+        }
+
+        List<SheetData> partitions = new ArrayList<>();
+        int start = 0;
+        while (start < cells.size()) {
+            int end = Math.min(start + partitionCells, cells.size());
+            while (end < cells.size() && cells.row(end) == cells.row(end - 1)) {
+                end++;
+            }
+            SheetData partition = new SheetData(sheet.getName());
+            partition.setId(sheet.getId());
+            partition.setTable(cells.slice(start, end));
+            partitions.add(partition);
+            start = end;
+        }
+        return partitions;
+    }
+
+    /**
+     * Writes one spreadsheet sheet by sheet. Without previous fingerprints every cell is created;
+     * otherwise each sheet is diffed against the fingerprints of the cells currently in the graph
+     * and only inserted, updated and deleted cells plus the edges they affect are written.
+     * Other spreadsheets in the database are left untouched by the incremental path.
+     * <p>
+     * A build created for parallel ingestion also accepts partitions concurrently; its bookkeeping
+     * is synchronized and the graph writes of each partition run outside the lock.
+     */
+    public class GraphBuild {
+        private final String spreadsheetId;
+        private final Map<String, CellFingerprintStore.Fingerprint> previous;
+        private final ForkJoinPool pool;
+        private final Map<String, CellFingerprintStore.Fingerprint> current = new HashMap<>();
+        private final List<String> sheetNames = new ArrayList<>();
+        // Fingerprint keys, i.e. sheet and address, of cells inserted by this build
+        private final Set<String> insertedCells = new HashSet<>();
+        // Fingerprint keys of cells whose formula changed in this build
+        private final Set<String> relinkedCells = new HashSet<>();
+        private final List<Map<String, Object>> dependencies = new ArrayList<>();
+        private final List<Map<String, Object>> candidateDependencies = new ArrayList<>();
+        private final WorkbookGraphBuilder engine;
+        private long cellCount;
+
+        private GraphBuild(String spreadsheetId, Map<String, CellFingerprintStore.Fingerprint> previous,
+                           ForkJoinPool pool) {
+            this.spreadsheetId = spreadsheetId;
+            this.previous = previous;
+            this.pool = pool;
+            this.engine = new WorkbookGraphBuilder(spreadsheetId);
+        }
+
+        public synchronized long getCellCount() {
+            return cellCount;
+        }
+
+        public void writeSheet(AnalyzedSheet sheet) {
+            writeSheetNode(sheet.getName(), sheet.getId());
+            writeTables(sheet.getName(), sheet.getTableRows(), sheet.getColumnRows());
+            CellChanges changes = track(sheet, false);
+            batchWriter.write(MERGE_FORMULA_GROUPS_CYPHER, changes.formulaGroups);
+            batchWriter.write(CREATE_CELLS_CYPHER, changes.inserted);
+            batchWriter.write(UPDATE_CELLS_CYPHER, changes.updated);
+            batchWriter.write(DELETE_DEPENDENCIES_CYPHER, changes.relinked);
+            batchWriter.write(MERGE_RANGE_DEPENDENCIES_CYPHER, changes.ranges);
+        }
+
+        private void writeSheetNode(String name, String id) {
+            Map<String, Object> sheetRow = new HashMap<>();
+            sheetRow.put("name", name);
+            sheetRow.put("id", id);
+            sheetRow.put("spreadsheetId", spreadsheetId);
+            synchronized (this) {
+                sheetNames.add(name);
+                engine.addSheet(name);
+            }
+            batchWriter.write(previous == null ? CREATE_SHEETS_CYPHER : MERGE_SHEETS_CYPHER, List.of(sheetRow));
+        }
+
+        /**
+         * Writes the tables and column profiles of a sheet before its cells, which are linked to
+         * them as they are written. On a rebuild, tables and columns no longer found are removed;
+         * cells that moved out of them have a changed fingerprint and are relinked.
+         */
+        private void writeTables(String sheetName, List<Map<String, Object>> tableRows,
+                                 List<Map<String, Object>> columnRows) {
+            batchWriter.write(MERGE_TABLES_CYPHER, tableRows);
+            batchWriter.write(MERGE_COLUMNS_CYPHER, columnRows);
+            if (previous != null) {
+                List<Object> tables = tableRows.stream().map(row -> row.get("id")).collect(Collectors.toList());
+                List<Object> columns = columnRows.stream()
+                        .map(row -> List.of(row.get("table"), row.get("index")))
+                        .collect(Collectors.toList());
+                graphClient.write(DELETE_STALE_TABLES_CYPHER,
+                        parameters("spreadsheetId", spreadsheetId, "sheet", sheetName, "tables", tables));
+                graphClient.write(DELETE_STALE_COLUMNS_CYPHER,
+                        parameters("spreadsheetId", spreadsheetId, "sheet", sheetName, "columns", columns));
+            }
+        }
+
+        /**
+         * Writes one partition of an already registered sheet, including the edges whose both ends
+         * lie inside it, as a single transaction that is retried when it fails transiently.
+         */
+        private void writePartition(AnalyzedSheet partition) {
+            CellChanges changes = track(partition, true);
+            inTransaction(tx -> {
+                run(tx, MERGE_FORMULA_GROUPS_CYPHER, changes.formulaGroups);
+                run(tx, CREATE_CELLS_CYPHER, changes.inserted);
+                run(tx, UPDATE_CELLS_CYPHER, changes.updated);
+                run(tx, DELETE_DEPENDENCIES_CYPHER, changes.relinked);
+                run(tx, MERGE_LOCAL_DEPENDENCIES_CYPHER, changes.localDependencies);
+                run(tx, MERGE_RANGE_DEPENDENCIES_CYPHER, changes.ranges);
+            });
+        }
+
+        /**
+         * Diffs the cells of a sheet or partition against the previous fingerprints and records the
+         * dependency rows that have to be written. With {@code keepLocal}, edges between two cells of
+         * the given rows are returned for the caller to write instead of being deferred to {@link #finish()}.
+         */
+        private synchronized CellChanges track(AnalyzedSheet sheet, boolean keepLocal) {
+            CellChanges changes = new CellChanges();
+            Set<String> addresses = new HashSet<>();
+            Set<String> relinkedAddresses = new HashSet<>();
+            Set<Object> writtenGroups = new HashSet<>();
+            cellCount += sheet.getCellRows().size();
+
+            for (Map<String, Object> row : sheet.getCellRows()) {
+                String address = (String) row.get("id");
+                addresses.add(address);
+                engine.addCell(sheet.getName(), address);
+                if (previous == null) {
+                    changes.inserted.add(row);
+                    writtenGroups.add(row.get("formulaGroup"));
+                    continue;
+                }
+
+                String key = CellFingerprintStore.key(sheet.getName(), address);
+                CellFingerprintStore.Fingerprint fingerprint = new CellFingerprintStore.Fingerprint(
+                        (Long) row.get("fingerprint"), (Long) row.get("formulaHash"));
+                current.put(key, fingerprint);
+
+                CellFingerprintStore.Fingerprint old = previous.get(key);
+                if (old == null) {
+                    changes.inserted.add(row);
+                    insertedCells.add(key);
+                    relinkedAddresses.add(address);
+                    writtenGroups.add(row.get("formulaGroup"));
+                } else if (old.getContent() != fingerprint.getContent()) {
+                    changes.updated.add(row);
+                    writtenGroups.add(row.get("formulaGroup"));
+                    if (old.getFormula() != fingerprint.getFormula()) {
+                        changes.relinked.add(row);
+                        relinkedCells.add(key);
+                        relinkedAddresses.add(address);
+                    }
+                }
+            }
+
+            // Only groups of written cells; groups of unchanged cells are already in the graph
+            for (Map<String, Object> row : sheet.getFormulaGroupRows()) {
+                if (writtenGroups.contains(row.get("id"))) {
+                    changes.formulaGroups.add(row);
+                }
+            }
+
+            for (Map<String, Object> row : sheet.getDependencyRows()) {
+                String sourceSheet = (String) row.get("sourceSheet");
+                engine.addDependency(sheet.getName(), (String) row.get("targetId"), sourceSheet,
+                        (Integer) row.get("sourceColumn"), (Integer) row.get("sourceRow"));
+                if (previous != null && !relinkedAddresses.contains(row.get("targetId"))) {
+                    // Edges are (re)written for new or re-formulated cells; the rest only if the
+                    // referenced cell turns out to be inserted somewhere in this build
+                    candidateDependencies.add(row);
+                } else if (keepLocal && sheet.getName().equals(sourceSheet) && addresses.contains(row.get("sourceId"))) {
+                    changes.localDependencies.add(row);
+                } else {
+                    dependencies.add(row);
+                }
+            }
+
+            for (Map<String, Object> row : sheet.getRangeRows()) {
+                engine.addRange(sheet.getName(), (String) row.get("targetId"), (String) row.get("rangeSheet"),
+                        (Integer) row.get("firstColumn"), (Integer) row.get("firstRow"),
+                        (Integer) row.get("lastColumn"), (Integer) row.get("lastRow"));
+                // Range nodes are merged, so only the reading cell has to exist
+                if (previous == null || relinkedAddresses.contains(row.get("targetId"))) {
+                    changes.ranges.add(row);
+                }
+            }
+            return changes;
+        }
+
+        public void finish() {
+            if (spreadsheetId != null) {
+                dependencyGraphService.publish(engine.build());
+            }
+
+            if (previous == null) {
+                writeDependencies(CREATE_DEPENDENCIES_CYPHER, dependencies);
+                refreshTopology();
+                return;
+            }
+
+            List<Map<String, Object>> deleted = new ArrayList<>();
+            // Only these cells and their dependents can have moved to another level or cycle
+            Set<String> linkChanges = new HashSet<>(insertedCells);
+            linkChanges.addAll(relinkedCells);
+            for (String key : previous.keySet()) {
+                if (!current.containsKey(key)) {
+                    linkChanges.add(key);
+                    // Addresses never contain '!', sheet names may
+                    int separator = key.lastIndexOf('!');
+                    Map<String, Object> row = new HashMap<>();
+                    row.put("spreadsheetId", spreadsheetId);
+                    row.put("sheet", key.substring(0, separator));
+                    row.put("id", key.substring(separator + 1));
+                    deleted.add(row);
+                }
+            }
+
+            graphClient.write("MATCH (s:Sheet {spreadsheetId: $spreadsheetId}) WHERE NOT s.name IN $names DETACH DELETE s",
+                    parameters("spreadsheetId", spreadsheetId, "names", sheetNames));
+            graphClient.write("MATCH (t:Table {spreadsheetId: $spreadsheetId}) WHERE NOT t.sheet IN $names DETACH DELETE t",
+                    parameters("spreadsheetId", spreadsheetId, "names", sheetNames));
+            graphClient.write("MATCH (col:Column {spreadsheetId: $spreadsheetId}) WHERE NOT col.sheet IN $names DETACH DELETE col",
+                    parameters("spreadsheetId", spreadsheetId, "names", sheetNames));
+            batchWriter.write(DELETE_CELLS_CYPHER, deleted);
+
+            if (!insertedCells.isEmpty()) {
+                for (Map<String, Object> row : candidateDependencies) {
+                    if (insertedCells.contains(CellFingerprintStore.key((String) row.get("sourceSheet"),
+                            (String) row.get("sourceId")))) {
+                        dependencies.add(row);
+                    }
+                }
+            }
+            writeDependencies(MERGE_DEPENDENCIES_CYPHER, dependencies);
+            graphClient.write(DELETE_UNREAD_RANGES_CYPHER, parameters("spreadsheetId", spreadsheetId));
+            graphClient.write(DELETE_UNUSED_FORMULA_GROUPS_CYPHER, parameters("spreadsheetId", spreadsheetId));
+
+            fingerprintStore.put(spreadsheetId, current);
+            if (spreadsheetId != null && !linkChanges.isEmpty()) {
+                topologyService.refresh(spreadsheetId, linkChanges);
+            }
+        }
+
+        /**
+         * Forgets the spreadsheet's cached fingerprints and dependency engine after a failed build.
+         * Batches committed before the failure are in the graph but not in the cache, so the next
+         * build has to reload the fingerprints rather than create those cells a second time.
+         */
+        public void abort() {
+            if (spreadsheetId != null) {
+                fingerprintStore.evict(spreadsheetId);
+                dependencyGraphService.evict(spreadsheetId);
+            }
+        }
+
+        private void refreshTopology() {
+            if (spreadsheetId != null) {
+                topologyService.refresh(spreadsheetId);
+            }
+        }
+
+        /**
+         * Sequential builds stream the edges through the batch writer. Parallel builds run the merge
+         * phase as concurrent chunk transactions; rows are grouped by target cell so that a cell's
+         * edges land in one chunk, and chunks that still deadlock on shared cells are retried.
+         */
+        private void writeDependencies(String cypher, List<Map<String, Object>> rows) {
+            if (pool == null) {
+                batchWriter.write(cypher, rows);
+                return;
+            }
+
+            rows.sort(Comparator.comparing(row -> row.get("sheet") + "!" + row.get("targetId")));
+            int chunkSize = Math.max(1, ingestionProperties.getBatchSize());
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int start = 0; start < rows.size(); start += chunkSize) {
+                List<Map<String, Object>> chunk = rows.subList(start, Math.min(start + chunkSize, rows.size()));
+                tasks.add(pool.submit(() -> inTransaction(tx -> tx.run(cypher, parameters("rows", chunk)))));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+    }
+
+    private static final class CellChanges {
+        private final List<Map<String, Object>> formulaGroups = new ArrayList<>();
+        private final List<Map<String, Object>> inserted = new ArrayList<>();
+        private final List<Map<String, Object>> updated = new ArrayList<>();
+        private final List<Map<String, Object>> relinked = new ArrayList<>();
+        private final List<Map<String, Object>> localDependencies = new ArrayList<>();
+        private final List<Map<String, Object>> ranges = new ArrayList<>();
+    }
+
+    private void run(GraphTransaction tx, String cypher, List<Map<String, Object>> rows) {
+        int chunkSize = Math.max(1, ingestionProperties.getBatchSize());
+        for (int start = 0; start < rows.size(); start += chunkSize) {
+            tx.run(cypher, parameters("rows", rows.subList(start, Math.min(start + chunkSize, rows.size()))));
+        }
+    }
+
+    /**
+     * Runs the work in one transaction, retrying it as a whole with a jittered linear backoff when
+     * the graph reports a transient failure such as a deadlock between concurrent writers.
+     */
+    private void inTransaction(Consumer<GraphTransaction> work) {
+        IngestionProperties.Parallel settings = ingestionProperties.getParallel();
+        for (int attempt = 1; ; attempt++) {
+            try (GraphTransaction tx = graphClient.beginTransaction()) {
+                work.accept(tx);
+                tx.commit();
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= settings.getMaxAttempts() || !graphClient.isTransient(e)) {
+                    throw e;
+                }
+                long backoff = settings.getRetryBackoffMillis() * attempt;
+                log.warn("Transient failure on attempt {} of {}, retrying in ~{} ms: {}",
+                        attempt, settings.getMaxAttempts(), backoff, e.getMessage());
+                try {
+                    Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff + 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Ingestion interrupted", interrupted);
+                }
+            }
+        }
+    }
+
+    private Map<String, Object> toCellRow(String spreadsheetId, SheetData sheet, int cell,
+                                          SharedFormula shared, int column, int row,
+                                          SemanticAnalyzer.SheetProfile profile, ValueScanner.Scan scan) {
+        CellTable cells = sheet.getTable();
+        String value = cells.value(cell);
+        FormulaType formulaType = shared == null ? FormulaType.NONE : shared.getFormulaType();
+        // Numbers read as numbers need no scan, whatever text the source displayed for them
+        boolean numeric = cells.type(cell) == CellTable.NUMBER;
+        DataType dataType = numeric ? DataType.NUMBER : valueScanner.scan(value, scan);
+        ColumnProfile columnProfile = profile.columnOf(cells.offset() + cell);
+        SemanticLabel semanticLabel = semanticAnalyzer.labelOf(columnProfile, value, cells.row(cell));
+        String table = columnProfile == null ? null : columnProfile.getTable();
+
+        Map<String, Object> cellRow = new HashMap<>();
+        cellRow.put("id", cells.address(cell));
+        cellRow.put("spreadsheetId", spreadsheetId);
+        cellRow.put("value", value);
+        if (shared != null) {
+            cellRow.put("formulaGroup", shared.groupId(sheet.getName()));
+            cellRow.put("groupColumnOffset", column - shared.getAnchorColumn());
+            cellRow.put("groupRowOffset", row - shared.getAnchorRow());
+        }
+        cellRow.put("formulaType", formulaType == FormulaType.NONE ? null : formulaType.name());
+        cellRow.putAll(typedValue(dataType, numeric ? cells.number(cell) : scan.getNumber(), scan));
+        cellRow.put("semanticLabel", semanticLabel == null ? null : semanticLabel.name());
+        cellRow.put("sheet", sheet.getName());
+        cellRow.put("column", cells.column(cell) == 0 ? null : cells.column(cell));
+        cellRow.put("table", table);
+
+        CellFingerprintStore.Fingerprint fingerprint = CellFingerprintStore.fingerprint(value, cells.formula(cell),
+                semanticLabel == null ? null : semanticLabel.name(), dataType == null ? null : dataType.name(), table);
+        cellRow.put("fingerprint", fingerprint.getContent());
+        cellRow.put("formulaHash", fingerprint.getFormula());
+        return cellRow;
+    }
+
+    private void createEntityNodes(SpreadsheetData data) {
+        ValueScanner.Scan scan = new ValueScanner.Scan();
         for (SheetData sheet : data.getSheets()) {
             // Create sheet node
-            session.run("CREATE (s:Sheet {name: $name, id: $id})",
-                    parameters("name", sheet.getName(), "id", sheet.getId()));
+            graphClient.write("CREATE (s:Sheet {name: $name, id: $id, spreadsheetId: $spreadsheetId})",
+                    parameters("name", sheet.getName(), "id", sheet.getId(), "spreadsheetId", data.getId()));
 
             for (CellInfo cell : sheet.getCells()) {
                 String cypher =
                         "CREATE (c:Cell {\n" +
                                 "    id: $id,\n" +
+                                "    spreadsheetId: $spreadsheetId,\n" +
                                 "    value: $value,\n" +
                                 "    formula: $formula,\n" +
                                 "    formulaType: $formulaType,\n" +
                                 "    dataType: $dataType,\n" +
-                                "    sheet: $sheet\n" +
+                                "    numericValue: $numericValue,\n" +
+                                "    booleanValue: $booleanValue,\n" +
+                                "    dateValue: $dateValue,\n" +
+                                "    sheet: $sheet,\n" +
+                                "    column: $column\n" +
                                 "})";
 
                 FormulaType formulaType = formulaAnalyzer.analyzeFormulaType(cell.getFormula());
-                DataType dataType = determineDataType(cell.getValue());
-                session.run(cypher, parameters(
+                DataType dataType = valueScanner.scan(cell.getValue(), scan);
+                Map<String, Object> cellParameters = parameters(
                         "id", cell.getAddress(),
+                        "spreadsheetId", data.getId(),
                         "value", cell.getValue(),
                         "formula", cell.getFormula(),
                         "formulaType", formulaType == FormulaType.NONE ? null : formulaType.name(),
-                        "dataType", dataType == null ? null : dataType.name(),
-                        "sheet", sheet.getName()
-                ));
+                        "sheet", sheet.getName(),
+                        "column", cell.getColumn() == 0 ? null : cell.getColumn()
+                );
+                cellParameters.putAll(typedValue(dataType, scan.getNumber(), scan));
+                graphClient.write(cypher, cellParameters);
             }
         }
     }
 
-    private DataType determineDataType(String value) {
-        if (value == null || value.trim().isEmpty()) {
-            return null;
-        }
-
-        // Try number
-        try {
-            Double.parseDouble(value);
-            return DataType.NUMBER;
-        } catch (NumberFormatException ignored) {}
-
-        // Try boolean
-        if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
-            return DataType.BOOLEAN;
-        }
-
-        // Try date (basic check)
-        try {
-            // You can use more robust date formats as needed
-            new SimpleDateFormat("yyyy-MM-dd").parse(value);
-            return DataType.DATE;
-        } catch (Exception ignored) {}
-
-        return DataType.TEXT;
+    /**
+     * The data type and the value as a typed property: {@code numericValue} for numbers,
+     * {@code booleanValue} and {@code dateValue}; the other two are null so stale ones are removed.
+     */
+    private static Map<String, Object> typedValue(DataType dataType, double number, ValueScanner.Scan scan) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("dataType", dataType == null ? null : dataType.name());
+        row.put("numericValue", dataType == DataType.NUMBER ? number : null);
+        row.put("booleanValue", dataType == DataType.BOOLEAN ? scan.getBoolean() : null);
+        row.put("dateValue", dataType == DataType.DATE ? LocalDate.ofEpochDay(scan.getEpochDay()) : null);
+        return row;
     }
 
-    private void createRelationships(Session session, SpreadsheetData data) {
+    private void createRelationships(SpreadsheetData data) {
+        Map<String, String> sheets = sheetsByReference(sheetNames(data));
         for (SheetData sheet : data.getSheets()) {
             for (CellInfo cell : sheet.getCells()) {
                 if (cell.getFormula() != null && !cell.getFormula().isEmpty()) {
-                    analyzeFormulaDependencies(session, cell, sheet);
+                    analyzeFormulaDependencies(data.getId(), cell, sheet, sheets);
                 }
             }
         }
     }
 
-    private void analyzeFormulaDependencies(Session session, CellInfo cell, SheetData sheet) {
-        List<String> dependencies = formulaAnalyzer.extractDependencies(cell.getFormula());
-
-        for (String dependency : dependencies) {
+    private void analyzeFormulaDependencies(String spreadsheetId, CellInfo cell, SheetData sheet,
+                                            Map<String, String> sheets) {
+        for (CellRef reference : formulaAnalyzer.extractReferences(cell.getFormula())) {
+            Map<String, Object> row = dependencyRow(spreadsheetId, sheet.getName(), cell.getAddress(), reference, sheets);
+            if (row == null) {
+                continue;
+            }
             String cypher =
-                    "MATCH (source:Cell {id: $sourceId})\n" +
-                            "MATCH (target:Cell {id: $targetId})\n" +
-                            "CREATE (target)-[:DEPENDS_ON {formula: $formula}]->(source)";
+                    "MATCH (source:Cell {spreadsheetId: $spreadsheetId, sheet: $sourceSheet, id: $sourceId})\n" +
+                            "MATCH (target:Cell {spreadsheetId: $spreadsheetId, sheet: $sheet, id: $targetId})\n" +
+                            "CREATE (target)-[:DEPENDS_ON]->(source)";
 
-            session.run(cypher, parameters(
-                    "sourceId", dependency,
-                    "targetId", cell.getAddress(),
-                    "formula", cell.getFormula()
-            ));
+            graphClient.write(cypher, row);
         }
+        graphClient.write(MERGE_RANGE_DEPENDENCIES_CYPHER, parameters("rows",
+                rangeRows(spreadsheetId, sheet.getName(), cell.getAddress(), formulaAnalyzer.extractRanges(cell.getFormula()),
+                        sheets)));
     }
 
-    private void addSemanticLabels(Session session, SpreadsheetData data) {
+    private void addSemanticLabels(SpreadsheetData data) {
         for (SheetData sheet : data.getSheets()) {
-            for (CellInfo cell : sheet.getCells()) {
-                SemanticLabel semanticLabel = semanticAnalyzer.inferSemanticLabel(cell, sheet);
-                if (semanticLabel != null) {
-                    session.run("MATCH (c:Cell {id: $id}) SET c.semanticLabel = $label",
-                            parameters("id", cell.getAddress(), "label", semanticLabel.name()));
+            SemanticAnalyzer.SheetProfile profile = profile(sheet);
+            graphClient.write(MERGE_TABLES_CYPHER, parameters("rows", tableRows(data.getId(), sheet.getName(), profile)));
+            graphClient.write(MERGE_COLUMNS_CYPHER, parameters("rows", columnRows(data.getId(), sheet.getName(), profile)));
+            CellTable cells = sheet.getTable();
+            for (int i = 0; i < cells.size(); i++) {
+                ColumnProfile column = profile.columnOf(i);
+                if (column == null) {
+                    continue;
                 }
+                SemanticLabel semanticLabel = semanticAnalyzer.labelOf(column, cells.value(i), cells.row(i));
+                graphClient.write("MATCH (c:Cell {spreadsheetId: $spreadsheetId, sheet: $sheet, id: $id}) " +
+                                "SET c.semanticLabel = $label, c.table = $table " +
+                                "WITH c " +
+                                "MATCH (col:Column {spreadsheetId: $spreadsheetId, sheet: $sheet, table: $table, index: $column}) " +
+                                "MERGE (col)-[:CONTAINS]->(c)",
+                        parameters("spreadsheetId", data.getId(), "sheet", sheet.getName(), "id", cells.address(i),
+                                "label", semanticLabel == null ? null : semanticLabel.name(),
+                                "table", column.getTable(), "column", column.getIndex()));
             }
         }
     }
 
+    /**
+     * Applies a single-cell edit to the spreadsheet's partition. Without a sheet name the address
+     * is matched on every sheet of the spreadsheet.
+     */
     public void buildKnowledgeGraphFromChange(SpreadsheetChangeEvent event, ChangeImpact impact) {
-        try (Session session = neo4jDriver.session()) {
-            // Update the changed cell
-            session.run("MATCH (c:Cell {id: $id}) " +
-                            "SET c.value = $newValue",
-                    parameters("id", event.getCellAddress(), "newValue", event.getNewValue()));
-
-            // Optionally, remove old dependencies and recalculate if needed
-            session.run("MATCH (c:Cell {id: $id})<-[r:DEPENDS_ON]-() " +
-                            "DELETE r",
-                    parameters("id", event.getCellAddress()));
-
-            // Recalculate dependencies if formula exists
-            if (event.getFormula() != null && !event.getFormula().isEmpty()) {
-                List<String> dependencies = formulaAnalyzer.extractDependencies(event.getFormula());
-                for (String dep : dependencies) {
-                    session.run("MATCH (source:Cell {id: $sourceId}) " +
-                                    "MATCH (target:Cell {id: $targetId}) " +
-                                    "CREATE (target)-[:DEPENDS_ON {formula: $formula}]->(source)",
-                            parameters(
-                                    "sourceId", dep,
-                                    "targetId", event.getCellAddress(),
-                                    "formula", event.getFormula()
-                            ));
+        String spreadsheetId = event.getSpreadsheetId() == null ? DEFAULT_SPREADSHEET_ID : event.getSpreadsheetId();
+        spreadsheetLocks.withLock(spreadsheetId, () -> applyChange(spreadsheetId, event));
+    }
+
+    private void applyChange(String spreadsheetId, SpreadsheetChangeEvent event) {
+        // Update the changed cell. A cell that was empty until now, as the poller reports newly filled
+        // cells, is created on its sheet; without a sheet name only existing cells can be matched
+        ValueScanner.Scan scan = new ValueScanner.Scan();
+        long cell = CellKey.parse(0, event.getCellAddress());
+        Map<String, Object> valueParameters = parameters("spreadsheetId", spreadsheetId, "sheet", event.getSheetName(),
+                "id", event.getCellAddress(), "newValue", event.getNewValue(),
+                "column", cell == CellKey.NONE ? null : CellKey.column(cell));
+        valueParameters.putAll(typedValue(valueScanner.scan(event.getNewValue(), scan), scan.getNumber(), scan));
+        graphClient.write((event.getSheetName() == null
+                        ? "MATCH (c:Cell {spreadsheetId: $spreadsheetId, id: $id}) "
+                        : "MERGE (c:Cell {spreadsheetId: $spreadsheetId, sheet: $sheet, id: $id}) " +
+                        "ON CREATE SET c.column = $column ") +
+                        "SET c.value = $newValue, c.dataType = $dataType, c.numericValue = $numericValue, " +
+                        "c.booleanValue = $booleanValue, c.dateValue = $dateValue",
+                valueParameters);
+        // The cached fingerprints no longer describe the graph, and miss a cell created here;
+        // the next build reloads them from the graph and rewrites the cells that differ
+        fingerprintStore.evict(spreadsheetId);
+
+        // Remove the cell's own references; they are recreated from the new formula below
+        graphClient.write("MATCH (c:Cell {spreadsheetId: $spreadsheetId, id: $id})-[r:DEPENDS_ON]->() " +
+                        "WHERE $sheet IS NULL OR c.sheet = $sheet " +
+                        "DELETE r",
+                parameters("spreadsheetId", spreadsheetId, "sheet", event.getSheetName(), "id", event.getCellAddress()));
+
+        // An edit without a sheet name is applied to each sheet that has the cell
+        List<String> sheets = event.getSheetName() != null
+                ? List.of(event.getSheetName())
+                : graphClient.read("MATCH (c:Cell {spreadsheetId: $spreadsheetId, id: $id}) RETURN DISTINCT c.sheet AS sheet",
+                        parameters("spreadsheetId", spreadsheetId, "id", event.getCellAddress()))
+                .stream().map(record -> record.getString("sheet")).collect(Collectors.toList());
+
+        // Recalculate dependencies if formula exists
+        if (event.getFormula() != null && !event.getFormula().isEmpty()) {
+            int column = cell == CellKey.NONE ? 1 : CellKey.column(cell);
+            int row = cell == CellKey.NONE ? 1 : CellKey.row(cell);
+            SharedFormula shared = formulaAnalyzer.analyzeShared(event.getFormula(), column, row);
+            List<CellRef> references = formulaAnalyzer.extractReferences(shared, column, row);
+            List<RangeRef> ranges = formulaAnalyzer.extractRanges(shared, column, row);
+
+            Map<String, String> sheetsByReference = sheetsByReference(graphClient.read(
+                            "MATCH (s:Sheet {spreadsheetId: $spreadsheetId}) RETURN s.name AS name",
+                            parameters("spreadsheetId", spreadsheetId))
+                    .stream().map(record -> record.getString("name")).collect(Collectors.toList()));
+            // Group ids are per sheet
+            for (String sheet : sheets) {
+                long groupId = shared.groupId(sheet);
+                graphClient.write(MERGE_FORMULA_GROUPS_CYPHER,
+                        parameters("rows", List.of(formulaGroupRow(spreadsheetId, sheet, groupId, shared))));
+                graphClient.write("MATCH (c:Cell {spreadsheetId: $spreadsheetId, sheet: $sheet, id: $id}) " +
+                                "SET c.formula = null, c.formulaGroup = $formulaGroup, " +
+                                "c.groupColumnOffset = $groupColumnOffset, c.groupRowOffset = $groupRowOffset, " +
+                                "c.formulaType = $formulaType",
+                        parameters("spreadsheetId", spreadsheetId, "sheet", sheet, "id", event.getCellAddress(),
+                                "formulaGroup", groupId,
+                                "groupColumnOffset", column - shared.getAnchorColumn(),
+                                "groupRowOffset", row - shared.getAnchorRow(),
+                                "formulaType", shared.getFormulaType() == FormulaType.NONE ? null : shared.getFormulaType().name()));
+
+                List<Map<String, Object>> dependencyRows = new ArrayList<>();
+                for (CellRef reference : references) {
+                    Map<String, Object> dependencyRow = dependencyRow(spreadsheetId, sheet, event.getCellAddress(),
+                            reference, sheetsByReference);
+                    if (dependencyRow != null) {
+                        dependencyRows.add(dependencyRow);
+                    }
                 }
+                graphClient.write(MERGE_DEPENDENCIES_CYPHER, parameters("rows", dependencyRows));
+                graphClient.write(MERGE_RANGE_DEPENDENCIES_CYPHER, parameters("rows", rangeRows(spreadsheetId, sheet,
+                        event.getCellAddress(), ranges, sheetsByReference)));
+                dependencyGraphService.updateFormula(spreadsheetId, sheet, event.getCellAddress(), references, ranges);
             }
+        } else {
+            graphClient.write("MATCH (c:Cell {spreadsheetId: $spreadsheetId, id: $id}) " +
+                            "WHERE $sheet IS NULL OR c.sheet = $sheet " +
+                            "SET c.formula = null, c.formulaGroup = null, c.groupColumnOffset = null, " +
+                            "c.groupRowOffset = null, c.formulaType = null",
+                    parameters("spreadsheetId", spreadsheetId, "sheet", event.getSheetName(), "id", event.getCellAddress()));
+            for (String sheet : sheets) {
+                dependencyGraphService.updateFormula(spreadsheetId, sheet, event.getCellAddress(), List.of(), List.of());
+            }
+        }
+        graphClient.write(DELETE_UNREAD_RANGES_CYPHER, parameters("spreadsheetId", spreadsheetId));
+        graphClient.write(DELETE_UNUSED_FORMULA_GROUPS_CYPHER, parameters("spreadsheetId", spreadsheetId));
+
+        // Only the changed cell and its dependents can move to another level or cycle
+        topologyService.refresh(spreadsheetId, event.getSheetName(), event.getCellAddress());
 
-            // Optional: re-assign semantic label if applicable
-            CellInfo changedCell = new CellInfo(event.getCellAddress(), event.getNewValue(), event.getFormula());
-            SemanticLabel semanticLabel = semanticAnalyzer.inferSemanticLabel(changedCell, new SheetData(event.getSheetName()));
-            if (semanticLabel != null) {
-                session.run("MATCH (c:Cell {id: $id}) SET c.semanticLabel = $label",
-                        parameters("id", event.getCellAddress(), "label", semanticLabel));
+        // Re-label the cell by its column's profile; the profile itself is refreshed by the next build
+        int row = cell == CellKey.NONE ? 0 : CellKey.row(cell);
+        List<GraphRecord> columns = graphClient.read("MATCH (c:Cell {spreadsheetId: $spreadsheetId, id: $id}) " +
+                        "WHERE $sheet IS NULL OR c.sheet = $sheet " +
+                        "OPTIONAL MATCH (col:Column)-[:CONTAINS]->(c) " +
+                        "RETURN c.sheet AS sheet, col IS NOT NULL AS profiled, col.headerRow AS headerRow, " +
+                        "col.totalRow AS totalRow, col.semanticLabel AS semanticLabel",
+                parameters("spreadsheetId", spreadsheetId, "sheet", event.getSheetName(), "id", event.getCellAddress()));
+        for (GraphRecord record : columns) {
+            ColumnProfile column = null;
+            if (Boolean.TRUE.equals(record.get("profiled"))) {
+                column = new ColumnProfile();
+                column.setHeaderRow((int) record.getLong("headerRow", 0));
+                column.setTotalRow((int) record.getLong("totalRow", 0));
+                String label = record.getString("semanticLabel");
+                column.setSemanticLabel(label == null ? null : SemanticLabel.valueOf(label));
             }
+            SemanticLabel semanticLabel = semanticAnalyzer.labelOf(column, event.getNewValue(), row);
+            graphClient.write("MATCH (c:Cell {spreadsheetId: $spreadsheetId, sheet: $sheet, id: $id}) " +
+                            "SET c.semanticLabel = $label",
+                    parameters("spreadsheetId", spreadsheetId, "sheet", record.getString("sheet"),
+                            "id", event.getCellAddress(), "label", semanticLabel == null ? null : semanticLabel.name()));
         }
     }
 }
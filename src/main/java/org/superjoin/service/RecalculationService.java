@@ -0,0 +1,403 @@
+package org.superjoin.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.superjoin.component.FormulaAnalyzer;
+import org.superjoin.component.GraphBatchWriter;
+import org.superjoin.component.SpreadsheetLocks;
+import org.superjoin.config.IngestionProperties;
+import org.superjoin.config.RecalculationProperties;
+import org.superjoin.engine.Topology;
+import org.superjoin.engine.WorkbookGraph;
+import org.superjoin.events.SpreadsheetChangeEvent;
+import org.superjoin.formula.CellKey;
+import org.superjoin.formula.FormulaEvaluator;
+import org.superjoin.formula.FormulaNode;
+import org.superjoin.formula.SharedFormula;
+import org.superjoin.formula.SheetNames;
+import org.superjoin.graph.GraphClient;
+import org.superjoin.graph.GraphRecord;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import static org.superjoin.graph.GraphClient.parameters;
+
+/**
+ * Recomputes the formulas downstream of a single-cell change with the in-memory dependency engine.
+ * The dirty cells are the change's transitive dependents; they are ordered by the engine's
+ * precomputed {@link Topology} levels and the cells of one level, which cannot read each other,
+ * are evaluated in parallel on a fork-join pool. Formulas the evaluator does not support keep
+ * their stored value, and so do cells on a circular reference.
+ */
+@Slf4j
+@Service
+public class RecalculationService {
+
+    private static final String LOAD_CELLS_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MATCH (c:Cell {spreadsheetId: $spreadsheetId, sheet: row.sheet, id: row.id})\n" +
+                    "OPTIONAL MATCH (g:FormulaGroup {spreadsheetId: $spreadsheetId, id: c.formulaGroup})\n" +
+                    "RETURN c.sheet AS sheet, c.id AS id, c.value AS value, c.formula AS formula,\n" +
+                    "    c.formulaGroup AS formulaGroup, c.groupColumnOffset AS groupColumnOffset,\n" +
+                    "    c.groupRowOffset AS groupRowOffset, g.formula AS groupFormula,\n" +
+                    "    g.anchorColumn AS anchorColumn, g.anchorRow AS anchorRow";
+
+    private static final String UPDATE_VALUES_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MATCH (c:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.id})\n" +
+                    "SET c.value = row.value, c.numericValue = row.numericValue, c.booleanValue = row.booleanValue";
+
+    @Autowired
+    private GraphClient graphClient;
+
+    @Autowired
+    private FormulaAnalyzer formulaAnalyzer;
+
+    @Autowired
+    private DependencyGraphService dependencyGraphService;
+
+    @Autowired
+    private GraphBatchWriter batchWriter;
+
+    @Autowired
+    private SpreadsheetLocks spreadsheetLocks;
+
+    @Autowired
+    private IngestionProperties ingestionProperties;
+
+    @Autowired
+    private RecalculationProperties recalculationProperties;
+
+    private ForkJoinPool pool;
+
+    /**
+     * Recomputes and stores the values of every formula affected by the change. Call it after the
+     * change itself has been applied to the graph.
+     *
+     * @return new values keyed like {@link DependencyGraphService#findDependents}: bare addresses on
+     * the changed cell's sheet, {@code Sheet!A1} elsewhere
+     */
+    public Map<String, String> recalculate(SpreadsheetChangeEvent event) {
+        if (!recalculationProperties.isEnabled()) {
+            return Map.of();
+        }
+        String spreadsheetId = event.getSpreadsheetId() == null
+                ? KnowledgeGraphService.DEFAULT_SPREADSHEET_ID
+                : event.getSpreadsheetId();
+        return spreadsheetLocks.withLock(spreadsheetId, () -> dependencyGraphService.get(spreadsheetId)
+                .map(graph -> recalculate(spreadsheetId, graph, event))
+                .orElse(Map.of()));
+    }
+
+    private Map<String, String> recalculate(String spreadsheetId, WorkbookGraph graph, SpreadsheetChangeEvent event) {
+        long start = System.currentTimeMillis();
+        long changed = CellKey.parse(0, event.getCellAddress());
+        if (changed == CellKey.NONE) {
+            return Map.of();
+        }
+        int changedColumn = CellKey.column(changed);
+        int changedRow = CellKey.row(changed);
+
+        // The changed cell on each candidate sheet; it need not be a known cell
+        Change change = new Change(FormulaEvaluator.parseValue(event.getNewValue()));
+        List<Integer> seeds = new ArrayList<>();
+        String changedSheet = null;
+        for (String sheet : event.getSheetName() == null ? graph.getSheetNames() : List.of(event.getSheetName())) {
+            int sheetIndex = graph.sheetIndexOf(sheet);
+            if (sheetIndex < 0) {
+                continue;
+            }
+            int cell = graph.cellAt(sheetIndex, changedColumn, changedRow);
+            if (cell >= 0 || graph.rangeReadersOf(sheet, event.getCellAddress()).length > 0) {
+                change.add(sheetIndex, changedColumn, changedRow, cell);
+                changedSheet = changedSheet == null ? sheet : changedSheet;
+                if (cell >= 0) {
+                    seeds.add(cell);
+                } else {
+                    for (int dependent : graph.impactOf(sheet, event.getCellAddress())) {
+                        seeds.add(-dependent - 1);
+                    }
+                }
+            }
+        }
+        int[] reached = dirtyCells(graph, seeds, change);
+        if (reached.length == 0) {
+            return Map.of();
+        }
+
+        // Precomputed levels order the dirty cells; cells of one level never read each other
+        Topology topology = graph.getTopology();
+        int[] dirty = topology.sortByLevel(reached);
+        int[] dirtyIndex = new int[graph.getCells().size()];
+        Arrays.fill(dirtyIndex, -1);
+        for (int i = 0; i < dirty.length; i++) {
+            dirtyIndex[dirty[i]] = i;
+        }
+
+        Object[] values = new Object[graph.getCells().size()];
+        String[] storedValues = new String[dirty.length];
+        FormulaNode[] roots = new FormulaNode[dirty.length];
+        int[] columnOffsets = new int[dirty.length];
+        int[] rowOffsets = new int[dirty.length];
+        load(spreadsheetId, graph, dirty, dirtyIndex, values, storedValues, roots, columnOffsets, rowOffsets);
+        change.apply(values);
+
+        boolean[] computed = new boolean[dirty.length];
+        int levels = 0;
+        int cyclic = 0;
+        for (int first = 0; first < dirty.length; ) {
+            int end = first;
+            while (end < dirty.length && topology.levelOf(dirty[end]) == topology.levelOf(dirty[first])) {
+                end++;
+            }
+            evaluateLevel(first, end, i -> {
+                int cell = dirty[i];
+                if (roots[i] == null || topology.isCyclic(cell)) {
+                    return;
+                }
+                EngineValues cellValues = new EngineValues(graph, values, graph.sheetIndexOfCell(cell), change);
+                FormulaEvaluator.evaluate(roots[i], columnOffsets[i], rowOffsets[i], cellValues).ifPresent(value -> {
+                    values[cell] = value;
+                    computed[i] = true;
+                });
+            });
+            for (int i = first; i < end; i++) {
+                cyclic += topology.isCyclic(dirty[i]) ? 1 : 0;
+            }
+            levels++;
+            first = end;
+        }
+        if (cyclic > 0) {
+            log.warn("{} cells of {} are on a circular reference and keep their stored values", cyclic, spreadsheetId);
+        }
+
+        Map<String, String> result = new LinkedHashMap<>();
+        List<Map<String, Object>> updates = new ArrayList<>();
+        for (int i = 0; i < dirty.length; i++) {
+            if (!computed[i]) {
+                continue;
+            }
+            int cell = dirty[i];
+            String sheet = graph.sheetOf(cell);
+            String address = graph.addressOf(cell);
+            String value = FormulaEvaluator.format(values[cell]);
+            result.put(sheet.equals(changedSheet) ? address : SheetNames.reference(sheet, address), value);
+            if (!value.equals(storedValues[i])) {
+                updates.add(parameters("spreadsheetId", spreadsheetId, "sheet", sheet, "id", address, "value", value,
+                        "numericValue", values[cell] instanceof Double ? values[cell] : null,
+                        "booleanValue", values[cell] instanceof Boolean ? values[cell] : null));
+            }
+        }
+        batchWriter.write(UPDATE_VALUES_CYPHER, updates);
+        log.debug("Recalculated {} of {} dirty cells of {} in {} levels, {} values changed, in {} ms", result.size(),
+                dirty.length, spreadsheetId, levels, updates.size(), System.currentTimeMillis() - start);
+        return result;
+    }
+
+    // Seeds are known changed cells, or (-dependent - 1) for dependents of an unknown changed cell
+    private static int[] dirtyCells(WorkbookGraph graph, List<Integer> seeds, Change change) {
+        boolean[] marked = new boolean[graph.getCells().size()];
+        int[] dirty = new int[16];
+        int count = 0;
+        for (int seed : seeds) {
+            int[] reached = seed >= 0 ? graph.impactOf(seed) : new int[]{-seed - 1};
+            for (int cell : reached) {
+                if (!marked[cell] && !change.isChanged(cell)) {
+                    marked[cell] = true;
+                    if (count == dirty.length) {
+                        dirty = Arrays.copyOf(dirty, count * 2);
+                    }
+                    dirty[count++] = cell;
+                }
+            }
+        }
+        return Arrays.copyOf(dirty, count);
+    }
+
+    /**
+     * Reads the stored value of every dirty cell and of everything they read, and the formula of
+     * every dirty cell. Group members are evaluated on their group's tree, offset from its origin.
+     */
+    private void load(String spreadsheetId, WorkbookGraph graph, int[] dirty, int[] dirtyIndex,
+                      Object[] values, String[] storedValues, FormulaNode[] roots, int[] columnOffsets, int[] rowOffsets) {
+        boolean[] requested = new boolean[graph.getCells().size()];
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < dirty.length; i++) {
+            request(graph, dirty[i], requested, rows);
+            for (int precedent : graph.precedentsOf(dirty[i])) {
+                request(graph, precedent, requested, rows);
+            }
+        }
+
+        Map<Long, SharedFormula> groups = new HashMap<>();
+        int chunkSize = Math.max(1, ingestionProperties.getBatchSize());
+        for (int start = 0; start < rows.size(); start += chunkSize) {
+            List<GraphRecord> records = graphClient.read(LOAD_CELLS_CYPHER, parameters("spreadsheetId", spreadsheetId,
+                    "rows", rows.subList(start, Math.min(start + chunkSize, rows.size()))));
+            for (GraphRecord record : records) {
+                int cell = graph.cellOf(record.getString("sheet"), record.getString("id"));
+                if (cell < 0) {
+                    continue;
+                }
+                values[cell] = FormulaEvaluator.parseValue(record.getString("value"));
+                int i = dirtyIndex[cell];
+                if (i < 0) {
+                    continue;
+                }
+                storedValues[i] = record.getString("value");
+                if (record.getString("groupFormula") != null) {
+                    int anchorColumn = (int) record.getLong("anchorColumn", 1);
+                    int anchorRow = (int) record.getLong("anchorRow", 1);
+                    SharedFormula shared = groups.computeIfAbsent(record.getLong("formulaGroup", 0),
+                            id -> formulaAnalyzer.analyzeShared(record.getString("groupFormula"), anchorColumn, anchorRow));
+                    roots[i] = shared.getRoot();
+                    columnOffsets[i] = anchorColumn + (int) record.getLong("groupColumnOffset", 0) - shared.getOriginColumn();
+                    rowOffsets[i] = anchorRow + (int) record.getLong("groupRowOffset", 0) - shared.getOriginRow();
+                } else if (record.getString("formula") != null) {
+                    // Cells written by the per-cell path keep their formula text
+                    roots[i] = formulaAnalyzer.parse(record.getString("formula")).getRoot();
+                }
+            }
+        }
+    }
+
+    private static void request(WorkbookGraph graph, int cell, boolean[] requested, List<Map<String, Object>> rows) {
+        if (!requested[cell]) {
+            requested[cell] = true;
+            rows.add(parameters("sheet", graph.sheetOf(cell), "id", graph.addressOf(cell)));
+        }
+    }
+
+    private void evaluateLevel(int first, int end, IntConsumer evaluate) {
+        if (end - first < recalculationProperties.getParallelThreshold()) {
+            for (int i = first; i < end; i++) {
+                evaluate.accept(i);
+            }
+            return;
+        }
+        pool().submit(() -> IntStream.range(first, end).parallel().forEach(evaluate)).join();
+    }
+
+    private synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            int parallelism = recalculationProperties.getParallelism() > 0
+                    ? recalculationProperties.getParallelism()
+                    : Runtime.getRuntime().availableProcessors();
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The changed cell with its new value, on every sheet it was matched on. Known cells take the
+     * value in the value array; positions without a cell are answered here.
+     */
+    private static final class Change {
+        private final Object value;
+        private final List<int[]> positions = new ArrayList<>();
+        private final List<Integer> cells = new ArrayList<>();
+
+        private Change(Object value) {
+            this.value = value;
+        }
+
+        private void add(int sheet, int column, int row, int cell) {
+            if (cell >= 0) {
+                cells.add(cell);
+            } else {
+                positions.add(new int[]{sheet, column, row});
+            }
+        }
+
+        private boolean isChanged(int cell) {
+            return cells.contains(cell);
+        }
+
+        private void apply(Object[] values) {
+            for (int cell : cells) {
+                values[cell] = value;
+            }
+        }
+
+        private int[] positionOn(int sheet) {
+            for (int[] position : positions) {
+                if (position[0] == sheet) {
+                    return position;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class EngineValues implements FormulaEvaluator.CellValues {
+        private final WorkbookGraph graph;
+        private final Object[] values;
+        private final int ownSheet;
+        private final Change change;
+
+        private EngineValues(WorkbookGraph graph, Object[] values, int ownSheet, Change change) {
+            this.graph = graph;
+            this.values = values;
+            this.ownSheet = ownSheet;
+            this.change = change;
+        }
+
+        @Override
+        public Object valueAt(String sheet, int column, int row) {
+            int sheetIndex = sheet == null ? ownSheet : graph.sheetIndexOf(sheet);
+            if (sheetIndex < 0) {
+                return FormulaEvaluator.REF;
+            }
+            int[] changed = change.positionOn(sheetIndex);
+            if (changed != null && changed[1] == column && changed[2] == row) {
+                return change.value;
+            }
+            int cell = graph.cellAt(sheetIndex, column, row);
+            return cell < 0 ? null : values[cell];
+        }
+
+        @Override
+        public void forEachIn(String sheet, int firstColumn, int firstRow, int lastColumn, int lastRow,
+                              FormulaEvaluator.CellVisitor visitor) {
+            int sheetIndex = sheet == null ? ownSheet : graph.sheetIndexOf(sheet);
+            if (sheetIndex < 0) {
+                return;
+            }
+            // A changed position without a cell is visited in its place in column-then-row order
+            int[] changed = change.positionOn(sheetIndex);
+            boolean pending = changed != null && change.value != null
+                    && firstColumn <= changed[1] && changed[1] <= lastColumn && firstRow <= changed[2] && changed[2] <= lastRow;
+            for (int cell : graph.cellsIn(sheetIndex, firstColumn, firstRow, lastColumn, lastRow)) {
+                int column = graph.columnOf(cell);
+                int row = graph.rowOf(cell);
+                if (pending && (changed[1] < column || (changed[1] == column && changed[2] < row))) {
+                    visitor.visit(changed[1], changed[2], change.value);
+                    pending = false;
+                }
+                if (values[cell] != null) {
+                    visitor.visit(column, row, values[cell]);
+                }
+            }
+            if (pending) {
+                visitor.visit(changed[1], changed[2], change.value);
+            }
+        }
+    }
+}
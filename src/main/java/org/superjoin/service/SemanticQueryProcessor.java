@@ -1,25 +1,51 @@
 package org.superjoin.service;
 
-import org.neo4j.driver.*;
-import org.neo4j.driver.types.Node;
-import org.neo4j.driver.types.Path;
-import org.neo4j.driver.types.Relationship;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.superjoin.component.FormulaGroupStore;
 import org.superjoin.dto.ParsedQuery;
 import org.superjoin.entity.RelationshipEntity;
 import org.superjoin.entity.SpreadsheetEntity;
+import org.superjoin.formula.CellRef;
+import org.superjoin.graph.GraphClient;
+import org.superjoin.graph.GraphNode;
+import org.superjoin.graph.GraphPath;
+import org.superjoin.graph.GraphRecord;
+import org.superjoin.graph.GraphRelationship;
 import org.superjoin.querymodel.AnalyseQueryResult;
 import org.superjoin.querymodel.ImpactAnalysisResult;
 import org.superjoin.querymodel.QueryResult;
 import org.superjoin.querymodel.SemanticQuery;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @Service
 public class SemanticQueryProcessor {
 
+    // Pairs the start cells with the dependents the engine found for them, already in level order
+    private static final String DEPENDENTS_BY_SOURCE =
+            "UNWIND $sources AS s " +
+                    "MATCH (c:Cell {spreadsheetId: $spreadsheetId, sheet: s.sheet, id: s.id}) " +
+                    "RETURN c.id AS source, s.dependents AS dependents";
+
+    // Start cells of the generic dependency trace that are reported
+    private static final int MAX_TRACED_SOURCES = 10;
+
+    // A column matches a concept through its header or its semantic label
+    private static final String CONCEPT_COLUMN =
+            "any(concept IN $concepts WHERE toLower(col.header) CONTAINS concept OR toLower(col.semanticLabel) = concept)";
+
+    // Filter fields that compare the cells' own values, as in "revenue cells > 1000"
+    private static final Set<String> VALUE_FIELDS = Set.of("value", "values", "cell", "cells");
+
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?");
+
     @Autowired
     private KnowledgeGraphService graphService;
 
@@ -27,17 +53,22 @@ public class SemanticQueryProcessor {
     private NLPService nlpService;
 
     @Autowired
-    private Driver neo4jDriver;
+    private GraphClient graphClient;
 
-    public AnalyseQueryResult visualiseGraph() {
-        try (Session session = neo4jDriver.session()) {
-            String cypher = "MATCH (n)-[r]->(m) " +
-                    "RETURN n, r, m " +
-                    "LIMIT 100";
+    @Autowired
+    private DependencyGraphService dependencyGraphService;
 
-            Result result = session.run(cypher);
-            return buildAnalyseQueryResult(result);
-        }
+    @Autowired
+    private FormulaGroupStore formulaGroupStore;
+
+    public AnalyseQueryResult visualiseGraph(String spreadsheetId) {
+        String cypher = "MATCH (n)-[r]->(m) " +
+                "WHERE n.spreadsheetId = $spreadsheetId " +
+                "RETURN n, r, m " +
+                "LIMIT 100";
+
+        String key = spreadsheetId == null ? KnowledgeGraphService.DEFAULT_SPREADSHEET_ID : spreadsheetId;
+        return buildAnalyseQueryResult(graphClient.read(cypher, GraphClient.parameters("spreadsheetId", key)));
     }
 
     public ImpactAnalysisResult processImpactQuery(SemanticQuery query) {
@@ -47,16 +78,14 @@ public class SemanticQueryProcessor {
 
         // Convert to Cypher query
         String cypherQuery = buildCypherQuery(parsedQuery);
-        try (Session session = neo4jDriver.session()) {
-            Result result = session.run(cypherQuery, parsedQuery.getParameters());
-            if (!result.hasNext()) {
-                ImpactAnalysisResult analysisResult = new ImpactAnalysisResult();
-                analysisResult.setExplanation("No impact on other cell.");
-                return analysisResult;
-            }
-
-            return buildImpactAnalysisResult(result.single());
+        List<GraphRecord> result = graphClient.read(cypherQuery, parameters(parsedQuery));
+        if (result.isEmpty()) {
+            ImpactAnalysisResult analysisResult = new ImpactAnalysisResult();
+            analysisResult.setExplanation("No impact on other cell.");
+            return analysisResult;
         }
+
+        return buildImpactAnalysisResult(result.get(0));
     }
 
     public QueryResult processQuery(SemanticQuery query) {
@@ -85,91 +114,227 @@ public class SemanticQueryProcessor {
         }
     }
 
+    /**
+     * Concepts first select the table columns whose header or label matches, narrowed further by
+     * the value range any filters need, and only the cells of those columns are read. Queries
+     * without a concept scan every cell, since formula and total cells often lie outside any
+     * detected table.
+     */
     private String buildFindEntitiesQuery(ParsedQuery parsedQuery) {
-        StringBuilder cypher = new StringBuilder("MATCH (c:Cell)");
-
         List<String> conditions = new ArrayList<>();
+        List<String> columnConditions = new ArrayList<>();
 
         if (parsedQuery.hasSemanticFilter()) {
             //conditions.add("c.semanticLabel CONTAINS $semanticLabel");
             parsedQuery.getFilters().values().forEach(filter -> {
-                if (filter.getField().equals("value")) {
-                    conditions.add("c.value IS NOT NULL AND NOT c.value =~ '.*[a-zA-Z]+'");
-                    conditions.add("toFloat(c." + filter.getField() + ") " + filter.getOperator() + " " + filter.getValue());
+                if (VALUE_FIELDS.contains(filter.getField().toLowerCase())) {
+                    // Numeric cells carry their value as a float, so no per-row parsing or pattern match
+                    conditions.add("c.numericValue " + filter.getOperator() + " " + filter.getValue());
+                    String bound = columnBound(filter.getOperator(), filter.getValue());
+                    if (bound != null) {
+                        columnConditions.add(bound);
+                    }
                 } else
                     conditions.add("c." + filter.getField() + " " + filter.getOperator() + " " + filter.getValue());
             });
         }
 
         if (parsedQuery.hasValueFilter()) {
-            conditions.add("toFloat(c.value) = $value");
+            conditions.add("c.numericValue = $value");
+            columnConditions.add("col.min <= $value <= col.max");
         }
 
-        if (!conditions.isEmpty()) {
-            cypher.append(" WHERE ").append(String.join(" AND ", conditions));
+        boolean concepts = parsedQuery.getConcepts() != null && !parsedQuery.getConcepts().isEmpty();
+        if (concepts) {
+            columnConditions.add(CONCEPT_COLUMN);
         }
 
-        cypher.append(" RETURN c");
+        if (!concepts) {
+            conditions.addAll(0, scopeConditions(parsedQuery, "c"));
+            return "MATCH (c:Cell) " + where(conditions) + "RETURN c";
+        }
+        columnConditions.addAll(0, scopeConditions(parsedQuery, "t"));
+        return "MATCH (t:Table)-[:HAS_COLUMN]->(col:Column) " +
+                where(columnConditions) +
+                "MATCH (col)-[:CONTAINS]->(c:Cell) " +
+                where(conditions) +
+                "RETURN c";
+    }
 
-        return cypher.toString();
+    /**
+     * The condition a column's value range has to meet for any of its cells to pass a numeric
+     * comparison, or null if the comparison cannot rule columns out.
+     */
+    private static String columnBound(String operator, String value) {
+        if (!NUMBER.matcher(value).matches()) {
+            return null;
+        }
+        switch (operator) {
+            case ">":
+            case ">=":
+                return "col.max " + operator + " " + value;
+            case "<":
+            case "<=":
+                return "col.min " + operator + " " + value;
+            case "=":
+                return "col.min <= " + value + " <= col.max";
+            default:
+                return null;
+        }
     }
 
     private String buildImpactAnalysisQuery(ParsedQuery parsedQuery) {
-        return "MATCH (c:Cell {id: $cellId})\n" +
-                "WITH c\n" +
-                "MATCH path = (c)<-[:DEPENDS_ON*1..5]-(affected)\n" +
-                "RETURN c, collect(path) as paths";
+        Map<String, Object> parameters = new HashMap<>(parameters(parsedQuery));
+        // The engine loads the spreadsheet from the graph if needed, so when it cannot answer the
+        // cell is not stored and nothing reads it
+        List<String> affected = dependencyGraphService.findDependentKeys(
+                (String) parameters.get("spreadsheetId"),
+                (String) parameters.get("sheet"),
+                (String) parameters.get("cellId")).orElse(List.of());
+
+        // The closure is already known, so only the single edges inside it are fetched: edges to
+        // affected cells, and edges to Range nodes containing the source or an affected cell
+        List<Map<String, Object>> cells = new ArrayList<>();
+        for (String key : affected) {
+            int separator = key.lastIndexOf('!');
+            Map<String, Object> cell = new HashMap<>();
+            cell.put("sheet", key.substring(0, separator));
+            cell.put("id", key.substring(separator + 1));
+            CellRef ref = CellRef.parse(null, key.substring(separator + 1));
+            cell.put("column", ref == null ? null : ref.getColumn());
+            cell.put("row", ref == null ? null : ref.getRow());
+            cells.add(cell);
+        }
+        CellRef source = CellRef.parse(null, (String) parameters.get("cellId"));
+        parameters.put("column", source == null ? null : source.getColumn());
+        parameters.put("row", source == null ? null : source.getRow());
+        parameters.put("affected", cells);
+        parameters.put("affectedKeys", affected);
+        parsedQuery.setParameters(parameters);
+        return "MATCH (c:Cell {spreadsheetId: $spreadsheetId, id: $cellId})\n" +
+                where(scopeConditions(parsedQuery, "c")) +
+                "UNWIND $affected AS a\n" +
+                "MATCH (x:Cell {spreadsheetId: c.spreadsheetId, sheet: a.sheet, id: a.id})\n" +
+                "MATCH path = (x)-[:DEPENDS_ON]->(y)\n" +
+                "WHERE y = c OR (y:Cell AND y.sheet + '!' + y.id IN $affectedKeys)\n" +
+                "   OR (y:Range AND ((y.sheet = c.sheet AND y.firstColumn <= $column <= y.lastColumn\n" +
+                "           AND y.firstRow <= $row <= y.lastRow)\n" +
+                "       OR any(p IN $affected WHERE y.sheet = p.sheet AND y.firstColumn <= p.column <= y.lastColumn\n" +
+                "           AND y.firstRow <= p.row <= y.lastRow)))\n" +
+                "RETURN c, collect(path) AS paths";
     }
 
     private QueryResult executeQuery(String cypherQuery, ParsedQuery parsedQuery) {
-        try (Session session = neo4jDriver.session()) {
-            Result result = session.run(cypherQuery, parsedQuery.getParameters());
+        return buildQueryResult(graphClient.read(cypherQuery, parameters(parsedQuery)));
+    }
+    private Map<String, Object> parameters(ParsedQuery parsedQuery) {
+        Map<String, Object> parameters = parsedQuery.getParameters() == null
+                ? new HashMap<>()
+                : new HashMap<>(parsedQuery.getParameters());
+        // Cells without a spreadsheet id were built into the default one, as in the graph service
+        if (parameters.get("spreadsheetId") == null) {
+            parameters.put("spreadsheetId", KnowledgeGraphService.DEFAULT_SPREADSHEET_ID);
+        }
+        if (parsedQuery.getConcepts() != null) {
+            parameters.put("concepts", parsedQuery.getConcepts().stream()
+                    .map(String::toLowerCase)
+                    .collect(Collectors.toList()));
+        }
+        return parameters;
+    }
 
-            return buildQueryResult(result);
+    /**
+     * Confines a cell variable to the spreadsheet named in the query parameters, the default one if
+     * none is, and optionally to the sheet. DEPENDS_ON never crosses spreadsheets, so scoping the
+     * start cell scopes a traversal.
+     */
+    private List<String> scopeConditions(ParsedQuery parsedQuery, String variable) {
+        List<String> conditions = new ArrayList<>();
+        conditions.add(variable + ".spreadsheetId = $spreadsheetId");
+        if (parameters(parsedQuery).get("sheet") != null) {
+            conditions.add(variable + ".sheet = $sheet");
         }
+        return conditions;
     }
+
+    private static String where(List<String> conditions) {
+        return conditions.isEmpty() ? "" : "WHERE " + String.join(" AND ", conditions) + "\n";
+    }
+
     public String buildDependencyAnalysisQuery(ParsedQuery parsedQuery) {
         // Assume the main concept or cell is in filters with key "cellId" or "concept"
-        String cellId = (String) parsedQuery.getParameters().get("cellId");
+        String cellId = (String) parameters(parsedQuery).get("cellId");
+        List<String> scope = scopeConditions(parsedQuery, "c");
         if (cellId == null) {
             // Fallback: try semantic concept if specific cellId not found
             List<String> concepts = parsedQuery.getConcepts();
             if (concepts != null && !concepts.isEmpty()) {
-                return "MATCH (c:Cell) " +
-                        "WHERE toLower(c.semanticLabel) IN $concepts " +
-                        "WITH c " +
-                        "MATCH (c)<-[:DEPENDS_ON*1..5]-(dependent:Cell) " +
-                        "RETURN c.id AS source, collect(DISTINCT dependent.id) AS dependents";
+                // Columns are chosen by label or header first, so only the cells they contain are read
+                List<String> conditions = scopeConditions(parsedQuery, "t");
+                conditions.add(CONCEPT_COLUMN);
+                return dependentsBySource(parsedQuery, "MATCH (t:Table)-[:HAS_COLUMN]->(col:Column) " +
+                        where(conditions) +
+                        "MATCH (col)-[:CONTAINS]->(c:Cell) " +
+                        "RETURN DISTINCT c.sheet AS sheet, c.id AS id", Integer.MAX_VALUE);
             }
 
-            // Else generic dependency trace
-            return "MATCH (c:Cell)<-[:DEPENDS_ON*1..5]-(dependent) " +
-                    "RETURN c.id AS source, collect(dependent.id) AS dependents " +
-                    "LIMIT 10";
+            // Else generic dependency trace from the input cells, found through the level index
+            List<String> conditions = new ArrayList<>(scope);
+            conditions.add("c.level = 0");
+            return dependentsBySource(parsedQuery, "MATCH (c:Cell) " +
+                    where(conditions) +
+                    "RETURN c.sheet AS sheet, c.id AS id", MAX_TRACED_SOURCES);
         }
 
         // If we have a specific cell
-        return "MATCH (c:Cell {id: $cellId}) " +
-                "MATCH (c)<-[:DEPENDS_ON*1..5]-(dependent) " +
-                "RETURN c.id AS source, collect(dependent.id) AS dependents";
+        return dependentsBySource(parsedQuery, "MATCH (c:Cell {spreadsheetId: $spreadsheetId, id: $cellId}) " +
+                where(scope) +
+                "RETURN c.sheet AS sheet, c.id AS id", Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads the start cells from the graph and their transitive dependents, in level order, from
+     * the dependency engine, rather than expanding every DEPENDS_ON path in Cypher. Start cells
+     * without dependents are left out, and at most {@code limit} are kept. Returns the query that
+     * reports each start cell's id with its dependents, bare on the same sheet and {@code Sheet!A1}
+     * elsewhere.
+     */
+    private String dependentsBySource(ParsedQuery parsedQuery, String startCypher, int limit) {
+        Map<String, Object> parameters = parameters(parsedQuery);
+        String spreadsheetId = (String) parameters.get("spreadsheetId");
+        List<Map<String, Object>> sources = new ArrayList<>();
+        for (GraphRecord record : graphClient.read(startCypher, parameters)) {
+            if (sources.size() == limit) {
+                break;
+            }
+            String sheet = record.getString("sheet");
+            String id = record.getString("id");
+            List<String> dependents = dependencyGraphService.findDependents(spreadsheetId, sheet, id).orElse(List.of());
+            if (!dependents.isEmpty()) {
+                sources.add(Map.of("sheet", sheet, "id", id, "dependents", dependents));
+            }
+        }
+        parameters.put("sources", sources);
+        parsedQuery.setParameters(parameters);
+        return DEPENDENTS_BY_SOURCE;
     }
 
-    private ImpactAnalysisResult buildImpactAnalysisResult(Record record) {
+    private ImpactAnalysisResult buildImpactAnalysisResult(GraphRecord record) {
         ImpactAnalysisResult analysisResult = new ImpactAnalysisResult();
         analysisResult.setPaths(new ArrayList<>());
-        analysisResult.setSource(mapRecordToEntity(record.get("c").asNode()));
+        analysisResult.setSource(mapRecordToEntity(record.getNode("c")));
 
-        List<Path> pathList = record.get("paths").asList(Value::asPath);
-        for (Path path : pathList) {
+        List<GraphPath> pathList = record.getList("paths");
+        for (GraphPath path : pathList) {
             QueryResult result = new QueryResult();
             result.setRelationships(new ArrayList<>());
             result.setEntities(new ArrayList<>());
 
-            for (Node n : path.nodes()) {
+            for (GraphNode n : path.getNodes()) {
                 result.getEntities().add(mapRecordToEntity(n));
             }
 
-            for (Relationship r : path.relationships()) {
+            for (GraphRelationship r : path.getRelationships()) {
                 result.getRelationships().add(mapRecordToEntity(r));
             }
 
@@ -179,12 +344,12 @@ public class SemanticQueryProcessor {
         return analysisResult;
     }
 
-    public QueryResult buildQueryResult(Result result) {
+    public QueryResult buildQueryResult(List<GraphRecord> result) {
         QueryResult queryResult = new QueryResult();
         List<SpreadsheetEntity> entities = new ArrayList<>();
 
-        while (result.hasNext()) {
-            SpreadsheetEntity entity = mapRecordToEntity(result.next().get("c").asNode());
+        for (GraphRecord record : result) {
+            SpreadsheetEntity entity = mapRecordToEntity(record.getNode("c"));
             if (entity != null)
                 entities.add(entity);
         }
@@ -195,48 +360,47 @@ public class SemanticQueryProcessor {
         return queryResult;
     }
 
-    private SpreadsheetEntity mapRecordToEntity(Node record) {
+    private SpreadsheetEntity mapRecordToEntity(GraphNode record) {
         if (record == null) return null;
         SpreadsheetEntity entity = new SpreadsheetEntity();
-        entity.setId(record.get("id").asString());
-        entity.setEntityId(record.id());
-        entity.setValue(record.get("value").asString(null));
-        entity.setDataType(record.get("dataType").asString(null));
-        entity.setFormula(record.get("formula").asString(null));
-        entity.setFormulaType(record.get("formulaType").asString(null));
-        entity.setSemanticLabel(record.get("semanticLabel").asString(null));
-        entity.setSheet(record.get("sheet").asString(null));
-        entity.setEntityType(record.labels().iterator().next());
+        entity.setId(record.getString("id"));
+        entity.setEntityId(record.getId());
+        entity.setValue(record.getString("value"));
+        entity.setDataType(record.getString("dataType"));
+        entity.setFormula(formulaGroupStore.formulaOf(record));
+        entity.setFormulaType(record.getString("formulaType"));
+        entity.setSemanticLabel(record.getString("semanticLabel"));
+        entity.setSheet(record.getString("sheet"));
+        entity.setEntityType(record.getLabels().iterator().next());
         return entity;
     }
 
-    private RelationshipEntity mapRecordToEntity(Relationship record) {
+    private RelationshipEntity mapRecordToEntity(GraphRelationship record) {
         RelationshipEntity entity = new RelationshipEntity();
-        entity.setId(String.valueOf(record.id()));
-        entity.setSourceEntityId(String.valueOf(record.startNodeId()));
-        entity.setTargetEntityId(String.valueOf(record.endNodeId()));
-        entity.setRelationshipType(record.type());
-        entity.setStrength((Double) record.asMap().get("weight"));
+        entity.setId(String.valueOf(record.getId()));
+        entity.setSourceEntityId(String.valueOf(record.getStartNodeId()));
+        entity.setTargetEntityId(String.valueOf(record.getEndNodeId()));
+        entity.setRelationshipType(record.getType());
+        entity.setStrength((Double) record.getProperties().get("weight"));
         return entity;
     }
 
-    private AnalyseQueryResult buildAnalyseQueryResult(Result result) {
+    private AnalyseQueryResult buildAnalyseQueryResult(List<GraphRecord> result) {
         AnalyseQueryResult analyseQueryResult = new AnalyseQueryResult();
         analyseQueryResult.setPaths(new ArrayList<>());
 
-        while (result.hasNext()) {
-            Record record = result.next();
-            Node n = record.get("n").asNode();
+        for (GraphRecord record : result) {
+            GraphNode n = record.getNode("n");
 
             QueryResult queryResult = new QueryResult();
             queryResult.setEntities(new ArrayList<>());
             queryResult.setRelationships(new ArrayList<>());
 
             queryResult.getEntities().add(mapRecordToEntity(n));
-            Node m = record.get("m").asNode();
+            GraphNode m = record.getNode("m");
             queryResult.getEntities().add(mapRecordToEntity(m));
 
-            Relationship r = record.get("r").asRelationship();
+            GraphRelationship r = record.getRelationship("r");
             queryResult.getRelationships().add(mapRecordToEntity(r));
 
             analyseQueryResult.getPaths().add(queryResult);
@@ -0,0 +1,324 @@
+package org.superjoin.service;
+
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.superjoin.config.PollingProperties;
+import org.superjoin.dto.CellTable;
+import org.superjoin.dto.SheetData;
+import org.superjoin.dto.SpreadsheetData;
+import org.superjoin.events.SpreadsheetChangeEvent;
+
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns edits made in Google Sheets into {@link SpreadsheetChangeEvent}s. Each tracked spreadsheet
+ * keeps the last cells read of every sheet with a hash per row. A poll re-reads the sheets that are
+ * due, compares row hashes, compares the cells of changed rows only, and publishes one event per
+ * cell whose value or formula differs.
+ * <p>
+ * Every sheet has its own interval: halved after a poll that found edits, stretched after a quiet
+ * one, within the configured bounds. One task per spreadsheet runs when its earliest sheet is due,
+ * so a spreadsheet's polls and the events they publish never overlap.
+ */
+@Slf4j
+@Service
+public class SpreadsheetChangePoller {
+
+    private final GoogleSheetsService sheetsService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final PollingProperties pollingProperties;
+
+    private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public SpreadsheetChangePoller(GoogleSheetsService sheetsService, ApplicationEventPublisher eventPublisher,
+                                   PollingProperties pollingProperties) {
+        this.sheetsService = sheetsService;
+        this.eventPublisher = eventPublisher;
+        this.pollingProperties = pollingProperties;
+    }
+
+    /**
+     * Starts watching a spreadsheet. With a {@code baseline}, such as the data its graph was just
+     * built from, edits made from then on are reported; without one, the first poll only records
+     * the current cells.
+     */
+    public void track(String spreadsheetId, SpreadsheetData baseline) {
+        Tracked spreadsheet = new Tracked(spreadsheetId);
+        if (baseline != null) {
+            for (SheetData sheet : baseline.getSheets()) {
+                if (sheet.getId() != null) {
+                    spreadsheet.sheets.put(sheet.getId(), new SheetState(sheet.getTable(), minInterval()));
+                }
+            }
+        }
+        Tracked previous = tracked.put(spreadsheetId, spreadsheet);
+        if (previous != null) {
+            previous.cancel();
+        }
+        schedule(spreadsheet, baseline == null ? 0 : minInterval());
+    }
+
+    public void untrack(String spreadsheetId) {
+        Tracked spreadsheet = tracked.remove(spreadsheetId);
+        if (spreadsheet != null) {
+            spreadsheet.cancel();
+        }
+    }
+
+    public boolean isTracked(String spreadsheetId) {
+        return tracked.containsKey(spreadsheetId);
+    }
+
+    /**
+     * Polls every sheet of a tracked spreadsheet now, whether due or not.
+     *
+     * @return the number of events published
+     */
+    public int pollNow(String spreadsheetId) {
+        Tracked spreadsheet = tracked.get(spreadsheetId);
+        if (spreadsheet == null) {
+            throw new IllegalArgumentException("Spreadsheet " + spreadsheetId + " is not tracked");
+        }
+        synchronized (spreadsheet) {
+            return poll(spreadsheet, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Current poll interval of a sheet, for monitoring; -1 for an unknown sheet.
+     */
+    public long getIntervalMillis(String spreadsheetId, String sheetId) {
+        Tracked spreadsheet = tracked.get(spreadsheetId);
+        SheetState sheet = spreadsheet == null ? null : spreadsheet.sheets.get(sheetId);
+        return sheet == null ? -1 : sheet.intervalMillis;
+    }
+
+    private void run(Tracked spreadsheet) {
+        long next;
+        synchronized (spreadsheet) {
+            if (spreadsheet.cancelled) {
+                return;
+            }
+            try {
+                poll(spreadsheet, System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                log.warn("Polling spreadsheet {} failed: {}", spreadsheet.id, e.getMessage());
+            }
+            next = spreadsheet.nextDue() - System.currentTimeMillis();
+        }
+        schedule(spreadsheet, Math.max(next, minInterval()));
+    }
+
+    private int poll(Tracked spreadsheet, long now) {
+        // Listing is one small call and picks up added, removed and resized sheets
+        List<SheetProperties> sheets = sheetsService.listSheets(spreadsheet.id);
+        Set<String> present = new HashSet<>();
+        int published = 0;
+        for (SheetProperties properties : sheets) {
+            String sheetId = String.valueOf(properties.getSheetId());
+            present.add(sheetId);
+            SheetState state = spreadsheet.sheets.get(sheetId);
+            if (state != null && state.dueAt > now) {
+                continue;
+            }
+
+            CellTable cells = sheetsService.readSheet(spreadsheet.id, properties).getTable();
+            int changes = 0;
+            if (state == null) {
+                state = new SheetState(cells, minInterval());
+                spreadsheet.sheets.put(sheetId, state);
+            } else {
+                changes = publishChanges(spreadsheet.id, properties.getTitle(), state, cells);
+                state.adapt(changes > 0, minInterval(), maxInterval(), pollingProperties.getQuietMultiplier());
+            }
+            state.dueAt = System.currentTimeMillis() + state.intervalMillis;
+            published += changes;
+        }
+        spreadsheet.sheets.keySet().retainAll(present);
+        if (published > 0) {
+            log.debug("Published {} cell changes of spreadsheet {}", published, spreadsheet.id);
+        }
+        return published;
+    }
+
+    /**
+     * Compares the new cells of a sheet with the last ones row by row and publishes an event for
+     * each cell of a changed row whose value or formula differs. Blank cells count as absent.
+     */
+    private int publishChanges(String spreadsheetId, String sheetName, SheetState state, CellTable cells) {
+        Map<Integer, Row> previous = state.rows;
+        Map<Integer, Row> current = rows(cells);
+        Set<Integer> rowNumbers = new TreeSet<>(previous.keySet());
+        rowNumbers.addAll(current.keySet());
+
+        int published = 0;
+        for (int rowNumber : rowNumbers) {
+            Row before = previous.get(rowNumber);
+            Row after = current.get(rowNumber);
+            if (before != null && after != null && before.hash == after.hash) {
+                continue;
+            }
+            Map<Integer, Integer> oldCells = before == null ? Map.of() : before.cellsByColumn(state.cells);
+            Map<Integer, Integer> newCells = after == null ? Map.of() : after.cellsByColumn(cells);
+            Set<Integer> columns = new TreeSet<>(oldCells.keySet());
+            columns.addAll(newCells.keySet());
+            for (int column : columns) {
+                Integer oldCell = oldCells.get(column);
+                Integer newCell = newCells.get(column);
+                String oldValue = oldCell == null ? null : state.cells.value(oldCell);
+                String newValue = newCell == null ? null : cells.value(newCell);
+                String oldFormula = oldCell == null ? null : state.cells.formula(oldCell);
+                String newFormula = newCell == null ? null : cells.formula(newCell);
+                if (Objects.equals(oldValue, newValue) && Objects.equals(oldFormula, newFormula)) {
+                    continue;
+                }
+                String address = newCell != null ? cells.address(newCell) : state.cells.address(oldCell);
+                eventPublisher.publishEvent(new SpreadsheetChangeEvent(this, spreadsheetId, address,
+                        oldValue, newValue, newFormula, sheetName));
+                published++;
+            }
+        }
+        state.cells = cells;
+        state.rows = current;
+        return published;
+    }
+
+    /**
+     * Non-blank cells grouped by row with a 64-bit hash over each row's columns and the characters
+     * of its values and formulas.
+     */
+    private static Map<Integer, Row> rows(CellTable cells) {
+        Map<Integer, Row> rows = new HashMap<>();
+        for (int i = 0; i < cells.size(); i++) {
+            if (cells.type(i) == CellTable.BLANK && !cells.hasFormula(i)) {
+                continue;
+            }
+            Row row = rows.computeIfAbsent(cells.row(i), r -> new Row());
+            row.add(i);
+            row.hash = CellTable.mix(row.hash, cells.column(i));
+            row.hash = CellTable.mix(row.hash, cells.value(i));
+            row.hash = CellTable.mix(row.hash, cells.formula(i));
+        }
+        return rows;
+    }
+
+    private void schedule(Tracked spreadsheet, long delayMillis) {
+        if (!spreadsheet.cancelled) {
+            spreadsheet.task = scheduler().schedule(() -> run(spreadsheet), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private long minInterval() {
+        return TimeUnit.SECONDS.toMillis(Math.max(1, pollingProperties.getMinIntervalSeconds()));
+    }
+
+    private long maxInterval() {
+        return Math.max(minInterval(), TimeUnit.SECONDS.toMillis(pollingProperties.getMaxIntervalSeconds()));
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            AtomicInteger counter = new AtomicInteger();
+            scheduler = Executors.newScheduledThreadPool(Math.max(1, pollingProperties.getThreads()), runnable -> {
+                Thread thread = new Thread(runnable, "change-poller-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static final class Tracked {
+        private final String id;
+        // By sheet id, so a renamed sheet keeps its state
+        private final Map<String, SheetState> sheets = new ConcurrentHashMap<>();
+        private volatile boolean cancelled;
+        private volatile ScheduledFuture<?> task;
+
+        private Tracked(String id) {
+            this.id = id;
+        }
+
+        private long nextDue() {
+            long next = Long.MAX_VALUE;
+            for (SheetState sheet : sheets.values()) {
+                next = Math.min(next, sheet.dueAt);
+            }
+            return next == Long.MAX_VALUE ? System.currentTimeMillis() : next;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> current = task;
+            if (current != null) {
+                current.cancel(false);
+            }
+        }
+    }
+
+    private static final class SheetState {
+        private CellTable cells;
+        private Map<Integer, Row> rows;
+        private long intervalMillis;
+        private long dueAt;
+
+        private SheetState(CellTable cells, long intervalMillis) {
+            this.cells = cells;
+            this.rows = rows(cells);
+            this.intervalMillis = intervalMillis;
+            this.dueAt = System.currentTimeMillis() + intervalMillis;
+        }
+
+        private void adapt(boolean edited, long min, long max, double quietMultiplier) {
+            long next = edited ? intervalMillis / 2 : (long) (intervalMillis * Math.max(1, quietMultiplier));
+            intervalMillis = Math.max(min, Math.min(max, next));
+        }
+    }
+
+    private static final class Row {
+        private long hash = 0xcbf29ce484222325L;
+        private int[] cells = new int[4];
+        private int size;
+
+        private void add(int cell) {
+            if (size == cells.length) {
+                cells = Arrays.copyOf(cells, size * 2);
+            }
+            cells[size++] = cell;
+        }
+
+        private Map<Integer, Integer> cellsByColumn(CellTable table) {
+            Map<Integer, Integer> byColumn = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                byColumn.put(table.column(cells[i]), cells[i]);
+            }
+            return byColumn;
+        }
+    }
+}
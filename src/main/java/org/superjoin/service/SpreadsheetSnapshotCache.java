@@ -0,0 +1,189 @@
+package org.superjoin.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.superjoin.component.SpreadsheetLocks;
+import org.superjoin.config.SheetsProperties;
+import org.superjoin.dto.CellTable;
+import org.superjoin.dto.SheetData;
+import org.superjoin.dto.SpreadsheetData;
+import org.superjoin.dto.SpreadsheetSnapshot;
+import org.superjoin.events.SpreadsheetChangeEvent;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Parsed spreadsheets in front of {@link GoogleSheetsService#readSpreadsheet}, keyed by id.
+ * <ul>
+ *     <li>A snapshot younger than the fresh window is served without calling the API; an older one
+ *     is re-read and compared by content hash, and kept if nothing changed.</li>
+ *     <li>Concurrent reads of the same id share one load.</li>
+ *     <li>Snapshots are evicted least recently used first while their estimated heap exceeds the
+ *     configured weight.</li>
+ *     <li>The hash each spreadsheet's graph was built from is remembered, so building unchanged
+ *     content again is skipped.</li>
+ * </ul>
+ * Change events drop the spreadsheet's snapshot and built hash: the graph then differs from both.
+ */
+@Slf4j
+@Service
+public class SpreadsheetSnapshotCache {
+
+    private final GoogleSheetsService sheetsService;
+    private final SheetsProperties sheetsProperties;
+    private final SpreadsheetLocks spreadsheetLocks;
+
+    // Access-ordered; guarded by this
+    private final LinkedHashMap<String, SpreadsheetSnapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private final Map<String, CompletableFuture<SpreadsheetSnapshot>> loading = new ConcurrentHashMap<>();
+    private final Map<String, Long> builtHashes = new ConcurrentHashMap<>();
+
+    @Autowired
+    public SpreadsheetSnapshotCache(GoogleSheetsService sheetsService, SheetsProperties sheetsProperties,
+                                    SpreadsheetLocks spreadsheetLocks) {
+        this.sheetsService = sheetsService;
+        this.sheetsProperties = sheetsProperties;
+        this.spreadsheetLocks = spreadsheetLocks;
+    }
+
+    public SpreadsheetSnapshot get(String spreadsheetId) {
+        SheetsProperties.Cache settings = sheetsProperties.getCache();
+        SpreadsheetSnapshot cached = settings.isEnabled() ? cached(spreadsheetId) : null;
+        if (cached != null && System.currentTimeMillis() - cached.getFetchedAt() < settings.getFreshSeconds() * 1000) {
+            return cached;
+        }
+
+        CompletableFuture<SpreadsheetSnapshot> load = new CompletableFuture<>();
+        CompletableFuture<SpreadsheetSnapshot> running = loading.putIfAbsent(spreadsheetId, load);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            SpreadsheetSnapshot snapshot = load(spreadsheetId, cached);
+            load.complete(snapshot);
+            return snapshot;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(spreadsheetId, load);
+        }
+    }
+
+    /**
+     * Runs {@code build} on the snapshot's content unless the spreadsheet's graph was last built
+     * from identical content.
+     *
+     * @return whether the build ran
+     */
+    public boolean buildIfChanged(SpreadsheetSnapshot snapshot, Consumer<SpreadsheetData> build) {
+        String spreadsheetId = snapshot.getData().getId();
+        return spreadsheetLocks.withLock(spreadsheetId, () -> {
+            if (sheetsProperties.getCache().isEnabled()
+                    && Objects.equals(builtHashes.get(spreadsheetId), snapshot.getContentHash())) {
+                log.debug("Spreadsheet {} is unchanged, skipping the graph build", spreadsheetId);
+                return false;
+            }
+            build.accept(snapshot.getData());
+            builtHashes.put(spreadsheetId, snapshot.getContentHash());
+            return true;
+        });
+    }
+
+    public void invalidate(String spreadsheetId) {
+        builtHashes.remove(spreadsheetId);
+        synchronized (this) {
+            SpreadsheetSnapshot removed = snapshots.remove(spreadsheetId);
+            if (removed != null) {
+                weight -= removed.getWeight();
+            }
+        }
+    }
+
+    @EventListener
+    public void onSpreadsheetChange(SpreadsheetChangeEvent event) {
+        if (event.getSpreadsheetId() != null) {
+            invalidate(event.getSpreadsheetId());
+        }
+    }
+
+    /**
+     * Estimated heap of the cached snapshots.
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    private synchronized SpreadsheetSnapshot cached(String spreadsheetId) {
+        return snapshots.get(spreadsheetId);
+    }
+
+    private SpreadsheetSnapshot load(String spreadsheetId, SpreadsheetSnapshot previous) {
+        SpreadsheetData data = sheetsService.readSpreadsheet(spreadsheetId);
+        long hash = contentHash(data);
+
+        SpreadsheetSnapshot snapshot = new SpreadsheetSnapshot();
+        snapshot.setFetchedAt(System.currentTimeMillis());
+        snapshot.setContentHash(hash);
+        if (previous != null && previous.getContentHash() == hash) {
+            // Keep the tables already cached and let the fresh copy go
+            snapshot.setData(previous.getData());
+            snapshot.setWeight(previous.getWeight());
+        } else {
+            snapshot.setData(data);
+            long bytes = 0;
+            for (SheetData sheet : data.getSheets()) {
+                bytes += sheet.getTable().getEstimatedBytes();
+            }
+            snapshot.setWeight(bytes);
+        }
+        if (sheetsProperties.getCache().isEnabled()) {
+            put(spreadsheetId, snapshot);
+        }
+        return snapshot;
+    }
+
+    private synchronized void put(String spreadsheetId, SpreadsheetSnapshot snapshot) {
+        long maxWeight = sheetsProperties.getCache().getMaxWeightMegabytes() * 1024 * 1024;
+        SpreadsheetSnapshot replaced = snapshots.remove(spreadsheetId);
+        if (replaced != null) {
+            weight -= replaced.getWeight();
+        }
+        if (snapshot.getWeight() > maxWeight) {
+            log.debug("Spreadsheet {} weighs {} bytes, more than the whole cache; not cached", spreadsheetId, snapshot.getWeight());
+            return;
+        }
+        snapshots.put(spreadsheetId, snapshot);
+        weight += snapshot.getWeight();
+        Iterator<Map.Entry<String, SpreadsheetSnapshot>> eldest = snapshots.entrySet().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            Map.Entry<String, SpreadsheetSnapshot> entry = eldest.next();
+            weight -= entry.getValue().getWeight();
+            eldest.remove();
+        }
+    }
+
+    private static long contentHash(SpreadsheetData data) {
+        long hash = 17;
+        for (SheetData sheet : data.getSheets()) {
+            hash = CellTable.mix(hash, sheet.getName());
+            hash = CellTable.mix(hash, sheet.getId());
+            hash = hash * 31 + sheet.getTable().contentHash();
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,234 @@
+package org.superjoin.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.superjoin.component.GraphBatchWriter;
+import org.superjoin.engine.Topology;
+import org.superjoin.engine.WorkbookGraph;
+import org.superjoin.graph.GraphClient;
+import org.superjoin.graph.GraphRecord;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.superjoin.graph.GraphClient.parameters;
+
+/**
+ * Stores the engine's {@link Topology} on the graph: every Cell gets its dependency {@code level}
+ * and the {@code sccId} of its strongly connected component, and each circular reference becomes a
+ * Cycle node its cells point to with IN_CYCLE. Impact queries order and prune by level instead of
+ * rediscovering the dependency order through path expansion.
+ */
+@Slf4j
+@Service
+public class TopologyService {
+
+    private static final String UPDATE_LEVELS_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MATCH (c:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.id})\n" +
+                    "WHERE c.level IS NULL OR c.level <> row.level OR c.sccId <> row.sccId\n" +
+                    "SET c.level = row.level, c.sccId = row.sccId";
+
+    private static final String DELETE_SPREADSHEET_CYCLES_CYPHER =
+            "MATCH (y:Cycle {spreadsheetId: $spreadsheetId})\n" +
+                    "DETACH DELETE y";
+
+    // The stored cycles the given cells belong to, with all their members
+    private static final String CELL_CYCLES_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MATCH (:Cell {spreadsheetId: row.spreadsheetId, sheet: row.sheet, id: row.id})-[:IN_CYCLE]->(y:Cycle)\n" +
+                    "WITH DISTINCT y\n" +
+                    "MATCH (m:Cell)-[:IN_CYCLE]->(y)\n" +
+                    "RETURN y.id AS id, y.size AS size, y.level AS level, collect(m.sheet + '!' + m.id) AS members";
+
+    private static final String DELETE_CYCLES_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MATCH (y:Cycle {spreadsheetId: row.spreadsheetId, id: row.id})\n" +
+                    "DETACH DELETE y";
+
+    private static final String MERGE_CYCLES_CYPHER =
+            "UNWIND $rows AS row\n" +
+                    "MERGE (y:Cycle {spreadsheetId: row.spreadsheetId, id: row.id})\n" +
+                    "SET y.size = row.size, y.level = row.level\n" +
+                    "WITH y, row\n" +
+                    "UNWIND row.members AS member\n" +
+                    "MATCH (c:Cell {spreadsheetId: row.spreadsheetId, sheet: member.sheet, id: member.id})\n" +
+                    "MERGE (c)-[:IN_CYCLE]->(y)";
+
+    @Autowired
+    private GraphClient graphClient;
+
+    @Autowired
+    private DependencyGraphService dependencyGraphService;
+
+    @Autowired
+    private GraphBatchWriter batchWriter;
+
+    /**
+     * Stores levels and cycles for the whole spreadsheet; call it after a full build.
+     */
+    public void refresh(String spreadsheetId) {
+        dependencyGraphService.get(spreadsheetId).ifPresent(graph -> {
+            long start = System.currentTimeMillis();
+            int[] cells = new int[graph.getCells().size()];
+            for (int cell = 0; cell < cells.length; cell++) {
+                cells[cell] = cell;
+            }
+            graphClient.write(DELETE_SPREADSHEET_CYCLES_CYPHER, parameters("spreadsheetId", spreadsheetId));
+            write(spreadsheetId, graph, cells);
+            log.debug("Stored {} dependency levels of {} in {} ms", graph.getTopology().getLevelCount(),
+                    spreadsheetId, System.currentTimeMillis() - start);
+        });
+    }
+
+    /**
+     * Stores levels and cycles after the formula of one cell changed. Without a sheet the address
+     * is matched on every sheet.
+     */
+    public void refresh(String spreadsheetId, String sheet, String address) {
+        dependencyGraphService.get(spreadsheetId).ifPresent(graph -> {
+            BitSet affected = new BitSet(graph.getCells().size());
+            addWithDependents(graph, graph.resolve(sheet, address), affected);
+            refreshAffected(spreadsheetId, graph, affected);
+        });
+    }
+
+    /**
+     * Stores levels and cycles after an incremental build that inserted, deleted or re-formulated
+     * the given cells, as {@code sheet!address} keys. Cells whose value alone changed cannot move.
+     */
+    public void refresh(String spreadsheetId, Collection<String> changedCells) {
+        dependencyGraphService.get(spreadsheetId).ifPresent(graph -> {
+            long start = System.currentTimeMillis();
+            BitSet affected = new BitSet(graph.getCells().size());
+            for (String key : changedCells) {
+                // Addresses never contain '!', sheet names may
+                int separator = key.lastIndexOf('!');
+                addWithDependents(graph, graph.resolve(key.substring(0, separator), key.substring(separator + 1)), affected);
+            }
+            refreshAffected(spreadsheetId, graph, affected);
+            log.debug("Stored the dependency levels of {} cells of {} in {} ms", affected.cardinality(),
+                    spreadsheetId, System.currentTimeMillis() - start);
+        });
+    }
+
+    private static void addWithDependents(WorkbookGraph graph, int[] cells, BitSet affected) {
+        for (int cell : cells) {
+            if (!affected.get(cell)) {
+                affected.set(cell);
+                for (int dependent : graph.impactOf(cell)) {
+                    affected.set(dependent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Only changed cells and their transitive dependents can change level or component, and every
+     * cycle they now belong to or used to belong to goes through them, so nothing else is
+     * rewritten. Of those cycles, only the ones whose members, size or level changed are replaced.
+     */
+    private void refreshAffected(String spreadsheetId, WorkbookGraph graph, BitSet affected) {
+        if (affected.isEmpty()) {
+            return;
+        }
+        int[] cells = affected.stream().toArray();
+        Map<Long, Map<String, Object>> cycles = write(spreadsheetId, graph, cells, false);
+
+        List<Map<String, Object>> stale = new ArrayList<>();
+        for (GraphRecord stored : graphClient.read(CELL_CYCLES_CYPHER,
+                parameters("rows", cellRows(spreadsheetId, graph, cells)))) {
+            long id = stored.getLong("id", 0);
+            Map<String, Object> cycle = cycles.get(id);
+            if (cycle != null && sameCycle(stored, cycle)) {
+                cycles.remove(id);
+            } else {
+                stale.add(parameters("spreadsheetId", spreadsheetId, "id", id));
+            }
+        }
+        batchWriter.write(DELETE_CYCLES_CYPHER, stale);
+        batchWriter.write(MERGE_CYCLES_CYPHER, new ArrayList<>(cycles.values()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean sameCycle(GraphRecord stored, Map<String, Object> cycle) {
+        List<Map<String, Object>> members = (List<Map<String, Object>>) cycle.get("members");
+        if (stored.getLong("size", -1) != ((Integer) cycle.get("size"))
+                || stored.getLong("level", -1) != ((Integer) cycle.get("level"))
+                || stored.<String>getList("members").size() != members.size()) {
+            return false;
+        }
+        Set<String> storedMembers = new HashSet<>(stored.getList("members"));
+        for (Map<String, Object> member : members) {
+            if (!storedMembers.contains(WorkbookGraph.key((String) member.get("sheet"), (String) member.get("id")))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void write(String spreadsheetId, WorkbookGraph graph, int[] cells) {
+        write(spreadsheetId, graph, cells, true);
+    }
+
+    /**
+     * Writes the levels of the cells and, with {@code writeCycles}, the cycles among them.
+     *
+     * @return the cycles among the cells by component id, as Cycle rows
+     */
+    private Map<Long, Map<String, Object>> write(String spreadsheetId, WorkbookGraph graph, int[] cells,
+                                                 boolean writeCycles) {
+        Topology topology = graph.getTopology();
+        List<Map<String, Object>> levelRows = new ArrayList<>();
+        Map<Long, Map<String, Object>> cycles = new LinkedHashMap<>();
+        for (int cell : cells) {
+            Map<String, Object> row = cellRow(spreadsheetId, graph, cell);
+            row.put("level", topology.levelOf(cell));
+            row.put("sccId", topology.componentIdOf(cell));
+            levelRows.add(row);
+
+            if (topology.isCyclic(cell)) {
+                Map<String, Object> cycle = cycles.computeIfAbsent(topology.componentIdOf(cell), id -> {
+                    Map<String, Object> cycleRow = new HashMap<>();
+                    cycleRow.put("spreadsheetId", spreadsheetId);
+                    cycleRow.put("id", id);
+                    cycleRow.put("size", topology.componentSizeOf(cell));
+                    cycleRow.put("level", topology.levelOf(cell));
+                    cycleRow.put("members", new ArrayList<Map<String, Object>>());
+                    return cycleRow;
+                });
+                @SuppressWarnings("unchecked")
+                List<Map<String, Object>> members = (List<Map<String, Object>>) cycle.get("members");
+                members.add(parameters("sheet", graph.sheetOf(cell), "id", graph.addressOf(cell)));
+            }
+        }
+        batchWriter.write(UPDATE_LEVELS_CYPHER, levelRows);
+        if (writeCycles) {
+            batchWriter.write(MERGE_CYCLES_CYPHER, new ArrayList<>(cycles.values()));
+        }
+        if (!cycles.isEmpty()) {
+            log.warn("Spreadsheet {} has {} circular references", spreadsheetId, cycles.size());
+        }
+        return cycles;
+    }
+
+    private static List<Map<String, Object>> cellRows(String spreadsheetId, WorkbookGraph graph, int[] cells) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int cell : cells) {
+            rows.add(cellRow(spreadsheetId, graph, cell));
+        }
+        return rows;
+    }
+
+    private static Map<String, Object> cellRow(String spreadsheetId, WorkbookGraph graph, int cell) {
+        return parameters("spreadsheetId", spreadsheetId, "sheet", graph.sheetOf(cell), "id", graph.addressOf(cell));
+    }
+}
@@ -1,5 +1,8 @@
 package org.superjoin.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.superjoin.dto.ChangeImpact;
 import org.springframework.web.socket.TextMessage;
@@ -13,6 +16,10 @@ public class WebSocketService {
 
     private final Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
 
+    // Spring's mapper, so the application's Jackson settings apply to broadcasts
+    @Autowired
+    private ObjectMapper objectMapper;
+
     public void registerSession(WebSocketSession session) {
         sessions.add(session);
     }
@@ -36,10 +43,10 @@ public class WebSocketService {
     }
 
     private String convertToJson(ChangeImpact impact) {
-        // You can use Jackson ObjectMapper or similar libraries here
-        return "{ \"changedCell\": \"" + impact.getChangedCell() + "\", " +
-                "\"oldValue\": \"" + impact.getOldValue() + "\", " +
-                "\"newValue\": \"" + impact.getNewValue() + "\", " +
-                "\"affectedCells\": " + impact.getAffectedCells().toString() + " }";
+        try {
+            return objectMapper.writeValueAsString(impact);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize change impact", e);
+        }
     }
 }
@@ -0,0 +1,40 @@
+package org.superjoin;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for a caller to join a request another caller has in flight, for tests of request
+ * coalescing. A caller has joined once it waits in {@link CompletableFuture#join} called from the
+ * coalescing class itself; until then the stubbed response must not be released, or the first
+ * request could finish before the second caller finds it.
+ */
+public final class Joiners {
+
+    private Joiners() {
+    }
+
+    public static void awaitJoined(Class<?> coalescing, Thread... callers) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!joined(coalescing, callers)) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("No caller joined a request in flight in " + coalescing.getSimpleName());
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static boolean joined(Class<?> coalescing, Thread[] callers) {
+        for (Thread caller : callers) {
+            StackTraceElement[] stack = caller.getStackTrace();
+            for (int i = 0; i + 1 < stack.length; i++) {
+                if (stack[i].getClassName().equals(CompletableFuture.class.getName())
+                        && stack[i].getMethodName().equals("join")
+                        && stack[i + 1].getClassName().equals(coalescing.getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -1,92 +1,381 @@
 package org.superjoin;
 
-import org.junit.jupiter.api.TestMethodOrder;
-import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
-import org.springframework.boot.test.context.SpringBootTest;
-import org.junit.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.superjoin.component.CellFingerprintStore;
+import org.superjoin.config.IngestionProperties;
+import org.superjoin.constants.IngestionMode;
+import org.superjoin.constants.QueryIntent;
 import org.superjoin.dto.CellInfo;
+import org.superjoin.dto.ChangeImpact;
+import org.superjoin.dto.ParsedQuery;
 import org.superjoin.dto.SheetData;
 import org.superjoin.dto.SpreadsheetData;
-import org.superjoin.querymodel.QueryResult;
-import org.superjoin.querymodel.SemanticQuery;
+import org.superjoin.engine.WorkbookGraph;
+import org.superjoin.events.SpreadsheetChangeEvent;
+import org.superjoin.graph.GraphClient;
+import org.superjoin.graph.GraphRecord;
+import org.superjoin.service.DependencyGraphService;
+import org.superjoin.service.GoogleSheetsService;
 import org.superjoin.service.KnowledgeGraphService;
+import org.superjoin.service.NLPService;
 import org.superjoin.service.SemanticQueryProcessor;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.is;
-import static org.hamcrest.Matchers.not;
-import static org.hamcrest.Matchers.empty;
-import static org.junit.Assert.assertThat;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.superjoin.graph.GraphClient.parameters;
 
-@SpringBootTest
-@TestMethodOrder(OrderAnnotation.class)
+// The NLP models and the Sheets credentials are not needed to build and read the graph
+@SpringBootTest(properties = {"graph.engine=EMBEDDED", "graph.embedded.directory=target/neo4j-test"})
 public class SpreadsheetBrainIntegrationTest {
 
+    private static final String SPREADSHEET_ID = "integration-test";
+
+    @MockBean
+    private NLPService nlpService;
+
+    @MockBean
+    private GoogleSheetsService sheetsService;
+
     @Autowired
     private KnowledgeGraphService graphService;
 
+    @Autowired
+    private GraphClient graphClient;
+
+    @Autowired
+    private CellFingerprintStore fingerprintStore;
+
+    @Autowired
+    private DependencyGraphService dependencyGraphService;
+
+    @Autowired
+    private IngestionProperties ingestionProperties;
+
     @Autowired
     private SemanticQueryProcessor queryProcessor;
 
+    @BeforeEach
+    public void clear() {
+        // The database directory outlives the test run
+        graphClient.write("MATCH (n {spreadsheetId: $spreadsheetId}) DETACH DELETE n",
+                parameters("spreadsheetId", SPREADSHEET_ID));
+        fingerprintStore.evict(SPREADSHEET_ID);
+        dependencyGraphService.evict(SPREADSHEET_ID);
+    }
+
     @Test
     public void testKnowledgeGraphBuilding() {
-        // Create test spreadsheet data
-        SpreadsheetData testData = createTestSpreadsheetData();
+        graphService.buildKnowledgeGraph(createTestSpreadsheetData());
+
+        assertThat(count("MATCH (s:Sheet {spreadsheetId: $spreadsheetId}) RETURN count(s) AS count"), is(2L));
+        assertThat(count("MATCH (c:Cell {spreadsheetId: $spreadsheetId}) RETURN count(c) AS count"), is(7L));
+        // A bare reference stays on the formula's sheet; a qualified one reaches the named sheet
+        assertThat(dependencyEdges(), containsInAnyOrder(
+                "Sheet1!C2 -> Sheet1!A2",
+                "Sheet1!C2 -> Sheet1!B2",
+                "Sheet1!D2 -> Sheet 2!A1",
+                "Sheet 2!B1 -> Sheet 2!A1",
+                "Sheet 2!B1 -> Sheet1!A2"));
+        // The dependency engine built alongside holds the same edges
+        assertThat(engineEdges(), containsInAnyOrder(dependencyEdges().toArray()));
+    }
 
-        // Build knowledge graph
-        graphService.buildKnowledgeGraph(testData);
+    @Test
+    public void testReferencesToNonLatinSheetsReachTheNamedSheet() {
+        SpreadsheetData data = new SpreadsheetData();
+        data.setId(SPREADSHEET_ID);
+        data.setSheets(new ArrayList<>());
+        SheetData sales = new SheetData("Продажи");
+        sales.setCells(List.of(new CellInfo("A1", "5", null), new CellInfo("B1", null, "=売上!A1*2")));
+        data.getSheets().add(sales);
+        // Quoted and in another case, as Sheets accepts it
+        SheetData revenue = new SheetData("売上");
+        revenue.setCells(List.of(new CellInfo("A1", "7", null), new CellInfo("B1", null, "='продажи'!A1+1")));
+        data.getSheets().add(revenue);
+        // Differs from "Q1 2024" only in punctuation and must not swallow references to it
+        SheetData quarter = new SheetData("Q1-2024");
+        quarter.setCells(List.of(new CellInfo("A1", "1", null)));
+        data.getSheets().add(quarter);
+        SheetData other = new SheetData("Q1 2024");
+        other.setCells(List.of(new CellInfo("A1", null, "='Q1 2024'!A2+'Q1-2024'!A1"), new CellInfo("A2", "3", null)));
+        data.getSheets().add(other);
 
-        // Verify graph was built correctly
-        SemanticQuery query = new SemanticQuery();
-        query.setQuery("Show all cells");
+        graphService.buildKnowledgeGraph(data);
 
-        QueryResult result = queryProcessor.processQuery(query);
-        assertThat(result.getEntities(), is(not(empty())));
+        assertThat(dependencyEdges(), containsInAnyOrder(
+                "Продажи!B1 -> 売上!A1",
+                "売上!B1 -> Продажи!A1",
+                "Q1 2024!A1 -> Q1 2024!A2",
+                "Q1 2024!A1 -> Q1-2024!A1"));
+        assertThat(engineEdges(), containsInAnyOrder(dependencyEdges().toArray()));
     }
-/*
 
     @Test
-    void testSemanticQuerying() {
-        SemanticQuery query = new SemanticQuery();
-        query.setQuery("Find all revenue cells");
+    public void testRebuildWritesEditsInsertsAndDeletes() {
+        // Sheet1!B2 starts out missing, so C2's reference to it has no edge yet
+        SpreadsheetData original = createTestSpreadsheetData();
+        original.getSheets().get(0).setCells(List.of(
+                new CellInfo("A2", "10", null),
+                new CellInfo("C2", null, "=A2-B2"),
+                new CellInfo("D2", null, "='Sheet 2'!A1*2")));
+        graphService.buildKnowledgeGraph(original);
+        long unchanged = nodeOf("Sheet1", "D2");
 
-        QueryResult result = queryProcessor.processQuery(query);
+        SpreadsheetData edited = createTestSpreadsheetData();
+        edited.getSheets().get(0).setCells(List.of(
+                new CellInfo("A2", "12", null),
+                new CellInfo("B2", "4", null),
+                new CellInfo("C2", null, "=A2-B2"),
+                new CellInfo("D2", null, "='Sheet 2'!A1*2")));
+        edited.getSheets().get(1).setCells(List.of(
+                new CellInfo("A1", "5", null),
+                new CellInfo("B1", null, "=A1+Sheet1!A2")));
+        graphService.buildKnowledgeGraph(edited);
 
-        assertThat(result.getEntities()).isNotNull();
-        assertThat(result.getExplanation()).isNotBlank();
+        assertThat(count("MATCH (c:Cell {spreadsheetId: $spreadsheetId}) RETURN count(c) AS count"), is(6L));
+        assertThat(valueOf("Sheet1", "A2"), is("12"));
+        assertThat(count("MATCH (c:Cell {spreadsheetId: $spreadsheetId, sheet: 'Sheet 2', id: 'A2'}) " +
+                "RETURN count(c) AS count"), is(0L));
+        // The inserted B2 picks up the edge of the formula that already read it
+        assertThat(dependencyEdges(), containsInAnyOrder(
+                "Sheet1!C2 -> Sheet1!A2",
+                "Sheet1!C2 -> Sheet1!B2",
+                "Sheet1!D2 -> Sheet 2!A1",
+                "Sheet 2!B1 -> Sheet 2!A1",
+                "Sheet 2!B1 -> Sheet1!A2"));
+        assertThat(engineEdges(), containsInAnyOrder(dependencyEdges().toArray()));
+        // Unchanged cells are left in place rather than recreated
+        assertThat(nodeOf("Sheet1", "D2"), is(unchanged));
+        assertThat(fingerprintStore.get(SPREADSHEET_ID).keySet(), containsInAnyOrder(
+                "Sheet1!A2", "Sheet1!B2", "Sheet1!C2", "Sheet1!D2", "Sheet 2!A1", "Sheet 2!B1"));
     }
 
     @Test
-    void testImpactAnalysis() {
-        SemanticQuery query = new SemanticQuery();
-        query.setQuery("If A1 changes, what is affected?");
+    public void testBuildAfterAFailedBuildReloadsTheFingerprints() {
+        graphService.buildKnowledgeGraph(createTestSpreadsheetData());
+        // As if an earlier build had committed Sheet1!E2 and then failed; the cached fingerprints miss it
+        graphClient.write("CREATE (:Cell {spreadsheetId: $spreadsheetId, sheet: 'Sheet1', id: 'E2'})",
+                parameters("spreadsheetId", SPREADSHEET_ID));
+
+        assertThrows(RuntimeException.class, () -> graphService.buildKnowledgeGraph(withSheet1E2()));
+        graphService.buildKnowledgeGraph(withSheet1E2());
+
+        assertThat(valueOf("Sheet1", "E2"), is("9"));
+        assertThat(count("MATCH (c:Cell {spreadsheetId: $spreadsheetId}) RETURN count(c) AS count"), is(8L));
+    }
+
+    @Test
+    public void testChangeToAnEmptyCellCreatesIt() {
+        graphService.buildKnowledgeGraph(createTestSpreadsheetData());
+
+        // As the poller reports a newly filled cell: no old value
+        graphService.buildKnowledgeGraphFromChange(new SpreadsheetChangeEvent(this, SPREADSHEET_ID, "E2",
+                null, "12", "=C2*2", "Sheet1"), new ChangeImpact());
 
-        QueryResult result = queryProcessor.processQuery(query);
+        assertThat(valueOf("Sheet1", "E2"), is("12"));
+        assertThat(dependencyEdges(), hasItem("Sheet1!E2 -> Sheet1!C2"));
+        assertThat(engineEdges(), containsInAnyOrder(dependencyEdges().toArray()));
 
-        assertThat(result.getEntities()).isNotNull();
+        // The next build knows the cell is there instead of creating it a second time
+        SpreadsheetData filled = createTestSpreadsheetData();
+        List<CellInfo> cells = new ArrayList<>(filled.getSheets().get(0).getCells());
+        cells.add(new CellInfo("E2", "12", "=C2*2"));
+        filled.getSheets().get(0).setCells(cells);
+        graphService.buildKnowledgeGraph(filled);
+        assertThat(count("MATCH (c:Cell {spreadsheetId: $spreadsheetId}) RETURN count(c) AS count"), is(8L));
+    }
+
+    @Test
+    public void testFormulaEditPatchesThePublishedEngine() {
+        graphService.buildKnowledgeGraph(createTestSpreadsheetData());
+        WorkbookGraph published = dependencyGraphService.get(SPREADSHEET_ID).orElseThrow();
+
+        graphService.buildKnowledgeGraphFromChange(new SpreadsheetChangeEvent(this, SPREADSHEET_ID, "C2",
+                null, "8", "=B2*2", "Sheet1"), new ChangeImpact());
+
+        assertThat(dependencyGraphService.get(SPREADSHEET_ID).orElseThrow(), sameInstance(published));
+        assertThat(engineEdges(), containsInAnyOrder(dependencyEdges().toArray()));
+        assertThat(dependencyGraphService.findDependents(SPREADSHEET_ID, "Sheet1", "A2").orElseThrow(),
+                is(List.of("'Sheet 2'!B1")));
+    }
+
+    @Test
+    public void testDependencyAnalysisReadsDependentsFromTheEngine() {
+        graphService.buildKnowledgeGraph(createTestSpreadsheetData());
+
+        ParsedQuery query = new ParsedQuery();
+        query.setIntent(QueryIntent.ANALYZE_DEPENDENCIES);
+        query.setParameters(new HashMap<>(Map.of("spreadsheetId", SPREADSHEET_ID, "sheet", "Sheet1", "cellId", "A2")));
+        List<GraphRecord> rows = graphClient.read(queryProcessor.buildDependencyAnalysisQuery(query), query.getParameters());
+
+        assertThat(rows.size(), is(1));
+        assertThat(rows.get(0).getString("source"), is("A2"));
+        List<String> dependents = rows.get(0).getList("dependents");
+        assertThat(dependents, containsInAnyOrder("C2", "'Sheet 2'!B1"));
+    }
+
+    @Test
+    public void testRangesAreStoredOnTheSheetsTheyName() {
+        SpreadsheetData data = createTestSpreadsheetData();
+        List<CellInfo> cells = new ArrayList<>(data.getSheets().get(0).getCells());
+        cells.add(new CellInfo("E2", null, "=SUM(sheet2!A1:A2)+SUM(Missing!A1:A3)"));
+        data.getSheets().get(0).setCells(cells);
+        graphService.buildKnowledgeGraph(data);
+
+        assertThat(dependencyEdges(), hasItem("Sheet1!E2 -> Sheet 2!A1:A2"));
+        assertThat(count("MATCH (r:Range {spreadsheetId: $spreadsheetId}) RETURN count(r) AS count"), is(1L));
+    }
+
+    @Test
+    public void testBulkLoadKeepsCellTextAsWritten() {
+        boolean enabled = ingestionProperties.getBulk().isEnabled();
+        long threshold = ingestionProperties.getBulk().getThresholdCells();
+        try {
+            ingestionProperties.getBulk().setEnabled(true);
+            ingestionProperties.getBulk().setThresholdCells(0);
+            SpreadsheetData data = new SpreadsheetData();
+            data.setId(SPREADSHEET_ID);
+            data.setSheets(new ArrayList<>());
+            SheetData sheet = new SheetData("Sheet1");
+            // Quotes, a backslash before the closing quote, a backslash before a quote, line breaks,
+            // the empty string and separators
+            List<String> texts = List.of("say \"hi\"", "ends with \\", "back\\\"slash", "two\nlines", "", "\\\\", "a,b");
+            List<CellInfo> cells = new ArrayList<>();
+            for (int i = 0; i < texts.size(); i++) {
+                cells.add(new CellInfo("A" + (i + 1), texts.get(i), null));
+            }
+            sheet.setCells(cells);
+            data.getSheets().add(sheet);
+            graphService.buildKnowledgeGraph(data);
+
+            for (int i = 0; i < texts.size(); i++) {
+                assertThat(valueOf("Sheet1", "A" + (i + 1)), is(texts.get(i)));
+            }
+        } finally {
+            ingestionProperties.getBulk().setEnabled(enabled);
+            ingestionProperties.getBulk().setThresholdCells(threshold);
+        }
+    }
+
+    @Test
+    public void testParallelAndBatchedBuildsWriteTheSameEdges() {
+        IngestionMode mode = ingestionProperties.getMode();
+        int partitionCells = ingestionProperties.getParallel().getPartitionCells();
+        try {
+            ingestionProperties.setMode(IngestionMode.BATCHED);
+            graphService.buildKnowledgeGraph(createPartitionedSpreadsheetData());
+            List<String> batched = dependencyEdges();
+
+            clear();
+            // One partition per row, so most edges cross partitions and the rest stay inside one
+            ingestionProperties.setMode(IngestionMode.PARALLEL);
+            ingestionProperties.getParallel().setPartitionCells(2);
+            graphService.buildKnowledgeGraph(createPartitionedSpreadsheetData());
+
+            assertThat(batched.size(), is(13));
+            assertThat(dependencyEdges(), containsInAnyOrder(batched.toArray()));
+        } finally {
+            ingestionProperties.setMode(mode);
+            ingestionProperties.getParallel().setPartitionCells(partitionCells);
+        }
+    }
+
+    private long count(String cypher) {
+        return graphClient.read(cypher, parameters("spreadsheetId", SPREADSHEET_ID)).get(0).getLong("count", -1);
+    }
+
+    private String valueOf(String sheet, String id) {
+        return graphClient.read("MATCH (c:Cell {spreadsheetId: $spreadsheetId, sheet: $sheet, id: $id}) RETURN c.value AS value",
+                parameters("spreadsheetId", SPREADSHEET_ID, "sheet", sheet, "id", id)).get(0).getString("value");
+    }
+
+    private long nodeOf(String sheet, String id) {
+        return graphClient.read("MATCH (c:Cell {spreadsheetId: $spreadsheetId, sheet: $sheet, id: $id}) RETURN id(c) AS node",
+                parameters("spreadsheetId", SPREADSHEET_ID, "sheet", sheet, "id", id)).get(0).getLong("node", -1);
+    }
+
+    private List<String> dependencyEdges() {
+        // Sources are cells or ranges, both named by sheet and id
+        return graphClient.read("MATCH (target:Cell {spreadsheetId: $spreadsheetId})-[:DEPENDS_ON]->(source)\n" +
+                                "RETURN target.sheet + '!' + target.id + ' -> ' + source.sheet + '!' + source.id AS edge",
+                        parameters("spreadsheetId", SPREADSHEET_ID))
+                .stream().map(record -> record.getString("edge")).collect(Collectors.toList());
+    }
+
+    private List<String> engineEdges() {
+        WorkbookGraph graph = dependencyGraphService.get(SPREADSHEET_ID).orElseThrow();
+        List<String> edges = new ArrayList<>();
+        for (int cell = 0; cell < graph.getCells().size(); cell++) {
+            for (int precedent : graph.precedentsOf(cell)) {
+                edges.add(graph.keyOf(cell) + " -> " + graph.keyOf(precedent));
+            }
+        }
+        return edges;
     }
-*/
 
     private SpreadsheetData createTestSpreadsheetData() {
         SpreadsheetData data = new SpreadsheetData();
+        data.setId(SPREADSHEET_ID);
         data.setSheets(new ArrayList<>());
 
-        SheetData sheet = new SheetData();
-        sheet.setName("Test Sheet");
-        sheet.setCells(new ArrayList<>());
+        SheetData first = new SheetData("Sheet1");
+        first.setCells(List.of(
+                new CellInfo("A2", "10", null),
+                new CellInfo("B2", "4", null),
+                new CellInfo("C2", null, "=A2-B2"),
+                new CellInfo("D2", null, "='Sheet 2'!A1*2")));
+        data.getSheets().add(first);
 
-        // Add test cells with formulas
-        CellInfo a1 = new CellInfo("A1", "100", null);
-        CellInfo a2 = new CellInfo("A2", "200", null);
-        CellInfo a3 = new CellInfo("A3", null, "=A1+A2");
+        // Has an A2 of its own, which Sheet1's bare A2 must not reach
+        SheetData second = new SheetData("Sheet 2");
+        second.setCells(List.of(
+                new CellInfo("A1", "5", null),
+                new CellInfo("A2", "7", null),
+                new CellInfo("B1", null, "=A1+Sheet1!A2")));
+        data.getSheets().add(second);
+        return data;
+    }
+
+    private SpreadsheetData withSheet1E2() {
+        SpreadsheetData data = createTestSpreadsheetData();
+        List<CellInfo> cells = new ArrayList<>(data.getSheets().get(0).getCells());
+        cells.add(new CellInfo("E2", "9", null));
+        data.getSheets().get(0).setCells(cells);
+        return data;
+    }
+
+    private SpreadsheetData createPartitionedSpreadsheetData() {
+        SpreadsheetData data = new SpreadsheetData();
+        data.setId(SPREADSHEET_ID);
+        data.setSheets(new ArrayList<>());
 
-        sheet.getCells().add(a1);
-        sheet.getCells().add(a2);
-        sheet.getCells().add(a3);
+        SheetData values = new SheetData("Data");
+        values.setCells(List.of(
+                new CellInfo("A1", "1", null), new CellInfo("B1", null, "=A1*2"),
+                new CellInfo("A2", "2", null), new CellInfo("B2", null, "=B1+A2"),
+                new CellInfo("A3", "3", null), new CellInfo("B3", null, "=B2+A3"),
+                new CellInfo("A4", "4", null), new CellInfo("B4", null, "=SUM(B1:B3)+A4")));
+        data.getSheets().add(values);
 
-        data.getSheets().add(sheet);
+        SheetData report = new SheetData("Report");
+        report.setCells(List.of(
+                new CellInfo("A1", null, "=Data!B4"), new CellInfo("B1", null, "=A1+Data!A1"),
+                new CellInfo("A2", null, "=B1"), new CellInfo("B2", null, "=A2+B1")));
+        data.getSheets().add(report);
         return data;
     }
 }
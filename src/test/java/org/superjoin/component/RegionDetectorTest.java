@@ -0,0 +1,75 @@
+package org.superjoin.component;
+
+import org.junit.jupiter.api.Test;
+import org.superjoin.dto.CellTable;
+import org.superjoin.dto.TableRegion;
+
+import java.util.List;
+import java.util.Locale;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class RegionDetectorTest {
+
+    private final RegionDetector detector = new RegionDetector(new ValueScanner(Locale.US));
+
+    @Test
+    public void testBlocksSeparatedByBlanksAreSeparateTables() {
+        CellTable cells = new CellTable();
+        cells.addText(1, 1, "Region", null);
+        cells.addText(2, 1, "Revenue", null);
+        cells.addText(4, 1, "Note", null);
+        cells.addText(1, 2, "North", null);
+        cells.addNumber(2, 2, 1200, null, null);
+        cells.addText(1, 3, "South", null);
+        cells.addNumber(2, 3, 800, null, null);
+        cells.addText(1, 4, "Total", null);
+        cells.addText(2, 4, "2000", "=SUM(B2:B3)");
+        cells.addText(1, 5, "", null);
+        cells.addNumber(1, 7, 1, null, null);
+        cells.addNumber(2, 7, 2, null, null);
+        cells.addNumber(1, 8, 3, null, null);
+
+        RegionDetector.Regions regions = detector.detect(cells);
+        List<TableRegion> tables = regions.getTables();
+        assertThat(tables.size(), is(3));
+
+        TableRegion sales = tables.get(0);
+        assertThat(sales.getId(), is("A1"));
+        assertThat(sales.getLastColumn(), is(2));
+        assertThat(sales.getLastRow(), is(4));
+        assertThat(sales.getHeaderRow(), is(1));
+        assertThat(sales.getTotalRow(), is(4));
+        assertThat(sales.getCellCount(), is(8));
+
+        assertThat(tables.get(1).getId(), is("D1"));
+        assertThat(tables.get(1).getHeaderRow(), is(0));
+        assertThat(tables.get(2).getId(), is("A7"));
+        assertThat(tables.get(2).getHeaderRow(), is(0));
+        assertThat(tables.get(2).getTotalRow(), is(0));
+
+        assertThat(regions.tableOf(0), is(0));
+        assertThat(regions.tableOf(2), is(1));
+        assertThat(regions.tableOf(9), is(-1));
+        assertThat(regions.tableOf(12), is(2));
+    }
+
+    @Test
+    public void testOverlappingBlocksAreMerged() {
+        // An L-shaped block and a cell inside its bounding box that touches none of its cells
+        CellTable cells = new CellTable();
+        cells.addText(3, 3, "b", null);
+        cells.addText(1, 1, "a", null);
+        cells.addText(1, 2, "a", null);
+        cells.addText(1, 3, "a", null);
+        cells.addText(2, 1, "a", null);
+        cells.addText(3, 1, "a", null);
+
+        RegionDetector.Regions regions = detector.detect(cells);
+        assertThat(regions.getTables().size(), is(1));
+        assertThat(regions.getTables().get(0).getLastColumn(), is(3));
+        assertThat(regions.getTables().get(0).getLastRow(), is(3));
+        assertThat(regions.tableOf(0), is(0));
+    }
+}
@@ -0,0 +1,80 @@
+package org.superjoin.component;
+
+import org.junit.jupiter.api.Test;
+import org.superjoin.constants.DataType;
+import org.superjoin.constants.SemanticLabel;
+import org.superjoin.dto.CellTable;
+import org.superjoin.dto.ColumnProfile;
+
+import java.util.Locale;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class SemanticAnalyzerTest {
+
+    private final ValueScanner scanner = new ValueScanner(Locale.US);
+    private final SemanticAnalyzer analyzer = new SemanticAnalyzer(scanner);
+    private final RegionDetector detector = new RegionDetector(scanner);
+
+    @Test
+    public void testColumnsAreProfiledOnce() {
+        CellTable cells = new CellTable();
+        cells.addText(1, 1, "Invoice", null);
+        cells.addText(2, 1, "Region", null);
+        cells.addText(3, 1, "Amount", null);
+        cells.addText(4, 1, "Customer Id", null);
+        String[] regions = {"North", "South", "North", "East"};
+        for (int row = 2; row <= 5; row++) {
+            cells.addText(1, row, "INV-00" + row, null);
+            cells.addText(2, row, regions[row - 2], null);
+            cells.addNumber(3, row, row * 100, null, null);
+            cells.addText(4, row, "C" + row, null);
+        }
+        cells.addText(3, 6, "n/a", null);
+
+        SemanticAnalyzer.SheetProfile profile = analyzer.profile(cells, detector.detect(cells));
+        assertThat(profile.getColumns().size(), is(4));
+
+        ColumnProfile invoice = profile.columnOf(0);
+        assertThat(invoice.getTable(), is("A1"));
+        assertThat(invoice.getHeader(), is("Invoice"));
+        assertThat(invoice.getHeaderRow(), is(1));
+        assertThat(invoice.getIdRatio(), is(1.0));
+        assertThat(invoice.getSemanticLabel(), is(SemanticLabel.ID));
+
+        ColumnProfile region = profile.columnOf(1);
+        assertThat(region.getCount(), is(4));
+        assertThat(region.getDistinctCount(), is(3));
+        assertThat(region.getSemanticLabel(), is(SemanticLabel.LABEL));
+
+        ColumnProfile amount = profile.columnOf(2);
+        assertThat(amount.getDataType(), is(DataType.NUMBER));
+        assertThat(amount.getCount(), is(5));
+        assertThat(amount.getMin(), is(200.0));
+        assertThat(amount.getMax(), is(500.0));
+        assertThat(amount.getSemanticLabel(), nullValue());
+
+        // Unique values under an identifier header
+        assertThat(profile.columnOf(3).getSemanticLabel(), is(SemanticLabel.ID));
+    }
+
+    @Test
+    public void testCellsTakeTheirColumnsLabel() {
+        CellTable cells = new CellTable();
+        cells.addText(2, 3, "Region", null);
+        cells.addText(2, 4, "North", null);
+        cells.addText(2, 5, "North", null);
+        cells.addText(2, 6, "Total", null);
+        ColumnProfile region = analyzer.profile(cells, detector.detect(cells)).columnOf(0);
+
+        assertThat(region.getCount(), is(2));
+        assertThat(analyzer.labelOf(region, "Region", 3), is(SemanticLabel.HEADER));
+        assertThat(analyzer.labelOf(region, "North", 4), is(SemanticLabel.LABEL));
+        assertThat(analyzer.labelOf(region, "  ", 5), nullValue());
+        assertThat(analyzer.labelOf(region, "Total", 6), is(SemanticLabel.TOTAL));
+        assertThat(analyzer.labelOf(null, "Total", 1), is(SemanticLabel.HEADER));
+        assertThat(analyzer.labelOf(null, "North", 2), nullValue());
+    }
+}
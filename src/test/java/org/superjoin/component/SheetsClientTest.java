@@ -0,0 +1,158 @@
+package org.superjoin.component;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.model.Spreadsheet;
+import org.junit.jupiter.api.Test;
+import org.superjoin.Joiners;
+import org.superjoin.config.SheetsProperties;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SheetsClientTest {
+
+    private static final String OK = "{\"spreadsheetId\":\"book\"}";
+
+    private final SheetsProperties.Quota quota = new SheetsProperties.Quota();
+    private final AtomicInteger requests = new AtomicInteger();
+    // Sleeps are recorded and advance the clock instead of blocking
+    private final AtomicLong nanos = new AtomicLong();
+    private final List<Long> sleeps = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void testThrottledAndFailedRequestsAreRetriedWithBackoff() throws IOException {
+        SheetsClient client = client();
+        Sheets sheets = sheets(attempt -> attempt == 1 ? error(429, "1") : attempt == 2 ? error(503, null) : ok());
+
+        Spreadsheet spreadsheet = client.execute(sheets.spreadsheets().get("book").setFields("spreadsheetId"));
+        assertThat(spreadsheet.getSpreadsheetId(), is("book"));
+        assertThat(requests.get(), is(3));
+        assertThat(sleeps.size(), is(2));
+        // Retry-After: 1 outweighs the first jittered backoff of at most 500 ms
+        assertThat(sleeps.get(0), is(1000L));
+        assertThat(sleeps.get(1), lessThanOrEqualTo(1000L));
+    }
+
+    @Test
+    public void testClientErrorsAndExhaustedAttemptsFail() {
+        quota.setMaxAttempts(3);
+        Sheets badRequest = sheets(attempt -> error(400, null));
+        GoogleJsonResponseException rejected = assertThrows(GoogleJsonResponseException.class,
+                () -> client().execute(badRequest.spreadsheets().get("book")));
+        assertThat(rejected.getStatusCode(), is(400));
+        assertThat(requests.get(), is(1));
+
+        requests.set(0);
+        Sheets unavailable = sheets(attempt -> error(503, null));
+        GoogleJsonResponseException failed = assertThrows(GoogleJsonResponseException.class,
+                () -> client().execute(unavailable.spreadsheets().get("book")));
+        assertThat(failed.getStatusCode(), is(503));
+        assertThat(requests.get(), is(3));
+    }
+
+    @Test
+    public void testTokenBucketPacesRequests() throws IOException {
+        quota.setRequestsPerSecond(2);
+        quota.setBurst(1);
+        SheetsClient client = client();
+        Sheets sheets = sheets(attempt -> ok());
+
+        for (int i = 0; i < 3; i++) {
+            client.execute(sheets.spreadsheets().get("book" + i));
+        }
+        // The burst of one passes at once; each further request waits half a second for a token
+        assertThat(sleeps, contains(500L, 500L));
+    }
+
+    @Test
+    public void testIdenticalRequestsInFlightAreSentOnce() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        SheetsClient client = client();
+        Sheets sheets = sheets(attempt -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return ok();
+        });
+
+        FutureTask<Spreadsheet> first = new FutureTask<>(
+                () -> client.execute(sheets.spreadsheets().get("book").setFields("spreadsheetId")));
+        FutureTask<Spreadsheet> second = new FutureTask<>(
+                () -> client.execute(sheets.spreadsheets().get("book").setFields("spreadsheetId")));
+        Thread firstCaller = new Thread(first);
+        Thread secondCaller = new Thread(second);
+        firstCaller.start();
+        secondCaller.start();
+        try {
+            Joiners.awaitJoined(SheetsClient.class, firstCaller, secondCaller);
+        } finally {
+            release.countDown();
+        }
+        assertThat(first.get().getSpreadsheetId(), is("book"));
+        assertThat(second.get().getSpreadsheetId(), is("book"));
+        assertThat(requests.get(), is(1));
+
+        // A different field mask is a different request
+        client.execute(sheets.spreadsheets().get("book").setFields("properties"));
+        assertThat(requests.get(), is(2));
+    }
+
+    private SheetsClient client() {
+        return new SheetsClient(quota, nanos::get, millis -> {
+            sleeps.add(millis);
+            nanos.addAndGet(millis * 1_000_000);
+        });
+    }
+
+    private Sheets sheets(IntFunction<MockLowLevelHttpResponse> responses) {
+        MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() {
+                        return responses.apply(requests.incrementAndGet());
+                    }
+                };
+            }
+        };
+        return new Sheets.Builder(transport, GsonFactory.getDefaultInstance(), null).setApplicationName("test").build();
+    }
+
+    private static MockLowLevelHttpResponse ok() {
+        return new MockLowLevelHttpResponse().setContentType("application/json").setContent(OK);
+    }
+
+    private static MockLowLevelHttpResponse error(int status, String retryAfter) {
+        MockLowLevelHttpResponse response = new MockLowLevelHttpResponse()
+                .setStatusCode(status)
+                .setContentType("application/json")
+                .setContent("{\"error\":{\"code\":" + status + ",\"message\":\"error " + status + "\"}}");
+        if (retryAfter != null) {
+            response.addHeader("Retry-After", retryAfter);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,64 @@
+package org.superjoin.component;
+
+import org.junit.jupiter.api.Test;
+import org.superjoin.constants.DataType;
+
+import java.time.LocalDate;
+import java.util.Locale;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ValueScannerTest {
+
+    private final ValueScanner us = new ValueScanner(Locale.US);
+    private final ValueScanner germany = new ValueScanner(Locale.GERMANY);
+    private final ValueScanner.Scan scan = new ValueScanner.Scan();
+
+    @Test
+    public void testNumbersInTheLocalesNotation() {
+        assertThat(number(us, "1,234.5"), is(1234.5));
+        assertThat(number(us, " -0.001 "), is(-0.001));
+        assertThat(number(us, "$1,000.00"), is(1000.0));
+        assertThat(number(us, "(250)"), is(-250.0));
+        assertThat(number(us, "12.5%"), is(0.125));
+        assertThat(number(us, "6.02e23"), is(6.02e23));
+        assertThat(number(us, "0.1"), is(Double.parseDouble("0.1")));
+        assertThat(number(us, "12345678901234567890"), is(12345678901234567890.0));
+        assertThat(number(germany, "1.234,5"), is(1234.5));
+        assertThat(number(germany, "12,50 €"), is(12.5));
+
+        assertThat(us.scan("12,34", scan), is(DataType.TEXT));
+        assertThat(us.scan("1,2345", scan), is(DataType.TEXT));
+        assertThat(us.scan("NaN", scan), is(DataType.TEXT));
+        assertThat(us.scan("12 apples", scan), is(DataType.TEXT));
+        assertThat(us.scan("   ", scan), nullValue());
+    }
+
+    @Test
+    public void testBooleansAndDates() {
+        assertThat(us.scan("true", scan), is(DataType.BOOLEAN));
+        assertThat(scan.getBoolean(), is(true));
+        assertThat(us.scan("FALSE", scan), is(DataType.BOOLEAN));
+        assertThat(scan.getBoolean(), is(false));
+
+        assertThat(date(us, "2024-02-29"), is(LocalDate.of(2024, 2, 29)));
+        assertThat(date(us, "03/04/2024"), is(LocalDate.of(2024, 3, 4)));
+        assertThat(date(germany, "03.04.24"), is(LocalDate.of(2024, 4, 3)));
+        assertThat(date(us, "1899-12-31"), is(LocalDate.of(1899, 12, 31)));
+        assertThat(us.scan("2023-02-29", scan), is(DataType.TEXT));
+        assertThat(us.scan("13/01/2024", scan), is(DataType.TEXT));
+        assertThat(germany.scan("1.2.3.4", scan), is(DataType.TEXT));
+    }
+
+    private double number(ValueScanner scanner, String text) {
+        assertThat(text, scanner.scan(text, scan), is(DataType.NUMBER));
+        return scan.getNumber();
+    }
+
+    private LocalDate date(ValueScanner scanner, String text) {
+        assertThat(text, scanner.scan(text, scan), is(DataType.DATE));
+        return LocalDate.ofEpochDay(scan.getEpochDay());
+    }
+}
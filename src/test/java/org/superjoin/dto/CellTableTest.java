@@ -0,0 +1,79 @@
+package org.superjoin.dto;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class CellTableTest {
+
+    @Test
+    public void testValuesKeepTheirSourceText() {
+        CellTable table = new CellTable();
+        table.addNumber(1, 1, 100, null, null);
+        table.addNumber(1, 2, 1000, "$1,000.00", null);
+        table.addNumber(1, 3, 2.5, "2.5", null);
+        table.addText(2, 1, "Revenue", null);
+        table.addText(2, 2, null, null);
+        table.addText(2, 3, "93", "=SUM(A1:A2)");
+
+        assertThat(table.value(0), is("100.0"));
+        assertThat(table.value(1), is("$1,000.00"));
+        assertThat(table.number(1), is(1000.0));
+        assertThat(table.value(2), is("2.5"));
+        assertThat(table.type(4), is(CellTable.BLANK));
+        assertThat(table.value(4), nullValue());
+        assertThat(table.formula(5), is("=SUM(A1:A2)"));
+        assertThat(table.hasFormula(4), is(false));
+        assertThat(table.address(5), is("B3"));
+    }
+
+    @Test
+    public void testRepeatedTextAndFormulasAreStoredOnce() {
+        CellTable table = new CellTable();
+        for (int row = 1; row <= 1000; row++) {
+            table.addText(1, row, "North", null);
+            table.addText(2, row, "42", "=Data!$A$1");
+        }
+
+        assertThat(table.size(), is(2000));
+        assertThat(table.getDistinctStrings(), is(3));
+    }
+
+    @Test
+    public void testDtoViewAndSlicesShareTheTable() {
+        SheetData sheet = new SheetData("Data");
+        sheet.getCells().add(new CellInfo("A1", "100", null));
+        sheet.getCells().add(new CellInfo("A2", null, "=A1*2"));
+        sheet.getCells().add(new CellInfo("Total", "x", null));
+
+        List<CellInfo> cells = sheet.getCells();
+        assertThat(cells.size(), is(3));
+        assertThat(cells.get(1).getAddress(), is("A2"));
+        assertThat(cells.get(1).getFormula(), is("=A1*2"));
+        assertThat(cells.get(2).getAddress(), is("Total"));
+
+        CellTable slice = sheet.getTable().slice(1, 3);
+        assertThat(slice.size(), is(2));
+        assertThat(slice.row(0), is(2));
+        assertThat(slice.address(1), is("Total"));
+        assertThat(slice.asList().get(0).getValue(), nullValue());
+    }
+
+    @Test
+    public void testContentHashSeesEveryCharacter() {
+        // "Aa" and "BB" share a String.hashCode()
+        CellTable before = new CellTable();
+        before.addText(1, 1, "Aa", null);
+        CellTable after = new CellTable();
+        after.addText(1, 1, "BB", null);
+        CellTable same = new CellTable();
+        same.addText(1, 1, "Aa", null);
+
+        assertThat(before.contentHash() == after.contentHash(), is(false));
+        assertThat(same.contentHash(), is(before.contentHash()));
+    }
+}
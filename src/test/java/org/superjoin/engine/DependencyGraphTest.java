@@ -0,0 +1,70 @@
+package org.superjoin.engine;
+
+import org.junit.jupiter.api.Test;
+import org.superjoin.formula.CellRef;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.is;
+
+public class DependencyGraphTest {
+
+    @Test
+    public void testImpactAndPrecedentClosure() {
+        WorkbookGraphBuilder builder = new WorkbookGraphBuilder("book");
+        builder.addSheet("Sales");
+        builder.addSheet("Summary Sheet");
+        builder.addCell("Sales", "A1");
+        builder.addDependency("Sales", "A2", "Sales", 1, 1);
+        builder.addDependency("Sales", "A3", "Sales", 1, 2);
+        builder.addDependency("Sales", "A3", "Sales", 1, 1);
+        builder.addDependency("Summary Sheet", "B1", new CellRef("SALES", 1, 3, false, false));
+        WorkbookGraph graph = builder.build();
+
+        int a1 = graph.resolve("Sales", "A1")[0];
+        assertThat(keys(graph, graph.getDependencies().impactOf(a1)),
+                arrayContainingInAnyOrder("Sales!A2", "Sales!A3", "Summary Sheet!B1"));
+        assertThat(keys(graph, graph.getDependencies().impactOf(a1, 1)),
+                arrayContainingInAnyOrder("Sales!A2", "Sales!A3"));
+
+        int b1 = graph.resolve("Summary Sheet", "B1")[0];
+        assertThat(keys(graph, graph.getDependencies().precedentClosureOf(b1)),
+                arrayContainingInAnyOrder("Sales!A1", "Sales!A2", "Sales!A3"));
+        assertThat(keys(graph, graph.getDependencies().impactOf(b1)), is(emptyArray()));
+    }
+
+    @Test
+    public void testCyclesTerminate() {
+        DependencyGraph graph = DependencyGraph.builder(3)
+                .addEdge(0, 1)
+                .addEdge(1, 2)
+                .addEdge(2, 0)
+                .build();
+
+        assertThat(graph.getEdgeCount(), is(3));
+        assertThat(graph.impactOf(0).length, is(2));
+        assertThat(graph.precedentClosureOf(0).length, is(2));
+    }
+
+    @Test
+    public void testUnqualifiedAddressResolvesOnEverySheet() {
+        WorkbookGraphBuilder builder = new WorkbookGraphBuilder("book");
+        builder.addSheet("One");
+        builder.addSheet("Two");
+        builder.addCell("One", "A1");
+        builder.addCell("Two", "A1");
+        WorkbookGraph graph = builder.build();
+
+        assertThat(graph.resolve(null, "A1").length, is(2));
+        assertThat(graph.resolve("One", "B7").length, is(0));
+    }
+
+    private static String[] keys(WorkbookGraph graph, int[] cells) {
+        String[] keys = new String[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            keys[i] = graph.keyOf(cells[i]);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,74 @@
+package org.superjoin.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.is;
+
+public class RangeIndexTest {
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(7);
+        List<int[]> ranges = new ArrayList<>();
+        RangeIndex.Builder builder = RangeIndex.builder();
+        for (int i = 0; i < 500; i++) {
+            int firstColumn = 1 + random.nextInt(30);
+            int firstRow = 1 + random.nextInt(1000);
+            int[] range = {firstColumn, firstRow, firstColumn + random.nextInt(5), firstRow + random.nextInt(200)};
+            ranges.add(range);
+            builder.add(range[0], range[1], range[2], range[3], i);
+        }
+        RangeIndex index = builder.build();
+
+        for (int probe = 0; probe < 2000; probe++) {
+            int column = random.nextInt(40);
+            int row = random.nextInt(1300);
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < ranges.size(); i++) {
+                int[] range = ranges.get(i);
+                if (column >= range[0] && column <= range[2] && row >= range[1] && row <= range[3]) {
+                    expected.add(i);
+                }
+            }
+            int[] actual = index.containing(column, row);
+            Arrays.sort(actual);
+            assertThat(Arrays.toString(actual), is(expected.toString()));
+        }
+    }
+
+    @Test
+    public void testEditInsideSummedColumnReachesFormulaWithoutExpansion() {
+        WorkbookGraphBuilder builder = new WorkbookGraphBuilder("book");
+        builder.addSheet("Data");
+        builder.addSheet("Report");
+        builder.addCell("Data", "A7");
+        builder.addRange("Report", "B1", "DATA", 1, 1, 1, 50000);
+        builder.addDependency("Report", "B2", "Report", 2, 1);
+        WorkbookGraph graph = builder.build();
+
+        assertThat(graph.getDependencies().getEdgeCount(), is(1));
+        int a7 = graph.resolve("Data", "A7")[0];
+        assertThat(keys(graph, graph.impactOf(a7)), arrayContainingInAnyOrder("Report!B1", "Report!B2"));
+        assertThat(keys(graph, graph.impactOf("Data", "A40000")), arrayContainingInAnyOrder("Report!B1", "Report!B2"));
+        assertThat(keys(graph, graph.impactOf("Data", "B7")), is(emptyArray()));
+
+        int b2 = graph.resolve("Report", "B2")[0];
+        assertThat(keys(graph, graph.precedentClosureOf(b2)), arrayContainingInAnyOrder("Report!B1", "Data!A7"));
+    }
+
+    private static String[] keys(WorkbookGraph graph, int[] cells) {
+        String[] keys = new String[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            keys[i] = graph.keyOf(cells[i]);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,148 @@
+package org.superjoin.engine;
+
+import org.junit.jupiter.api.Test;
+import org.superjoin.formula.CellRef;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class TopologyTest {
+
+    @Test
+    public void testLevelsFollowTheLongestChainOfPrecedents() {
+        WorkbookGraphBuilder builder = new WorkbookGraphBuilder("book");
+        builder.addSheet("Data");
+        builder.addSheet("Report");
+        builder.addCell("Data", "A1");
+        builder.addDependency("Data", "A2", "Data", 1, 1);
+        builder.addDependency("Data", "A3", "Data", 1, 2);
+        builder.addDependency("Data", "A3", "Data", 1, 1);
+        // Reads A1:A3 through a range only
+        builder.addRange("Report", "B1", "Data", 1, 1, 1, 3);
+        WorkbookGraph graph = builder.build();
+        Topology topology = graph.getTopology();
+
+        assertThat(level(graph, "Data", "A1"), is(0));
+        assertThat(level(graph, "Data", "A2"), is(1));
+        assertThat(level(graph, "Data", "A3"), is(2));
+        assertThat(level(graph, "Report", "B1"), is(3));
+        assertThat(topology.getLevelCount(), is(4));
+        assertThat(topology.isCyclic(graph.resolve("Data", "A3")[0]), is(false));
+
+        int[] sorted = topology.sortByLevel(graph.getDependencies().impactOf(graph.resolve("Data", "A1")[0]));
+        assertThat(Arrays.toString(keys(graph, sorted)), is("[Data!A2, Data!A3]"));
+    }
+
+    @Test
+    public void testCyclesShareOneComponentAndLevel() {
+        WorkbookGraphBuilder builder = new WorkbookGraphBuilder("book");
+        builder.addSheet("Data");
+        builder.addCell("Data", "A1");
+        builder.addDependency("Data", "B1", "Data", 1, 1);
+        builder.addDependency("Data", "B1", "Data", 2, 3);
+        builder.addDependency("Data", "B2", "Data", 2, 1);
+        builder.addDependency("Data", "B3", "Data", 2, 2);
+        builder.addDependency("Data", "C1", "Data", 2, 3);
+        builder.addDependency("Data", "D1", "Data", 4, 1);
+        WorkbookGraph graph = builder.build();
+        Topology topology = graph.getTopology();
+
+        int b1 = graph.resolve("Data", "B1")[0];
+        int b3 = graph.resolve("Data", "B3")[0];
+        int c1 = graph.resolve("Data", "C1")[0];
+        int d1 = graph.resolve("Data", "D1")[0];
+        assertThat(topology.isCyclic(b1), is(true));
+        assertThat(topology.componentSizeOf(b1), is(3));
+        assertThat(topology.componentIdOf(b3), is(topology.componentIdOf(b1)));
+        assertThat(level(graph, "Data", "B2"), is(1));
+        assertThat(topology.levelOf(c1), is(2));
+        assertThat(topology.isCyclic(c1), is(false));
+        assertThat(topology.componentIdOf(c1), not(topology.componentIdOf(b1)));
+        assertThat(topology.isCyclic(d1), is(true));
+        assertThat(topology.componentSizeOf(d1), is(1));
+    }
+
+    @Test
+    public void testComponentIdsDoNotDependOnCellNumbering() {
+        WorkbookGraphBuilder forward = new WorkbookGraphBuilder("book");
+        forward.addSheet("Data");
+        forward.addDependency("Data", "A1", "Data", 1, 2);
+        forward.addDependency("Data", "A2", "Data", 1, 1);
+        WorkbookGraphBuilder backward = new WorkbookGraphBuilder("book");
+        backward.addSheet("Data");
+        backward.addDependency("Data", "A2", "Data", 1, 1);
+        backward.addDependency("Data", "A1", "Data", 1, 2);
+
+        WorkbookGraph first = forward.build();
+        WorkbookGraph second = backward.build();
+        assertThat(first.getTopology().componentIdOf(first.resolve("Data", "A2")[0]),
+                is(second.getTopology().componentIdOf(second.resolve("Data", "A2")[0])));
+    }
+
+    @Test
+    public void testUpdateFormulaMovesLevelsInPlace() {
+        WorkbookGraphBuilder builder = new WorkbookGraphBuilder("book");
+        builder.addSheet("Data");
+        builder.addCell("Data", "A1");
+        builder.addCell("Data", "A2");
+        builder.addDependency("Data", "B1", "Data", 1, 1);
+        builder.addDependency("Data", "C1", "Data", 2, 1);
+        WorkbookGraph graph = builder.build();
+        graph.getTopology();
+
+        // B1 now reads A2 and C1, which reads B1, moves down with it
+        boolean patched = graph.updateFormula("Data", "B1", List.of(new CellRef(null, 1, 2, false, false),
+                new CellRef("DATA", 3, 1, false, false)), List.of());
+        assertThat(patched, is(false));
+        patched = graph.updateFormula("Data", "A1", List.of(new CellRef(null, 1, 2, false, false)), List.of());
+        assertThat(patched, is(true));
+        assertThat(level(graph, "Data", "A1"), is(1));
+        assertThat(level(graph, "Data", "B1"), is(2));
+        assertThat(level(graph, "Data", "C1"), is(3));
+        assertThat(graph.getDependencies().getEdgeCount(), is(3));
+        int a2 = graph.resolve("Data", "A2")[0];
+        assertThat(Arrays.toString(keys(graph, graph.getTopology().sortByLevel(graph.impactOf(a2)))),
+                is("[Data!A1, Data!B1, Data!C1]"));
+
+        patched = graph.updateFormula("Data", "A1", List.of(), List.of());
+        assertThat(patched, is(true));
+        assertThat(level(graph, "Data", "C1"), is(2));
+        assertThat(graph.impactOf(a2).length, is(0));
+    }
+
+    @Test
+    public void testWithFormulaKeepsCellIdsAndOtherEdges() {
+        WorkbookGraphBuilder builder = new WorkbookGraphBuilder("book");
+        builder.addSheet("Data");
+        builder.addSheet("Report");
+        builder.addDependency("Data", "B1", "Data", 1, 1);
+        builder.addRange("Report", "B1", "Data", 1, 1, 2, 1);
+        WorkbookGraph graph = builder.build();
+
+        // Reading C1, which the engine does not know yet, cannot be patched in place
+        List<CellRef> references = List.of(new CellRef(null, 3, 1, false, false));
+        assertThat(graph.updateFormula("Data", "B1", references, List.of()), is(false));
+        WorkbookGraph rebuilt = graph.withFormula("Data", "B1", references, List.of());
+
+        for (int cell = 0; cell < graph.getCells().size(); cell++) {
+            assertThat(rebuilt.keyOf(cell), is(graph.keyOf(cell)));
+        }
+        int c1 = rebuilt.resolve("Data", "C1")[0];
+        assertThat(Arrays.toString(keys(rebuilt, rebuilt.getTopology().sortByLevel(rebuilt.impactOf(c1)))),
+                is("[Data!B1, Report!B1]"));
+        assertThat(rebuilt.impactOf(rebuilt.resolve("Data", "A1")[0]).length, is(1));
+        assertThat(rebuilt.getRangeCount(), is(1));
+    }
+
+    private static int level(WorkbookGraph graph, String sheet, String address) {
+        return graph.getTopology().levelOf(graph.resolve(sheet, address)[0]);
+    }
+
+    private static String[] keys(WorkbookGraph graph, int[] cells) {
+        return Arrays.stream(cells).mapToObj(cell -> graph.keyOf(cell)).toArray(String[]::new);
+    }
+}
@@ -0,0 +1,71 @@
+package org.superjoin.formula;
+
+import org.junit.jupiter.api.Test;
+import org.superjoin.component.FormulaAnalyzer;
+import org.superjoin.dto.CellInfo;
+import org.superjoin.engine.WorkbookGraph;
+import org.superjoin.engine.WorkbookGraphBuilder;
+
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+public class CellKeyTest {
+
+    @Test
+    public void testKeysRoundTripAndOrderBySheetColumnRow() {
+        long key = CellKey.parse(3, "$AB$1048576");
+        assertThat(CellKey.sheet(key), is(3));
+        assertThat(CellKey.column(key), is(28));
+        assertThat(CellKey.row(key), is(1_048_576));
+        assertThat(CellKey.address(key), is("AB1048576"));
+        assertThat(CellKey.parse(0, "zz9"), is(CellKey.of(0, 702, 9)));
+        assertThat(CellKey.of(1, 1, 1), greaterThan(CellKey.of(0, CellRef.MAX_COLUMN, CellRef.MAX_ROW)));
+        assertThat(CellKey.of(0, 2, 1), greaterThan(CellKey.of(0, 1, CellRef.MAX_ROW)));
+
+        assertThat(CellKey.parse(0, "Total"), is(CellKey.NONE));
+        assertThat(CellKey.parse(0, "ABCD1"), is(CellKey.NONE));
+        assertThat(CellKey.parse(0, "A0"), is(CellKey.NONE));
+        assertThat(CellKey.parse(0, "A1:B2"), is(CellKey.NONE));
+    }
+
+    @Test
+    public void testCellsReadByPositionBuildTheirAddressOnDemand() {
+        CellInfo read = new CellInfo(27, 4);
+        assertThat(read.getAddress(), is("AA4"));
+
+        CellInfo written = new CellInfo("C12", "1", null);
+        assertThat(written.getColumn(), is(3));
+        assertThat(written.getRow(), is(12));
+        written.setAddress("Total");
+        assertThat(written.getColumn(), is(0));
+    }
+
+    @Test
+    public void testParsedReferencesResolveLikeTheirText() {
+        FormulaAnalyzer analyzer = new FormulaAnalyzer();
+        SharedFormula shared = analyzer.analyzeShared("=A2+$A2+'summary sheet'!B2+A2:A2", 3, 2);
+        assertThat(analyzer.extractReferences(shared, 3, 2).toString(), is("[A2, SUMMARY SHEET!B2]"));
+
+        WorkbookGraphBuilder builder = new WorkbookGraphBuilder("book");
+        builder.addSheet("Data");
+        builder.addSheet("Summary Sheet");
+        for (CellRef reference : analyzer.extractReferences(shared, 3, 5)) {
+            builder.addDependency("Data", "C5", reference);
+        }
+        builder.addCell("Data", "Total");
+        WorkbookGraph graph = builder.build();
+
+        int c5 = graph.cellOf("Data", "C5");
+        assertThat(graph.getDependencies().precedentsOf(c5).length, is(2));
+        assertThat(graph.keyOf(graph.cellOf("Summary Sheet", "B5")), is("Summary Sheet!B5"));
+        assertThat(graph.cellAt(0, 1, 5), is(graph.cellOf("Data", "$A$5")));
+        assertThat(graph.keyOf(graph.cellOf("Data", "Total")), is("Data!Total"));
+        assertThat(graph.columnOf(graph.cellOf("Data", "Total")), is(0));
+        assertThat(graph.resolve(null, "B5").length, is(1));
+        assertThat(Arrays.stream(graph.impactOf(graph.cellOf("Summary Sheet", "B5"))).mapToObj(graph::keyOf)
+                .toArray(), is(new Object[]{"Data!C5"}));
+    }
+}
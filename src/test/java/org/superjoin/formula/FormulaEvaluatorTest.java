@@ -0,0 +1,119 @@
+package org.superjoin.formula;
+
+import org.junit.jupiter.api.Test;
+import org.superjoin.component.FormulaAnalyzer;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class FormulaEvaluatorTest {
+
+    private final FormulaAnalyzer analyzer = new FormulaAnalyzer();
+
+    // Keyed by sheet, column, row so iteration is in column-then-row order
+    private final Map<String, Object> cells = new TreeMap<>();
+
+    private final FormulaEvaluator.CellValues values = new FormulaEvaluator.CellValues() {
+        @Override
+        public Object valueAt(String sheet, int column, int row) {
+            return cells.get(key(sheet, column, row));
+        }
+
+        @Override
+        public void forEachIn(String sheet, int firstColumn, int firstRow, int lastColumn, int lastRow,
+                              FormulaEvaluator.CellVisitor visitor) {
+            for (int column = firstColumn; column <= Math.min(lastColumn, 26); column++) {
+                for (int row = firstRow; row <= Math.min(lastRow, 100); row++) {
+                    Object value = cells.get(key(sheet, column, row));
+                    if (value != null) {
+                        visitor.visit(column, row, value);
+                    }
+                }
+            }
+        }
+    };
+
+    @Test
+    public void testArithmeticAndAggregates() {
+        put(null, "A1", "2");
+        put(null, "A2", "3");
+        put(null, "A3", "x");
+
+        assertThat(evaluate("=A1*A2+4^2/8"), is("8"));
+        assertThat(evaluate("=SUM(A1:A3)+COUNT(A1:A3)"), is("7"));
+        assertThat(evaluate("=AVERAGE(A1:A2)"), is("2.5"));
+        assertThat(evaluate("=A1&\"-\"&A3"), is("2-x"));
+        assertThat(evaluate("=A1/(A2-3)"), is("#DIV/0!"));
+        assertThat(evaluate("=IFERROR(A1/0, -1)"), is("-1"));
+    }
+
+    @Test
+    public void testNonFiniteNumbersAreNumErrors() {
+        put(null, "A1", "1e400");
+
+        assertThat(evaluate("=ROUND(A1, 2)"), is("#NUM!"));
+        assertThat(evaluate("=1E308*10"), is("#NUM!"));
+        assertThat(evaluate("=A1-1"), is("#NUM!"));
+        assertThat(evaluate("=IFERROR(ROUND(1E308*10), 0)"), is("0"));
+        assertThat(evaluate("=A1"), is("#NUM!"));
+        assertThat(evaluate("=ABS(A1)"), is("#NUM!"));
+        assertThat(evaluate("=SUM(A1)"), is("#NUM!"));
+
+        // Finite cells whose sum overflows
+        put(null, "B1", "1e308");
+        put(null, "B2", "1e308");
+        assertThat(evaluate("=SUM(B1:B2)"), is("#NUM!"));
+        assertThat(evaluate("=AVERAGE(B1:B2)"), is("#NUM!"));
+        assertThat(evaluate("=ABS(-B1*10)"), is("#NUM!"));
+    }
+
+    @Test
+    public void testConditionsAndLookups() {
+        put(null, "A1", "1");
+        put(null, "B1", "low");
+        put(null, "A2", "10");
+        put(null, "B2", "mid");
+        put("Data", "A1", "100");
+
+        assertThat(evaluate("=IF(A2>A1, \"up\", \"down\")"), is("up"));
+        assertThat(evaluate("=VLOOKUP(10, A1:B2, 2, FALSE)"), is("mid"));
+        assertThat(evaluate("=VLOOKUP(5, A1:B2, 2)"), is("low"));
+        assertThat(evaluate("=VLOOKUP(5, A1:B2, 2, FALSE)"), is("#N/A"));
+        assertThat(evaluate("=Data!A1+A1"), is("101"));
+    }
+
+    @Test
+    public void testUnsupportedFormulasAreNotEvaluated() {
+        assertThat(FormulaEvaluator.evaluate(analyzer.parse("=NOW()").getRoot(), 0, 0, values), is(Optional.empty()));
+    }
+
+    @Test
+    public void testGroupMembersEvaluateTheSharedTreeAtTheirOffset() {
+        put(null, "A5", "4");
+        put(null, "B5", "6");
+        SharedFormula shared = analyzer.analyzeShared("=A2+B2", 3, 2);
+
+        Optional<Object> value = FormulaEvaluator.evaluate(shared.getRoot(),
+                3 - shared.getOriginColumn(), 5 - shared.getOriginRow(), values);
+        assertThat(value.map(FormulaEvaluator::format), is(Optional.of("10")));
+    }
+
+    private String evaluate(String formula) {
+        return FormulaEvaluator.evaluate(analyzer.parse(formula).getRoot(), 0, 0, values)
+                .map(FormulaEvaluator::format)
+                .orElse(null);
+    }
+
+    private void put(String sheet, String address, String value) {
+        CellRef ref = CellRef.parse(sheet, address);
+        cells.put(key(sheet, ref.getColumn(), ref.getRow()), FormulaEvaluator.parseValue(value));
+    }
+
+    private static String key(String sheet, int column, int row) {
+        return String.format("%s!%03d%05d", sheet, column, row);
+    }
+}
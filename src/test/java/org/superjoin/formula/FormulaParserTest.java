@@ -0,0 +1,68 @@
+package org.superjoin.formula;
+
+import org.junit.jupiter.api.Test;
+import org.superjoin.component.FormulaAnalyzer;
+import org.superjoin.constants.FormulaType;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class FormulaParserTest {
+
+    private final FormulaAnalyzer analyzer = new FormulaAnalyzer();
+
+    @Test
+    public void testFunctionNamesAreNotReferences() {
+        ParsedFormula parsed = FormulaParser.parse("=LOG10(A1)+ATAN2(B2, 3)");
+
+        assertThat(parsed.isValid(), is(true));
+        assertThat(parsed.getFunctions(), contains("LOG10", "ATAN2"));
+        assertThat(analyzer.extractReferences("=LOG10(A1)+ATAN2(B2, 3)").toString(), is("[A1, B2]"));
+    }
+
+    @Test
+    public void testAnchorsAndSheetQualifiedReferences() {
+        ParsedFormula parsed = FormulaParser.parse("='My Sheet'!$B$2*Data!C3");
+
+        CellRef first = parsed.getReferences().get(0);
+        assertThat(first.getSheet(), is("My Sheet"));
+        assertThat(first.getAddress(), is("B2"));
+        assertThat(first.isAbsoluteColumn(), is(true));
+        assertThat(first.isAbsoluteRow(), is(true));
+        assertThat(analyzer.extractReferences("='My Sheet'!$B$2*Data!C3").toString(), is("[MY SHEET!B2, DATA!C3]"));
+    }
+
+    @Test
+    public void testRanges() {
+        ParsedFormula parsed = FormulaParser.parse("=SUM(A1:B2, C:C, 3:4)");
+
+        assertThat(parsed.getReferences(), is(empty()));
+        assertThat(parsed.getRanges().size(), is(3));
+        assertThat(parsed.getRanges().get(1).isBounded(), is(false));
+        assertThat(parsed.getRanges().get(2).contains(9, 4), is(true));
+        assertThat(analyzer.extractReferences("=SUM(A1:B2, C:C, 3:4)"), is(empty()));
+        assertThat(analyzer.extractRanges("=SUM(A1:B2, C:C, 3:4)").get(1).getAddress(), is("C:C"));
+        assertThat(analyzer.extractRanges("=SUM(C:C)").get(0).toBounded().getLastRow(), is(CellRef.MAX_ROW));
+    }
+
+    @Test
+    public void testFormulaType() {
+        assertThat(FormulaParser.parse("=IF(A1>0, SUM(B1:B3), 0)").getFormulaType(), is(FormulaType.AGGREGATION));
+        assertThat(FormulaParser.parse("=VLOOKUP(A1, Data!A:C, 2, FALSE)").getFormulaType(), is(FormulaType.LOOKUP));
+        assertThat(FormulaParser.parse("=IF(A1>0, \"SUM\", \"-\")").getFormulaType(), is(FormulaType.CONDITIONAL));
+        assertThat(FormulaParser.parse("=A1-B1").getFormulaType(), is(FormulaType.ARITHMETIC));
+        assertThat(FormulaParser.parse("=TODAY()").getFormulaType(), is(FormulaType.OTHER));
+        assertThat(FormulaParser.parse("").getFormulaType(), is(FormulaType.NONE));
+    }
+
+    @Test
+    public void testMalformedFormulaRecoversReferences() {
+        ParsedFormula parsed = FormulaParser.parse("=SUM(A1,,B2");
+
+        assertThat(parsed.getRoot(), is(nullValue()));
+        assertThat(analyzer.extractReferences("=SUM(A1,,B2").toString(), is("[A1, B2]"));
+    }
+}
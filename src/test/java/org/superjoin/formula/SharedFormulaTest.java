@@ -0,0 +1,48 @@
+package org.superjoin.formula;
+
+import org.junit.jupiter.api.Test;
+import org.superjoin.component.FormulaAnalyzer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class SharedFormulaTest {
+
+    private final FormulaAnalyzer analyzer = new FormulaAnalyzer();
+
+    @Test
+    public void testDraggedFormulasShareOneGroup() {
+        // =A2*$E$1+SUM(B$1:B2) filled down column C from row 2
+        SharedFormula second = analyzer.analyzeShared("=A2*$E$1+SUM(B$1:B2)", 3, 2);
+        SharedFormula tenth = analyzer.analyzeShared("=A10*$E$1+SUM(B$1:B10)", 3, 10);
+
+        assertThat(FormulaR1C1.toR1C1("=A2*$E$1+SUM(B$1:B2)", 3, 2), is("=RC[-2]*R1C5+SUM(R1C[-1]:RC[-1])"));
+        assertThat(tenth, sameInstance(second));
+        assertThat(tenth.groupId("Data"), is(second.groupId("Data")));
+        assertThat(tenth.groupId("Other"), not(second.groupId("Data")));
+    }
+
+    @Test
+    public void testMembersAreReconstructedFromTheAnchor() {
+        SharedFormula shared = analyzer.analyzeShared("=C5-C4", 3, 5);
+
+        // The row above must stay on the sheet, so the anchor is A2 reading A2-A1
+        assertThat(shared.getAnchorColumn(), is(1));
+        assertThat(shared.getAnchorRow(), is(2));
+        assertThat(shared.getAnchorFormula(), is("=A2-A1"));
+        assertThat(shared.formulaAt(4, 9), is("=D9-D8"));
+        assertThat(analyzer.extractReferences(shared, 4, 9).toString(), is("[D9, D8]"));
+    }
+
+    @Test
+    public void testAnchoredAndOpenRangesMoveOnlyTheirRelativeParts() {
+        SharedFormula shared = analyzer.analyzeShared("=SUM(Data!$A$1:A3)+COUNT(B:B)", 2, 3);
+
+        assertThat(shared.formulaAt(2, 7), is("=SUM(Data!$A$1:A7)+COUNT(B:B)"));
+        assertThat(shared.formulaAt(4, 7), is("=SUM(Data!$A$1:C7)+COUNT(D:D)"));
+        assertThat(analyzer.extractRanges(shared, 2, 7).get(0).getAddress(), is("A1:A7"));
+        assertThat(FormulaR1C1.shift("=A1+B2", 0, -1), is("=#REF!+B1"));
+    }
+}
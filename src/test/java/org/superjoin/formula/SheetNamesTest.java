@@ -0,0 +1,29 @@
+package org.superjoin.formula;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class SheetNamesTest {
+
+    @Test
+    public void testKeysIgnoreQuotesAndCaseOnly() {
+        assertThat(SheetNames.key("'продажи'"), is(SheetNames.key("Продажи")));
+        assertThat(SheetNames.key("'It''s'"), is("IT'S"));
+        assertThat(SheetNames.key("Q1-2024"), is(not(SheetNames.key("Q1 2024"))));
+        assertThat(SheetNames.key("売上"), is("売上"));
+    }
+
+    @Test
+    public void testReferencesQuoteNamesThatNeedIt() {
+        assertThat(SheetNames.reference("Sheet1", "B1"), is("Sheet1!B1"));
+        assertThat(SheetNames.reference("売上", "B1"), is("売上!B1"));
+        assertThat(SheetNames.reference("Sheet 2", "B1"), is("'Sheet 2'!B1"));
+        assertThat(SheetNames.reference("It's", "B1"), is("'It''s'!B1"));
+        assertThat(SheetNames.reference("2024", "B1"), is("'2024'!B1"));
+        // Would read back as a cell address
+        assertThat(SheetNames.reference("AB12", "B1"), is("'AB12'!B1"));
+    }
+}
@@ -0,0 +1,128 @@
+package org.superjoin.service;
+
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.superjoin.component.SharedStrings;
+import org.superjoin.config.ExcelProperties;
+import org.superjoin.dto.CellTable;
+import org.superjoin.dto.SheetData;
+import org.superjoin.dto.SpreadsheetData;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ExcelServiceTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testStreamedWorkbookKeepsFormulasAndCachedResults() throws Exception {
+        Path file = directory.resolve("sales.xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(file.toFile())) {
+            XSSFSheet sheet = workbook.createSheet("Sales");
+            XSSFRow header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Region");
+            header.createCell(1).setCellValue("Amount");
+            header.createCell(2).setCellValue("Double");
+            String[] regions = {"North", "South", "East"};
+            for (int i = 0; i < regions.length; i++) {
+                XSSFRow row = sheet.createRow(i + 1);
+                row.createCell(0).setCellValue(regions[i]);
+                row.createCell(1).setCellValue(100 * (i + 1));
+                row.createCell(2).setCellFormula("B" + (i + 2) + "*2");
+            }
+            XSSFRow total = sheet.createRow(4);
+            total.createCell(0).setCellFormula("\"To\"&\"tal\"");
+            total.createCell(1).setCellFormula("SUM(B2:B4)");
+            total.createCell(2).setCellValue(true);
+            workbook.createSheet("Empty");
+            workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            workbook.write(out);
+        }
+
+        ExcelProperties properties = new ExcelProperties();
+        // Spill all but one shared string
+        properties.setSharedStringsInMemory(1);
+        properties.setSharedStringsCacheSize(2);
+        properties.setSpillDirectory(directory.toString());
+        ExcelService service = new ExcelService(properties);
+        assertThat(service.listSheets(file.toString()), contains("Sales", "Empty"));
+
+        SpreadsheetData data = service.readExcelFile(file.toString());
+        assertThat(data.getId(), is("sales.xlsx"));
+        assertThat(data.getSheets().size(), is(2));
+        CellTable cells = data.getSheets().get(0).getTable();
+        assertThat(cells.size(), is(15));
+        assertThat(cells.value(3), is("North"));
+        assertThat(cells.value(6), is("South"));
+        assertThat(cells.value(9), is("East"));
+
+        // Row 2: the cached result of =B2*2 is stored as the value, typed
+        assertThat(cells.formula(5), is("=B2*2"));
+        assertThat(cells.type(5), is(CellTable.NUMBER));
+        assertThat(cells.number(5), is(200.0));
+
+        assertThat(cells.formula(12), is("=\"To\"&\"tal\""));
+        assertThat(cells.value(12), is("Total"));
+        assertThat(cells.formula(13), is("=SUM(B2:B4)"));
+        assertThat(cells.number(13), is(600.0));
+        assertThat(cells.value(14), is("TRUE"));
+        assertThat(cells.address(14), is("C5"));
+
+        // The workbook model reads the same cells
+        properties.setStreaming(false);
+        CellTable loaded = new ExcelService(properties).readExcelFile(file.toString()).getSheets().get(0).getTable();
+        assertThat(loaded.size(), is(cells.size()));
+        for (int i = 0; i < cells.size(); i++) {
+            assertThat(loaded.address(i), is(cells.address(i)));
+            assertThat(loaded.value(i), is(cells.value(i)));
+            assertThat(loaded.formula(i), is(cells.formula(i)));
+        }
+    }
+
+    @Test
+    public void testSharedFormulasAndInlineStringsAreExpanded() throws Exception {
+        String xml = "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>"
+                + "<row r=\"1\"><c r=\"A1\" t=\"inlineStr\"><is><r><t>Unit </t></r><r><t>price</t></r>"
+                + "<rPh><t>skip</t></rPh></is></c><c t=\"s\"><v>1</v></c></row>"
+                + "<row r=\"2\"><c r=\"A2\"><v>3</v></c><c r=\"B2\"><f t=\"shared\" ref=\"B2:B3\" si=\"0\">A2*$A$2</f><v>9</v></c></row>"
+                + "<row r=\"3\"><c r=\"A3\" s=\"1\"/><c r=\"B3\"><f t=\"shared\" si=\"0\"/><v>0</v></c>"
+                + "<c r=\"C3\" t=\"e\"><f>1/0</f><v>#DIV/0!</v></c>"
+                + "<c r=\"D3\" t=\"inlineStr\"><is><t>foo</t></is></c></row>"
+                + "</sheetData></worksheet>";
+        ExcelService service = new ExcelService(new ExcelProperties());
+        try (SharedStrings strings = new SharedStrings(0, 1, directory.toFile())) {
+            strings.add("Region");
+            strings.add("Quantity");
+            SheetData sheet = service.readSheet("Prices", new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), strings);
+            CellTable cells = sheet.getTable();
+
+            assertThat(cells.size(), is(7));
+            assertThat(cells.value(0), is("Unit price"));
+            assertThat(cells.address(1), is("B1"));
+            assertThat(cells.value(1), is("Quantity"));
+            assertThat(cells.formula(2), nullValue());
+            assertThat(cells.formula(3), is("=A2*$A$2"));
+            // The formatted-only A3 is skipped; B3 takes the master formula moved down a row
+            assertThat(cells.address(4), is("B3"));
+            assertThat(cells.formula(4), is("=A3*$A$2"));
+            assertThat(cells.number(4), is(0.0));
+            assertThat(cells.value(5), is("#DIV/0!"));
+            assertThat(cells.formula(5), is("=1/0"));
+            // An inline string after a valued cell starts from empty text
+            assertThat(cells.value(6), is("foo"));
+        }
+    }
+}
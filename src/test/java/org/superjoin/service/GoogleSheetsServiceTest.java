@@ -0,0 +1,207 @@
+package org.superjoin.service;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.model.CellData;
+import com.google.api.services.sheets.v4.model.ErrorValue;
+import com.google.api.services.sheets.v4.model.ExtendedValue;
+import com.google.api.services.sheets.v4.model.GridData;
+import com.google.api.services.sheets.v4.model.GridProperties;
+import com.google.api.services.sheets.v4.model.RowData;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.Spreadsheet;
+import org.junit.jupiter.api.Test;
+import org.superjoin.config.SheetsProperties;
+import org.superjoin.dto.CellTable;
+import org.superjoin.dto.SheetData;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class GoogleSheetsServiceTest {
+
+    @Test
+    public void testFormulaCellsTakeTheirEffectiveValue() {
+        CellData number = new CellData()
+                .setUserEnteredValue(new ExtendedValue().setNumberValue(1200.0))
+                .setEffectiveValue(new ExtendedValue().setNumberValue(1200.0))
+                .setFormattedValue("$1,200.00");
+        CellData sum = new CellData()
+                .setUserEnteredValue(new ExtendedValue().setFormulaValue("=B2*2"))
+                .setEffectiveValue(new ExtendedValue().setNumberValue(2400.0))
+                .setFormattedValue("$2,400.00");
+        CellData text = new CellData()
+                .setUserEnteredValue(new ExtendedValue().setFormulaValue("=\"Q\"&1"))
+                .setEffectiveValue(new ExtendedValue().setStringValue("Q1"))
+                .setFormattedValue("Q1");
+        CellData check = new CellData()
+                .setUserEnteredValue(new ExtendedValue().setFormulaValue("=B2>1000"))
+                .setEffectiveValue(new ExtendedValue().setBoolValue(true));
+        CellData error = new CellData()
+                .setUserEnteredValue(new ExtendedValue().setFormulaValue("=1/0"))
+                .setEffectiveValue(new ExtendedValue().setErrorValue(new ErrorValue().setType("DIVIDE_BY_ZERO")))
+                .setFormattedValue("#DIV/0!");
+        CellData pending = new CellData()
+                .setUserEnteredValue(new ExtendedValue().setFormulaValue("=NOW()"));
+
+        // A range read starting at B2
+        GridData grid = new GridData().setStartRow(1).setStartColumn(1)
+                .setRowData(List.of(new RowData().setValues(List.of(number, sum, text, check, error, pending))));
+        Sheet sheet = new Sheet()
+                .setProperties(new SheetProperties().setTitle("Sales").setSheetId(7))
+                .setData(List.of(grid));
+
+        SheetData data = GoogleSheetsService.parseSheet(sheet);
+        CellTable cells = data.getTable();
+        assertThat(data.getId(), is("7"));
+        assertThat(cells.size(), is(6));
+
+        assertThat(cells.address(0), is("B2"));
+        assertThat(cells.value(0), is("$1,200.00"));
+        assertThat(cells.address(1), is("C2"));
+        assertThat(cells.formula(1), is("=B2*2"));
+        assertThat(cells.type(1), is(CellTable.NUMBER));
+        assertThat(cells.number(1), is(2400.0));
+        assertThat(cells.value(1), is("$2,400.00"));
+        assertThat(cells.value(2), is("Q1"));
+        assertThat(cells.value(3), is("TRUE"));
+        assertThat(cells.value(4), is("#DIV/0!"));
+        assertThat(cells.formula(5), is("=NOW()"));
+        assertThat(cells.value(5), nullValue());
+    }
+
+    @Test
+    public void testSheetsAreReadInFieldMaskedRowWindows() {
+        Set<String> ranges = ConcurrentHashMap.newKeySet();
+        Set<String> fields = ConcurrentHashMap.newKeySet();
+        MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() throws IOException {
+                        GenericUrl request = new GenericUrl(url);
+                        String range = (String) request.getFirst("ranges");
+                        ranges.add(range);
+                        fields.add((String) request.getFirst("fields"));
+                        return new MockLowLevelHttpResponse()
+                                .setContentType("application/json")
+                                .setContent(GsonFactory.getDefaultInstance().toString(window(range)));
+                    }
+                };
+            }
+        };
+        SheetsProperties properties = new SheetsProperties();
+        properties.getFetch().setWindowRows(2);
+        Sheets sheets = new Sheets.Builder(transport, GsonFactory.getDefaultInstance(), null)
+                .setApplicationName("test").build();
+        GoogleSheetsService service = new GoogleSheetsService(sheets, properties);
+
+        SheetProperties sales = new SheetProperties().setTitle("Sales").setSheetId(3)
+                .setGridProperties(new GridProperties().setRowCount(5).setColumnCount(2));
+        List<Integer> windowSizes = Collections.synchronizedList(new ArrayList<>());
+        service.readSheet("spreadsheet", sales, window -> windowSizes.add(window.size()));
+        CellTable cells = service.readSheet("spreadsheet", sales).getTable();
+        service.shutdown();
+
+        assertThat(ranges, containsInAnyOrder("'Sales'!1:2", "'Sales'!3:4", "'Sales'!5:5"));
+        assertThat(fields.size(), is(1));
+        assertThat(fields.iterator().next(), is("sheets(properties(sheetId,title),"
+                + "data(startRow,startColumn,rowData(values(userEnteredValue,effectiveValue,formattedValue))))"));
+        assertThat(windowSizes, contains(4, 4, 2));
+
+        // Windows are appended in row order at their real rows
+        assertThat(cells.size(), is(10));
+        for (int row = 1; row <= 5; row++) {
+            assertThat(cells.address(2 * row - 2), is("A" + row));
+            assertThat(cells.number(2 * row - 2), is((double) row));
+            assertThat(cells.formula(2 * row - 1), is("=A" + row + "*2"));
+            assertThat(cells.number(2 * row - 1), is(row * 2.0));
+        }
+    }
+
+    @Test
+    public void testASlowConsumerHoldsBackTheWindowsFetchedAhead() {
+        AtomicInteger requested = new AtomicInteger();
+        AtomicInteger consumed = new AtomicInteger();
+        AtomicInteger mostAhead = new AtomicInteger();
+        MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() throws IOException {
+                        mostAhead.accumulateAndGet(requested.incrementAndGet() - consumed.get(), Math::max);
+                        String range = (String) new GenericUrl(url).getFirst("ranges");
+                        return new MockLowLevelHttpResponse()
+                                .setContentType("application/json")
+                                .setContent(GsonFactory.getDefaultInstance().toString(window(range)));
+                    }
+                };
+            }
+        };
+        SheetsProperties properties = new SheetsProperties();
+        properties.getFetch().setWindowRows(1);
+        properties.getFetch().setConcurrency(2);
+        Sheets sheets = new Sheets.Builder(transport, GsonFactory.getDefaultInstance(), null)
+                .setApplicationName("test").build();
+        GoogleSheetsService service = new GoogleSheetsService(sheets, properties);
+
+        SheetProperties sales = new SheetProperties().setTitle("Sales").setSheetId(3)
+                .setGridProperties(new GridProperties().setRowCount(8).setColumnCount(2));
+        try {
+            service.readSheet("spreadsheet", sales, window -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                consumed.incrementAndGet();
+            });
+        } finally {
+            service.shutdown();
+        }
+
+        // Every window is read, yet never more than two ahead of the consumer
+        assertThat(requested.get(), is(8));
+        assertThat(consumed.get(), is(8));
+        assertThat(mostAhead.get(), lessThanOrEqualTo(2));
+    }
+
+    private static Spreadsheet window(String range) {
+        String[] rows = range.substring(range.indexOf('!') + 1).split(":");
+        int first = Integer.parseInt(rows[0]);
+        int last = Integer.parseInt(rows[1]);
+        List<RowData> data = new ArrayList<>();
+        for (int row = first; row <= last; row++) {
+            data.add(new RowData().setValues(List.of(
+                    new CellData().setUserEnteredValue(new ExtendedValue().setNumberValue((double) row)),
+                    new CellData()
+                            .setUserEnteredValue(new ExtendedValue().setFormulaValue("=A" + row + "*2"))
+                            .setEffectiveValue(new ExtendedValue().setNumberValue(row * 2.0)))));
+        }
+        Sheet sheet = new Sheet()
+                .setProperties(new SheetProperties().setTitle("Sales").setSheetId(3))
+                .setData(List.of(new GridData().setStartRow(first - 1).setRowData(data)));
+        return new Spreadsheet().setSheets(List.of(sheet));
+    }
+}
@@ -0,0 +1,148 @@
+package org.superjoin.service;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.model.CellData;
+import com.google.api.services.sheets.v4.model.ExtendedValue;
+import com.google.api.services.sheets.v4.model.GridData;
+import com.google.api.services.sheets.v4.model.RowData;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.Spreadsheet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.superjoin.config.PollingProperties;
+import org.superjoin.config.SheetsProperties;
+import org.superjoin.events.SpreadsheetChangeEvent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class SpreadsheetChangePollerTest {
+
+    // Row -> cells of the single sheet, as the API currently returns them
+    private final Map<Integer, List<CellData>> rows = new TreeMap<>();
+    private final List<SpreadsheetChangeEvent> events = new ArrayList<>();
+
+    private final GoogleSheetsService sheetsService = new GoogleSheetsService(sheets(), new SheetsProperties());
+    private final PollingProperties properties = new PollingProperties();
+    private final SpreadsheetChangePoller poller = new SpreadsheetChangePoller(sheetsService,
+            event -> events.add((SpreadsheetChangeEvent) event), properties);
+
+    @AfterEach
+    public void shutdown() {
+        poller.shutdown();
+        sheetsService.shutdown();
+    }
+
+    @Test
+    public void testChangedCellsArePublishedWithOldAndNewValues() {
+        // Long intervals, so only pollNow polls
+        properties.setMinIntervalSeconds(60);
+        properties.setMaxIntervalSeconds(600);
+        rows.put(1, List.of(text("Revenue"), number(100)));
+        rows.put(2, List.of(text("Cost"), formula("=B1*0.5", 50)));
+        poller.track("book", sheetsService.readSpreadsheet("book"));
+
+        assertThat(poller.pollNow("book"), is(0));
+        assertThat(poller.getIntervalMillis("book", "5"), is(90_000L));
+
+        rows.put(1, List.of(text("Revenue"), number(200)));
+        rows.put(2, List.of(new CellData(), formula("=B1*0.5", 100)));
+        rows.put(3, List.of(text("Margin")));
+        assertThat(poller.pollNow("book"), is(4));
+
+        SpreadsheetChangeEvent revenue = events.get(0);
+        assertThat(revenue.getSpreadsheetId(), is("book"));
+        assertThat(revenue.getSheetName(), is("Sales"));
+        assertThat(revenue.getCellAddress(), is("B1"));
+        assertThat(revenue.getOldValue(), is("100.0"));
+        assertThat(revenue.getNewValue(), is("200.0"));
+        assertThat(revenue.getFormula(), nullValue());
+
+        // A2 was cleared
+        assertThat(events.get(1).getCellAddress(), is("A2"));
+        assertThat(events.get(1).getOldValue(), is("Cost"));
+        assertThat(events.get(1).getNewValue(), nullValue());
+
+        assertThat(events.get(2).getCellAddress(), is("B2"));
+        assertThat(events.get(2).getNewValue(), is("100.0"));
+        assertThat(events.get(2).getFormula(), is("=B1*0.5"));
+
+        assertThat(events.get(3).getCellAddress(), is("A3"));
+        assertThat(events.get(3).getOldValue(), nullValue());
+
+        // Edits pull the interval back down to the minimum
+        assertThat(poller.getIntervalMillis("book", "5"), is(60_000L));
+        assertThat(poller.pollNow("book"), is(0));
+
+        poller.untrack("book");
+        assertThat(poller.isTracked("book"), is(false));
+    }
+
+    @Test
+    public void testEditsBetweenStringsWithEqualHashCodesArePublished() {
+        properties.setMinIntervalSeconds(60);
+        properties.setMaxIntervalSeconds(600);
+        rows.put(1, List.of(text("Aa")));
+        poller.track("book", sheetsService.readSpreadsheet("book"));
+
+        // "Aa" and "BB" share a String.hashCode()
+        rows.put(1, List.of(text("BB")));
+        assertThat(poller.pollNow("book"), is(1));
+        assertThat(events.get(0).getOldValue(), is("Aa"));
+        assertThat(events.get(0).getNewValue(), is("BB"));
+    }
+
+    private static CellData text(String value) {
+        return new CellData().setUserEnteredValue(new ExtendedValue().setStringValue(value)).setFormattedValue(value);
+    }
+
+    private static CellData number(double value) {
+        return new CellData().setUserEnteredValue(new ExtendedValue().setNumberValue(value));
+    }
+
+    private static CellData formula(String formula, double value) {
+        return new CellData().setUserEnteredValue(new ExtendedValue().setFormulaValue(formula))
+                .setEffectiveValue(new ExtendedValue().setNumberValue(value));
+    }
+
+    private Sheets sheets() {
+        MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() throws IOException {
+                        SheetProperties sales = new SheetProperties().setTitle("Sales").setSheetId(5);
+                        Sheet sheet = new Sheet().setProperties(sales);
+                        if (!"sheets.properties".equals(new GenericUrl(url).getFirst("fields"))) {
+                            List<RowData> data = new ArrayList<>();
+                            for (int row = 1; row <= rows.keySet().stream().max(Integer::compare).orElse(0); row++) {
+                                data.add(new RowData().setValues(rows.getOrDefault(row, List.of())));
+                            }
+                            sheet.setData(List.of(new GridData().setRowData(data)));
+                        }
+                        return new MockLowLevelHttpResponse()
+                                .setContentType("application/json")
+                                .setContent(GsonFactory.getDefaultInstance().toString(new Spreadsheet().setSheets(List.of(sheet))));
+                    }
+                };
+            }
+        };
+        return new Sheets.Builder(transport, GsonFactory.getDefaultInstance(), null).setApplicationName("test").build();
+    }
+}
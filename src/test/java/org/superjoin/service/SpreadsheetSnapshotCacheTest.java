@@ -0,0 +1,147 @@
+package org.superjoin.service;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.model.CellData;
+import com.google.api.services.sheets.v4.model.ExtendedValue;
+import com.google.api.services.sheets.v4.model.GridData;
+import com.google.api.services.sheets.v4.model.RowData;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.Spreadsheet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.superjoin.Joiners;
+import org.superjoin.component.SpreadsheetLocks;
+import org.superjoin.config.SheetsProperties;
+import org.superjoin.dto.SpreadsheetSnapshot;
+import org.superjoin.events.SpreadsheetChangeEvent;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class SpreadsheetSnapshotCacheTest {
+
+    private final AtomicInteger listRequests = new AtomicInteger();
+    private volatile double amount = 100;
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    private final SheetsProperties properties = new SheetsProperties();
+    private final GoogleSheetsService sheetsService = new GoogleSheetsService(sheets(), properties);
+    private final SpreadsheetSnapshotCache cache = new SpreadsheetSnapshotCache(sheetsService, properties, new SpreadsheetLocks());
+
+    @AfterEach
+    public void shutdown() {
+        sheetsService.shutdown();
+    }
+
+    @Test
+    public void testUnchangedContentSkipsTheBuild() {
+        properties.getCache().setFreshSeconds(0);
+        AtomicInteger builds = new AtomicInteger();
+
+        SpreadsheetSnapshot first = cache.get("book");
+        assertThat(cache.buildIfChanged(first, data -> builds.incrementAndGet()), is(true));
+
+        // Re-read after the fresh window: same content, same tables, no build
+        SpreadsheetSnapshot second = cache.get("book");
+        assertThat(listRequests.get(), is(2));
+        assertThat(second.getData(), sameInstance(first.getData()));
+        assertThat(cache.buildIfChanged(second, data -> builds.incrementAndGet()), is(false));
+
+        amount = 250;
+        SpreadsheetSnapshot changed = cache.get("book");
+        assertThat(changed.getContentHash(), not(first.getContentHash()));
+        assertThat(changed.getData().getSheets().get(0).getTable().number(1), is(250.0));
+        assertThat(cache.buildIfChanged(changed, data -> builds.incrementAndGet()), is(true));
+        assertThat(builds.get(), is(2));
+
+        // A change event drops the built hash, so the next build runs even for the same content
+        cache.onSpreadsheetChange(new SpreadsheetChangeEvent(this, "book", "B1", "250", "300", null, "Sales"));
+        assertThat(cache.getWeight(), is(0L));
+        assertThat(cache.buildIfChanged(cache.get("book"), data -> builds.incrementAndGet()), is(true));
+    }
+
+    @Test
+    public void testFreshSnapshotsAndConcurrentLoadsShareOneRead() throws Exception {
+        release = new CountDownLatch(1);
+        FutureTask<SpreadsheetSnapshot> first = new FutureTask<>(() -> cache.get("book"));
+        FutureTask<SpreadsheetSnapshot> second = new FutureTask<>(() -> cache.get("book"));
+        Thread firstCaller = new Thread(first);
+        Thread secondCaller = new Thread(second);
+        firstCaller.start();
+        secondCaller.start();
+        try {
+            Joiners.awaitJoined(SpreadsheetSnapshotCache.class, firstCaller, secondCaller);
+        } finally {
+            release.countDown();
+        }
+        assertThat(first.get().getData(), sameInstance(second.get().getData()));
+        assertThat(listRequests.get(), is(1));
+
+        // Within the fresh window the API is not called at all
+        cache.get("book");
+        assertThat(listRequests.get(), is(1));
+        assertThat(cache.getWeight() > 0, is(true));
+    }
+
+    @Test
+    public void testSnapshotsHeavierThanTheCacheAreNotKept() {
+        properties.getCache().setMaxWeightMegabytes(0);
+        cache.get("book");
+        cache.get("book");
+        assertThat(listRequests.get(), is(2));
+        assertThat(cache.getWeight(), is(0L));
+    }
+
+    private Sheets sheets() {
+        MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() throws IOException {
+                        Spreadsheet response;
+                        if ("sheets.properties".equals(new GenericUrl(url).getFirst("fields"))) {
+                            listRequests.incrementAndGet();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                            response = new Spreadsheet().setSheets(List.of(new Sheet().setProperties(sales())));
+                        } else {
+                            response = new Spreadsheet().setSheets(List.of(new Sheet().setProperties(sales())
+                                    .setData(List.of(new GridData().setRowData(List.of(new RowData().setValues(List.of(
+                                            new CellData().setUserEnteredValue(new ExtendedValue().setStringValue("Revenue"))
+                                                    .setFormattedValue("Revenue"),
+                                            new CellData().setUserEnteredValue(new ExtendedValue().setNumberValue(amount))))))))));
+                        }
+                        return new MockLowLevelHttpResponse()
+                                .setContentType("application/json")
+                                .setContent(GsonFactory.getDefaultInstance().toString(response));
+                    }
+                };
+            }
+        };
+        return new Sheets.Builder(transport, GsonFactory.getDefaultInstance(), null).setApplicationName("test").build();
+    }
+
+    private static SheetProperties sales() {
+        return new SheetProperties().setTitle("Sales").setSheetId(0);
+    }
+}